@@ -0,0 +1,344 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.domain;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+
+/**
+ * Caches the GPX documents of the {@link RouteCatalog} persistently.
+ * <p/>
+ * Each document is kept in a file of the cache directory next to a properties file with its URL,
+ * the <tt>ETag</tt> and <tt>Last-Modified</tt> headers of its response and the time it was validated
+ * last. A document is fresh for a while after its validation; after that it has to be revalidated
+ * with a conditional request which transfers the document only if it changed on the server.
+ * The cache is safe for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class CatalogCache {
+    private static Logger log = Logger.getLogger(CatalogCache.class.getName());
+    private static final Preferences preferences = Preferences.userNodeForPackage(CatalogCache.class);
+    private static final String CATALOG_CACHE_DIRECTORY_PREFERENCE = "catalogCacheDirectory";
+    private static final String CATALOG_CACHE_FRESHNESS_PREFERENCE = "catalogCacheFreshness";
+
+    public static final long DEFAULT_FRESHNESS = 5 * 60 * 1000;
+
+    private static final String DOCUMENT_SUFFIX = ".gpx";
+    private static final String PROPERTIES_SUFFIX = ".properties";
+    private static final String URL_PROPERTY = "url";
+    private static final String ETAG_PROPERTY = "etag";
+    private static final String LAST_MODIFIED_PROPERTY = "lastModified";
+    private static final String CHARSET_PROPERTY = "charset";
+    private static final String VALIDATED_PROPERTY = "validated";
+
+    private static CatalogCache defaultCache;
+
+    private final File directory;
+    private final long freshness;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * @param directory the directory to keep the documents in
+     * @param freshness the time in milliseconds after a validation for which a document is fresh
+     */
+    public CatalogCache(File directory, long freshness) {
+        this.directory = directory;
+        this.freshness = freshness;
+    }
+
+    /**
+     * Returns the cache shared by the catalogs, which is configured by preferences
+     * and kept in <tt>.routeconverter/catalog</tt> in the home directory.
+     */
+    public static synchronized CatalogCache getDefault() {
+        if (defaultCache == null) {
+            String defaultDirectoryName = new File(new File(System.getProperty("user.home"), ".routeconverter"), "catalog").getAbsolutePath();
+            defaultCache = new CatalogCache(new File(preferences.get(CATALOG_CACHE_DIRECTORY_PREFERENCE, defaultDirectoryName)),
+                    preferences.getLong(CATALOG_CACHE_FRESHNESS_PREFERENCE, DEFAULT_FRESHNESS));
+        }
+        return defaultCache;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    static String createName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder buffer = new StringBuilder();
+            for (byte b : digest)
+                buffer.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            return buffer.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot create name for " + url + ": " + e.getMessage(), e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Cannot create name for " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    private File getDocumentFile(String url) {
+        return new File(directory, createName(url) + DOCUMENT_SUFFIX);
+    }
+
+    private File getPropertiesFile(String url) {
+        return new File(directory, createName(url) + PROPERTIES_SUFFIX);
+    }
+
+    /**
+     * Returns the entry for the given URL, which may be stale.
+     *
+     * @param url the URL of the document
+     * @return the entry or null if the document is not cached
+     */
+    public synchronized Entry get(String url) {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            entry = load(url);
+            if (entry != null)
+                entries.put(url, entry);
+        }
+        return entry;
+    }
+
+    private Entry load(String url) {
+        File document = getDocumentFile(url);
+        File file = getPropertiesFile(url);
+        if (!document.exists() || !file.exists())
+            return null;
+
+        try {
+            Properties properties = loadProperties(file);
+            // guard against the unlikely collision of names
+            if (!url.equals(properties.getProperty(URL_PROPERTY)))
+                return null;
+            return new Entry(url, document, properties.getProperty(ETAG_PROPERTY), properties.getProperty(LAST_MODIFIED_PROPERTY),
+                    properties.getProperty(CHARSET_PROPERTY), Long.parseLong(properties.getProperty(VALIDATED_PROPERTY)));
+        } catch (IOException e) {
+            log.warning("Cannot read catalog cache entry " + file + ": " + e.getMessage());
+        } catch (NumberFormatException e) {
+            log.warning("Cannot read catalog cache entry " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private Properties loadProperties(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the entries of all documents in the cache, which may be stale.
+     *
+     * @return the entries of the cached documents
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<Entry>();
+        File[] files = directory.listFiles();
+        if (files == null)
+            return result;
+        for (File file : files) {
+            if (!file.getName().endsWith(PROPERTIES_SUFFIX))
+                continue;
+            try {
+                String url = loadProperties(file).getProperty(URL_PROPERTY);
+                Entry entry = url != null ? get(url) : null;
+                if (entry != null)
+                    result.add(entry);
+            } catch (IOException e) {
+                log.warning("Cannot read catalog cache entry " + file + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void store(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(URL_PROPERTY, entry.getUrl());
+        if (entry.getETag() != null)
+            properties.setProperty(ETAG_PROPERTY, entry.getETag());
+        if (entry.getLastModified() != null)
+            properties.setProperty(LAST_MODIFIED_PROPERTY, entry.getLastModified());
+        if (entry.getCharSet() != null)
+            properties.setProperty(CHARSET_PROPERTY, entry.getCharSet());
+        properties.setProperty(VALIDATED_PROPERTY, Long.toString(entry.getValidated()));
+        OutputStream out = new FileOutputStream(getPropertiesFile(entry.getUrl()));
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns if the given entry was validated recently enough to be used without a request.
+     */
+    public boolean isFresh(Entry entry) {
+        return currentTimeMillis() - entry.getValidated() < freshness;
+    }
+
+    /**
+     * Copies the document from the given stream into the cache.
+     *
+     * @param url          the URL of the document
+     * @param eTag         the <tt>ETag</tt> header of the response or null
+     * @param lastModified the <tt>Last-Modified</tt> header of the response or null
+     * @param charSet      the charset of the response or null
+     * @param in           the stream to read the document from
+     * @return the entry of the document
+     * @throws IOException if the document cannot be written to the cache directory
+     */
+    public Entry put(String url, String eTag, String lastModified, String charSet, InputStream in) throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Cannot create catalog cache directory " + directory);
+
+        // copy to a temporary file first since the transfer may fail halfway
+        File temp = File.createTempFile(createName(url), ".tmp", directory);
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+            } finally {
+                out.close();
+            }
+
+            synchronized (this) {
+                File document = getDocumentFile(url);
+                if (!temp.renameTo(document)) {
+                    if (document.exists() && !document.delete() || !temp.renameTo(document))
+                        throw new IOException("Cannot rename " + temp + " to " + document);
+                }
+                Entry entry = new Entry(url, document, eTag, lastModified, charSet, currentTimeMillis());
+                store(entry);
+                entries.put(url, entry);
+                return entry;
+            }
+        } finally {
+            if (temp.exists() && !temp.delete())
+                log.warning("Cannot delete temporary file " + temp);
+        }
+    }
+
+    /**
+     * Marks the document of the given entry as validated now, which a response of the
+     * server that the document is not modified proves.
+     *
+     * @param entry the entry of the document
+     * @return the validated entry of the document
+     * @throws IOException if the entry cannot be written to the cache directory
+     */
+    public synchronized Entry validate(Entry entry) throws IOException {
+        Entry validated = new Entry(entry.getUrl(), entry.getFile(), entry.getETag(), entry.getLastModified(),
+                entry.getCharSet(), currentTimeMillis());
+        store(validated);
+        entries.put(validated.getUrl(), validated);
+        return validated;
+    }
+
+    /**
+     * Removes the document for the given URL from the cache.
+     *
+     * @param url the URL of the document
+     */
+    public synchronized void remove(String url) {
+        entries.remove(url);
+        delete(getPropertiesFile(url));
+        delete(getDocumentFile(url));
+    }
+
+    /**
+     * Removes all documents from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.getName().endsWith(DOCUMENT_SUFFIX) || file.getName().endsWith(PROPERTIES_SUFFIX))
+                delete(file);
+        }
+    }
+
+    private void delete(File file) {
+        if (file.exists() && !file.delete())
+            log.warning("Cannot delete catalog cache file " + file);
+    }
+
+    public static class Entry {
+        private final String url;
+        private final File file;
+        private final String eTag, lastModified, charSet;
+        private final long validated;
+
+        Entry(String url, File file, String eTag, String lastModified, String charSet, long validated) {
+            this.url = url;
+            this.file = file;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.charSet = charSet;
+            this.validated = validated;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getCharSet() {
+            return charSet;
+        }
+
+        public long getValidated() {
+            return validated;
+        }
+    }
+}
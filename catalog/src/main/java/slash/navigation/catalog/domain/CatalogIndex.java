@@ -0,0 +1,530 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.domain;
+
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.gpx.binding11.*;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Indexes the categories and routes of the {@link RouteCatalog} locally for searching.
+ * <p/>
+ * The names, descriptions and creators are split into lower case tokens which are kept in a sorted
+ * map, so that each word of a query is looked up as a prefix of the tokens. The bounds of the routes,
+ * which are known if a route lists its points or its document has been read, are hashed into a grid
+ * of one degree cells so that a search within an area only looks at the routes of the cells it covers.
+ * The index is updated from the documents of categories and routes one at a time and is safe for
+ * concurrent use; the routes of a category are indexed one by one while its document is read.
+ *
+ * @author Christian Pesch
+ */
+
+public class CatalogIndex {
+    private static final double CELL_SIZE = 1.0; // degrees
+    private static final int MAXIMUM_CELL_COUNT = 64;
+    private static final int MAXIMUM_QUERY_CELL_COUNT = 4096;
+
+    private final Map<String, Entry> categories = new HashMap<String, Entry>();
+    private final Map<String, Entry> routes = new HashMap<String, Entry>();
+    private final Map<String, Set<Entry>> routesOfCategories = new HashMap<String, Set<Entry>>();
+    // the entries of each token are sorted by name, so that the first ones are found without looking at all
+    private final NavigableMap<String, NavigableSet<Entry>> tokens = new TreeMap<String, NavigableSet<Entry>>();
+    private final Map<Long, Set<Entry>> cells = new HashMap<Long, Set<Entry>>();
+    // routes whose bounds cover too many cells to be hashed into each of them
+    private final Set<Entry> largeEntries = new HashSet<Entry>();
+    private final Set<Entry> boundedEntries = new HashSet<Entry>();
+
+    static String[] tokenize(String... texts) {
+        Set<String> result = new LinkedHashSet<String>();
+        for (String text : texts) {
+            if (text == null)
+                continue;
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (letterOrDigit && start == -1)
+                    start = i;
+                else if (!letterOrDigit && start != -1) {
+                    result.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+                    start = -1;
+                }
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_SIZE);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    private static long getCellCount(double north, double east, double south, double west) {
+        return (long) (cell(north) - cell(south) + 1) * (cell(east) - cell(west) + 1);
+    }
+
+    private void add(Entry entry) {
+        for (String token : entry.tokens) {
+            NavigableSet<Entry> entries = tokens.get(token);
+            if (entries == null) {
+                entries = new TreeSet<Entry>(ENTRY_ORDER);
+                tokens.put(token, entries);
+            }
+            entries.add(entry);
+        }
+
+        if (!entry.hasBounds())
+            return;
+        boundedEntries.add(entry);
+        if (getCellCount(entry.north, entry.east, entry.south, entry.west) > MAXIMUM_CELL_COUNT) {
+            largeEntries.add(entry);
+            return;
+        }
+        for (int row = cell(entry.south); row <= cell(entry.north); row++) {
+            for (int column = cell(entry.west); column <= cell(entry.east); column++) {
+                Set<Entry> entries = cells.get(key(row, column));
+                if (entries == null) {
+                    entries = new HashSet<Entry>();
+                    cells.put(key(row, column), entries);
+                }
+                entries.add(entry);
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        for (String token : entry.tokens) {
+            NavigableSet<Entry> entries = tokens.get(token);
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty())
+                    tokens.remove(token);
+            }
+        }
+
+        if (!entry.hasBounds())
+            return;
+        boundedEntries.remove(entry);
+        if (largeEntries.remove(entry))
+            return;
+        for (int row = cell(entry.south); row <= cell(entry.north); row++) {
+            for (int column = cell(entry.west); column <= cell(entry.east); column++) {
+                Set<Entry> entries = cells.get(key(row, column));
+                if (entries != null) {
+                    entries.remove(entry);
+                    if (entries.isEmpty())
+                        cells.remove(key(row, column));
+                }
+            }
+        }
+    }
+
+    private void putCategory(Entry category) {
+        Entry previous = categories.put(category.getUrl(), category);
+        if (previous != null)
+            remove(previous);
+        add(category);
+    }
+
+    private void putRoute(Entry route) {
+        Entry previous = routes.put(route.getUrl(), route);
+        if (previous != null) {
+            remove(previous);
+            Set<Entry> entries = routesOfCategories.get(previous.getCategoryUrl());
+            if (entries != null)
+                entries.remove(previous);
+        }
+        add(route);
+        Set<Entry> entries = routesOfCategories.get(route.getCategoryUrl());
+        if (entries == null) {
+            entries = new LinkedHashSet<Entry>();
+            routesOfCategories.put(route.getCategoryUrl(), entries);
+        }
+        entries.add(route);
+    }
+
+    private static double[] getBounds(BoundsType boundsType) {
+        if (boundsType == null || boundsType.getMaxlat() == null || boundsType.getMaxlon() == null ||
+                boundsType.getMinlat() == null || boundsType.getMinlon() == null)
+            return null;
+        return new double[]{boundsType.getMaxlat().doubleValue(), boundsType.getMaxlon().doubleValue(),
+                boundsType.getMinlat().doubleValue(), boundsType.getMinlon().doubleValue()};
+    }
+
+    private static double[] getBounds(RteType rteType) {
+        double[] bounds = null;
+        for (WptType wptType : rteType.getRtept()) {
+            BigDecimal latitude = wptType.getLat(), longitude = wptType.getLon();
+            if (latitude == null || longitude == null)
+                continue;
+            if (bounds == null)
+                bounds = new double[]{latitude.doubleValue(), longitude.doubleValue(), latitude.doubleValue(), longitude.doubleValue()};
+            else {
+                bounds[0] = Math.max(bounds[0], latitude.doubleValue());
+                bounds[1] = Math.max(bounds[1], longitude.doubleValue());
+                bounds[2] = Math.min(bounds[2], latitude.doubleValue());
+                bounds[3] = Math.min(bounds[3], longitude.doubleValue());
+            }
+        }
+        return bounds;
+    }
+
+    private static String getHref(RteType rteType) {
+        return rteType.getLink().size() > 0 ? rteType.getLink().get(0).getHref() : null;
+    }
+
+    /**
+     * Indexes the given document of a category with its subcategories and routes and
+     * removes the routes which the category listed before but doesn't list anymore.
+     *
+     * @param url the URL of the category
+     * @param gpxType the document of the category
+     */
+    public void updateCategory(String url, GpxType gpxType) {
+        CategoryUpdate update = updateCategory(url);
+        if (gpxType.getMetadata() != null)
+            update.metadata(gpxType.getMetadata());
+        for (RteType rteType : gpxType.getRte())
+            update.route(rteType);
+        update.finish();
+    }
+
+    /**
+     * Starts to index the document of a category whose metadata and routes are passed one at a time
+     * while the document is read, so that the document is never held as a whole.
+     *
+     * @param url the URL of the category
+     * @return the update to pass the metadata and the routes of the document to
+     */
+    public CategoryUpdate updateCategory(String url) {
+        return new CategoryUpdate(url);
+    }
+
+    /**
+     * Indexes the metadata and the routes of the document of a category. Each of them is indexed
+     * as it is passed; the routes which the category doesn't list anymore are removed on {@link #finish}.
+     */
+    public class CategoryUpdate {
+        private final String url;
+        private final Set<String> listed = new HashSet<String>();
+
+        private CategoryUpdate(String url) {
+            this.url = url;
+        }
+
+        public void metadata(MetadataType metadataType) {
+            synchronized (CatalogIndex.this) {
+                Entry previous = categories.get(url);
+                putCategory(new Entry(url, previous != null ? previous.getCategoryUrl() : null, true,
+                        metadataType.getName(), metadataType.getDesc(), null, null));
+                for (LinkType linkType : metadataType.getLink()) {
+                    // keep what the document of the subcategory told
+                    if (!categories.containsKey(linkType.getHref()))
+                        putCategory(new Entry(linkType.getHref(), url, true, linkType.getText(), null, null, null));
+                }
+            }
+        }
+
+        public void route(RteType rteType) {
+            String href = getHref(rteType);
+            if (href == null)
+                return;
+            listed.add(href);
+            double[] bounds = getBounds(rteType);
+            synchronized (CatalogIndex.this) {
+                Entry previous = routes.get(href);
+                // keep the bounds from the document of the route
+                if (bounds == null && previous != null && previous.hasBounds())
+                    bounds = new double[]{previous.north, previous.east, previous.south, previous.west};
+                putRoute(new Entry(href, url, false, rteType.getName(), rteType.getDesc(), rteType.getSrc(), bounds));
+            }
+        }
+
+        public void finish() {
+            synchronized (CatalogIndex.this) {
+                Set<Entry> entries = routesOfCategories.get(url);
+                if (entries != null) {
+                    for (Entry entry : new ArrayList<Entry>(entries)) {
+                        if (!listed.contains(entry.getUrl()))
+                            removeRoute(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the bounds of the given document of a route for the route.
+     *
+     * @param url the URL of the route
+     * @param gpxType the document of the route
+     */
+    public synchronized void updateRoute(String url, GpxType gpxType) {
+        Entry route = routes.get(url);
+        if (route == null)
+            return;
+        double[] bounds = gpxType.getMetadata() != null ? getBounds(gpxType.getMetadata().getBounds()) : null;
+        if (bounds == null && gpxType.getRte().size() > 0)
+            bounds = getBounds(gpxType.getRte().get(0));
+        if (bounds != null)
+            putRoute(new Entry(url, route.getCategoryUrl(), false, route.getName(), route.getDescription(),
+                    route.getCreator(), bounds));
+    }
+
+    private void removeRoute(Entry route) {
+        routes.remove(route.getUrl());
+        remove(route);
+        Set<Entry> entries = routesOfCategories.get(route.getCategoryUrl());
+        if (entries != null) {
+            entries.remove(route);
+            if (entries.isEmpty())
+                routesOfCategories.remove(route.getCategoryUrl());
+        }
+    }
+
+    /**
+     * Removes the category or route with the given URL and the routes of a category.
+     *
+     * @param url the URL of the category or route
+     */
+    public synchronized void remove(String url) {
+        Entry route = routes.get(url);
+        if (route != null)
+            removeRoute(route);
+
+        Entry category = categories.remove(url);
+        if (category != null) {
+            remove(category);
+            Set<Entry> entries = routesOfCategories.get(url);
+            if (entries != null) {
+                for (Entry entry : new ArrayList<Entry>(entries))
+                    removeRoute(entry);
+            }
+        }
+    }
+
+    public synchronized int getCategoryCount() {
+        return categories.size();
+    }
+
+    public synchronized int getRouteCount() {
+        return routes.size();
+    }
+
+    private Collection<NavigableSet<Entry>> getEntriesStartingWith(String prefix) {
+        return tokens.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+    }
+
+    private Collection<Entry> searchText(String[] queryTokens) {
+        // look up the most selective word and check the others per entry
+        Collection<NavigableSet<Entry>> selective = null;
+        int selectiveCount = Integer.MAX_VALUE;
+        for (String queryToken : queryTokens) {
+            Collection<NavigableSet<Entry>> entries = getEntriesStartingWith(queryToken);
+            int count = 0;
+            for (Set<Entry> set : entries)
+                count += set.size();
+            if (count < selectiveCount) {
+                selective = entries;
+                selectiveCount = count;
+            }
+        }
+        if (selective.size() == 1)
+            return selective.iterator().next();
+        Set<Entry> result = new HashSet<Entry>(selectiveCount * 4 / 3 + 1);
+        for (Set<Entry> entries : selective)
+            result.addAll(entries);
+        return result;
+    }
+
+    private Collection<Entry> searchArea(double north, double east, double south, double west) {
+        if (getCellCount(north, east, south, west) > MAXIMUM_QUERY_CELL_COUNT)
+            return boundedEntries;
+        Set<Entry> result = new HashSet<Entry>(largeEntries);
+        for (int row = cell(south); row <= cell(north); row++) {
+            for (int column = cell(west); column <= cell(east); column++) {
+                Set<Entry> entries = cells.get(key(row, column));
+                if (entries != null)
+                    result.addAll(entries);
+            }
+        }
+        return result;
+    }
+
+    private Collection<Entry> search(String query, BaseNavigationPosition northEast, BaseNavigationPosition southWest,
+                                     boolean category, int limit) {
+        String[] queryTokens = tokenize(query);
+        boolean withinArea = northEast != null && southWest != null;
+        if (queryTokens.length == 0 && !withinArea)
+            return Collections.emptyList();
+
+        double north = 0.0, east = 0.0, south = 0.0, west = 0.0;
+        if (withinArea) {
+            north = northEast.getLatitude();
+            east = northEast.getLongitude();
+            south = southWest.getLatitude();
+            west = southWest.getLongitude();
+        }
+
+        Collection<Entry> candidates = queryTokens.length > 0 ? searchText(queryTokens) : searchArea(north, east, south, west);
+        if (candidates instanceof SortedSet) {
+            List<Entry> result = new ArrayList<Entry>();
+            for (Entry entry : candidates) {
+                if (result.size() >= limit)
+                    break;
+                if (entry.isCategory() == category && entry.matches(queryTokens) &&
+                        (!withinArea || entry.intersects(north, east, south, west)))
+                    result.add(entry);
+            }
+            return result;
+        }
+
+        // keep the first entries by name and URL
+        PriorityQueue<Entry> result = new PriorityQueue<Entry>(Math.min(limit, 64) + 1, Collections.reverseOrder(ENTRY_ORDER));
+        for (Entry entry : candidates) {
+            if (entry.isCategory() != category || !entry.matches(queryTokens) ||
+                    withinArea && !entry.intersects(north, east, south, west))
+                continue;
+            if (result.size() < limit)
+                result.add(entry);
+            else if (limit > 0 && ENTRY_ORDER.compare(entry, result.peek()) < 0) {
+                result.poll();
+                result.add(entry);
+            }
+        }
+
+        List<Entry> sorted = new ArrayList<Entry>(result);
+        Collections.sort(sorted, ENTRY_ORDER);
+        return sorted;
+    }
+
+    /**
+     * Searches the categories whose name or description contain words that start with each word of the query.
+     *
+     * @param query the words to search for
+     * @param limit the maximum number of categories to return
+     * @return the categories sorted by name
+     */
+    public synchronized List<Entry> searchCategories(String query, int limit) {
+        return new ArrayList<Entry>(search(query, null, null, true, limit));
+    }
+
+    /**
+     * Searches the routes whose name, description or creator contain words that start with each word
+     * of the query and whose bounds intersect the given area.
+     *
+     * @param query     the words to search for or null to search only within the area
+     * @param northEast the north east corner of the area or null to search regardless of the bounds
+     * @param southWest the south west corner of the area or null to search regardless of the bounds
+     * @param limit     the maximum number of routes to return
+     * @return the routes sorted by name
+     */
+    public synchronized List<Entry> searchRoutes(String query, BaseNavigationPosition northEast, BaseNavigationPosition southWest, int limit) {
+        return new ArrayList<Entry>(search(query, northEast, southWest, false, limit));
+    }
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            int result = e1.sortName.compareTo(e2.sortName);
+            return result != 0 ? result : e1.getUrl().compareTo(e2.getUrl());
+        }
+    };
+
+    public static class Entry {
+        private final String url, categoryUrl;
+        private final boolean category;
+        private final String name, description, creator, sortName;
+        private final String[] tokens;
+        private final boolean bounded;
+        private final double north, east, south, west;
+
+        Entry(String url, String categoryUrl, boolean category, String name, String description, String creator, double[] bounds) {
+            this.url = url;
+            this.categoryUrl = categoryUrl;
+            this.category = category;
+            this.name = name;
+            this.description = description;
+            this.creator = creator;
+            this.sortName = name != null ? name.toLowerCase(Locale.ENGLISH) : "";
+            this.tokens = tokenize(name, description, creator);
+            this.bounded = bounds != null;
+            this.north = bounded ? bounds[0] : 0.0;
+            this.east = bounded ? bounds[1] : 0.0;
+            this.south = bounded ? bounds[2] : 0.0;
+            this.west = bounded ? bounds[3] : 0.0;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Returns the URL of the category which lists the route or subcategory
+         * or null if it's not known.
+         */
+        public String getCategoryUrl() {
+            return categoryUrl;
+        }
+
+        public boolean isCategory() {
+            return category;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getCreator() {
+            return creator;
+        }
+
+        public boolean hasBounds() {
+            return bounded;
+        }
+
+        private boolean matches(String[] queryTokens) {
+            for (String queryToken : queryTokens) {
+                boolean found = false;
+                for (String token : tokens) {
+                    if (token.startsWith(queryToken)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found)
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean intersects(double north, double east, double south, double west) {
+            return bounded && this.south <= north && this.north >= south && this.west <= east && this.east >= west;
+        }
+    }
+}
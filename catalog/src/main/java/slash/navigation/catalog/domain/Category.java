@@ -39,18 +39,26 @@ import java.util.List;
 
 public class Category {
     private final RouteCatalog routeCatalog;
+    private Category parent;
     private String url, name;
     private GpxType gpx;
+    private Integer routeCount;
 
     public Category(RouteCatalog routeCatalog, String url, String name) {
+        this(routeCatalog, null, url, name);
+    }
+
+    Category(RouteCatalog routeCatalog, Category parent, String url, String name) {
         this.routeCatalog = routeCatalog;
+        this.parent = parent;
         this.url = url;
         this.name = name;
     }
 
     private synchronized GpxType getGpx() throws IOException {
         if (gpx == null) {
-            gpx = routeCatalog.fetchGpx(url);
+            // just the metadata, the routes are read in pages
+            gpx = routeCatalog.fetchGpx(url, 0, 0);
 
             // avoid subsequent NullPointerExceptions on server errors
             if (gpx == null) {
@@ -62,8 +70,11 @@ public class Category {
     }
 
     private synchronized void invalidate() {
+        // the cached document lists the subcategories and routes, too
+        routeCatalog.invalidate(url);
         gpx = null;
         name = null;
+        routeCount = null;
     }
 
     private synchronized void recursiveInvalidate() {
@@ -76,7 +87,7 @@ public class Category {
         List<Category> categories = new ArrayList<Category>();
         if (gpx != null)
             for (LinkType linkType : gpx.getMetadata().getLink()) {
-                categories.add(new Category(routeCatalog, linkType.getHref(), linkType.getText()));
+                categories.add(new Category(routeCatalog, this, linkType.getHref(), linkType.getText()));
             }
         return categories;
     }
@@ -95,7 +106,9 @@ public class Category {
     public List<Category> getSubCategories() throws IOException {
         List<Category> categories = new ArrayList<Category>();
         for (LinkType linkType : getGpx().getMetadata().getLink()) {
-            categories.add(new Category(routeCatalog, linkType.getHref(), linkType.getText()));
+            categories.add(new Category(routeCatalog, this, linkType.getHref(), linkType.getText()));
+            // the subcategories are likely to be expanded next
+            routeCatalog.prefetch(linkType.getHref());
         }
         return categories;
     }
@@ -108,28 +121,61 @@ public class Category {
         return null;
     }
 
-    public List<Route> getRoutes() throws IOException {
-        List<Route> routes = new ArrayList<Route>();
-        for (RteType rteType : getGpx().getRte()) {
-            routes.add(new Route(routeCatalog, rteType.getLink().get(0).getHref(), rteType.getName(), rteType.getSrc(), rteType.getDesc()));
+    public synchronized int getRouteCount() throws IOException {
+        if (routeCount == null) {
+            Integer count = routeCatalog.fetchRouteCount(url);
+            routeCount = count != null ? count : 0;
         }
+        return routeCount;
+    }
+
+    /**
+     * Returns a page of the routes of this category with their name, creator and description.
+     *
+     * @param offset the index of the first route of the page
+     * @param limit  the maximum number of routes of the page
+     * @return the routes of the page
+     * @throws IOException if the routes cannot be read
+     */
+    public List<Route> getRoutes(int offset, int limit) throws IOException {
+        List<Route> routes = new ArrayList<Route>();
+        GpxType page = routeCatalog.fetchGpx(url, offset, limit);
+        if (page != null)
+            for (RteType rteType : page.getRte()) {
+                routes.add(new Route(routeCatalog, rteType.getLink().get(0).getHref(), rteType.getName(), rteType.getSrc(), rteType.getDesc()));
+            }
         return routes;
     }
 
+    public List<Route> getRoutes() throws IOException {
+        return getRoutes(0, Integer.MAX_VALUE);
+    }
+
     public void updateCategory(Category parent, String name) throws IOException {
+        String previousUrl = url;
         url = routeCatalog.updateCategory(url, parent != null ? parent.url : null, name);
         this.name = name;
+        routeCatalog.invalidate(previousUrl);
         recursiveInvalidate();
+        // the previous parent lists the category with its previous name or url
+        if (this.parent != null)
+            this.parent.invalidate();
+        if (parent != null) {
+            parent.invalidate();
+            this.parent = parent;
+        }
     }
 
     public void delete() throws IOException {
         routeCatalog.deleteCategory(url);
+        if (parent != null)
+            parent.invalidate();
     }
 
     public Category addSubCategory(String name) throws IOException {
         String resultUrl = routeCatalog.addCategory(url, name);
         invalidate();
-        return new Category(routeCatalog, resultUrl, name);
+        return new Category(routeCatalog, this, resultUrl, name);
     }
 
     public Route addRoute(String description, File file) throws IOException {
@@ -106,8 +106,10 @@ public class Route {
     }
 
     public void delete() throws IOException {
+        // read the file before the route document is gone
+        String fileUrl = getRteLinkHref();
         routeCatalog.deleteRoute(url);
-        routeCatalog.deleteFile(getRteLinkHref());
+        routeCatalog.deleteFile(fileUrl);
     }
 
 
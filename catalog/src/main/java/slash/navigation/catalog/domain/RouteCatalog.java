@@ -20,6 +20,7 @@
 
 package slash.navigation.catalog.domain;
 
+import slash.navigation.base.BaseNavigationPosition;
 import slash.navigation.catalog.domain.exception.DuplicateNameException;
 import slash.navigation.catalog.domain.exception.NotFoundException;
 import slash.navigation.catalog.domain.exception.NotOwnerException;
@@ -28,14 +29,26 @@ import slash.navigation.gpx.GpxUtil;
 import slash.navigation.gpx.binding11.*;
 import slash.navigation.gpx.routecatalog10.UserextensionType;
 import slash.navigation.rest.*;
-import slash.common.io.Files;
 
 import javax.xml.bind.JAXBException;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
  * Encapsulates REST access to the RouteCatalog of RouteConverter.
+ * <p/>
+ * The GPX documents of categories and routes are kept in a {@link CatalogCache}. A stale
+ * document is returned at once and revalidated with a conditional request in the background,
+ * and the documents of subcategories are prefetched in parallel by a bounded pool of threads.
+ * The categories and routes of the fetched documents are searched in a {@link CatalogIndex}.
  *
  * @author Christian Pesch
  */
@@ -44,20 +57,48 @@ public class RouteCatalog {
     private static final Logger log = Logger.getLogger(RouteCatalog.class.getName());
 
     private static final String ROOT_CATEGORY_URI = "categories/.gpx";
+    private static final String CATEGORIES_URI = "categories/";
     private static final String ROUTES_URI = "routes/";
     private static final String FILES_URI = "files/";
     private static final String USERS_URI = "users/";
+    private static final int PREFETCH_THREAD_COUNT = 4;
+    private static final String PAYLOAD_FILE_NAME = "routeconverter.xml";
+
+    private static final AtomicInteger prefetchThreadCount = new AtomicInteger();
+    private static final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREAD_COUNT, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CatalogPrefetch-" + prefetchThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final SingleFlight<String, CatalogCache.Entry> fetches = new SingleFlight<String, CatalogCache.Entry>();
 
     private final String rootUrl;
+    private final CatalogCache cache;
+    private final Set<String> prefetching = new HashSet<String>();
     private String userName, password;
+    private ProgressListener uploadListener;
+    private boolean compressUploads = false;
+    private final Object indexLock = new Object();
+    private volatile CatalogIndex index;
 
-    public RouteCatalog(String rootUrl, String userName, String password) {
+    public RouteCatalog(String rootUrl, String userName, String password, CatalogCache cache) {
         this.rootUrl = rootUrl;
+        this.cache = cache;
         setAuthentication(userName, password);
     }
 
+    public RouteCatalog(String rootUrl, String userName, String password) {
+        this(rootUrl, userName, password, CatalogCache.getDefault());
+    }
+
+    public RouteCatalog(String rootUrl, CatalogCache cache) {
+        this(rootUrl, "anonymous", null, cache);
+    }
+
     public RouteCatalog(String rootUrl) {
-        this(rootUrl, "anonymous", null);
+        this(rootUrl, CatalogCache.getDefault());
     }
 
     public void setAuthentication(String userName, String password) {
@@ -65,24 +106,256 @@ public class RouteCatalog {
         this.password = password;
     }
 
+    public void setUploadListener(ProgressListener uploadListener) {
+        this.uploadListener = uploadListener;
+    }
+
+    /**
+     * Compresses uploaded files with gzip, which not every catalog server accepts;
+     * a rejected compressed upload is repeated uncompressed.
+     */
+    public void setCompressUploads(boolean compressUploads) {
+        this.compressUploads = compressUploads;
+    }
+
     public Category getRootCategory() {
         return new Category(this, rootUrl + ROOT_CATEGORY_URI, "");
     }
 
+    private CatalogCache.Entry getEntry(String url) throws IOException {
+        CatalogCache.Entry entry = cache.get(url);
+        if (entry == null)
+            entry = revalidate(url);
+        else if (!cache.isFresh(entry))
+            // return the stale document and revalidate it for the next time
+            prefetch(url);
+        return entry;
+    }
+
     GpxType fetchGpx(String url) throws IOException {
+        return fetchGpx(url, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetches the metadata and a window of the routes of the document of the given URL.
+     * The server transfers documents as a whole, thus the window is read from the
+     * document in the {@link CatalogCache}.
+     */
+    GpxType fetchGpx(String url, int offset, int limit) throws IOException {
+        CatalogCache.Entry entry = getEntry(url);
+        return entry != null ? parseGpx(entry, offset, limit) : null;
+    }
+
+    Integer fetchRouteCount(String url) throws IOException {
+        CatalogCache.Entry entry = getEntry(url);
+        if (entry == null)
+            return null;
+        InputStream in = new BufferedInputStream(new FileInputStream(entry.getFile()));
+        try {
+            return GpxUtil.countRoutes11(in, entry.getCharSet());
+        } catch (JAXBException e) {
+            cache.remove(entry.getUrl());
+            IOException io = new IOException("Cannot unmarshall " + entry.getUrl() + ": " + e.getMessage());
+            io.setStackTrace(e.getStackTrace());
+            throw io;
+        } finally {
+            in.close();
+        }
+    }
+
+    private GpxType parseGpx(CatalogCache.Entry entry, int offset, int limit) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(entry.getFile()));
+        try {
+            // categories may list lots of routes, thus parse them from the stream instead of a string
+            return GpxUtil.unmarshal11MetadataAndRoutes(in, entry.getCharSet(), offset, limit);
+        } catch (JAXBException e) {
+            cache.remove(entry.getUrl());
+            IOException io = new IOException("Cannot unmarshall " + entry.getUrl() + ": " + e.getMessage());
+            io.setStackTrace(e.getStackTrace());
+            throw io;
+        } finally {
+            in.close();
+        }
+    }
+
+    private CatalogCache.Entry revalidate(final String url) throws IOException {
+        return fetches.execute(url, new SingleFlight.Call<CatalogCache.Entry>() {
+            public CatalogCache.Entry call() throws IOException {
+                return fetch(url);
+            }
+        });
+    }
+
+    private CatalogCache.Entry fetch(String url) throws IOException {
         log.fine(System.currentTimeMillis() + " fetching gpx from " + url);
+        CatalogCache.Entry entry = cache.get(url);
         Get get = new Get(url);
-        String result = get.execute();
-        if (get.isSuccessful())
-            try {
-                return GpxUtil.unmarshal11(result);
-            } catch (JAXBException e) {
-                IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
-                io.setStackTrace(e.getStackTrace());
-                throw io;
+        if (entry != null) {
+            if (entry.getETag() != null)
+                get.setRequestHeader("If-None-Match", entry.getETag());
+            if (entry.getLastModified() != null)
+                get.setRequestHeader("If-Modified-Since", entry.getLastModified());
+        }
+        InputStream result = get.executeAsStream(false);
+        try {
+            if (entry != null && get.isNotModified())
+                return cache.validate(entry);
+            if (!get.isSuccessful() || result == null) {
+                log.warning("GET on " + url + " not successful: " + get.getResult());
+                if (get.isNotFound()) {
+                    cache.remove(url);
+                    removeFromIndex(url);
+                }
+                return null;
             }
-        else
-            return null;
+            CatalogCache.Entry fetched = cache.put(url, get.getResponseHeader("ETag"), get.getResponseHeader("Last-Modified"), get.getContentCharSet(), result);
+            updateIndex(fetched);
+            return fetched;
+        } finally {
+            if (result != null)
+                result.close();
+        }
+    }
+
+    /**
+     * Fetches the document of the given URL into the {@link CatalogCache} in the background
+     * unless it is fresh there already.
+     *
+     * @param url the URL of the document
+     */
+    void prefetch(final String url) {
+        synchronized (prefetching) {
+            if (!prefetching.add(url))
+                return;
+        }
+        prefetchExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    CatalogCache.Entry entry = cache.get(url);
+                    if (entry == null || !cache.isFresh(entry))
+                        revalidate(url);
+                } catch (IOException e) {
+                    log.fine("Cannot prefetch " + url + ": " + e.getMessage());
+                } finally {
+                    synchronized (prefetching) {
+                        prefetching.remove(url);
+                    }
+                }
+            }
+        });
+    }
+
+    void invalidate(String url) {
+        if (url != null)
+            cache.remove(url);
+    }
+
+    private void indexCategory(final CatalogIndex index, CatalogCache.Entry entry) throws IOException {
+        final CatalogIndex.CategoryUpdate update = index.updateCategory(entry.getUrl());
+        InputStream in = new BufferedInputStream(new FileInputStream(entry.getFile()));
+        try {
+            // the routes are indexed while they are read instead of unmarshalling the whole category
+            GpxUtil.read11MetadataAndRoutes(in, entry.getCharSet(), new GpxUtil.MetadataAndRoutesHandler() {
+                public void metadata(MetadataType metadataType) {
+                    update.metadata(metadataType);
+                }
+
+                public void route(RteType rteType) {
+                    update.route(rteType);
+                }
+            });
+        } catch (JAXBException e) {
+            cache.remove(entry.getUrl());
+            IOException io = new IOException("Cannot unmarshall " + entry.getUrl() + ": " + e.getMessage());
+            io.setStackTrace(e.getStackTrace());
+            throw io;
+        } finally {
+            in.close();
+        }
+        update.finish();
+    }
+
+    private void index(CatalogIndex index, CatalogCache.Entry entry) {
+        String url = entry.getUrl();
+        try {
+            if (url.startsWith(rootUrl + CATEGORIES_URI))
+                indexCategory(index, entry);
+            else if (url.startsWith(rootUrl + ROUTES_URI))
+                // the bounds are taken from the metadata or the first route
+                index.updateRoute(url, parseGpx(entry, 0, 1));
+        } catch (IOException e) {
+            log.warning("Cannot index " + url + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the index of the categories and routes of this catalog, which is built from the
+     * documents in the {@link CatalogCache} when it's used first and updated whenever a
+     * document is fetched afterwards. The index is built and updated without holding the
+     * lock of the catalog, so that prefetching is not blocked while the index is built.
+     */
+    CatalogIndex getIndex() {
+        synchronized (indexLock) {
+            if (index == null) {
+                // published before it's built, so that documents fetched meanwhile are indexed, too
+                CatalogIndex building = new CatalogIndex();
+                index = building;
+                List<CatalogCache.Entry> routes = new ArrayList<CatalogCache.Entry>();
+                for (CatalogCache.Entry entry : cache.getEntries()) {
+                    if (entry.getUrl().startsWith(rootUrl + ROUTES_URI))
+                        routes.add(entry);
+                    else
+                        index(building, entry);
+                }
+                // routes take their bounds only once a category lists them
+                for (CatalogCache.Entry entry : routes)
+                    index(building, entry);
+            }
+            return index;
+        }
+    }
+
+    private void updateIndex(CatalogCache.Entry entry) {
+        CatalogIndex current = index;
+        if (current != null && entry != null)
+            index(current, entry);
+    }
+
+    private void removeFromIndex(String url) {
+        CatalogIndex current = index;
+        if (current != null)
+            current.remove(url);
+    }
+
+    /**
+     * Searches the categories of this catalog that have been visited or listed by a visited category.
+     *
+     * @param query the words the name or description of the categories contain words starting with
+     * @param limit the maximum number of categories to return
+     * @return the categories sorted by name
+     */
+    public List<Category> searchCategories(String query, int limit) {
+        List<Category> result = new ArrayList<Category>();
+        for (CatalogIndex.Entry entry : getIndex().searchCategories(query, limit))
+            result.add(new Category(this, entry.getUrl(), entry.getName()));
+        return result;
+    }
+
+    /**
+     * Searches the routes of this catalog that are listed by a visited category.
+     *
+     * @param query     the words the name, description or creator of the routes contain words starting with
+     *                  or null to search only within the area
+     * @param northEast the north east corner of the area or null to search regardless of the bounds
+     * @param southWest the south west corner of the area or null to search regardless of the bounds
+     * @param limit     the maximum number of routes to return
+     * @return the routes sorted by name
+     */
+    public List<Route> searchRoutes(String query, BaseNavigationPosition northEast, BaseNavigationPosition southWest, int limit) {
+        List<Route> result = new ArrayList<Route>();
+        for (CatalogIndex.Entry entry : getIndex().searchRoutes(query, northEast, southWest, limit))
+            result.add(new Route(this, entry.getUrl(), entry.getName(), entry.getCreator(), entry.getDescription()));
+        return result;
     }
 
     private static final ObjectFactory gpxFactory = new ObjectFactory();
@@ -95,7 +368,7 @@ public class RouteCatalog {
         return gpxType;
     }
 
-    private static String createCategoryXml(String parentUrl, String name) {
+    private static GpxType createCategoryGpx(String parentUrl, String name) {
         MetadataType metadataType = gpxFactory.createMetadataType();
         metadataType.setName(Helper.asUtf8(name));
         if (parentUrl != null)
@@ -103,10 +376,10 @@ public class RouteCatalog {
 
         GpxType gpxType = createGpxType();
         gpxType.setMetadata(metadataType);
-        return toXml(gpxType);
+        return gpxType;
     }
 
-    private static String createRouteXml(String category, String description, String fileUrl) {
+    private static GpxType createRouteGpx(String category, String description, String fileUrl) {
         MetadataType metadataType = gpxFactory.createMetadataType();
         metadataType.setDesc(Helper.asUtf8(description));
         metadataType.setKeywords(Helper.asUtf8(Helper.decodeUri(category)));
@@ -120,10 +393,10 @@ public class RouteCatalog {
         rteType.getLink().add(linkType);
         gpxType.getRte().add(rteType);
 
-        return toXml(gpxType);
+        return gpxType;
     }
 
-    private static String createUserXml(String userName, String password, String firstName, String lastName, String email) {
+    private static GpxType createUserGpx(String userName, String password, String firstName, String lastName, String email) {
         MetadataType metadataType = gpxFactory.createMetadataType();
         metadataType.setName(Helper.asUtf8(userName));
 
@@ -140,17 +413,22 @@ public class RouteCatalog {
         GpxType gpxType = createGpxType();
         gpxType.setMetadata(metadataType);
 
-        return toXml(gpxType);
+        return gpxType;
     }
 
-    private static String toXml(GpxType gpxType) {
-        StringWriter writer = new StringWriter();
-        try {
-            GpxUtil.marshal11(gpxType, writer);
-        } catch (JAXBException e) {
-            throw new RuntimeException("Cannot marshall " + gpxType + ": " + e.getMessage(), e);
-        }
-        return writer.toString();
+    private static Payload toPayload(final GpxType gpxType) {
+        // marshalled while the request is sent instead of into a temporary file
+        return new Payload() {
+            public void write(OutputStream out) throws IOException {
+                try {
+                    GpxUtil.marshal11(gpxType, out);
+                } catch (JAXBException e) {
+                    IOException io = new IOException("Cannot marshall " + gpxType + ": " + e.getMessage());
+                    io.setStackTrace(e.getStackTrace());
+                    throw io;
+                }
+            }
+        };
     }
 
     private String ensureEndsWithSlash(String url) {
@@ -175,10 +453,10 @@ public class RouteCatalog {
     private Post prepareAddCategory(String categoryUrl, String name) throws IOException {
         categoryUrl = ensureEndsWithSlash(removeDotGpx(categoryUrl)); // // TODO removeDotGpx is silly
         log.fine(System.currentTimeMillis() + " adding " + name + " to " + categoryUrl);
-        String xml = createCategoryXml(null, name);
+        GpxType gpxType = createCategoryGpx(null, name);
         Post request = new Post(categoryUrl);
         request.setAuthentication(userName, password);
-        request.addFile("file", Files.writeToTempFile(xml));
+        request.addPayload("file", PAYLOAD_FILE_NAME, toPayload(gpxType));
         return request;
     }
 
@@ -193,15 +471,16 @@ public class RouteCatalog {
             throw new DuplicateNameException("Cannot add category " + name, categoryUrl);
         if (!request.isSuccessful())
             throw new IOException("POST on " + categoryUrl + " with payload " + name + " not successful: " + result);
+        invalidate(categoryUrl);
         return request.getLocation();
     }
 
     private Put prepareUpdateCategory(String categoryUrl, String parentUrl, String name) throws IOException {
         log.fine(System.currentTimeMillis() + " updating " + categoryUrl + " to " + parentUrl + " with name " + name);
-        String xml = createCategoryXml(parentUrl, name);
+        GpxType gpxType = createCategoryGpx(parentUrl, name);
         Put request = new Put(categoryUrl);
         request.setAuthentication(userName, password);
-        request.addFile("file", Files.writeToTempFile(xml));
+        request.addPayload("file", PAYLOAD_FILE_NAME, toPayload(gpxType));
         return request;
     }
 
@@ -216,6 +495,8 @@ public class RouteCatalog {
             throw new NotOwnerException("Cannot update category to " + name, categoryUrl);
         if (!request.isSuccessful())
             throw new IOException("PUT on " + categoryUrl + " with payload " + name + " not successful: " + result);
+        invalidate(categoryUrl);
+        invalidate(parentUrl);
         return request.getLocation();
     }
 
@@ -230,6 +511,8 @@ public class RouteCatalog {
             throw new NotOwnerException("Cannot delete category", categoryUrl);
         if (!request.isSuccessful())
             throw new IOException("DELETE on " + categoryUrl + " not successful: " + result);
+        invalidate(categoryUrl);
+        removeFromIndex(categoryUrl);
     }
 
     private String getFilesUrl() {
@@ -241,6 +524,8 @@ public class RouteCatalog {
         Post request = new Post(getFilesUrl());
         request.setAuthentication(userName, password);
         request.addFile("file", file);
+        request.setCompressed(compressUploads);
+        request.setProgressListener(uploadListener);
         return request;
     }
 
@@ -280,19 +565,19 @@ public class RouteCatalog {
 
     private Post prepareAddRoute(String categoryUrl, String description, String fileUrl) throws IOException {
         log.fine(System.currentTimeMillis() + " adding " + fileUrl + " to category " + categoryUrl + " with description " + description);
-        String xml = createRouteXml(categoryUrl, description, fileUrl);
+        GpxType gpxType = createRouteGpx(categoryUrl, description, fileUrl);
         Post request = new Post(getRoutesUrl());
         request.setAuthentication(userName, password);
-        request.addFile("file", Files.writeToTempFile(xml));
+        request.addPayload("file", PAYLOAD_FILE_NAME, toPayload(gpxType));
         return request;
     }
 
     private Put prepareUpdateRoute(String categoryUrl, String routeUrl, String description, String fileUrl) throws IOException {
         log.fine(System.currentTimeMillis() + " updating " + routeUrl + " to " + categoryUrl + "," + description + "," + fileUrl);
-        String xml = createRouteXml(categoryUrl, description, fileUrl);
+        GpxType gpxType = createRouteGpx(categoryUrl, description, fileUrl);
         Put request = new Put(routeUrl);
         request.setAuthentication(userName, password);
-        request.addFile("file", Files.writeToTempFile(xml));
+        request.addPayload("file", PAYLOAD_FILE_NAME, toPayload(gpxType));
         return request;
     }
 
@@ -313,6 +598,7 @@ public class RouteCatalog {
             throw new NotOwnerException("Cannot add route " + description, getRoutesUrl());
         if (!request.isSuccessful())
             throw new IOException("POST on " + getRoutesUrl() + " with route " + description + "," + categoryUrl + "," + fileUrl + " not successful: " + result);
+        invalidate(categoryUrl);
         return request.getLocation();
     }
 
@@ -327,6 +613,8 @@ public class RouteCatalog {
             throw new NotOwnerException("Cannot update route to " + description, routeUrl);
         if (!request.isSuccessful())
             throw new IOException("PUT on " + routeUrl + " with payload " + description + " not successful: " + result);
+        invalidate(routeUrl);
+        invalidate(categoryUrl);
     }
 
     void deleteRoute(String routeUrl) throws IOException {
@@ -340,6 +628,8 @@ public class RouteCatalog {
             throw new NotOwnerException("Cannot delete route", routeUrl);
         if (!request.isSuccessful())
             throw new IOException("DELETE on " + routeUrl + " not successful: " + result);
+        invalidate(routeUrl);
+        removeFromIndex(routeUrl);
     }
 
 
@@ -349,10 +639,10 @@ public class RouteCatalog {
 
     private Post prepareAddUser(String userName, String password, String firstName, String lastName, String email) throws IOException {
         log.fine(System.currentTimeMillis() + " adding " + userName + "," + firstName + "," + lastName + "," + email);
-        String xml = createUserXml(userName, password, firstName, lastName, email);
+        GpxType gpxType = createUserGpx(userName, password, firstName, lastName, email);
         Post request = new Post(getUsersUrl());
         request.setAuthentication(userName, password);
-        request.addFile("file", Files.writeToTempFile(xml));
+        request.addPayload("file", PAYLOAD_FILE_NAME, toPayload(gpxType));
         return request;
     }
 
@@ -125,6 +125,12 @@ public class CategoryTreeNode extends DefaultMutableTreeNode {
     public RoutesListModel getRoutesListModel() {
         if (routesListModel == null) {
             try {
+                int routeCount = getCategory().getRouteCount();
+                // large categories are paged in document order since sorting needs all routes
+                if (routeCount > RoutesListModel.PAGE_SIZE) {
+                    routesListModel = new RoutesListModel(getCategory(), routeCount);
+                    return routesListModel;
+                }
                 List<Route> routes = getCategory().getRoutes();
                 Route[] routesArray = routes.toArray(new Route[routes.size()]);
                 Arrays.sort(routesArray, routeComparator);
@@ -20,22 +20,57 @@
 
 package slash.navigation.catalog.model;
 
+import slash.navigation.catalog.domain.Category;
 import slash.navigation.catalog.domain.Route;
 
+import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableModel;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
 /**
  * Acts as a {@link TableModel} for the routes of a {@link CategoryTreeNode}.
+ * <p/>
+ * The model either holds a list of routes or pages through the routes of a large {@link Category}.
+ * A page is read in the background when one of its rows is rendered first and the neighbouring
+ * pages are read ahead for scrolling. If more than {@link #MAXIMUM_PAGE_COUNT} pages are held,
+ * the least recently rendered pages are evicted. The rows of pages which are not read yet have
+ * no value.
+ * <p/>
+ * The routes and pages are only accessed on the event dispatch thread. Changes of the routes
+ * are applied there and reading routes and counting them is done in the background.
  *
  * @author Christian Pesch
  */
 
 public class RoutesListModel extends AbstractTableModel {
+    private static final Logger log = Logger.getLogger(RoutesListModel.class.getName());
+    static final int PAGE_SIZE = 100;
+    static final int MAXIMUM_PAGE_COUNT = 10;
+
+    private static final ExecutorService pageExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "RoutesPageReader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private List<Route> routes = new ArrayList<Route>();
 
+    private Category category;
+    private Executor executor;
+    private int rowCount;
+    private final Map<Integer, List<Route>> pages = new LinkedHashMap<Integer, List<Route>>(16, 0.75f, true);
+    private final Set<Integer> reading = new HashSet<Integer>();
+    private int generation = 0;
+
     public RoutesListModel(List<Route> routes) {
         setRoutes(routes);
     }
@@ -43,13 +78,33 @@ public class RoutesListModel extends AbstractTableModel {
     public RoutesListModel() {
     }
 
+    /**
+     * Pages through the routes of the given category.
+     *
+     * @param category the category to read the routes from
+     * @param rowCount the number of routes of the category
+     */
+    public RoutesListModel(Category category, int rowCount) {
+        this(category, rowCount, pageExecutor);
+    }
+
+    RoutesListModel(Category category, int rowCount, Executor executor) {
+        this.category = category;
+        this.rowCount = rowCount;
+        this.executor = executor;
+    }
+
+    private boolean isPaged() {
+        return category != null;
+    }
+
     void setRoutes(List<Route> routes) {
         this.routes = routes;
         fireTableDataChanged();
     }
 
     public int getRowCount() {
-        return routes.size();
+        return isPaged() ? rowCount : routes.size();
     }
 
     public int getColumnCount() {
@@ -57,27 +112,174 @@ public class RoutesListModel extends AbstractTableModel {
     }
 
     public Object getValueAt(int rowIndex, int columnIndex) {
-        return getRoute(rowIndex);
+        if (!isPaged())
+            return getRoute(rowIndex);
+
+        int page = rowIndex / PAGE_SIZE;
+        List<Route> routes = pages.get(page);
+        if (routes == null)
+            readPage(page);
+        // the direction of scrolling is unknown
+        readPage(page + 1);
+        readPage(page - 1);
+        return routes != null && rowIndex % PAGE_SIZE < routes.size() ? routes.get(rowIndex % PAGE_SIZE) : null;
+    }
+
+    private void readPage(final int page) {
+        // containsKey doesn't count as access to the page
+        if (page < 0 || page * PAGE_SIZE >= rowCount || pages.containsKey(page) || !reading.add(page))
+            return;
+
+        final Category category = this.category;
+        final int readGeneration = generation;
+        executor.execute(new Runnable() {
+            public void run() {
+                final List<Route> routes = readRoutes(category, page);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        pageRead(readGeneration, page, routes);
+                    }
+                });
+            }
+        });
+    }
+
+    private static List<Route> readRoutes(Category category, int page) {
+        try {
+            return category.getRoutes(page * PAGE_SIZE, PAGE_SIZE);
+        } catch (IOException e) {
+            log.severe("Cannot get routes: " + e.getMessage());
+            // avoid reading the page again for every row that is rendered
+            return new ArrayList<Route>();
+        }
+    }
+
+    private void pageRead(int readGeneration, int page, List<Route> routes) {
+        // ignore pages that have been read before the routes changed
+        if (readGeneration != generation)
+            return;
+        reading.remove(page);
+        addPage(page, routes);
+        int firstRow = page * PAGE_SIZE;
+        int lastRow = Math.min(firstRow + PAGE_SIZE, rowCount) - 1;
+        if (firstRow <= lastRow)
+            fireTableRowsUpdated(firstRow, lastRow);
+    }
+
+    private void addPage(int page, List<Route> routes) {
+        pages.put(page, routes);
+        Iterator<Integer> iterator = pages.keySet().iterator();
+        while (pages.size() > MAXIMUM_PAGE_COUNT) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    int getPageCount() {
+        return pages.size();
     }
 
+    /**
+     * Returns the route of the given row. Has to be called on the event dispatch thread.
+     *
+     * @param rowIndex the index of the row
+     * @return the route or null if the page of the row is not read yet, which is read then
+     */
     public Route getRoute(int rowIndex) {
-        return routes.get(rowIndex);
+        if (!isPaged())
+            return routes.get(rowIndex);
+
+        // a route is requested for a selected row, which usually has been rendered before
+        int page = rowIndex / PAGE_SIZE;
+        List<Route> routes = pages.get(page);
+        if (routes == null) {
+            readPage(page);
+            return null;
+        }
+        return rowIndex % PAGE_SIZE < routes.size() ? routes.get(rowIndex % PAGE_SIZE) : null;
+    }
+
+    private static void invokeOnEventDispatchThread(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread())
+            runnable.run();
+        else
+            SwingUtilities.invokeLater(runnable);
+    }
+
+    private void reload() {
+        generation++;
+        pages.clear();
+        reading.clear();
+
+        final Category category = this.category;
+        final int readGeneration = generation;
+        executor.execute(new Runnable() {
+            public void run() {
+                final Integer count = readRouteCount(category);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        routeCountRead(readGeneration, count);
+                    }
+                });
+            }
+        });
+    }
+
+    private static Integer readRouteCount(Category category) {
+        try {
+            return category.getRouteCount();
+        } catch (IOException e) {
+            log.severe("Cannot get route count: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void routeCountRead(int readGeneration, Integer count) {
+        if (readGeneration != generation)
+            return;
+        if (count != null)
+            rowCount = count;
+        fireTableDataChanged();
     }
 
-    public void addRoute(Route route) {
-        routes.add(route);
-        int index = routes.indexOf(route);
-        fireTableRowsInserted(index, index);
+    public void addRoute(final Route route) {
+        invokeOnEventDispatchThread(new Runnable() {
+            public void run() {
+                if (isPaged()) {
+                    reload();
+                    return;
+                }
+                routes.add(route);
+                int index = routes.indexOf(route);
+                fireTableRowsInserted(index, index);
+            }
+        });
     }
 
-    public void updateRoute(Route route) {
-        int index = routes.indexOf(route);
-        fireTableRowsUpdated(index, index);
+    public void updateRoute(final Route route) {
+        invokeOnEventDispatchThread(new Runnable() {
+            public void run() {
+                if (isPaged()) {
+                    reload();
+                    return;
+                }
+                int index = routes.indexOf(route);
+                fireTableRowsUpdated(index, index);
+            }
+        });
     }
 
-    public void deleteRoute(Route route) {
-        int index = routes.indexOf(route);
-        routes.remove(route);
-        fireTableRowsDeleted(index, index);
+    public void deleteRoute(final Route route) {
+        invokeOnEventDispatchThread(new Runnable() {
+            public void run() {
+                if (isPaged()) {
+                    reload();
+                    return;
+                }
+                int index = routes.indexOf(route);
+                routes.remove(route);
+                fireTableRowsDeleted(index, index);
+            }
+        });
     }
 }
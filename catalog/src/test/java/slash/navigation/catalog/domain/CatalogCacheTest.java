@@ -0,0 +1,120 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CatalogCacheTest {
+    private static final String URL = "http://localhost/catalog/categories/.gpx";
+    private File directory;
+    private long now = 1000000;
+
+    private CatalogCache createCache(long freshness) {
+        return new CatalogCache(directory, freshness) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("catalog", ".cache");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        createCache(0).clear();
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testPersistsDocuments() throws IOException {
+        CatalogCache cache = createCache(1000);
+        assertNull(cache.get(URL));
+        CatalogCache.Entry entry = cache.put(URL, "\"1\"", "Mon, 19 Oct 2026 10:00:00 GMT", "UTF-8", new ByteArrayInputStream("<gpx/>".getBytes()));
+        assertEquals(6, entry.getFile().length());
+
+        entry = createCache(1000).get(URL);
+        assertNotNull(entry);
+        assertEquals(URL, entry.getUrl());
+        assertEquals("\"1\"", entry.getETag());
+        assertEquals("Mon, 19 Oct 2026 10:00:00 GMT", entry.getLastModified());
+        assertEquals("UTF-8", entry.getCharSet());
+        assertEquals(now, entry.getValidated());
+        assertEquals(6, entry.getFile().length());
+    }
+
+    @Test
+    public void testFreshness() throws IOException {
+        CatalogCache cache = createCache(1000);
+        CatalogCache.Entry entry = cache.put(URL, null, null, null, new ByteArrayInputStream("<gpx/>".getBytes()));
+        assertTrue(cache.isFresh(entry));
+        now += 1000;
+        assertFalse(cache.isFresh(entry));
+
+        entry = cache.validate(entry);
+        assertTrue(cache.isFresh(entry));
+        assertEquals(now, createCache(1000).get(URL).getValidated());
+        assertNull(createCache(1000).get(URL).getETag());
+    }
+
+    @Test
+    public void testReplacesDocuments() throws IOException {
+        CatalogCache cache = createCache(1000);
+        cache.put(URL, "\"1\"", null, null, new ByteArrayInputStream("<gpx/>".getBytes()));
+        cache.put(URL, "\"2\"", null, null, new ByteArrayInputStream("<gpx></gpx>".getBytes()));
+        assertEquals("\"2\"", createCache(1000).get(URL).getETag());
+        assertEquals(11, createCache(1000).get(URL).getFile().length());
+        assertEquals(2, directory.list().length);
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        CatalogCache cache = createCache(1000);
+        cache.put(URL, null, null, null, new ByteArrayInputStream("<gpx/>".getBytes()));
+        cache.put(URL + "2", null, null, null, new ByteArrayInputStream("<gpx/>".getBytes()));
+        cache.remove(URL);
+        assertNull(cache.get(URL));
+        assertNull(createCache(1000).get(URL));
+        assertNotNull(createCache(1000).get(URL + "2"));
+    }
+
+    @Test
+    public void testEntries() throws IOException {
+        CatalogCache cache = createCache(1000);
+        assertEquals(0, cache.getEntries().size());
+        cache.put(URL, null, null, null, new ByteArrayInputStream("<gpx/>".getBytes()));
+        cache.put(URL + "1/", null, null, null, new ByteArrayInputStream("<gpx/>".getBytes()));
+        assertEquals(2, createCache(1000).getEntries().size());
+        cache.remove(URL);
+        assertEquals(URL + "1/", createCache(1000).getEntries().get(0).getUrl());
+    }
+}
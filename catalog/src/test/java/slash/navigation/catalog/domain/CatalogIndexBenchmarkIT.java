@@ -0,0 +1,120 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.domain;
+
+import org.junit.Test;
+import slash.navigation.base.Wgs84Position;
+import slash.navigation.gpx.binding11.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time to index 100000 routes in 100 categories of a {@link CatalogIndex}
+ * and the time to search them by words and within areas.
+ */
+public class CatalogIndexBenchmarkIT {
+    private static final int CATEGORIES = 100;
+    private static final int ROUTES_PER_CATEGORY = 1000;
+    private static final int QUERIES = 1000;
+    private static final String[] WORDS = {"alster", "elbe", "harbour", "lake", "forest", "mountain", "river", "coast",
+            "cycling", "hiking", "walking", "running", "sunday", "evening", "family", "tour", "loop", "trail", "bridge",
+            "castle", "village", "valley", "ridge", "island", "north", "south", "east", "west", "old", "new"};
+    private static final ObjectFactory gpxFactory = new ObjectFactory();
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static GpxType createCategory(Random random, int category) {
+        GpxType gpxType = gpxFactory.createGpxType();
+        MetadataType metadataType = gpxFactory.createMetadataType();
+        metadataType.setName("Category " + category);
+        gpxType.setMetadata(metadataType);
+        for (int i = 0; i < ROUTES_PER_CATEGORY; i++) {
+            RteType rteType = gpxFactory.createRteType();
+            rteType.setName(word(random) + " " + word(random) + " " + (category * ROUTES_PER_CATEGORY + i));
+            rteType.setDesc(word(random) + " " + word(random) + " " + word(random));
+            rteType.setSrc("user" + random.nextInt(1000));
+            LinkType linkType = gpxFactory.createLinkType();
+            linkType.setHref("http://localhost/catalog/routes/" + (category * ROUTES_PER_CATEGORY + i) + "/");
+            rteType.getLink().add(linkType);
+            // routes of up to 50 km in Europe
+            double longitude = -10.0 + random.nextDouble() * 40.0, latitude = 36.0 + random.nextDouble() * 34.0;
+            for (int j = 0; j < 2; j++) {
+                WptType wptType = gpxFactory.createWptType();
+                wptType.setLon(BigDecimal.valueOf(longitude + j * random.nextDouble() * 0.5));
+                wptType.setLat(BigDecimal.valueOf(latitude + j * random.nextDouble() * 0.5));
+                rteType.getRtept().add(wptType);
+            }
+            gpxType.getRte().add(rteType);
+        }
+        return gpxType;
+    }
+
+    @Test
+    public void testIndexAndSearch() {
+        Random random = new Random(42);
+        CatalogIndex index = new CatalogIndex();
+        GpxType[] categories = new GpxType[CATEGORIES];
+        for (int i = 0; i < CATEGORIES; i++)
+            categories[i] = createCategory(random, i);
+        long start = System.nanoTime();
+        for (int i = 0; i < CATEGORIES; i++)
+            index.updateCategory("http://localhost/catalog/categories/" + i + "/", categories[i]);
+        long indexNanos = System.nanoTime() - start;
+
+        // warm up
+        for (int i = 0; i < QUERIES; i++) {
+            index.searchRoutes(word(random).substring(0, 3), null, null, 50);
+            index.searchRoutes(null, new Wgs84Position(11.0, 51.0, null, null, null, null), new Wgs84Position(10.0, 50.0, null, null, null, null), 50);
+        }
+
+        int textHits = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            List<CatalogIndex.Entry> routes = index.searchRoutes(word(random).substring(0, 3) + " " + word(random), null, null, 50);
+            textHits += routes.size();
+        }
+        long textNanos = System.nanoTime() - start;
+
+        int areaHits = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            double longitude = -10.0 + random.nextDouble() * 40.0, latitude = 36.0 + random.nextDouble() * 34.0;
+            List<CatalogIndex.Entry> routes = index.searchRoutes(null, new Wgs84Position(longitude + 1.0, latitude + 0.5, null, null, null, null),
+                    new Wgs84Position(longitude, latitude, null, null, null, null), 50);
+            areaHits += routes.size();
+        }
+        long areaNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("%d routes: indexed in %.1f ms", index.getRouteCount(), indexNanos / 1000000.0));
+        System.out.println(String.format("%d word queries: %.3f ms/query, %.1f hits/query",
+                QUERIES, textNanos / 1000000.0 / QUERIES, (double) textHits / QUERIES));
+        System.out.println(String.format("%d area queries: %.3f ms/query, %.1f hits/query",
+                QUERIES, areaNanos / 1000000.0 / QUERIES, (double) areaHits / QUERIES));
+        assertTrue(textNanos / QUERIES < 10 * 1000000L);
+        assertTrue(areaNanos / QUERIES < 10 * 1000000L);
+    }
+}
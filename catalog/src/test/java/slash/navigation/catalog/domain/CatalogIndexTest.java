@@ -0,0 +1,210 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.domain;
+
+import org.junit.Test;
+import slash.navigation.base.Wgs84Position;
+import slash.navigation.gpx.binding11.*;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CatalogIndexTest {
+    private static final String ROOT = "http://localhost/catalog/categories/.gpx";
+    private static final ObjectFactory gpxFactory = new ObjectFactory();
+
+    private static LinkType link(String href, String text) {
+        LinkType linkType = gpxFactory.createLinkType();
+        linkType.setHref(href);
+        linkType.setText(text);
+        return linkType;
+    }
+
+    private static GpxType category(String name, String description, List<String> subCategories, RteType... routes) {
+        GpxType gpxType = gpxFactory.createGpxType();
+        MetadataType metadataType = gpxFactory.createMetadataType();
+        metadataType.setName(name);
+        metadataType.setDesc(description);
+        for (String subCategory : subCategories)
+            metadataType.getLink().add(link("http://localhost/catalog/categories/" + subCategory + "/", subCategory));
+        gpxType.setMetadata(metadataType);
+        gpxType.getRte().addAll(Arrays.asList(routes));
+        return gpxType;
+    }
+
+    private static String routeUrl(int index) {
+        return "http://localhost/catalog/routes/" + index + "/";
+    }
+
+    private static RteType route(int index, String name, String description, String creator, double... coordinates) {
+        RteType rteType = gpxFactory.createRteType();
+        rteType.setName(name);
+        rteType.setDesc(description);
+        rteType.setSrc(creator);
+        rteType.getLink().add(link(routeUrl(index), null));
+        for (int i = 0; i < coordinates.length; i += 2) {
+            WptType wptType = gpxFactory.createWptType();
+            wptType.setLon(BigDecimal.valueOf(coordinates[i]));
+            wptType.setLat(BigDecimal.valueOf(coordinates[i + 1]));
+            rteType.getRtept().add(wptType);
+        }
+        return rteType;
+    }
+
+    private static Wgs84Position position(double longitude, double latitude) {
+        return new Wgs84Position(longitude, latitude, null, null, null, null);
+    }
+
+    private static List<String> names(List<CatalogIndex.Entry> entries) {
+        List<String> result = new ArrayList<String>();
+        for (CatalogIndex.Entry entry : entries)
+            result.add(entry.getName());
+        return result;
+    }
+
+    @Test
+    public void testTokenize() {
+        assertArrayEquals(new String[]{"rund", "um", "den", "m\u00fcggelsee", "2010", "christian"},
+                CatalogIndex.tokenize("Rund um den M\u00fcggelsee (2010)", null, "christian, rund"));
+    }
+
+    @Test
+    public void testSearchesPrefixesOfAllWords() {
+        CatalogIndex index = new CatalogIndex();
+        index.updateCategory(ROOT, category("Root", "Routes of the world", Arrays.asList("Europe", "Asia"),
+                route(1, "Hamburg Harbour", "Walk along the Elbe", "christian"),
+                route(2, "Hamburg Alster", "Cycling around the lake", "anna"),
+                route(3, "Berlin Wall", "Cycling along the wall", "christian")));
+
+        assertEquals(Arrays.asList("Hamburg Alster", "Hamburg Harbour"), names(index.searchRoutes("ham", null, null, 10)));
+        assertEquals(Arrays.asList("Hamburg Alster"), names(index.searchRoutes("HAM cyc", null, null, 10)));
+        assertEquals(Arrays.asList("Berlin Wall", "Hamburg Harbour"), names(index.searchRoutes("christian", null, null, 10)));
+        assertEquals(Arrays.asList("Berlin Wall"), names(index.searchRoutes("wall chr", null, null, 10)));
+        assertEquals(Arrays.asList("Berlin Wall", "Hamburg Alster"), names(index.searchRoutes("cycling", null, null, 2)));
+        assertEquals(Arrays.asList("Berlin Wall"), names(index.searchRoutes("cycling", null, null, 1)));
+        assertEquals(0, index.searchRoutes("munich", null, null, 10).size());
+        assertEquals(0, index.searchRoutes(" ", null, null, 10).size());
+
+        assertEquals(Arrays.asList("Europe"), names(index.searchCategories("eu", 10)));
+        assertEquals(Arrays.asList("Root"), names(index.searchCategories("world", 10)));
+        assertEquals(3, index.getCategoryCount());
+        assertEquals(3, index.getRouteCount());
+    }
+
+    @Test
+    public void testSearchesWithinArea() {
+        CatalogIndex index = new CatalogIndex();
+        index.updateCategory(ROOT, category("Root", null, Collections.<String>emptyList(),
+                route(1, "Hamburg", null, null, 9.9, 53.5, 10.1, 53.6),
+                route(2, "Berlin", null, null, 13.3, 52.5, 13.5, 52.6),
+                route(3, "Europe", null, null, -9.0, 36.0, 30.0, 70.0),
+                route(4, "Unknown", null, null)));
+
+        assertEquals(Arrays.asList("Europe", "Hamburg"), names(index.searchRoutes(null, position(10.0, 53.55), position(9.95, 53.52), 10)));
+        assertEquals(Arrays.asList("Berlin", "Europe", "Hamburg"), names(index.searchRoutes(null, position(14.0, 54.0), position(9.0, 52.0), 10)));
+        assertEquals(Arrays.asList("Berlin"), names(index.searchRoutes("ber", position(14.0, 54.0), position(9.0, 52.0), 10)));
+        assertEquals(0, index.searchRoutes(null, position(0.0, 0.0), position(-1.0, -1.0), 10).size());
+        assertEquals(Arrays.asList("Berlin", "Europe", "Hamburg"), names(index.searchRoutes(null, position(180.0, 90.0), position(-180.0, -90.0), 10)));
+    }
+
+    @Test
+    public void testSameResultAsBruteForce() {
+        Random random = new Random(42);
+        List<RteType> routes = new ArrayList<RteType>();
+        for (int i = 0; i < 2000; i++) {
+            double longitude = random.nextDouble() * 20.0, latitude = 45.0 + random.nextDouble() * 10.0;
+            double size = random.nextInt(10) == 0 ? random.nextDouble() * 12.0 : random.nextDouble() * 0.5;
+            routes.add(route(i, "Route " + i, null, null, longitude, latitude, longitude + size, latitude + size));
+        }
+        CatalogIndex index = new CatalogIndex();
+        index.updateCategory(ROOT, category("Root", null, Collections.<String>emptyList(), routes.toArray(new RteType[routes.size()])));
+
+        for (int i = 0; i < 100; i++) {
+            double west = random.nextDouble() * 20.0, south = 45.0 + random.nextDouble() * 10.0;
+            double east = west + random.nextDouble() * 3.0, north = south + random.nextDouble() * 3.0;
+            Set<String> expected = new HashSet<String>();
+            for (RteType route : routes) {
+                WptType first = route.getRtept().get(0), second = route.getRtept().get(1);
+                if (first.getLat().doubleValue() <= north && second.getLat().doubleValue() >= south &&
+                        first.getLon().doubleValue() <= east && second.getLon().doubleValue() >= west)
+                    expected.add(route.getName());
+            }
+            assertEquals(expected, new HashSet<String>(names(index.searchRoutes(null, position(east, north), position(west, south), routes.size()))));
+        }
+    }
+
+    @Test
+    public void testUpdatesIncrementally() {
+        CatalogIndex index = new CatalogIndex();
+        index.updateCategory(ROOT, category("Root", null, Arrays.asList("Europe"),
+                route(1, "Hamburg", null, null), route(2, "Berlin", null, null)));
+        index.updateCategory("http://localhost/catalog/categories/Europe/", category("Europe", "Old world",
+                Collections.<String>emptyList(), route(3, "Paris", null, null)));
+
+        // the document of a route tells its bounds
+        GpxType routeDocument = gpxFactory.createGpxType();
+        routeDocument.getRte().add(route(1, "Hamburg", null, null, 9.9, 53.5, 10.1, 53.6));
+        index.updateRoute(routeUrl(1), routeDocument);
+        assertEquals(Arrays.asList("Hamburg"), names(index.searchRoutes(null, position(10.0, 54.0), position(9.0, 53.0), 10)));
+
+        // a route that is renamed keeps its bounds and a route that is not listed anymore is removed
+        index.updateCategory(ROOT, category("Root", null, Arrays.asList("Europe"), route(1, "Altona", null, null)));
+        assertEquals(Arrays.asList("Altona"), names(index.searchRoutes(null, position(10.0, 54.0), position(9.0, 53.0), 10)));
+        assertEquals(0, index.searchRoutes("hamburg", null, null, 10).size());
+        assertEquals(0, index.searchRoutes("berlin", null, null, 10).size());
+        // the description of the category from its own document is kept
+        assertEquals("Old world", index.searchCategories("europe", 10).get(0).getDescription());
+        assertEquals(ROOT, index.searchCategories("europe", 10).get(0).getCategoryUrl());
+
+        index.remove("http://localhost/catalog/categories/Europe/");
+        assertEquals(0, index.searchCategories("europe", 10).size());
+        assertEquals(0, index.searchRoutes("paris", null, null, 10).size());
+        index.remove(routeUrl(1));
+        assertEquals(0, index.searchRoutes(null, position(10.0, 54.0), position(9.0, 53.0), 10).size());
+        assertEquals(1, index.getCategoryCount());
+        assertEquals(0, index.getRouteCount());
+    }
+
+    @Test
+    public void testIndexesRoutesOfCategoryOneAtATime() {
+        CatalogIndex index = new CatalogIndex();
+        index.updateCategory(ROOT, category("Root", null, Collections.<String>emptyList(),
+                route(1, "Hamburg", null, null), route(2, "Berlin", null, null)));
+
+        CatalogIndex.CategoryUpdate update = index.updateCategory(ROOT);
+        update.metadata(category("Root", "Routes of the world", Collections.<String>emptyList()).getMetadata());
+        update.route(route(3, "Paris", null, null));
+        // a route is found as soon as it is read and the routes not listed anymore stay until the end
+        assertEquals(Arrays.asList("Paris"), names(index.searchRoutes("paris", null, null, 10)));
+        assertEquals(Arrays.asList("Berlin"), names(index.searchRoutes("berlin", null, null, 10)));
+        update.route(route(1, "Hamburg", null, null));
+        update.finish();
+
+        assertEquals(0, index.searchRoutes("berlin", null, null, 10).size());
+        assertEquals(Arrays.asList("Hamburg"), names(index.searchRoutes("hamburg", null, null, 10)));
+        assertEquals(Arrays.asList("Paris"), names(index.searchRoutes("paris", null, null, 10)));
+        assertEquals(2, index.getRouteCount());
+        assertEquals("Routes of the world", index.searchCategories("root", 10).get(0).getDescription());
+    }
+}
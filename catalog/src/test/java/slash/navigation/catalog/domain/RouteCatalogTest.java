@@ -0,0 +1,369 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.domain;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class RouteCatalogTest {
+    private static final long LARGE_CATEGORY_SIZE = 50 * 1024 * 1024;
+    private static final int LARGE_CATEGORY_ROUTES = 100;
+    private static final int TREE_WIDTH = 50, TREE_DEPTH_WIDTH = 100;
+
+    private HttpServer server;
+    private String url;
+    private File directory;
+    private final AtomicInteger treeRequests = new AtomicInteger(), notModifiedRequests = new AtomicInteger();
+    private volatile int treeVersion = 1;
+    private final List<Integer> mutableRoutes = new ArrayList<Integer>(Arrays.asList(0, 1, 2)),
+            mutableCategories = new ArrayList<Integer>(Arrays.asList(0, 1));
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("catalog", ".cache");
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Cannot create " + directory);
+        return directory;
+    }
+
+    private static String header(String description) {
+        return "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"RouteCatalog\">" +
+                "<metadata><name>Category</name><desc>" + description + "</desc>" +
+                "<link href=\"http://localhost/categories/1/\"><text>Sub</text></link></metadata>";
+    }
+
+    private static String route(int index) {
+        return "<rte><name>Route " + index + "</name><desc>Description " + index + "</desc><src>creator</src>" +
+                "<link href=\"http://localhost/routes/" + index + "/\"/></rte>";
+    }
+
+    private void send(HttpExchange exchange, String contentType, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private void sendLargeCategory(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"));
+        writer.write(header("Large"));
+        for (int i = 0; i < LARGE_CATEGORY_ROUTES; i++)
+            writer.write(route(i));
+        writer.write("<trk><name>Track</name><trkseg>");
+        String trackPoint = "<trkpt lat=\"53.5\" lon=\"10.0\"><ele>42.0</ele><name>Point</name></trkpt>";
+        for (long written = 0; written < LARGE_CATEGORY_SIZE; written += trackPoint.length())
+            writer.write(trackPoint);
+        writer.write("</trkseg></trk></gpx>");
+        writer.close();
+    }
+
+    private void sendTreeCategory(HttpExchange exchange) throws IOException {
+        // /tree/categories/.gpx is the root, /tree/categories/3/.gpx a child and /tree/categories/3-7/.gpx a leaf
+        String path = exchange.getRequestURI().getPath();
+        String id = path.substring("/tree/categories/".length(), path.length() - ".gpx".length());
+        String eTag = "\"" + id + "-" + treeVersion + "\"";
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedRequests.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        treeRequests.incrementAndGet();
+
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"RouteCatalog\">");
+        buffer.append("<metadata><name>").append(id).append("</name><desc>Version ").append(treeVersion).append("</desc>");
+        int childCount = id.length() == 0 ? TREE_WIDTH : id.contains("-") ? 0 : TREE_DEPTH_WIDTH;
+        for (int i = 0; i < childCount; i++) {
+            String childId = id.length() == 0 ? String.valueOf(i) : id.replace("/", "") + "-" + i;
+            buffer.append("<link href=\"").append(url).append("tree/categories/").append(childId).append("/.gpx\">");
+            buffer.append("<text>").append(childId).append("</text></link>");
+        }
+        buffer.append("</metadata></gpx>");
+        exchange.getResponseHeaders().set("ETag", eTag);
+        send(exchange, "text/xml; charset=UTF-8", buffer.toString().getBytes("UTF-8"));
+    }
+
+    private void sendMutable(HttpExchange exchange) throws IOException {
+        // /mutable/categories/.gpx lists the remaining categories and routes which are deleted with
+        // DELETE on /mutable/categories/3/.gpx and /mutable/routes/7/
+        String path = exchange.getRequestURI().getPath();
+        String[] parts = path.split("/");
+        synchronized (mutableRoutes) {
+            if ("DELETE".equals(exchange.getRequestMethod())) {
+                List<Integer> list = "routes".equals(parts[2]) ? mutableRoutes : mutableCategories;
+                list.remove(Integer.valueOf(parts[3]));
+                send(exchange, "text/plain", new byte[0]);
+                return;
+            }
+
+            StringBuilder buffer = new StringBuilder();
+            buffer.append("<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"RouteCatalog\">");
+            buffer.append("<metadata><name>Mutable</name>");
+            if (path.equals("/mutable/categories/.gpx"))
+                for (Integer category : mutableCategories)
+                    buffer.append("<link href=\"").append(url).append("mutable/categories/").append(category).
+                            append("/.gpx\"><text>Category ").append(category).append("</text></link>");
+            buffer.append("</metadata>");
+            if (path.equals("/mutable/categories/.gpx"))
+                for (Integer route : mutableRoutes)
+                    buffer.append("<rte><name>Route ").append(route).append("</name><link href=\"").append(url).
+                            append("mutable/routes/").append(route).append("/\"/></rte>");
+            else if (parts[2].equals("routes"))
+                buffer.append("<rte><name>Route ").append(parts[3]).append("</name>").
+                        append("<link href=\"http://localhost/files/").append(parts[3]).append("\"/></rte>");
+            buffer.append("</gpx>");
+            send(exchange, "text/xml; charset=UTF-8", buffer.toString().getBytes("UTF-8"));
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = createConcurrentServer();
+        server.createContext("/categories/.gpx", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, "text/xml; charset=UTF-8", ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + header("Root") +
+                        route(1) + "<wpt lat=\"53.5\" lon=\"10.0\"><name>Ignored</name></wpt>" + route(2) + "</gpx>").getBytes("UTF-8"));
+            }
+        });
+        server.createContext("/latin1/categories/.gpx", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, "text/xml; charset=ISO-8859-1", (header("M\u00fcnchen") + "</gpx>").getBytes("ISO-8859-1"));
+            }
+        });
+        server.createContext("/large/categories/.gpx", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                sendLargeCategory(exchange);
+            }
+        });
+        server.createContext("/tree/categories/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                sendTreeCategory(exchange);
+            }
+        });
+        server.createContext("/mutable/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                sendMutable(exchange);
+            }
+        });
+        server.start();
+        url = getUrl(server);
+        directory = createTempDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        new CatalogCache(directory, 0).clear();
+        assertTrue(directory.delete());
+    }
+
+    private RouteCatalog createCatalog(String rootUrl, long freshness) {
+        return new RouteCatalog(rootUrl, new CatalogCache(directory, freshness));
+    }
+
+    private void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (counter.get() < expected && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(expected, counter.get());
+    }
+
+    private void waitForEntry(String categoryUrl, String eTag, long validatedAfter) throws InterruptedException {
+        // the document is stored after the response has been counted
+        long end = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < end) {
+            // a new cache reads the entry from the directory
+            CatalogCache.Entry entry = new CatalogCache(directory, 0).get(categoryUrl);
+            if (entry != null && eTag.equals(entry.getETag()) && entry.getValidated() > validatedAfter)
+                return;
+            Thread.sleep(10);
+        }
+        fail("Entry " + eTag + " of " + categoryUrl + " not stored");
+    }
+
+    private int browse(Category category) throws IOException {
+        int count = 1;
+        for (Category subCategory : category.getSubCategories())
+            count += browse(subCategory);
+        return count;
+    }
+
+    @Test
+    public void testReadsMetadataAndRoutes() throws IOException {
+        Category root = createCatalog(url, CatalogCache.DEFAULT_FRESHNESS).getRootCategory();
+        assertEquals("Root", root.getDescription());
+        List<Category> categories = root.getSubCategories();
+        assertEquals(1, categories.size());
+        assertEquals("Sub", categories.get(0).getName());
+        List<Route> routes = root.getRoutes();
+        assertEquals(2, routes.size());
+        assertEquals("Route 1", routes.get(0).getName());
+        assertEquals("creator", routes.get(0).getCreator());
+        assertEquals("Description 2", routes.get(1).getDescription());
+    }
+
+    @Test
+    public void testReadsPagesOfRoutes() throws IOException {
+        Category root = createCatalog(url, CatalogCache.DEFAULT_FRESHNESS).getRootCategory();
+        assertEquals(2, root.getRouteCount());
+        List<Route> routes = root.getRoutes(1, 5);
+        assertEquals(1, routes.size());
+        assertEquals("Route 2", routes.get(0).getName());
+        assertEquals(0, root.getRoutes(2, 5).size());
+        assertEquals("Root", root.getDescription());
+    }
+
+    @Test
+    public void testUsesCharsetOfResponse() throws IOException {
+        Category root = createCatalog(url + "latin1/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory();
+        assertEquals("M\u00fcnchen", root.getDescription());
+    }
+
+    @Test
+    public void testReadsLargeCategoryWithBoundedMemory() throws Exception {
+        // a heap smaller than the response fails if the response is buffered
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx32m", "-cp", System.getProperty("java.class.path"), getClass().getName(), url + "large/", directory.getPath()).
+                redirectErrorStream(true).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line, output = "";
+        while ((line = reader.readLine()) != null)
+            output += line;
+        assertEquals(output, 0, process.waitFor());
+        assertEquals(String.valueOf(LARGE_CATEGORY_ROUTES), output);
+    }
+
+    @Test
+    public void testRevalidatesStaleDocumentsWithConditionalRequests() throws Exception {
+        String rootUrl = url + "tree/categories/.gpx";
+        assertEquals("Version 1", createCatalog(url + "tree/", 0).getRootCategory().getDescription());
+        assertEquals(1, treeRequests.get());
+        long validated = new CatalogCache(directory, 0).get(rootUrl).getValidated();
+        Thread.sleep(10);
+
+        // the stale document is returned and revalidated in the background
+        assertEquals("Version 1", createCatalog(url + "tree/", 0).getRootCategory().getDescription());
+        waitFor(notModifiedRequests, 1);
+        waitForEntry(rootUrl, "\"-1\"", validated);
+        assertEquals(1, treeRequests.get());
+
+        treeVersion = 2;
+        assertEquals("Version 1", createCatalog(url + "tree/", 0).getRootCategory().getDescription());
+        waitFor(treeRequests, 2);
+        waitForEntry(rootUrl, "\"-2\"", validated);
+        assertEquals("Version 2", createCatalog(url + "tree/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory().getDescription());
+    }
+
+    @Test
+    public void testPrefetchesSubCategories() throws Exception {
+        List<Category> categories = createCatalog(url + "tree/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory().getSubCategories();
+        assertEquals(TREE_WIDTH, categories.size());
+        waitFor(treeRequests, 1 + TREE_WIDTH);
+
+        for (Category category : categories)
+            assertEquals("Version 1", category.getDescription());
+        assertEquals(1 + TREE_WIDTH, treeRequests.get());
+    }
+
+    @Test
+    public void testBrowsesTreeFromCacheAfterFirstVisit() throws Exception {
+        int categoryCount = 1 + TREE_WIDTH + TREE_WIDTH * TREE_DEPTH_WIDTH;
+        assertEquals(categoryCount, browse(createCatalog(url + "tree/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory()));
+        // prefetching and browsing share the transfer of each document
+        assertEquals(categoryCount, treeRequests.get());
+
+        int requests = treeRequests.get() + notModifiedRequests.get();
+        assertEquals(categoryCount, browse(createCatalog(url + "tree/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory()));
+        assertEquals(requests, treeRequests.get() + notModifiedRequests.get());
+    }
+
+    @Test
+    public void testSearchesVisitedCategoriesAndRoutes() throws IOException {
+        RouteCatalog catalog = createCatalog(url, CatalogCache.DEFAULT_FRESHNESS);
+        assertEquals(0, catalog.searchRoutes("route", null, null, 10).size());
+
+        // the index is updated from the documents that are fetched
+        assertEquals(2, catalog.getRootCategory().getRoutes().size());
+        List<Route> routes = catalog.searchRoutes("route desc", null, null, 10);
+        assertEquals(2, routes.size());
+        assertEquals("Route 1", routes.get(0).getName());
+        assertEquals("Description 2", routes.get(1).getDescription());
+        assertEquals("creator", catalog.searchRoutes("2", null, null, 10).get(0).getCreator());
+        List<Category> categories = catalog.searchCategories("sub", 10);
+        assertEquals(1, categories.size());
+        assertEquals("Sub", categories.get(0).getName());
+
+        // another catalog builds its index from the cached documents
+        assertEquals(1, createCatalog(url, CatalogCache.DEFAULT_FRESHNESS).searchRoutes("route 1", null, null, 10).size());
+        assertEquals(1, createCatalog(url, CatalogCache.DEFAULT_FRESHNESS).searchCategories("root", 10).size());
+    }
+
+    private List<String> getNames(List<Route> routes) throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (Route route : routes)
+            names.add(route.getName());
+        return names;
+    }
+
+    @Test
+    public void testListsWithoutDeletedRoutesAndCategoriesWithinFreshness() throws IOException {
+        Category root = createCatalog(url + "mutable/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory();
+        List<Route> routes = root.getRoutes();
+        assertEquals(3, root.getRouteCount());
+        assertEquals(2, root.getSubCategories().size());
+
+        root.deleteRoute(routes.get(1));
+        assertEquals(2, root.getRouteCount());
+        assertEquals(Arrays.asList("Route 0", "Route 2"), getNames(root.getRoutes()));
+        // another catalog on the same cache does not read the deleted route either
+        assertEquals(2, createCatalog(url + "mutable/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory().getRoutes().size());
+
+        root.getSubCategories().get(0).delete();
+        List<Category> categories = root.getSubCategories();
+        assertEquals(1, categories.size());
+        assertEquals("Category 1", categories.get(0).getName());
+        assertEquals(1, createCatalog(url + "mutable/", CatalogCache.DEFAULT_FRESHNESS).getRootCategory().getSubCategories().size());
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.print(new RouteCatalog(args[0], new CatalogCache(new File(args[1]), 0)).getRootCategory().getRoutes().size());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.catalog.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import slash.navigation.catalog.domain.CatalogCache;
+import slash.navigation.catalog.domain.Category;
+import slash.navigation.catalog.domain.Route;
+import slash.navigation.catalog.domain.RouteCatalog;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static slash.navigation.catalog.model.RoutesListModel.MAXIMUM_PAGE_COUNT;
+import static slash.navigation.catalog.model.RoutesListModel.PAGE_SIZE;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class RoutesListModelTest {
+    private static final int ROUTE_COUNT = 25 * PAGE_SIZE + 50;
+
+    private HttpServer server;
+    private String url;
+    private File directory;
+    private final AtomicInteger requests = new AtomicInteger(), pageReads = new AtomicInteger();
+    private volatile int routeCount = ROUTE_COUNT;
+    private final Executor executor = new Executor() {
+        public void execute(Runnable command) {
+            pageReads.incrementAndGet();
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        server = createConcurrentServer();
+        server.createContext("/categories/.gpx", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                StringBuilder buffer = new StringBuilder();
+                buffer.append("<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"RouteCatalog\">");
+                buffer.append("<metadata><name>Large</name></metadata>");
+                for (int i = 0; i < routeCount; i++)
+                    buffer.append("<rte><name>Route ").append(i).append("</name><desc>Description ").append(i).
+                            append("</desc><src>creator</src><link href=\"").append(url).append("routes/").append(i).append("/\"/></rte>");
+                buffer.append("</gpx>");
+                byte[] bytes = buffer.toString().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.createContext("/routes/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String response = "";
+                if ("DELETE".equals(exchange.getRequestMethod()))
+                    routeCount--;
+                else
+                    response = "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"RouteCatalog\">" +
+                            "<rte><name>Route</name><link href=\"http://localhost/files/1\"/></rte></gpx>";
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        url = getUrl(server);
+
+        directory = File.createTempFile("catalog", ".cache");
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Cannot create " + directory);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        new CatalogCache(directory, 0).clear();
+        assertTrue(directory.delete());
+    }
+
+    private Category createCategory() {
+        return new RouteCatalog(url, new CatalogCache(directory, CatalogCache.DEFAULT_FRESHNESS)).getRootCategory();
+    }
+
+    private RoutesListModel createModel(Category category) throws IOException {
+        return new RoutesListModel(category, category.getRouteCount(), executor);
+    }
+
+    private RoutesListModel createModel() throws IOException {
+        return createModel(createCategory());
+    }
+
+    private void applyReadPages() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+            }
+        });
+    }
+
+    private Route valueAt(final RoutesListModel model, final int rowIndex) throws Exception {
+        final Route[] result = new Route[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                result[0] = (Route) model.getValueAt(rowIndex, 0);
+            }
+        });
+        applyReadPages();
+        return result[0];
+    }
+
+    private Route routeAt(final RoutesListModel model, final int rowIndex) throws Exception {
+        final Route[] result = new Route[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                result[0] = model.getRoute(rowIndex);
+            }
+        });
+        applyReadPages();
+        return result[0];
+    }
+
+    private int rowCount(final RoutesListModel model) throws Exception {
+        final int[] result = new int[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                result[0] = model.getRowCount();
+            }
+        });
+        return result[0];
+    }
+
+    @Test
+    public void testReadsPagesOnDemand() throws Exception {
+        RoutesListModel model = createModel();
+        assertEquals(ROUTE_COUNT, model.getRowCount());
+        assertEquals(0, pageReads.get());
+
+        assertNull(valueAt(model, 0));
+        assertEquals("Route 0", valueAt(model, 0).getName());
+        assertEquals("Description 99", valueAt(model, 99).getDescription());
+        assertEquals("creator", valueAt(model, 99).getCreator());
+        // the first page and the one ahead of it
+        assertEquals(2, pageReads.get());
+
+        assertNull(valueAt(model, ROUTE_COUNT - 1));
+        assertEquals("Route " + (ROUTE_COUNT - 1), valueAt(model, ROUTE_COUNT - 1).getName());
+        assertEquals(4, pageReads.get());
+    }
+
+    @Test
+    public void testReadsNeighbourPagesAhead() throws Exception {
+        RoutesListModel model = createModel();
+        valueAt(model, 5 * PAGE_SIZE);
+        assertEquals(3, pageReads.get());
+        assertEquals("Route " + (6 * PAGE_SIZE), valueAt(model, 6 * PAGE_SIZE).getName());
+        assertEquals("Route " + (4 * PAGE_SIZE + 1), valueAt(model, 4 * PAGE_SIZE + 1).getName());
+        // rendering a page reads its missing neighbours ahead
+        assertEquals(5, pageReads.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyRenderedPages() throws Exception {
+        RoutesListModel model = createModel();
+        for (int row = 0; row < ROUTE_COUNT; row += PAGE_SIZE / 2) {
+            valueAt(model, row);
+            assertTrue(model.getPageCount() <= MAXIMUM_PAGE_COUNT);
+        }
+        assertEquals(MAXIMUM_PAGE_COUNT, model.getPageCount());
+
+        // evicted pages are read again
+        int reads = pageReads.get();
+        assertNull(valueAt(model, 0));
+        assertEquals("Route 0", valueAt(model, 0).getName());
+        assertTrue(pageReads.get() > reads);
+    }
+
+    @Test
+    public void testReadsDocumentOnceForAllPages() throws Exception {
+        RoutesListModel model = createModel();
+        for (int row = 0; row < ROUTE_COUNT; row += PAGE_SIZE / 2)
+            valueAt(model, row);
+        assertNull(routeAt(model, 1234));
+        assertEquals("Route 1234", routeAt(model, 1234).getName());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testReloadsOnEventDispatchThreadAfterDelete() throws Exception {
+        Category category = createCategory();
+        RoutesListModel model = createModel(category);
+        final List<Boolean> onEventDispatchThread = new ArrayList<Boolean>();
+        model.addTableModelListener(new TableModelListener() {
+            public void tableChanged(TableModelEvent e) {
+                onEventDispatchThread.add(SwingUtilities.isEventDispatchThread());
+            }
+        });
+        valueAt(model, 0);
+        Route route = valueAt(model, 0);
+
+        // like the route service, delete off the event dispatch thread
+        category.deleteRoute(route);
+        model.deleteRoute(route);
+        applyReadPages();
+        applyReadPages();
+
+        assertEquals(ROUTE_COUNT - 1, rowCount(model));
+        assertEquals(0, model.getPageCount());
+        assertFalse(onEventDispatchThread.contains(false));
+        // the category document is read again after the delete
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testNotifiesUpdatedRows() throws Exception {
+        RoutesListModel model = createModel();
+        final List<TableModelEvent> events = new ArrayList<TableModelEvent>();
+        model.addTableModelListener(new TableModelListener() {
+            public void tableChanged(TableModelEvent e) {
+                events.add(e);
+            }
+        });
+        valueAt(model, ROUTE_COUNT - 1);
+        assertEquals(2, events.size());
+        assertEquals(TableModelEvent.UPDATE, events.get(0).getType());
+        assertEquals(ROUTE_COUNT - PAGE_SIZE / 2, events.get(0).getFirstRow());
+        assertEquals(ROUTE_COUNT - 1, events.get(0).getLastRow());
+        assertEquals(ROUTE_COUNT - PAGE_SIZE / 2 - PAGE_SIZE, events.get(1).getFirstRow());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.common.io;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allows to perform customizable {@link ConcurrentRangeOperation}s on indexed elements
+ * with a pool of worker threads that look up the results while the calling thread applies
+ * them in the order of the indices with another customizable operation after a continuous
+ * range. The results end up at the same elements whatever order the lookups complete in.
+ *
+ * @author Christian Pesch
+ * @see ConcurrentRangeOperation
+ * @see ContinousRange
+ */
+
+public class ConcurrentRange<T> {
+    private final int[] indices;
+    private final int threadCount;
+    private final String name;
+    private final ConcurrentRangeOperation<T> operation;
+
+    public ConcurrentRange(int[] indices, int threadCount, String name, ConcurrentRangeOperation<T> operation) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count " + threadCount + " is less than 1");
+        this.indices = indices;
+        this.threadCount = threadCount;
+        this.name = name;
+        this.operation = operation;
+    }
+
+    public void performMonotonicallyIncreasing(int maximumRangeLength) {
+        perform(Range.asContinuousMonotonicallyIncreasingRanges(indices, maximumRangeLength));
+    }
+
+    private ExecutorService createExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void perform(List<List<Integer>> ranges) {
+        if (threadCount == 1) {
+            performSequentially(ranges);
+            return;
+        }
+
+        ExecutorService executor = createExecutor();
+        try {
+            // submit the lookups in the order the results are applied
+            final Map<Integer, Future<T>> futures = new HashMap<Integer, Future<T>>(indices.length);
+            for (List<Integer> range : ranges) {
+                for (final Integer index : range) {
+                    futures.put(index, executor.submit(new Callable<T>() {
+                        public T call() throws Exception {
+                            return operation.lookup(index);
+                        }
+                    }));
+                }
+            }
+
+            for (List<Integer> range : ranges) {
+                for (Integer index : range) {
+                    Future<T> future = futures.remove(index);
+                    try {
+                        operation.performOnResult(index, future.get());
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        operation.performOnException(index, cause instanceof Exception ? (Exception) cause : e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    if (operation.isInterrupted())
+                        return;
+                }
+                performOnRange(range);
+                if (operation.isInterrupted())
+                    return;
+            }
+        } finally {
+            // interrupts the lookups that are still running after an interruption
+            executor.shutdownNow();
+        }
+    }
+
+    private void performSequentially(List<List<Integer>> ranges) {
+        for (List<Integer> range : ranges) {
+            for (Integer index : range) {
+                try {
+                    operation.performOnResult(index, operation.lookup(index));
+                } catch (Exception e) {
+                    operation.performOnException(index, e);
+                }
+                if (operation.isInterrupted())
+                    return;
+            }
+            performOnRange(range);
+            if (operation.isInterrupted())
+                return;
+        }
+    }
+
+    private void performOnRange(List<Integer> range) {
+        int firstValue = range.get(0);
+        int lastValue = range.get(range.size() - 1);
+        operation.performOnRange(Math.min(firstValue, lastValue), Math.max(firstValue, lastValue));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.common.io;
+
+/**
+ * Operation to perform on indexed elements that looks up a result for each
+ * element concurrently and applies the results in the order of the elements.
+ *
+ * @author Christian Pesch
+ *
+ * @see ConcurrentRange
+ */
+
+public interface ConcurrentRangeOperation<T> {
+    T lookup(int index) throws Exception;
+    void performOnResult(int index, T result);
+    void performOnException(int index, Exception exception);
+    void performOnRange(int firstIndex, int lastIndex);
+    boolean isInterrupted();
+}
@@ -0,0 +1,211 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.common.io;
+
+import java.util.*;
+
+/**
+ * Caches results of lookups for positions and answers a lookup for a position with the
+ * result of the nearest cached position within a radius.
+ * <p/>
+ * The positions are hashed into a grid with cells at least as large as the radius so that
+ * a lookup only compares the positions of the neighbouring cells. If the maximum number of
+ * results is exceeded, the earliest cached result is evicted. The cache is safe for
+ * concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class NearByCache<T> {
+    private static final double EARTH_RADIUS = 6378137.0;
+    private static final double METERS_PER_DEGREE = 2 * Math.PI * EARTH_RADIUS / 360.0;
+    private static final double MINIMUM_RADIUS = 0.01; // m
+    private static final double MINIMUM_COSINE = 0.001;
+
+    private final double radius;
+    private final int maximumCount;
+    private final double latitudeCellSize;
+    private final Map<Cell, List<Entry<T>>> cells = new HashMap<Cell, List<Entry<T>>>();
+    private final LinkedList<Entry<T>> entries = new LinkedList<Entry<T>>();
+    private long hitCount = 0, missCount = 0;
+
+    /**
+     * @param radius       the maximum distance in meters between a position and a cached
+     *                     position to answer the lookup with the result of the cached position
+     * @param maximumCount the maximum number of cached results
+     */
+    public NearByCache(double radius, int maximumCount) {
+        if (radius < 0.0)
+            throw new IllegalArgumentException("Radius " + radius + " is negative");
+        if (maximumCount < 1)
+            throw new IllegalArgumentException("Maximum count " + maximumCount + " is less than 1");
+        this.radius = radius;
+        this.maximumCount = maximumCount;
+        this.latitudeCellSize = Math.max(radius, MINIMUM_RADIUS) / METERS_PER_DEGREE;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / latitudeCellSize);
+    }
+
+    private double longitudeCellSize(int row) {
+        // the cells of a row are narrowest at the poleward edge of the neighbour rows
+        double poleward = Math.min(Math.max(Math.abs(row - 1), Math.abs(row + 2)) * latitudeCellSize, 90.0);
+        return latitudeCellSize / Math.max(Math.cos(Math.toRadians(poleward)), MINIMUM_COSINE);
+    }
+
+    private int column(double longitude, int row) {
+        return (int) Math.floor(longitude / longitudeCellSize(row));
+    }
+
+    static double distance(double longitude1, double latitude1, double longitude2, double latitude2) {
+        double deltaLatitude = Math.toRadians(latitude2 - latitude1);
+        double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(deltaLatitude / 2) * Math.sin(deltaLatitude / 2) +
+                Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) *
+                        Math.sin(deltaLongitude / 2) * Math.sin(deltaLongitude / 2);
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Returns the result of the nearest cached position within the radius.
+     *
+     * @param longitude the longitude of the position
+     * @param latitude  the latitude of the position
+     * @return the result of the nearest cached position or null if there is none within the radius
+     */
+    public synchronized T get(double longitude, double latitude) {
+        Entry<T> nearest = null;
+        double nearestDistance = Double.MAX_VALUE;
+        int row = row(latitude);
+        for (int r = row - 1; r <= row + 1; r++) {
+            int column = column(longitude, r);
+            for (int c = column - 1; c <= column + 1; c++) {
+                List<Entry<T>> list = cells.get(new Cell(r, c));
+                if (list == null)
+                    continue;
+                for (Entry<T> entry : list) {
+                    double distance = distance(longitude, latitude, entry.longitude, entry.latitude);
+                    if (distance <= radius && distance < nearestDistance) {
+                        nearest = entry;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+        if (nearest == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return nearest.value;
+    }
+
+    /**
+     * Caches the result of the lookup for the given position and evicts the earliest
+     * cached result if the maximum number of results is exceeded.
+     *
+     * @param longitude the longitude of the position
+     * @param latitude  the latitude of the position
+     * @param value     the result of the lookup
+     */
+    public synchronized void put(double longitude, double latitude, T value) {
+        int row = row(latitude);
+        Entry<T> entry = new Entry<T>(new Cell(row, column(longitude, row)), longitude, latitude, value);
+        List<Entry<T>> list = cells.get(entry.cell);
+        if (list == null) {
+            list = new ArrayList<Entry<T>>(1);
+            cells.put(entry.cell, list);
+        }
+        list.add(entry);
+        entries.add(entry);
+
+        while (entries.size() > maximumCount) {
+            Entry<T> eldest = entries.removeFirst();
+            List<Entry<T>> eldestList = cells.get(eldest.cell);
+            eldestList.remove(eldest);
+            if (eldestList.isEmpty())
+                cells.remove(eldest.cell);
+        }
+    }
+
+    public synchronized void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[radius=" + radius + ", count=" + entries.size() +
+                ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+
+    private static class Cell {
+        private final int row;
+        private final int column;
+
+        Cell(int row, int column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Cell cell = (Cell) o;
+            return row == cell.row && column == cell.column;
+        }
+
+        public int hashCode() {
+            return 31 * row + column;
+        }
+    }
+
+    private static class Entry<T> {
+        private final Cell cell;
+        private final double longitude;
+        private final double latitude;
+        private final T value;
+
+        Entry(Cell cell, double longitude, double latitude, T value) {
+            this.cell = cell;
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.value = value;
+        }
+    }
+}
@@ -57,6 +57,14 @@ public class NotClosingUnderlyingInputStream extends InputStream {
         return delegate.read();
     }
 
+    public int read(byte[] b, int off, int len) throws IOException {
+        return delegate.read(b, off, len);
+    }
+
+    public long skip(long n) throws IOException {
+        return delegate.skip(n);
+    }
+
     public void closeUnderlyingInputStream() throws IOException {
         delegate.close();
     }
@@ -0,0 +1,153 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.common.io;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentRangeTest {
+
+    /**
+     * Stands in for a slow web service with a random latency per request.
+     */
+    private static class SlowOperation implements ConcurrentRangeOperation<String> {
+        private final Random random = new Random(42);
+        private final long[] latencies;
+        private final AtomicInteger concurrent = new AtomicInteger(), maximumConcurrent = new AtomicInteger();
+        private final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        private final List<Integer> resultIndices = new ArrayList<Integer>();
+        private final Map<Integer, String> results = new HashMap<Integer, String>();
+        private final Map<Integer, Exception> exceptions = new HashMap<Integer, Exception>();
+        private final List<int[]> ranges = new ArrayList<int[]>();
+        private int failingIndex = -1, interruptAfter = Integer.MAX_VALUE;
+
+        SlowOperation(int count, long maximumLatency) {
+            latencies = new long[count];
+            for (int i = 0; i < count; i++)
+                latencies[i] = (long) (random.nextDouble() * maximumLatency);
+        }
+
+        public String lookup(int index) throws Exception {
+            threadNames.add(Thread.currentThread().getName());
+            int current = concurrent.incrementAndGet();
+            synchronized (maximumConcurrent) {
+                maximumConcurrent.set(Math.max(maximumConcurrent.get(), current));
+            }
+            try {
+                Thread.sleep(latencies[index]);
+                if (index == failingIndex)
+                    throw new Exception("failed " + index);
+                return "result " + index;
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        public void performOnResult(int index, String result) {
+            resultIndices.add(index);
+            results.put(index, result);
+        }
+
+        public void performOnException(int index, Exception exception) {
+            resultIndices.add(index);
+            exceptions.put(index, exception);
+        }
+
+        public void performOnRange(int firstIndex, int lastIndex) {
+            ranges.add(new int[]{firstIndex, lastIndex});
+        }
+
+        public boolean isInterrupted() {
+            return resultIndices.size() >= interruptAfter;
+        }
+    }
+
+    private int[] indices(int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++)
+            result[i] = i;
+        return result;
+    }
+
+    @Test
+    public void testAppliesResultsInOrder() {
+        SlowOperation operation = new SlowOperation(100, 20);
+        operation.failingIndex = 42;
+        new ConcurrentRange<String>(new int[]{99, 5, 6, 7, 42, 8, 43, 70, 71}, 8, "test", operation).performMonotonicallyIncreasing(3);
+
+        assertEquals(Arrays.asList(5, 6, 7, 8, 42, 43, 70, 71, 99), operation.resultIndices);
+        for (Integer index : operation.results.keySet())
+            assertEquals("result " + index, operation.results.get(index));
+        assertEquals(Collections.singleton(42), operation.exceptions.keySet());
+        assertEquals("failed 42", operation.exceptions.get(42).getMessage());
+
+        List<String> ranges = new ArrayList<String>();
+        for (int[] range : operation.ranges)
+            ranges.add(range[0] + "-" + range[1]);
+        assertEquals(Arrays.asList("5-7", "8-8", "42-43", "70-71", "99-99"), ranges);
+    }
+
+    @Test
+    public void testLooksUpConcurrently() {
+        SlowOperation operation = new SlowOperation(200, 20);
+        long start = System.currentTimeMillis();
+        new ConcurrentRange<String>(indices(200), 8, "test", operation).performMonotonicallyIncreasing(10);
+        long millis = System.currentTimeMillis() - start;
+
+        long sequentialMillis = 0;
+        for (long latency : operation.latencies)
+            sequentialMillis += latency;
+        assertEquals(200, operation.results.size());
+        assertEquals(8, operation.maximumConcurrent.get());
+        assertTrue("took " + millis + " ms instead of " + sequentialMillis, millis < sequentialMillis / 3);
+        assertEquals(20, operation.ranges.size());
+    }
+
+    @Test
+    public void testSameResultsSequentially() {
+        SlowOperation sequential = new SlowOperation(50, 1);
+        new ConcurrentRange<String>(indices(50), 1, "test", sequential).performMonotonicallyIncreasing(7);
+        SlowOperation concurrent = new SlowOperation(50, 1);
+        new ConcurrentRange<String>(indices(50), 4, "test", concurrent).performMonotonicallyIncreasing(7);
+
+        assertEquals(sequential.resultIndices, concurrent.resultIndices);
+        assertEquals(sequential.results, concurrent.results);
+        assertEquals(1, sequential.threadNames.size());
+        assertFalse(concurrent.threadNames.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testInterrupt() throws InterruptedException {
+        SlowOperation operation = new SlowOperation(1000, 10);
+        operation.interruptAfter = 25;
+        new ConcurrentRange<String>(indices(1000), 4, "test", operation).performMonotonicallyIncreasing(10);
+
+        assertEquals(25, operation.resultIndices.size());
+        assertEquals(2, operation.ranges.size());
+        // the remaining lookups are dropped or interrupted
+        Thread.sleep(50);
+        assertEquals(0, operation.concurrent.get());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.common.io;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NearByCacheTest {
+    private static final double METERS_PER_DEGREE = 2 * Math.PI * 6378137.0 / 360.0;
+
+    @Test
+    public void testDistance() {
+        assertEquals(0.0, NearByCache.distance(10.0, 53.0, 10.0, 53.0), 0.0001);
+        assertEquals(METERS_PER_DEGREE, NearByCache.distance(10.0, 53.0, 10.0, 54.0), 0.01);
+        assertEquals(METERS_PER_DEGREE * Math.cos(Math.toRadians(60.0)), NearByCache.distance(10.0, 60.0, 11.0, 60.0), 10.0);
+    }
+
+    @Test
+    public void testAnswersWithinRadius() {
+        NearByCache<String> cache = new NearByCache<String>(100.0, 10);
+        assertNull(cache.get(10.0, 53.0));
+        cache.put(10.0, 53.0, "a");
+        assertEquals("a", cache.get(10.0, 53.0));
+        assertEquals("a", cache.get(10.0, 53.0 + 99.0 / METERS_PER_DEGREE));
+        assertNull(cache.get(10.0, 53.0 + 101.0 / METERS_PER_DEGREE));
+        assertNull(cache.get(10.0 + 101.0 / METERS_PER_DEGREE / Math.cos(Math.toRadians(53.0)), 53.0));
+        assertEquals(3, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testAnswersWithNearest() {
+        NearByCache<String> cache = new NearByCache<String>(100.0, 10);
+        cache.put(10.0, 53.0, "a");
+        cache.put(10.0, 53.0 + 80.0 / METERS_PER_DEGREE, "b");
+        assertEquals("a", cache.get(10.0, 53.0 + 30.0 / METERS_PER_DEGREE));
+        assertEquals("b", cache.get(10.0, 53.0 + 50.0 / METERS_PER_DEGREE));
+    }
+
+    @Test
+    public void testZeroRadiusAnswersExactPositions() {
+        NearByCache<String> cache = new NearByCache<String>(0.0, 10);
+        cache.put(10.0, 53.0, "a");
+        assertEquals("a", cache.get(10.0, 53.0));
+        assertNull(cache.get(10.0, 53.0001));
+    }
+
+    @Test
+    public void testEvictsEarliest() {
+        NearByCache<String> cache = new NearByCache<String>(10.0, 2);
+        cache.put(10.0, 53.0, "a");
+        cache.put(11.0, 53.0, "b");
+        cache.put(12.0, 53.0, "c");
+        assertEquals(2, cache.getCount());
+        assertNull(cache.get(10.0, 53.0));
+        assertEquals("b", cache.get(11.0, 53.0));
+        assertEquals("c", cache.get(12.0, 53.0));
+    }
+
+    @Test
+    public void testSameResultAsBruteForce() {
+        Random random = new Random(42);
+        for (double latitude : new double[]{-89.99, -60.0, 0.0, 45.0, 70.0, 89.9}) {
+            NearByCache<Integer> cache = new NearByCache<Integer>(50.0, 1000);
+            double[] longitudes = new double[200], latitudes = new double[200];
+            for (int i = 0; i < longitudes.length; i++) {
+                longitudes[i] = random.nextDouble() * 0.01;
+                latitudes[i] = latitude + random.nextDouble() * 0.005;
+                cache.put(longitudes[i], latitudes[i], i);
+            }
+            for (int j = 0; j < 200; j++) {
+                double longitude = random.nextDouble() * 0.01, lat = latitude + random.nextDouble() * 0.005;
+                Integer expected = null;
+                double nearest = Double.MAX_VALUE;
+                for (int i = 0; i < longitudes.length; i++) {
+                    double distance = NearByCache.distance(longitude, lat, longitudes[i], latitudes[i]);
+                    if (distance <= 50.0 && distance < nearest) {
+                        expected = i;
+                        nearest = distance;
+                    }
+                }
+                assertEquals(expected, cache.get(longitude, lat));
+            }
+        }
+    }
+}
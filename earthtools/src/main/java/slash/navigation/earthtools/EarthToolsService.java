@@ -23,12 +23,17 @@ package slash.navigation.earthtools;
 import slash.common.io.Transfer;
 import slash.navigation.earthtools.binding.Height;
 import slash.navigation.rest.Get;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.TokenBucket;
 
 import java.io.IOException;
 import java.util.prefs.Preferences;
 
 /**
  * Encapsulates REST access to the earthtools.org service.
+ * <p/>
+ * The responses are cached in a {@link ResponseCache} and the requests are limited
+ * by a {@link TokenBucket} that is shared by all instances.
  *
  * @author Christian Pesch
  */
@@ -36,25 +41,65 @@ import java.util.prefs.Preferences;
 public class EarthToolsService {
     private static final Preferences preferences = Preferences.userNodeForPackage(EarthToolsService.class);
     private static final String GEONAMES_URL_PREFERENCE = "earthtoolsUrl";
+    private static final String REQUESTS_PER_SECOND_PREFERENCE = "earthtoolsRequestsPerSecond";
+    // earthtools.org asks for no more than one request per second
+    private static final TokenBucket rateLimit = new TokenBucket(preferences.getDouble(REQUESTS_PER_SECOND_PREFERENCE, 1.0));
+
+    private final String url;
+    private final ResponseCache cache;
+    private final TokenBucket requestLimit;
+
+    public EarthToolsService(String url, ResponseCache cache, TokenBucket requestLimit) {
+        this.url = url;
+        this.cache = cache;
+        this.requestLimit = requestLimit;
+    }
+
+    public EarthToolsService(String url, ResponseCache cache) {
+        this(url, cache, rateLimit);
+    }
+
+    public EarthToolsService() {
+        this(getEarthToolsUrlPreference(), ResponseCache.getDefault());
+    }
 
     private static String getEarthToolsUrlPreference() {
         return preferences.get(GEONAMES_URL_PREFERENCE, "http://www.earthtools.org/");
     }
 
+    private static String createKey(double longitude, double latitude) {
+        return ResponseCache.createKey("earthtools", "height", longitude, latitude);
+    }
+
+    public boolean isCached(double longitude, double latitude) {
+        return cache.contains(createKey(longitude, latitude));
+    }
+
+    public boolean isBacklogged() {
+        return requestLimit.isBacklogged();
+    }
+
     public Integer getElevationFor(double longitude, double latitude) throws IOException {
-        Get get = new Get(getEarthToolsUrlPreference() + "height/" + latitude + "/" + longitude);
-        String result = get.execute();
-        if (get.isSuccessful())
-            try {
-                Height height = EarthToolsUtil.unmarshal(result);
-                Integer elevation = Transfer.parseInt(height.getMeters());
-                if (elevation != null && !elevation.equals(-9999))
-                    return elevation;
-            } catch (Exception e) {
-                IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
-                io.setStackTrace(e.getStackTrace());
-                throw io;
-            }
+        String key = createKey(longitude, latitude);
+        String result = cache.get(key);
+        if (result == null) {
+            requestLimit.acquire();
+            Get get = new Get(url + "height/" + latitude + "/" + longitude);
+            result = get.execute();
+            if (!get.isSuccessful())
+                return null;
+        }
+        try {
+            Height height = EarthToolsUtil.unmarshal(result);
+            Integer elevation = Transfer.parseInt(height.getMeters());
+            cache.put(key, result);
+            if (elevation != null && !elevation.equals(-9999))
+                return elevation;
+        } catch (Exception e) {
+            IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
+            io.setStackTrace(e.getStackTrace());
+            throw io;
+        }
         return null;
     }
-}
\ No newline at end of file
+}
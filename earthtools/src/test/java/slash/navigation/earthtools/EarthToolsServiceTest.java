@@ -0,0 +1,89 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.earthtools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import slash.navigation.rest.ResponseCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class EarthToolsServiceTest {
+    private HttpServer server;
+    private String url;
+    private File file;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = createServer();
+        server.createContext("/height", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                byte[] body = ("<height><version>1.0</version><location><latitude>53.0</latitude><longitude>10.0</longitude></location>" +
+                        "<meters>12</meters><feet>39.4</feet></height>").getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        url = getUrl(server);
+        file = File.createTempFile("responses", ".cache");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        if (file.exists())
+            assertTrue(file.delete());
+    }
+
+    @Test
+    public void testCachesElevation() throws IOException {
+        ResponseCache cache = new ResponseCache(file);
+        EarthToolsService service = new EarthToolsService(url, cache);
+        for (int i = 0; i < 10; i++)
+            assertEquals(12, service.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(1, requests.get());
+        assertEquals(0.9, cache.getHitRate(), 0.0001);
+        cache.close();
+
+        ResponseCache reopened = new ResponseCache(file);
+        assertEquals(12, new EarthToolsService(url, reopened).getElevationFor(10.0, 53.0).intValue());
+        assertEquals(1, requests.get());
+        reopened.close();
+    }
+}
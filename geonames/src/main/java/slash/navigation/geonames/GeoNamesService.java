@@ -20,9 +20,13 @@
 
 package slash.navigation.geonames;
 
+import slash.common.io.NearByCache;
 import slash.common.io.Transfer;
 import slash.navigation.geonames.binding.Geonames;
 import slash.navigation.rest.Get;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.SingleFlight;
+import slash.navigation.rest.TokenBucket;
 
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
@@ -32,6 +36,11 @@ import java.util.prefs.Preferences;
 
 /**
  * Encapsulates REST access to the geonames.org service.
+ * <p/>
+ * The responses are cached in a {@link ResponseCache} and the populated places are cached
+ * in a {@link NearByCache}, which answers lookups for positions near a cached position.
+ * The requests are limited by a {@link TokenBucket} and concurrent identical requests are
+ * coalesced by a {@link SingleFlight}, which are shared by all instances.
  *
  * @author Christian Pesch
  */
@@ -39,17 +48,72 @@ import java.util.prefs.Preferences;
 public class GeoNamesService {
     private static final Preferences preferences = Preferences.userNodeForPackage(GeoNamesService.class);
     private static final String GEONAMES_URL_PREFERENCE = "geonamesUrl";
+    private static final String NEAR_BY_RADIUS_PREFERENCE = "nearByRadius";
+    private static final String REQUESTS_PER_SECOND_PREFERENCE = "geonamesRequestsPerSecond";
+    private static final String SERVICE = "geonames";
+    public static final double DEFAULT_NEAR_BY_RADIUS = 500.0;
+    private static final int MAXIMUM_NEAR_BY_COUNT = 10000;
+    private static final TokenBucket rateLimit = new TokenBucket(preferences.getDouble(REQUESTS_PER_SECOND_PREFERENCE, 4.0));
+    private static final SingleFlight<String, Integer> elevationCalls = new SingleFlight<String, Integer>();
+    private static final SingleFlight<String, Geonames> geonamesCalls = new SingleFlight<String, Geonames>();
+
+    private final String url;
+    private final ResponseCache cache;
+    private final NearByCache<String> nearByCache;
+    private final TokenBucket requestLimit;
+
+    public GeoNamesService(String url, ResponseCache cache, NearByCache<String> nearByCache, TokenBucket requestLimit) {
+        this.url = url;
+        this.cache = cache;
+        this.nearByCache = nearByCache;
+        this.requestLimit = requestLimit;
+    }
+
+    public GeoNamesService(String url, ResponseCache cache, NearByCache<String> nearByCache) {
+        this(url, cache, nearByCache, rateLimit);
+    }
+
+    public GeoNamesService(String url, ResponseCache cache) {
+        this(url, cache, new NearByCache<String>(preferences.getDouble(NEAR_BY_RADIUS_PREFERENCE, DEFAULT_NEAR_BY_RADIUS), MAXIMUM_NEAR_BY_COUNT));
+    }
+
+    public GeoNamesService() {
+        this(getGeoNamesUrlPreference(), ResponseCache.getDefault());
+    }
+
+    public NearByCache<String> getNearByCache() {
+        return nearByCache;
+    }
 
     private static String getGeoNamesUrlPreference() {
         return preferences.get(GEONAMES_URL_PREFERENCE, "http://ws.geonames.org/");
     }
 
-    private Integer getElevationFor(String uri, double longitude, double latitude, Integer nullValue) throws IOException {
-        Get get = new Get(getGeoNamesUrlPreference() + uri + "?lat=" + latitude + "&lng=" + longitude);
-        String result = get.execute();
-        if (get.isSuccessful())
+    private String execute(String uri, String key) throws IOException {
+        String result = cache.get(key);
+        if (result != null)
+            return result;
+        requestLimit.acquire();
+        Get get = new Get(url + uri);
+        result = get.execute();
+        return get.isSuccessful() ? result : null;
+    }
+
+    private Integer getElevationFor(final String uri, final double longitude, final double latitude, final Integer nullValue) throws IOException {
+        final String key = ResponseCache.createKey(SERVICE, uri, longitude, latitude);
+        return elevationCalls.execute(key, new SingleFlight.Call<Integer>() {
+            public Integer call() throws IOException {
+                return fetchElevationFor(uri + "?lat=" + latitude + "&lng=" + longitude, key, nullValue);
+            }
+        });
+    }
+
+    private Integer fetchElevationFor(String uri, String key, Integer nullValue) throws IOException {
+        String result = execute(uri, key);
+        if (result != null)
             try {
                 Integer elevation = Transfer.parseInt(result);
+                cache.put(key, result);
                 if (elevation != null && !elevation.equals(nullValue))
                     return elevation;
             } catch (NumberFormatException e) {
@@ -68,19 +132,42 @@ public class GeoNamesService {
         return getElevationFor("gtopo30", longitude, latitude, -9999);
     }
 
+    private static String getElevationUri(double latitude) {
+        return latitude < 60.0 && latitude > -56.0 ? "srtm3" : "gtopo30";
+    }
+
     public Integer getElevationFor(double longitude, double latitude) throws IOException {
-        if (latitude < 60.0 && latitude > -56.0)
+        if (getElevationUri(latitude).equals("srtm3"))
             return getSrtm3ElevationFor(longitude, latitude);
         else
             return getGtopo30ElevationFor(longitude, latitude);
     }
 
-    private Geonames getGeonamesFor(String uri) throws IOException {
-        Get get = new Get(getGeoNamesUrlPreference() + uri);
-        String result = get.execute();
-        if (get.isSuccessful())
+    public boolean isElevationCached(double longitude, double latitude) {
+        return cache.contains(ResponseCache.createKey(SERVICE, getElevationUri(latitude), longitude, latitude));
+    }
+
+    public boolean isBacklogged() {
+        return requestLimit.isBacklogged();
+    }
+
+    private Geonames getGeonamesFor(final String uri, final String key) throws IOException {
+        return geonamesCalls.execute(key, new SingleFlight.Call<Geonames>() {
+            public Geonames call() throws IOException {
+                return fetchGeonamesFor(uri, key);
+            }
+        });
+    }
+
+    private Geonames fetchGeonamesFor(String uri, String key) throws IOException {
+        String result = execute(uri, key);
+        if (result != null)
             try {
-                return GeoNamesUtil.unmarshal(result);
+                Geonames geonames = GeoNamesUtil.unmarshal(result);
+                // don't cache errors like an exceeded limit of requests
+                if (geonames != null && geonames.getStatus() == null)
+                    cache.put(key, result);
+                return geonames;
             } catch (JAXBException e) {
                 IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
                 io.setStackTrace(e.getStackTrace());
@@ -90,7 +177,7 @@ public class GeoNamesService {
     }
 
     private Geonames getGeonamesFor(String uri, double longitude, double latitude) throws IOException {
-        return getGeonamesFor(uri + "?lat=" + latitude + "&lng=" + longitude);
+        return getGeonamesFor(uri + "?lat=" + latitude + "&lng=" + longitude, ResponseCache.createKey(SERVICE, uri, longitude, latitude));
     }
 
     private String getNearByFor(String uri, double longitude, double latitude) throws IOException {
@@ -115,9 +202,14 @@ public class GeoNamesService {
     }
 
     public String getNearByFor(double longitude, double latitude) throws IOException {
-        String description = getNearByPlaceNameFor(longitude, latitude);
+        String description = nearByCache.get(longitude, latitude);
+        if (description != null)
+            return description;
+        description = getNearByPlaceNameFor(longitude, latitude);
         if (description == null)
             description = getNearByToponymFor(longitude, latitude);
+        if (description != null)
+            nearByCache.put(longitude, latitude, description);
         return description;
     }
 
@@ -133,7 +225,8 @@ public class GeoNamesService {
     }
 
     public String getPlaceNameFor(String countryCode, String postalCode) throws IOException {
-        Geonames geonames = getGeonamesFor("postalCodeSearch?postalcode=" + postalCode + "&country=" + countryCode);
+        Geonames geonames = getGeonamesFor("postalCodeSearch?postalcode=" + postalCode + "&country=" + countryCode,
+                ResponseCache.createKey(SERVICE, "postalCodeSearch", countryCode + "/" + postalCode));
         if (geonames == null || geonames.getCode() == null)
             return null;
         List<PostalCode> result = new ArrayList<PostalCode>();
@@ -152,7 +245,8 @@ public class GeoNamesService {
      * @throws IOException if an error occurs while accessing geonames.org
      */
     public double[] getPositionFor(String countryCode, String postalCode) throws IOException {
-        Geonames geonames = getGeonamesFor("postalCodeSearch?postalcode=" + postalCode + "&country=" + countryCode);
+        Geonames geonames = getGeonamesFor("postalCodeSearch?postalcode=" + postalCode + "&country=" + countryCode,
+                ResponseCache.createKey(SERVICE, "postalCodeSearch", countryCode + "/" + postalCode));
         if (geonames == null || geonames.getCode() == null)
             return null;
         List<Double> result = new ArrayList<Double>();
@@ -0,0 +1,94 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.geonames;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+import slash.common.io.NearByCache;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.TokenBucket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static slash.navigation.rest.LocalHttpServers.createServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+/**
+ * Measures how many requests to a local stand-in of geonames.org the {@link NearByCache}
+ * saves for the populated places of a dense track with different radiuses.
+ */
+public class GeoNamesServiceBenchmarkIT {
+    private static final int POSITIONS = 5000;
+
+    @Test
+    public void testRequestReduction() throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = createServer();
+        server.createContext("/findNearbyPlaceName", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                byte[] body = ("<geonames><geoname><name>Place</name><lat>53.55</lat><lng>10.0</lng><geonameId>1</geonameId>" +
+                        "<countryCode>DE</countryCode><countryName>Germany</countryName><fcl>P</fcl><fcode>PPL</fcode>" +
+                        "<distance>0.1</distance></geoname></geonames>").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        String url = getUrl(server);
+
+        // a winding track with a position every 1 to 5 meters
+        Random random = new Random(4711);
+        double[] longitudes = new double[POSITIONS], latitudes = new double[POSITIONS];
+        double longitude = 10.0, latitude = 53.55, heading = 0.0;
+        for (int i = 0; i < POSITIONS; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.5;
+            double meters = 1.0 + random.nextDouble() * 4.0;
+            latitude += Math.cos(heading) * meters / 111319.5;
+            longitude += Math.sin(heading) * meters / 111319.5 / Math.cos(Math.toRadians(latitude));
+            longitudes[i] = longitude;
+            latitudes[i] = latitude;
+        }
+
+        try {
+            for (double radius : new double[]{0.0, 25.0, 100.0, 500.0, 2000.0}) {
+                requests.set(0);
+                GeoNamesService service = new GeoNamesService(url, new ResponseCache(null), new NearByCache<String>(radius, POSITIONS),
+                        new TokenBucket(Double.POSITIVE_INFINITY));
+                long start = System.nanoTime();
+                for (int i = 0; i < POSITIONS; i++)
+                    service.getNearByFor(longitudes[i], latitudes[i]);
+                long nanos = System.nanoTime() - start;
+                System.out.println(String.format("%d positions with radius %.0f m: %d requests, %.1f%% saved, %.1f ms",
+                        POSITIONS, radius, requests.get(), 100.0 * (POSITIONS - requests.get()) / POSITIONS, nanos / 1000000.0));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.geonames;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import slash.common.io.NearByCache;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.TokenBucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class GeoNamesServiceTest {
+    private HttpServer server;
+    private String url;
+    private File file;
+    private final AtomicInteger elevationRequests = new AtomicInteger(), placeNameRequests = new AtomicInteger(),
+            slowRequests = new AtomicInteger();
+    private volatile boolean limitExceeded = false;
+
+    private void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = createConcurrentServer();
+        server.createContext("/srtm3", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                elevationRequests.incrementAndGet();
+                send(exchange, "42\r\n");
+            }
+        });
+        server.createContext("/gtopo30", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                slowRequests.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                send(exchange, exchange.getRequestURI().getQuery().contains("lng=10.0") ? "100" : "200");
+            }
+        });
+        server.createContext("/findNearbyPlaceName", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                placeNameRequests.incrementAndGet();
+                if (limitExceeded) {
+                    limitExceeded = false;
+                    send(exchange, "<geonames><status message=\"the hourly limit has been exceeded\" value=\"19\"/></geonames>");
+                } else
+                    send(exchange, "<geonames><geoname><name>Hamburg</name><lat>53.55</lat><lng>10.0</lng><geonameId>2911298</geonameId>" +
+                            "<countryCode>DE</countryCode><countryName>Germany</countryName><fcl>P</fcl><fcode>PPLA</fcode>" +
+                            "<distance>0.1</distance></geoname></geonames>");
+            }
+        });
+        server.start();
+        url = getUrl(server);
+        file = File.createTempFile("responses", ".cache");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        if (file.exists())
+            assertTrue(file.delete());
+    }
+
+    @Test
+    public void testCachesElevation() throws IOException {
+        ResponseCache cache = new ResponseCache(file);
+        GeoNamesService service = new GeoNamesService(url, cache);
+        assertEquals(42, service.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(42, service.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(42, service.getElevationFor(10.000001, 53.000001).intValue());
+        assertEquals(1, elevationRequests.get());
+        assertEquals(42, service.getElevationFor(10.1, 53.0).intValue());
+        assertEquals(2, elevationRequests.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        cache.close();
+
+        ResponseCache reopened = new ResponseCache(file);
+        assertEquals(42, new GeoNamesService(url, reopened).getElevationFor(10.1, 53.0).intValue());
+        assertEquals(2, elevationRequests.get());
+        reopened.close();
+    }
+
+    @Test
+    public void testDoesNotCacheErrors() throws IOException {
+        ResponseCache cache = new ResponseCache(file);
+        GeoNamesService service = new GeoNamesService(url, cache);
+        limitExceeded = true;
+        try {
+            service.getNearByPlaceNameFor(10.0, 53.55);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("the hourly limit has been exceeded", e.getMessage());
+        }
+        assertEquals("Hamburg", service.getNearByPlaceNameFor(10.0, 53.55));
+        assertEquals("Hamburg", service.getNearByPlaceNameFor(10.0, 53.55));
+        assertEquals(2, placeNameRequests.get());
+        assertEquals(1, cache.getCount());
+        cache.close();
+    }
+
+    @Test
+    public void testAnswersNearByPositionsFromCache() throws IOException {
+        ResponseCache cache = new ResponseCache(null);
+        GeoNamesService service = new GeoNamesService(url, cache, new NearByCache<String>(500.0, 100));
+        // a track of 2 km with positions every 2 m
+        for (int i = 0; i < 1000; i++)
+            assertEquals("Hamburg", service.getNearByFor(10.0, 53.55 + i * 0.000018));
+        assertTrue(placeNameRequests.get() <= 5);
+        assertEquals(1000 - placeNameRequests.get(), service.getNearByCache().getHitCount());
+    }
+
+    @Test
+    public void testCoalescesConcurrentRequests() throws Exception {
+        final GeoNamesService service = new GeoNamesService(url, new ResponseCache(null), new NearByCache<String>(0.0, 1),
+                new TokenBucket(Double.POSITIVE_INFINITY));
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 32; i++) {
+                final double longitude = i % 2 == 0 ? 10.0 : 11.0;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        start.await();
+                        return service.getElevationFor(longitude, 70.0);
+                    }
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < futures.size(); i++)
+                assertEquals(i % 2 == 0 ? 100 : 200, futures.get(i).get().intValue());
+            assertEquals(2, slowRequests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -20,11 +20,15 @@
 
 package slash.navigation.googlemaps;
 
+import slash.common.io.NearByCache;
 import slash.common.io.Transfer;
 import slash.navigation.kml.KmlUtil;
 import slash.navigation.kml.binding20.*;
 import slash.navigation.rest.Get;
 import slash.navigation.rest.Helper;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.SingleFlight;
+import slash.navigation.rest.TokenBucket;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -35,6 +39,11 @@ import java.util.prefs.Preferences;
 
 /**
  * Encapsulates REST access to the Google Maps API Geocoding Service.
+ * <p/>
+ * The responses are cached in a {@link ResponseCache} and the locations are cached in a
+ * {@link NearByCache}, which answers lookups for positions near a cached position.
+ * The requests are limited by a {@link TokenBucket} and concurrent identical requests are
+ * coalesced by a {@link SingleFlight}, which are shared by all instances.
  *
  * @author Christian Pesch
  */
@@ -43,51 +52,97 @@ public class GoogleMapsService {
     private static final Preferences preferences = Preferences.userNodeForPackage(GoogleMapsService.class);
     private static final String GOOGLE_MAPS_URL_PREFERENCE = "googleMapsUrl";
 
-    private static String getGoogleMapsUrl(String payload) {
-        String language = Locale.getDefault().getLanguage();
-        return preferences.get(GOOGLE_MAPS_URL_PREFERENCE, "http://maps.google.com/") +
-                "maps/geo?q=" + payload + "&output=kml&oe=utf8&sensor=false&key=ABQIAAAA3C3cggohQH044oJU10p9hRSfCfkamzr65RA-A3ZfXmc8dgIhVxTusI-8RzngggpTq0xoW5B1StZwug&hl=" + language;
+    private static final String LOCATION_RADIUS_PREFERENCE = "locationRadius";
+    private static final String REQUESTS_PER_SECOND_PREFERENCE = "googleMapsRequestsPerSecond";
+    private static final String SERVICE = "googlemaps";
+    public static final double DEFAULT_LOCATION_RADIUS = 25.0;
+    private static final int MAXIMUM_LOCATION_COUNT = 10000;
+    private static final TokenBucket rateLimit = new TokenBucket(preferences.getDouble(REQUESTS_PER_SECOND_PREFERENCE, 10.0));
+    private static final SingleFlight<String, Kml> kmlCalls = new SingleFlight<String, Kml>();
+
+    private final String url;
+    private final ResponseCache cache;
+    private final NearByCache<String> locationCache;
+    private final TokenBucket requestLimit;
+
+    public GoogleMapsService(String url, ResponseCache cache, NearByCache<String> locationCache, TokenBucket requestLimit) {
+        this.url = url;
+        this.cache = cache;
+        this.locationCache = locationCache;
+        this.requestLimit = requestLimit;
     }
 
+    public GoogleMapsService(String url, ResponseCache cache, NearByCache<String> locationCache) {
+        this(url, cache, locationCache, rateLimit);
+    }
 
-    public String getLocationFor(double longitude, double latitude) throws IOException {
-        Get get = new Get(getGoogleMapsUrl(latitude + "," + longitude));
-        String result = get.execute();
-        if (get.isSuccessful())
-            try {
-                Kml kml = KmlUtil.unmarshal20(result);
-                if (kml != null) {
-                    if (extractStatusCode(kml) == 200) {
-                        return extractHighestAccuracyLocation(kml);
-                    }
-                }
-            } catch (JAXBException e) {
-                IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
-                io.setStackTrace(e.getStackTrace());
-                throw io;
+    public GoogleMapsService(String url, ResponseCache cache) {
+        this(url, cache, new NearByCache<String>(preferences.getDouble(LOCATION_RADIUS_PREFERENCE, DEFAULT_LOCATION_RADIUS), MAXIMUM_LOCATION_COUNT));
+    }
+
+    public GoogleMapsService() {
+        this(preferences.get(GOOGLE_MAPS_URL_PREFERENCE, "http://maps.google.com/"), ResponseCache.getDefault());
+    }
+
+    public NearByCache<String> getLocationCache() {
+        return locationCache;
+    }
+
+    private static String getLanguage() {
+        return Locale.getDefault().getLanguage();
+    }
+
+    private String getGoogleMapsUrl(String payload) {
+        return url + "maps/geo?q=" + payload + "&output=kml&oe=utf8&sensor=false&key=ABQIAAAA3C3cggohQH044oJU10p9hRSfCfkamzr65RA-A3ZfXmc8dgIhVxTusI-8RzngggpTq0xoW5B1StZwug&hl=" + getLanguage();
+    }
+
+    private Kml getKmlFor(final String payload, final String key) throws IOException {
+        return kmlCalls.execute(key, new SingleFlight.Call<Kml>() {
+            public Kml call() throws IOException {
+                return fetchKmlFor(payload, key);
             }
-        return null;
+        });
     }
 
-    Kml getKmlFor(String address) throws IOException {
-        Get get = new Get(getGoogleMapsUrl(Helper.encodeUri(address)));
-        String result = get.execute();
-        if (get.isSuccessful())
-            try {
-                Kml kml = KmlUtil.unmarshal20(result);
-                if (kml != null) {
-                    if (extractStatusCode(kml) == 200) {
-                        return kml;
-                    }
-                }
-            } catch (JAXBException e) {
-                IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
-                io.setStackTrace(e.getStackTrace());
-                throw io;
+    private Kml fetchKmlFor(String payload, String key) throws IOException {
+        String result = cache.get(key);
+        if (result == null) {
+            requestLimit.acquire();
+            Get get = new Get(getGoogleMapsUrl(payload));
+            result = get.execute();
+            if (!get.isSuccessful())
+                return null;
+        }
+        try {
+            Kml kml = KmlUtil.unmarshal20(result);
+            // don't cache errors like an exceeded limit of queries
+            if (kml != null && extractStatusCode(kml) == 200) {
+                cache.put(key, result);
+                return kml;
             }
+        } catch (JAXBException e) {
+            IOException io = new IOException("Cannot unmarshall " + result + ": " + e.getMessage());
+            io.setStackTrace(e.getStackTrace());
+            throw io;
+        }
         return null;
     }
 
+    public String getLocationFor(double longitude, double latitude) throws IOException {
+        String location = locationCache.get(longitude, latitude);
+        if (location != null)
+            return location;
+        Kml kml = getKmlFor(latitude + "," + longitude, ResponseCache.createKey(SERVICE, "location/" + getLanguage(), longitude, latitude));
+        location = kml != null ? extractHighestAccuracyLocation(kml) : null;
+        if (location != null)
+            locationCache.put(longitude, latitude, location);
+        return location;
+    }
+
+    Kml getKmlFor(String address) throws IOException {
+        return getKmlFor(Helper.encodeUri(address), ResponseCache.createKey(SERVICE, "position/" + getLanguage(), address));
+    }
+
     public GoogleMapsPosition getPositionFor(String address) throws IOException {
         Kml kml = getKmlFor(address);
         return kml != null ? extractHighestAccuracyPosition(kml, address) : null;
@@ -19,11 +19,22 @@
 */
 package slash.navigation.googlemaps;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import junit.framework.TestCase;
 import slash.navigation.kml.KmlUtil;
 import slash.navigation.kml.binding20.Kml;
+import slash.navigation.rest.ResponseCache;
 
 import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static slash.navigation.rest.LocalHttpServers.createServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
 
 public class GoogleMapsServiceTest extends TestCase {
     private final GoogleMapsService service = new GoogleMapsService();
@@ -86,4 +97,37 @@ public class GoogleMapsServiceTest extends TestCase {
         assertEquals(5, service.extractPlacemarks(kml).size());
         assertEquals("8638 Goldingen, Switzerland", service.extractHighestAccuracyLocation(kml));
     }
+
+    public void testCachesLocation() throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = createServer();
+        server.createContext("/maps/geo", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                byte[] body = result.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/vnd.google-earth.kml+xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        File file = File.createTempFile("responses", ".cache");
+        try {
+            ResponseCache cache = new ResponseCache(file);
+            GoogleMapsService service = new GoogleMapsService(getUrl(server), cache);
+            assertEquals("8638 Goldingen, Switzerland", service.getLocationFor(9.0, 47.3));
+            assertEquals("8638 Goldingen, Switzerland", service.getLocationFor(9.0, 47.3));
+            assertEquals(1, requests.get());
+            assertNotNull(service.getPositionFor("Goldingen"));
+            assertNotNull(service.getPositionFor("Goldingen"));
+            assertEquals(2, requests.get());
+            assertEquals(2, cache.getHitCount());
+            cache.close();
+        } finally {
+            server.stop(0);
+            assertTrue(file.delete());
+        }
+    }
 }
@@ -22,18 +22,123 @@ package slash.navigation.hgt;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
 
 /**
  * A tile with elevation data.
+ * <p/>
+ * The HGT file is memory mapped once and the samples are read from a {@link ShortBuffer}
+ * which avoids a seek and a read system call per sample. Tiles from a {@link HgtTileStore}
+ * are decoded once into a {@link ShortBuffer} on the heap. The resolution of the tile
+ * (SRTM3 with 1201x1201 or SRTM1 with 3601x3601 samples) is detected from the file length.
+ * <p/>
+ * The users of a tile from the {@link ElevationTileCache} {@link #release() release} it, so
+ * that the mapping of a closed tile is unmapped as soon as the last user is done. Otherwise
+ * the mapping would stay until the garbage collector finds the buffer.
  *
  * @author Robert "robekas", Christian Pesch
  */
 
 public class ElevationTile {
-    private RandomAccessFile elevationFile;
+    private static Logger log = Logger.getLogger(ElevationTile.class.getName());
+    private final ShortBuffer elevations;
+    private final int intervals;
+    private MappedByteBuffer mapping;
+    private int users = 0;
+    private boolean closed = false;
+
+    public ElevationTile(RandomAccessFile elevationFile) throws IOException {
+        FileChannel channel = elevationFile.getChannel();
+        long length = channel.size();
+        this.intervals = getIntervals(length);
+        this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        this.elevations = mapping.asShortBuffer();
+    }
+
+    public ElevationTile(ShortBuffer elevations) throws IOException {
+        this.intervals = getIntervals(elevations.capacity() * 2L);
+        this.elevations = elevations;
+    }
+
+    /**
+     * Determine the number of intervals per line and column from the length of a HGT file.
+     *
+     * @param length the length of the HGT file in bytes
+     * @return the number of intervals, i.e. 1200 for SRTM3 and 3600 for SRTM1
+     * @throws IOException if the length doesn't fit a square of 16-bit samples
+     */
+    static int getIntervals(long length) throws IOException {
+        int samples = (int) Math.round(Math.sqrt(length / 2.0));
+        if (samples < 2 || (long) samples * samples * 2 != length)
+            throw new IOException("Invalid HGT file length " + length);
+        return samples - 1;
+    }
 
-    public ElevationTile(RandomAccessFile elevationFile) {
-        this.elevationFile = elevationFile;
+    public int getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * Registers a user of the tile.
+     *
+     * @return false if the tile is closed and must not be used anymore
+     */
+    synchronized boolean acquire() {
+        if (closed)
+            return false;
+        users++;
+        return true;
+    }
+
+    /**
+     * Tells that a user that got the tile from the {@link ElevationTileCache} is done with it.
+     */
+    public synchronized void release() {
+        if (users > 0 && --users == 0 && closed)
+            unmap();
+    }
+
+    /**
+     * Closes the tile, which unmaps its HGT file once all users released the tile.
+     */
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (users == 0)
+            unmap();
+    }
+
+    synchronized boolean isMapped() {
+        return mapping != null;
+    }
+
+    private void unmap() {
+        if (mapping == null)
+            return;
+        // there is no public API to unmap a buffer, the mapping stays until the garbage
+        // collector finds the buffer if the cleaner of the JDK is not accessible
+        try {
+            Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(mapping);
+            if (cleaner != null)
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (Exception e) {
+            log.fine("Cannot unmap tile: " + e.getMessage());
+        }
+        mapping = null;
+    }
+
+    /**
+     * @return the size of the samples of the tile in bytes
+     */
+    public long getSize() {
+        return (long) (intervals + 1) * (intervals + 1) * 2;
     }
 
     /**
@@ -41,7 +146,7 @@ public class ElevationTile {
      * theorem on intersecting lines (Strahlensatz).
      *
      * @param dHeight12 the delta height/elevation of two sub tile positions
-     * @param dLength12 the length of an sub tile interval (1 / 1200)
+     * @param dLength12 the length of an sub tile interval (1 / intervals)
      * @param dDiff     the distance of the real point from the sub tile position
      * @return the delta elevation (relative to sub tile position)
      */
@@ -49,16 +154,13 @@ public class ElevationTile {
         return (dHeight12 * dDiff) / dLength12;
     }
 
-    public Integer getElevationFor(Double longitude, Double latitude) throws IOException {
-        if (elevationFile == null)
-            return null;
-
+    public Integer getElevationFor(Double longitude, Double latitude) {
         double dElevation;
         double dLon = longitude;
         double dLat = latitude;
         int nLon = (int) dLon;                    // Cut off the decimal places
         int nLat = (int) dLat;                    // Cut off the decimal places
-        int nAS = 1200;                            // 1200 Intervals (means 1201 positions per line and column)
+        int nAS = intervals;                      // 1200 Intervals for SRTM3 (means 1201 positions per line and column)
 
         if (dLon < 0) {                                        // If it's west longitude (negative value)
             nLon = (nLon - 1) * -1;                            // Make a positive number (left edge)
@@ -70,15 +172,15 @@ public class ElevationTile {
             dLat = ((double) nLat + dLat) + (double) nLat;    // Make positive double latitude (needed for later calculation)
         }
 
-        int nLonIndex = (int) ((dLon - (double) nLon) * 1200.0); // Calculate the interval index for longitude
-        int nLatIndex = (int) ((dLat - (double) nLat) * 1200.0); // Calculate the interval index for latitude
+        int nLonIndex = (int) ((dLon - (double) nLon) * (double) nAS); // Calculate the interval index for longitude
+        int nLatIndex = (int) ((dLat - (double) nLat) * (double) nAS); // Calculate the interval index for latitude
 
-        if (nLonIndex >= 1200) {
-            nLonIndex = 1200 - 1;
+        if (nLonIndex >= nAS) {
+            nLonIndex = nAS - 1;
         }
 
-        if (nLatIndex >= 1200) {
-            nLatIndex = 1200 - 1;
+        if (nLatIndex >= nAS) {
+            nLatIndex = nAS - 1;
         }
 
         double dOffLon = dLon - (double) nLon;                      // The lon value offset within a tile
@@ -88,23 +190,19 @@ public class ElevationTile {
         double dLeftBottom;                                            // The left bottom position of a sub tile
         double dRightTop;                                            // The right top position of a sub tile
         double dRightBottom;                                        // The right bootm position of a sub tile
-        int pos;                                                    // The index of the elevation into the hgt file
+        int pos;                                                    // The index of the 16-bit elevation into the hgt file
 
         pos = (((nAS - nLatIndex) - 1) * (nAS + 1)) + nLonIndex;    // The index for the left top elevation
-        elevationFile.seek(pos * 2);                            // We have 16-bit values for elevation, so multiply by 2
-        dLeftTop = elevationFile.readShort();                // Now read the left top elevation from hgt file
+        dLeftTop = elevations.get(pos);                         // Now read the left top elevation from the mapped hgt file
 
         pos = ((nAS - nLatIndex) * (nAS + 1)) + nLonIndex;            // The index for the left bottom elevation
-        elevationFile.seek(pos * 2);                            // We have 16-bit values for elevation, so multiply by 2
-        dLeftBottom = elevationFile.readShort();                // Now read the left bottom elevation from hgt file
+        dLeftBottom = elevations.get(pos);                      // Now read the left bottom elevation from the mapped hgt file
 
         pos = (((nAS - nLatIndex) - 1) * (nAS + 1)) + nLonIndex + 1;// The index for the right top elevation
-        elevationFile.seek(pos * 2);                            // We have 16-bit values for elevation, so multiply by 2
-        dRightTop = elevationFile.readShort();                // Now read the right top elevation from hgt file
+        dRightTop = elevations.get(pos);                        // Now read the right top elevation from the mapped hgt file
 
         pos = ((nAS - nLatIndex) * (nAS + 1)) + nLonIndex + 1;         // The index for the right bottom elevation
-        elevationFile.seek(pos * 2);                            // We have 16-bit values for elevation, so multiply by 2
-        dRightBottom = elevationFile.readShort();                // Now read the right bottom top elevation from hgt file
+        dRightBottom = elevations.get(pos);                     // Now read the right bottom elevation from the mapped hgt file
 
         if ((dLeftTop < 0) ||                                        // If one of the elevation values
                 (dLeftBottom < 0) ||                                    // we read from
@@ -0,0 +1,189 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Caches the {@link ElevationTile}s of HGT files.
+ * <p/>
+ * The cache is bounded by the number of tiles and the sum of their file sizes and evicts
+ * the least recently used tiles if one of the bounds is exceeded. A HGT file is closed
+ * right after it is mapped, since the mapping stays valid without the file, so that the
+ * cache holds no file handles. The tiles that the cache returns have to be
+ * {@link ElevationTile#release() released}; an evicted tile is unmapped once all its
+ * users released it, so that the size bounds the mapped memory, too. The cache is safe
+ * for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class ElevationTileCache {
+    private static Logger log = Logger.getLogger(ElevationTileCache.class.getName());
+    public static final int DEFAULT_MAXIMUM_COUNT = 32;
+    public static final long DEFAULT_MAXIMUM_SIZE = 256 * 1024 * 1024;
+
+    private final int maximumCount;
+    private final long maximumSize;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+    private long hitCount = 0, missCount = 0, evictionCount = 0;
+
+    public ElevationTileCache(int maximumCount, long maximumSize) {
+        if (maximumCount < 1)
+            throw new IllegalArgumentException("Maximum count " + maximumCount + " is less than 1");
+        this.maximumCount = maximumCount;
+        this.maximumSize = maximumSize;
+    }
+
+    public ElevationTileCache() {
+        this(DEFAULT_MAXIMUM_COUNT, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Returns the tile for the given key and marks it as most recently used.
+     *
+     * @param key the key of the tile
+     * @return the tile, which has to be released, or null if the tile is not cached
+     */
+    public synchronized ElevationTile get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.tile.acquire()) {
+            hitCount++;
+            return entry.tile;
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Opens the given HGT file, caches its tile under the given key and evicts least
+     * recently used tiles if the bounds of the cache are exceeded.
+     *
+     * @param key  the key of the tile
+     * @param file the HGT file of the tile
+     * @return the cached tile, which has to be released and is the one of another thread if it was faster
+     * @throws IOException if the HGT file cannot be opened
+     */
+    public ElevationTile put(String key, File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        ElevationTile tile;
+        try {
+            tile = new ElevationTile(randomAccessFile);
+        } finally {
+            close(randomAccessFile);
+        }
+        return put(key, new Entry(tile, file.length()));
+    }
+
+    /**
+     * Caches the given tile, which is not backed by a file, under the given key and evicts
+     * least recently used tiles if the bounds of the cache are exceeded.
+     *
+     * @param key  the key of the tile
+     * @param tile the tile
+     * @return the cached tile, which has to be released and is the one of another thread if it was faster
+     */
+    public ElevationTile put(String key, ElevationTile tile) {
+        return put(key, new Entry(tile, tile.getSize()));
+    }
+
+    private synchronized ElevationTile put(String key, Entry entry) {
+        Entry existing = entries.get(key);
+        if (existing != null && existing.tile.acquire()) {
+            entry.tile.close();
+            return existing.tile;
+        }
+
+        entries.put(key, entry);
+        size += entry.size;
+        entry.tile.acquire();
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maximumCount || size > maximumSize) && entries.size() > 1) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.size;
+            eldest.tile.close();
+            evictionCount++;
+        }
+        return entry.tile;
+    }
+
+    private void close(RandomAccessFile randomAccessFile) {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            log.warning("Cannot close random access file " + randomAccessFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes all tiles from the cache.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values())
+            entry.tile.close();
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[count=" + entries.size() + ", size=" + size +
+                ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+    }
+
+    private static class Entry {
+        private final ElevationTile tile;
+        private final long size;
+
+        Entry(ElevationTile tile, long size) {
+            this.tile = tile;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import java.util.List;
+
+/**
+ * The result of a batch lookup of elevations from HGT files.
+ *
+ * @author Christian Pesch
+ */
+
+public class Elevations {
+    private final Integer[] elevations;
+    private final List<String> missingTiles;
+
+    public Elevations(Integer[] elevations, List<String> missingTiles) {
+        this.elevations = elevations;
+        this.missingTiles = missingTiles;
+    }
+
+    /**
+     * @return for each position the elevation or null if its tile is missing or it lies within a void
+     */
+    public Integer[] getElevations() {
+        return elevations;
+    }
+
+    /**
+     * @return the sorted keys of the tiles that could neither be found in the cache nor be downloaded
+     */
+    public List<String> getMissingTiles() {
+        return missingTiles;
+    }
+}
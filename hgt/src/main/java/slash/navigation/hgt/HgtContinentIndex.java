@@ -0,0 +1,172 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Logger;
+
+import static slash.navigation.hgt.MissingTileIndex.COLUMNS;
+import static slash.navigation.hgt.MissingTileIndex.ROWS;
+
+/**
+ * Knows on which continent directory of the HGT server a tile is found.
+ * <p/>
+ * The continent of every downloaded tile is remembered in the HGT cache. It is stored in a memory
+ * mapped file with one byte for each tile of the 360x180 grid, so that remembering a continent
+ * touches only the byte of the tile. For unknown tiles the continents whose rough region covers
+ * the tile are tried first, then the others.
+ *
+ * @author Christian Pesch
+ */
+
+public class HgtContinentIndex {
+    private static Logger log = Logger.getLogger(HgtContinentIndex.class.getName());
+    private static final String HGT_FILES_CONTINENTS = "hgtFiles.continents";
+    private static final String HGT_FILES_CONTINENTS_INDEX = "hgtFiles.continents.index";
+    private static final int MAGIC = 0x48475443; // HGTC
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int LENGTH = HEADER_LENGTH + COLUMNS * ROWS;
+    static final List<String> CONTINENTS = Arrays.
+            asList("Eurasia", "North_America", "Australia", "South_America", "Africa", "Islands");
+
+    // south, west, north, east edges of the tiles of the continents
+    private static final Map<String, int[]> REGIONS = new HashMap<String, int[]>();
+
+    static {
+        REGIONS.put("Eurasia", new int[]{-11, -30, 60, 179});
+        REGIONS.put("North_America", new int[]{10, -180, 60, -52});
+        REGIONS.put("Australia", new int[]{-50, 110, 0, 179});
+        REGIONS.put("South_America", new int[]{-57, -93, 14, -33});
+        REGIONS.put("Africa", new int[]{-36, -26, 37, 63});
+    }
+
+    private ByteBuffer continents;
+
+    public HgtContinentIndex(HgtFileCache fileCache) {
+        File file = fileCache.getCacheFile(HGT_FILES_CONTINENTS_INDEX);
+        try {
+            continents = open(file);
+        } catch (IOException e) {
+            log.warning("Cannot open continent index " + file + ": " + e.getMessage());
+            continents = ByteBuffer.allocate(COLUMNS * ROWS);
+        }
+        importContinents(fileCache);
+    }
+
+    private static ByteBuffer open(File file) throws IOException {
+        boolean exists = file.exists() && file.length() == LENGTH;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (exists) {
+                if (randomAccessFile.readInt() != MAGIC || randomAccessFile.readInt() != VERSION) {
+                    log.warning("Resetting invalid continent index " + file);
+                    exists = false;
+                }
+            }
+            if (!exists) {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(LENGTH);
+                randomAccessFile.seek(0);
+                randomAccessFile.writeInt(MAGIC);
+                randomAccessFile.writeInt(VERSION);
+            }
+            // the mapping stays valid after the file is closed
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, LENGTH);
+            buffer.position(HEADER_LENGTH);
+            return buffer.slice();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private void importContinents(HgtFileCache fileCache) {
+        File file = fileCache.getCacheFile(HGT_FILES_CONTINENTS);
+        if (!file.exists())
+            return;
+        try {
+            Map<String, String> map = (Map<String, String>) fileCache.getFileAsObject(HGT_FILES_CONTINENTS);
+            if (map != null) {
+                for (Map.Entry<String, String> entry : map.entrySet())
+                    putContinent(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            log.warning("Could not deserialize continents: " + e.getMessage());
+        }
+        if (!file.delete())
+            log.warning("Cannot delete " + file);
+    }
+
+    public synchronized String getContinent(String key) {
+        int[] tile = HgtFiles.parseFileKey(key);
+        if (tile == null)
+            return null;
+        int continent = continents.get(MissingTileIndex.getIndex(tile[0], tile[1]));
+        return continent > 0 && continent <= CONTINENTS.size() ? CONTINENTS.get(continent - 1) : null;
+    }
+
+    public synchronized void putContinent(String key, String continent) {
+        int[] tile = HgtFiles.parseFileKey(key);
+        int index = CONTINENTS.indexOf(continent);
+        if (tile == null || index == -1)
+            return;
+        continents.put(MissingTileIndex.getIndex(tile[0], tile[1]), (byte) (index + 1));
+    }
+
+    private static boolean isInRegion(String continent, int latitude, int longitude) {
+        int[] region = REGIONS.get(continent);
+        return region != null && latitude >= region[0] && longitude >= region[1] &&
+                latitude <= region[2] && longitude <= region[3];
+    }
+
+    /**
+     * Returns the continents in the order in which they should be tried for the given tile.
+     *
+     * @param key the key of the tile, i.e. the name of the HGT file
+     * @return all continents starting with the most likely ones
+     */
+    public List<String> getContinentsFor(String key) {
+        List<String> result = new ArrayList<String>(CONTINENTS.size());
+        String known = getContinent(key);
+        if (known != null)
+            result.add(known);
+
+        int[] tile = HgtFiles.parseFileKey(key);
+        if (tile != null) {
+            for (String continent : CONTINENTS) {
+                if (!result.contains(continent) && isInRegion(continent, tile[1], tile[0]))
+                    result.add(continent);
+            }
+        }
+
+        for (String continent : CONTINENTS) {
+            if (!result.contains(continent))
+                result.add(continent);
+        }
+        return result;
+    }
+}
@@ -37,9 +37,22 @@ public class HgtFileCache {
     private static final Preferences preferences = Preferences.userNodeForPackage(HgtFileCache.class);
     private static final String HGT_CACHE_DIRECTORY_PREFERENCE = "hgtCacheDirectory";
 
-    private static File getHgtCacheDirectory() {
-        String directoryName = preferences.get(HGT_CACHE_DIRECTORY_PREFERENCE, new File(System.getProperty("user.home"), ".hgt").getAbsolutePath());
-        File directory = new File(directoryName);
+    private final File cacheDirectory;
+
+    public HgtFileCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public HgtFileCache() {
+        this(null);
+    }
+
+    private File getHgtCacheDirectory() {
+        File directory = cacheDirectory;
+        if (directory == null) {
+            String directoryName = preferences.get(HGT_CACHE_DIRECTORY_PREFERENCE, new File(System.getProperty("user.home"), ".hgt").getAbsolutePath());
+            directory = new File(directoryName);
+        }
         if (!directory.exists()) {
             if (!directory.mkdirs())
                 throw new IllegalArgumentException("Cannot create hgt cache directory " + directory);
@@ -83,6 +96,34 @@ public class HgtFileCache {
         InputOutput.copy(new FileInputStream(source), new FileOutputStream(target));
     }
 
+    /**
+     * Returns the file for the given key in the cache directory whether it exists or not.
+     */
+    public File getCacheFile(String key) {
+        return put(key);
+    }
+
+    /**
+     * Creates a temporary file in the cache directory, which can be moved to its key
+     * without copying it.
+     */
+    public File createTempFile(String key) throws IOException {
+        return File.createTempFile(key + ".", ".part", getHgtCacheDirectory());
+    }
+
+    /**
+     * Renames the given file of the cache directory to the given key.
+     */
+    public File move(String key, File source) throws IOException {
+        File target = put(key);
+        if (!source.renameTo(target)) {
+            // some platforms don't rename to an existing file
+            if (!target.delete() || !source.renameTo(target))
+                throw new IOException("Cannot move " + source + " to " + target);
+        }
+        return target;
+    }
+
     public void putAsObject(String key, Object value) throws IOException {
         File file = put(key);
         ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
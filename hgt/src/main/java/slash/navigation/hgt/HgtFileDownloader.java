@@ -28,9 +28,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -39,6 +37,13 @@ import java.util.zip.ZipInputStream;
 
 /**
  * Downloads HGT files.
+ * <p/>
+ * The continents are tried in the order of a {@link HgtContinentIndex}. Tiles that don't
+ * exist on any continent are remembered in a {@link MissingTileIndex}, other errors are
+ * retried with an exponential backoff. The default source has no tiles outside of the
+ * coverage of SRTM, so they are not requested from it.
+ * The HGT file is streamed from the zip into a temporary file of the {@link HgtFileCache},
+ * validated and then renamed to its final name.
  *
  * @author Christian Pesch
  */
@@ -47,31 +52,54 @@ public class HgtFileDownloader {
     private static Logger log = Logger.getLogger(HgtFileDownloader.class.getName());
     private static final Preferences preferences = Preferences.userNodeForPackage(HgtFiles.class);
     private static final String HGT_FILES_URL_PREFERENCE = "hgtFilesUrl";
-    private static final String HGT_FILES_URL_FAILURES = "hgtFilesUrl.failures";
-    private static final List<String> CONTINENTS = Arrays.
-            asList("Eurasia", "North_America", "Australia", "South_America", "Africa", "Islands");
-
-    private HgtFileCache fileCache;
-    private Set<String> downloadFailures = new HashSet<String>();
+    private static final String HGT_FILES_MISSING = "hgtFiles.missing";
+    static final String DEFAULT_HGT_FILES_URL = "http://dds.cr.usgs.gov/srtm/version2_1/SRTM3/";
+    public static final int DEFAULT_MAXIMUM_RETRIES = 2;
+    public static final long DEFAULT_RETRY_DELAY = 1000; // ms
+
+    private final HgtFileCache fileCache;
+    private final HgtContinentIndex continentIndex;
+    private final MissingTileIndex missingTileIndex;
+    private final String hgtFilesUrl;
+    private final int maximumRetries;
+    private final long retryDelay;
+    private final Set<String> downloadFailures = new HashSet<String>();
+
+    public HgtFileDownloader(HgtFileCache fileCache, String hgtFilesUrl, int maximumRetries, long retryDelay) {
+        this.fileCache = fileCache;
+        this.continentIndex = new HgtContinentIndex(fileCache);
+        this.missingTileIndex = openMissingTileIndex(fileCache);
+        this.hgtFilesUrl = hgtFilesUrl;
+        this.maximumRetries = maximumRetries;
+        this.retryDelay = retryDelay;
+    }
 
     public HgtFileDownloader(HgtFileCache fileCache) {
-        this.fileCache = fileCache;
-        initialize();
+        this(fileCache, null, DEFAULT_MAXIMUM_RETRIES, DEFAULT_RETRY_DELAY);
     }
 
-    private static String getHgtFilesUrl() {
-        return preferences.get(HGT_FILES_URL_PREFERENCE, "http://dds.cr.usgs.gov/srtm/version2_1/SRTM3/");
+    private String getHgtFilesUrl() {
+        if (hgtFilesUrl != null)
+            return hgtFilesUrl;
+        return preferences.get(HGT_FILES_URL_PREFERENCE, DEFAULT_HGT_FILES_URL);
     }
 
-    @SuppressWarnings({"unchecked"})
-    private synchronized void initialize() {
+    private static MissingTileIndex openMissingTileIndex(HgtFileCache fileCache) {
+        File file = fileCache.getCacheFile(HGT_FILES_MISSING);
         try {
-            downloadFailures = (Set<String>) fileCache.getFileAsObject(HGT_FILES_URL_FAILURES);
+            return new MissingTileIndex(file, MissingTileIndex.DEFAULT_EXPIRY_DAYS);
         } catch (IOException e) {
-            log.warning("Could not deserialize failures: " + e.getMessage());
+            log.warning("Cannot open missing tile index " + file + ": " + e.getMessage());
+            return null;
         }
-        if (downloadFailures == null)
-            downloadFailures = new HashSet<String>();
+    }
+
+    public HgtContinentIndex getContinentIndex() {
+        return continentIndex;
+    }
+
+    public MissingTileIndex getMissingTileIndex() {
+        return missingTileIndex;
     }
 
     private synchronized boolean hasDownloadAlreadyFailed(String key) {
@@ -80,68 +108,133 @@ public class HgtFileDownloader {
 
     private synchronized void addFailedDownload(String key) {
         downloadFailures.add(key);
-        try {
-            fileCache.putAsObject(HGT_FILES_URL_FAILURES, downloadFailures);
-        } catch (IOException e) {
-            log.warning("Could not serialize failures: " + e.getMessage());
+    }
+
+    /**
+     * @return true if the given HGT file is known not to exist at the source
+     */
+    boolean isMissing(String key) {
+        int[] tile = HgtFiles.parseFileKey(key);
+        if (tile == null)
+            return false;
+        if (MissingTileIndex.isOutsideOfCoverage(tile[1]) && DEFAULT_HGT_FILES_URL.equals(getHgtFilesUrl()))
+            return true;
+        return missingTileIndex != null && missingTileIndex.isMissing(tile[0], tile[1]);
+    }
+
+    private static class NotFoundException extends IOException {
+        NotFoundException(String message) {
+            super(message);
         }
     }
 
     private InputStream downloadFromUrl(String url) throws IOException {
         Get get = new Get(url);
-        InputStream inputStream = get.executeAsStream(true);
-        if (get.isSuccessful())
+        InputStream inputStream = get.executeAsStream(false);
+        if (get.isSuccessful() && inputStream != null)
             return inputStream;
-        else
-            throw new IOException("Cannot access " + url);
+
+        if (inputStream != null)
+            inputStream.close();
+        if (get.isNotFound())
+            throw new NotFoundException("Cannot find " + url);
+        throw new IOException("Cannot access " + url + ": " + get.getResult());
     }
 
-    private File extractFileFrom(InputStream inputStream, String key) throws IOException {
-        File file = null;
+    private File extractEntry(ZipInputStream zipInputStream, ZipEntry entry, String key) throws IOException {
+        File temporary = fileCache.createTempFile(key);
+        try {
+            // reading the entry to its end lets the ZipInputStream verify its CRC
+            int length = InputOutput.copy(new NotClosingUnderlyingInputStream(zipInputStream), new FileOutputStream(temporary));
+            if (entry.getSize() != -1 && entry.getSize() != length)
+                throw new IOException("Extracted " + length + " instead of " + entry.getSize() + " bytes of " + key);
+            ElevationTile.getIntervals(length);
+
+            File file = fileCache.move(key, temporary);
+            temporary = null;
+            return file;
+        } finally {
+            if (temporary != null && temporary.exists() && !temporary.delete())
+                log.warning("Cannot delete " + temporary);
+        }
+    }
 
+    private File extractFileFrom(InputStream inputStream, String key) throws IOException {
         ZipInputStream zipInputStream = null;
         try {
             zipInputStream = new ZipInputStream(inputStream);
             ZipEntry entry = zipInputStream.getNextEntry();
             while (entry != null) {
-                if (!entry.isDirectory()) {
-                    File extracted = File.createTempFile("routeconverter", ".hgt");
-                    InputOutput.copy(new NotClosingUnderlyingInputStream(zipInputStream), new FileOutputStream(extracted));
-                    zipInputStream.closeEntry();
-
-                    if (entry.getName().equals(key))
-                        file = extracted;
-                }
+                if (!entry.isDirectory() && entry.getName().equals(key))
+                    return extractEntry(zipInputStream, entry, key);
                 entry = zipInputStream.getNextEntry();
             }
+            return null;
         }
         finally {
             if (zipInputStream != null)
                 zipInputStream.close();
         }
-        return file;
     }
 
+    private File downloadWithRetries(String url, String key) throws IOException {
+        long delay = retryDelay;
+        for (int retry = 0; ; retry++) {
+            try {
+                File file = extractFileFrom(downloadFromUrl(url), key);
+                if (file == null)
+                    throw new NotFoundException("Cannot find " + key + " in " + url);
+                return file;
+            } catch (NotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                if (retry >= maximumRetries)
+                    throw e;
+                log.info("Retrying download from '" + url + "' in " + delay + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                delay *= 2;
+            }
+        }
+    }
+
+    /**
+     * Downloads the given HGT file into the {@link HgtFileCache}.
+     *
+     * @param key the key of the tile, i.e. the name of the HGT file
+     * @return the HGT file in the cache or null if it cannot be downloaded
+     */
     public File download(String key) {
-        File file = null;
+        if (isMissing(key))
+            return null;
 
-        for (String continent : CONTINENTS) {
+        boolean notFound = true;
+        for (String continent : continentIndex.getContinentsFor(key)) {
             String url = String.format("%s%s/%s.zip", getHgtFilesUrl(), continent, key);
             if (!hasDownloadAlreadyFailed(url)) {
                 try {
-                    InputStream inputStream = downloadFromUrl(url);
-                    if (inputStream != null) {
-                        file = extractFileFrom(inputStream, key);
-                        if (file != null)
-                            return file;
-                    }
+                    File file = downloadWithRetries(url, key);
+                    continentIndex.putContinent(key, continent);
+                    return file;
+                } catch (NotFoundException e) {
+                    addFailedDownload(url);
                 } catch (IOException e) {
+                    // might work next time, so it's not remembered as a failure
                     log.warning("Cannot download from '" + url + "': " + e.getMessage());
-                    addFailedDownload(url);
+                    notFound = false;
+                    if (Thread.currentThread().isInterrupted())
+                        return null;
                 }
             }
         }
 
-        return file;
+        int[] tile = HgtFiles.parseFileKey(key);
+        if (notFound && tile != null && missingTileIndex != null)
+            missingTileIndex.setMissing(tile[0], tile[1]);
+        return null;
     }
-}
\ No newline at end of file
+}
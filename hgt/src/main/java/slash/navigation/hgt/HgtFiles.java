@@ -22,77 +22,412 @@ package slash.navigation.hgt;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Encapsulates access to HGT files.
+ * <p/>
+ * The lookups are safe for concurrent use. A batch of positions is grouped by tile
+ * so that every tile is loaded once and the tiles are processed in parallel.
  *
  * @author Robert "robekas", Christian Pesch
  */
 
 public class HgtFiles {
-    private Map<Integer, ElevationTile> tileCache = new HashMap<Integer, ElevationTile>();
-    private static HgtFileCache fileCache = new HgtFileCache();
-    private Map<String, RandomAccessFile> randomAccessFileCache = new HashMap<String, RandomAccessFile>();
-    private static HgtFileDownloader downloader;
+    private static Logger log = Logger.getLogger(HgtFiles.class.getName());
+    public static final int DEFAULT_THREAD_COUNT = 4;
+    private static final Pattern FILE_KEY_PATTERN = Pattern.compile("([NS])(\\d{2})([EW])(\\d{3})\\.hgt");
+
+    private final HgtFileCache fileCache;
+    private final HgtTileStore tileStore;
+    private final HgtFileDownloader downloader;
+    private final ElevationTileCache tileCache;
+    private final int threadCount;
+    private final Map<String, Object> loadLocks = new HashMap<String, Object>();
+    private ExecutorService executor;
+
+    public HgtFiles(HgtFileCache fileCache, HgtTileStore tileStore, HgtFileDownloader downloader,
+                    ElevationTileCache tileCache, int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count " + threadCount + " is less than 1");
+        this.fileCache = fileCache;
+        this.tileStore = tileStore;
+        this.downloader = downloader;
+        this.tileCache = tileCache;
+        this.threadCount = threadCount;
+    }
+
+    public HgtFiles(ElevationTileCache tileCache) {
+        this(new HgtFileCache(), tileCache);
+    }
+
+    private HgtFiles(HgtFileCache fileCache, ElevationTileCache tileCache) {
+        this(fileCache, openTileStore(fileCache), new HgtFileDownloader(fileCache), tileCache, DEFAULT_THREAD_COUNT);
+    }
 
     public HgtFiles() {
-        downloader = new HgtFileDownloader(fileCache);
+        this(new ElevationTileCache());
+    }
+
+    private static HgtTileStore openTileStore(HgtFileCache fileCache) {
+        File file = fileCache.get(HgtTileStore.DEFAULT_FILE_NAME);
+        if (file == null)
+            return null;
+        try {
+            return new HgtTileStore(file);
+        } catch (IOException e) {
+            log.warning("Cannot open tile store " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public ElevationTileCache getTileCache() {
+        return tileCache;
+    }
+
+    private static int getTileIndex(double coordinate) {
+        int index = (int) coordinate;
+        return coordinate < 0 ? index - 1 : index;
     }
 
-    private Integer createTileKey(double longitude, double latitude) {
-        int longitudeAsInteger = (int) longitude;   // values from -180 to +180: 0 - 360
-        int latitudeAsInteger = (int) latitude;     // values from  -90 to  +90: 0 - 180
-        return (latitudeAsInteger + 180) * 100000 + (longitudeAsInteger + 90);
+    private static String createFileKey(int longitudeIndex, int latitudeIndex) {
+        return String.format("%s%02d%s%03d.hgt", (latitudeIndex < 0) ? "S" : "N", Math.abs(latitudeIndex),
+                (longitudeIndex < 0) ? "W" : "E", Math.abs(longitudeIndex));
+    }
+
+    /**
+     * @return the western and the southern edge of the tile of the given key or null if it's no tile key
+     */
+    static int[] parseFileKey(String key) {
+        Matcher matcher = FILE_KEY_PATTERN.matcher(key);
+        if (!matcher.matches())
+            return null;
+        int latitude = Integer.parseInt(matcher.group(2)) * ("S".equals(matcher.group(1)) ? -1 : 1);
+        int longitude = Integer.parseInt(matcher.group(4)) * ("W".equals(matcher.group(3)) ? -1 : 1);
+        return new int[]{longitude, latitude};
     }
 
     private String createFileKey(double longitude, double latitude) {
-        int longitudeAsInteger = (int) longitude;
-        int latitudeAsInteger = (int) latitude;
+        return createFileKey(getTileIndex(longitude), getTileIndex(latitude));
+    }
 
-        return String.format("%s%02d%s%03d.hgt", (latitude < 0) ? "S" : "N",
-                (latitude < 0) ? ((latitudeAsInteger - 1) * -1) : latitudeAsInteger,
-                (longitude < 0) ? "W" : "E",
-                (longitude < 0) ? ((longitudeAsInteger - 1) * -1) : longitudeAsInteger);
+    private synchronized Object getLoadLock(String fileKey) {
+        Object lock = loadLocks.get(fileKey);
+        if (lock == null) {
+            lock = new Object();
+            loadLocks.put(fileKey, lock);
+        }
+        return lock;
+    }
+
+    /**
+     * Returns the HGT file of the given tile and downloads it if necessary. If there is a tile
+     * store, a downloaded HGT file is moved into the store and null is returned.
+     */
+    private File getFile(String fileKey) throws IOException {
+        File file = fileCache.get(fileKey);
+        if (file == null) {
+            file = downloader.download(fileKey);
+            if (file != null && tileStore != null && store(fileKey, file))
+                return null;
+        }
+        return file;
+    }
+
+    private boolean store(String fileKey, File file) {
+        try {
+            tileStore.put(fileKey, file);
+        } catch (IOException e) {
+            log.warning("Cannot add tile " + fileKey + " to store: " + e.getMessage());
+            return false;
+        }
+        if (!file.delete())
+            log.warning("Cannot delete " + file + " after adding it to the store");
+        return true;
+    }
+
+    private ElevationTile getStoredTile(String fileKey) {
+        if (tileStore == null)
+            return null;
+        try {
+            return tileStore.getTile(fileKey);
+        } catch (IOException e) {
+            log.warning("Cannot read tile " + fileKey + " from store: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private ElevationTile getTile(String fileKey) throws IOException {
+        ElevationTile tile = tileCache.get(fileKey);
+        if (tile != null)
+            return tile;
+
+        // only one thread decodes or downloads a HGT file into the cache
+        synchronized (getLoadLock(fileKey)) {
+            tile = getStoredTile(fileKey);
+            if (tile != null)
+                return tileCache.put(fileKey, tile);
+
+            File file = getFile(fileKey);
+            if (file != null)
+                return tileCache.put(fileKey, file);
+
+            tile = getStoredTile(fileKey);
+            return tile != null ? tileCache.put(fileKey, tile) : null;
+        }
     }
 
     public Integer getElevationFor(double longitude, double latitude) throws IOException {
-        Integer tileKey = createTileKey(longitude, latitude);
-        ElevationTile tile = tileCache.get(tileKey);
-        if (tile == null) {
-
-            String fileKey = createFileKey(longitude, latitude);
-            RandomAccessFile randomAccessFile = randomAccessFileCache.get(fileKey);
-            if (randomAccessFile == null) {
-
-                File file = fileCache.get(fileKey);
-                if (file == null) {
-                    file = downloader.download(fileKey);
-                    if (file == null)
-                        return null;
-                    fileCache.put(fileKey, file);
+        ElevationTile tile = getTile(createFileKey(longitude, latitude));
+        if (tile == null)
+            return null;
+        try {
+            return tile.getElevationFor(longitude, latitude);
+        } finally {
+            tile.release();
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int count = 1;
+
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HgtFiles-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private class TileLookup implements Callable<Boolean> {
+        private final String fileKey;
+        private final double[] longitudes, latitudes;
+        private final int[] indices;
+        private final int count;
+        private final Integer[] elevations;
+
+        private TileLookup(String fileKey, double[] longitudes, double[] latitudes,
+                           int[] indices, int count, Integer[] elevations) {
+            this.fileKey = fileKey;
+            this.longitudes = longitudes;
+            this.latitudes = latitudes;
+            this.indices = indices;
+            this.count = count;
+            this.elevations = elevations;
+        }
+
+        public Boolean call() {
+            ElevationTile tile;
+            try {
+                tile = getTile(fileKey);
+            } catch (IOException e) {
+                log.warning("Cannot load tile " + fileKey + ": " + e.getMessage());
+                return false;
+            }
+            if (tile == null)
+                return false;
+
+            // every lookup writes distinct indices of the result
+            try {
+                for (int i = 0; i < count; i++) {
+                    int index = indices[i];
+                    elevations[index] = tile.getElevationFor(longitudes[index], latitudes[index]);
                 }
+            } finally {
+                tile.release();
+            }
+            return true;
+        }
+    }
+
+    private static class TileIndices {
+        private int[] indices = new int[16];
+        private int count = 0;
+
+        void add(int index) {
+            if (count == indices.length)
+                indices = Arrays.copyOf(indices, count * 2);
+            indices[count++] = index;
+        }
+    }
+
+    /**
+     * Looks up the elevations of a batch of positions. The positions are grouped by
+     * tile, every tile is loaded once and the tiles are processed in parallel.
+     *
+     * @param longitudes the longitudes of the positions
+     * @param latitudes  the latitudes of the positions
+     * @return the elevations of the positions and the tiles that are missing
+     */
+    public Elevations getElevationsFor(double[] longitudes, double[] latitudes) {
+        if (longitudes.length != latitudes.length)
+            throw new IllegalArgumentException("Got " + longitudes.length + " longitudes but " + latitudes.length + " latitudes");
 
-                randomAccessFile = new RandomAccessFile(file, "r");
-                randomAccessFileCache.put(fileKey, randomAccessFile);
+        Map<Integer, TileIndices> tiles = new HashMap<Integer, TileIndices>();
+        for (int i = 0; i < longitudes.length; i++) {
+            Integer tileKey = (getTileIndex(latitudes[i]) + 90) * 361 + getTileIndex(longitudes[i]) + 180;
+            TileIndices tileIndices = tiles.get(tileKey);
+            if (tileIndices == null) {
+                tileIndices = new TileIndices();
+                tiles.put(tileKey, tileIndices);
             }
+            tileIndices.add(i);
+        }
 
-            tile = new ElevationTile(randomAccessFile);
-            tileCache.put(tileKey, tile);
+        Integer[] elevations = new Integer[longitudes.length];
+        List<TileLookup> lookups = new ArrayList<TileLookup>(tiles.size());
+        for (TileIndices tileIndices : tiles.values()) {
+            int first = tileIndices.indices[0];
+            lookups.add(new TileLookup(createFileKey(longitudes[first], latitudes[first]), longitudes, latitudes,
+                    tileIndices.indices, tileIndices.count, elevations));
         }
-        return tile.getElevationFor(longitude, latitude);
+
+        List<String> missingTiles = new ArrayList<String>();
+        if (lookups.size() == 1) {
+            TileLookup lookup = lookups.get(0);
+            if (!lookup.call())
+                missingTiles.add(lookup.fileKey);
+        } else {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(lookups.size());
+            for (TileLookup lookup : lookups)
+                futures.add(getExecutor().submit(lookup));
+
+            for (int i = 0; i < futures.size(); i++) {
+                String fileKey = lookups.get(i).fileKey;
+                try {
+                    if (!futures.get(i).get())
+                        missingTiles.add(fileKey);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (int j = i; j < futures.size(); j++) {
+                        futures.get(j).cancel(true);
+                        missingTiles.add(lookups.get(j).fileKey);
+                    }
+                    break;
+                } catch (ExecutionException e) {
+                    log.warning("Cannot lookup tile " + fileKey + ": " + e.getCause());
+                    missingTiles.add(fileKey);
+                }
+            }
+        }
+        Collections.sort(missingTiles);
+        return new Elevations(elevations, missingTiles);
     }
 
-    public void dispose() {
-        for (RandomAccessFile randomAccessFile : randomAccessFileCache.values())
+    /**
+     * Returns the keys of the tiles that cover the given bounding box. A bounding box whose
+     * minimum longitude is greater than its maximum longitude crosses the antimeridian.
+     */
+    public List<String> getTileKeysFor(double minimumLongitude, double minimumLatitude,
+                                       double maximumLongitude, double maximumLatitude) {
+        int firstLongitude = getTileIndex(minimumLongitude), lastLongitude = getTileIndex(maximumLongitude);
+        if (lastLongitude < firstLongitude)
+            lastLongitude += 360;
+        List<String> result = new ArrayList<String>();
+        for (int latitude = getTileIndex(minimumLatitude); latitude <= getTileIndex(maximumLatitude); latitude++)
+            for (int longitude = firstLongitude; longitude <= lastLongitude; longitude++) {
+                int wrappedLongitude = longitude >= 180 ? longitude - 360 : longitude;
+                String fileKey = createFileKey(wrappedLongitude, latitude);
+                // the longitude 180 is the tile of -180
+                if (!result.contains(fileKey))
+                    result.add(fileKey);
+            }
+        return result;
+    }
+
+    /**
+     * Returns the keys of the tiles that the given positions lie in, which for a long
+     * route are much less than the tiles of its bounding box.
+     */
+    public List<String> getTileKeysFor(double[] longitudes, double[] latitudes) {
+        Set<String> result = new LinkedHashSet<String>();
+        Set<Integer> tiles = new HashSet<Integer>();
+        for (int i = 0; i < longitudes.length; i++) {
+            int longitude = getTileIndex(longitudes[i]), latitude = getTileIndex(latitudes[i]);
+            if (tiles.add((latitude + 90) * 361 + longitude + 180))
+                result.add(createFileKey(longitude, latitude));
+        }
+        return new ArrayList<String>(result);
+    }
+
+    private boolean isAvailable(String fileKey) {
+        return tileStore != null && tileStore.contains(fileKey) || fileCache.get(fileKey) != null;
+    }
+
+    /**
+     * Downloads the given tiles that are not available locally in parallel.
+     *
+     * @param fileKeys the keys of the tiles
+     * @param listener the listener for the progress or null
+     * @return the sorted keys of the tiles that could not be downloaded
+     */
+    public List<String> prefetch(List<String> fileKeys, final PrefetchListener listener) {
+        final int total = fileKeys.size();
+        final AtomicInteger count = new AtomicInteger();
+        final List<String> missingTiles = Collections.synchronizedList(new ArrayList<String>());
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final String fileKey : fileKeys) {
+            if (isAvailable(fileKey)) {
+                if (listener != null)
+                    listener.prefetched(fileKey, true, count.incrementAndGet(), total);
+                continue;
+            }
+
+            futures.add(getExecutor().submit(new Runnable() {
+                public void run() {
+                    boolean available = false;
+                    try {
+                        synchronized (getLoadLock(fileKey)) {
+                            available = getFile(fileKey) != null || isAvailable(fileKey);
+                        }
+                    } catch (IOException e) {
+                        log.warning("Cannot prefetch tile " + fileKey + ": " + e.getMessage());
+                    }
+                    if (!available)
+                        missingTiles.add(fileKey);
+                    if (listener != null)
+                        listener.prefetched(fileKey, available, count.incrementAndGet(), total);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
             try {
-                randomAccessFile.close();
-            } catch (IOException e) {
-                throw new IllegalArgumentException("Cannot close random access file" + randomAccessFile);
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<?> f : futures)
+                    f.cancel(true);
+                break;
+            } catch (ExecutionException e) {
+                log.warning("Cannot prefetch: " + e.getCause());
+            }
+        }
+
+        List<String> result = new ArrayList<String>(missingTiles);
+        Collections.sort(result);
+        return result;
+    }
+
+    public void dispose() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
             }
-        randomAccessFileCache.clear();
+        }
         tileCache.clear();
+        if (tileStore != null)
+            tileStore.close();
     }
 }
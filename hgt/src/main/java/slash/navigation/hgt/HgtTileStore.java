@@ -0,0 +1,453 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores many HGT tiles in a single file.
+ * <p/>
+ * Every tile is stored as a block of the differences of each sample to its left neighbour,
+ * or to the sample above for the first column, written as zig-zag variable length integers
+ * and compressed with {@link Deflater#BEST_SPEED}. An index of the blocks, to which the header
+ * of the file refers, allows to read single tiles. A tile is decoded once into a {@link ShortBuffer}
+ * on the heap and then as fast to look up as a memory mapped HGT file.
+ * <p/>
+ * Adding tiles appends their blocks to the file. A new index is appended after a number of
+ * added tiles, by {@link #flush()} and by {@link #close()}, and the header refers to the new
+ * index last, so that a store whose update was interrupted keeps its previous index and
+ * loses only the tiles that were added after it. Replacing a tile leaves its previous block
+ * unused. The file is opened for writing only when tiles are added. Reading tiles is safe
+ * for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class HgtTileStore {
+    private static Logger log = Logger.getLogger(HgtTileStore.class.getName());
+    public static final String DEFAULT_FILE_NAME = "tiles.hgts";
+    private static final Pattern HGT_FILE_PATTERN = Pattern.compile("[NS]\\d{2}[EW]\\d{3}\\.hgt", Pattern.CASE_INSENSITIVE);
+    private static final int MAGIC = 0x48475453; // HGTS
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 24;
+    // every index is appended, so writing it for every tile would let the file grow quadratically
+    static final int MAXIMUM_UNINDEXED_TILES = 16;
+
+    private final File file;
+    private final Map<String, Block> blocks = new TreeMap<String, Block>();
+    private RandomAccessFile input, output;
+    private int unindexedCount = 0;
+
+    public HgtTileStore(File file) throws IOException {
+        this.file = file;
+        if (file.exists() && file.length() > 0)
+            readIndex();
+        else
+            create();
+    }
+
+    private synchronized RandomAccessFile openForReading() throws IOException {
+        if (input == null)
+            input = new RandomAccessFile(file, "r");
+        return input;
+    }
+
+    private synchronized RandomAccessFile openForWriting() throws IOException {
+        if (output == null)
+            output = new RandomAccessFile(file, "rw");
+        return output;
+    }
+
+    private void create() throws IOException {
+        RandomAccessFile output = openForWriting();
+        output.setLength(0);
+        output.write(new byte[HEADER_LENGTH]);
+        writeIndex();
+    }
+
+    private static int getChecksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private void readIndex() throws IOException {
+        RandomAccessFile input = openForReading();
+        long length = input.length();
+        if (length < HEADER_LENGTH)
+            throw new IOException("Invalid tile store " + file + " with length " + length);
+        input.seek(0);
+        if (input.readInt() != MAGIC)
+            throw new IOException("Tile store " + file + " has no header");
+        int version = input.readInt();
+        if (version != VERSION)
+            throw new IOException("Tile store " + file + " has unsupported version " + version);
+
+        long indexOffset = input.readLong();
+        int indexLength = input.readInt();
+        int checksum = input.readInt();
+        if (indexOffset < HEADER_LENGTH || indexLength < 4 || indexOffset + indexLength > length)
+            throw new IOException("Tile store " + file + " has no valid index");
+
+        byte[] index = new byte[indexLength];
+        input.seek(indexOffset);
+        input.readFully(index);
+        if (getChecksum(index) != checksum)
+            throw new IOException("Tile store " + file + " has a corrupt index");
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            blocks.put(key, new Block(in.readLong(), in.readInt(), in.readInt(), in.readInt()));
+        }
+    }
+
+    private synchronized void writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(blocks.size());
+        for (Map.Entry<String, Block> entry : blocks.entrySet()) {
+            Block block = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(block.offset);
+            out.writeInt(block.length);
+            out.writeInt(block.encodedLength);
+            out.writeInt(block.sampleCount);
+        }
+        out.close();
+        byte[] index = bytes.toByteArray();
+
+        RandomAccessFile output = openForWriting();
+        long indexOffset = output.length();
+        output.seek(indexOffset);
+        output.write(index);
+        // the blocks and the index have to be on the disk before the header refers to them
+        output.getChannel().force(false);
+
+        bytes = new ByteArrayOutputStream(HEADER_LENGTH);
+        out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(indexOffset);
+        out.writeInt(index.length);
+        out.writeInt(getChecksum(index));
+        out.close();
+        output.seek(0);
+        output.write(bytes.toByteArray());
+        output.getChannel().force(false);
+        unindexedCount = 0;
+    }
+
+    /**
+     * Writes the index of the tiles that were added since the index was written last.
+     *
+     * @throws IOException if the store cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (unindexedCount > 0)
+            writeIndex();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized boolean contains(String key) {
+        return blocks.containsKey(key);
+    }
+
+    public synchronized Set<String> getKeys() {
+        return new TreeSet<String>(blocks.keySet());
+    }
+
+    public synchronized int getCount() {
+        return blocks.size();
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static byte[] encode(ShortBuffer samples, int columns) {
+        int count = samples.capacity();
+        byte[] encoded = new byte[count * 3];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int predicted = i % columns != 0 ? samples.get(i - 1) : (i >= columns ? samples.get(i - columns) : 0);
+            int value = zigZag(samples.get(i) - predicted);
+            while ((value & ~0x7F) != 0) {
+                encoded[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            encoded[length++] = (byte) value;
+        }
+        return Arrays.copyOf(encoded, length);
+    }
+
+    static short[] decode(byte[] encoded, int sampleCount, int columns) throws IOException {
+        short[] samples = new short[sampleCount];
+        int position = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            int value = 0, shift = 0;
+            byte b;
+            do {
+                if (position >= encoded.length)
+                    throw new IOException("Tile block ends after " + i + " of " + sampleCount + " samples");
+                b = encoded[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int predicted = i % columns != 0 ? samples[i - 1] : (i >= columns ? samples[i - columns] : 0);
+            samples[i] = (short) (predicted + unZigZag(value));
+        }
+        return samples;
+    }
+
+    private static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] uncompress(byte[] bytes, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            byte[] result = new byte[length];
+            int count = 0;
+            while (count < length && !inflater.finished()) {
+                int inflated = inflater.inflate(result, count, length - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                count += inflated;
+            }
+            if (count != length)
+                throw new IOException("Tile block has " + count + " instead of " + length + " bytes");
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Tile block is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void append(String key, ShortBuffer samples) throws IOException {
+        int columns = ElevationTile.getIntervals(samples.capacity() * 2L) + 1;
+        byte[] encoded = encode(samples, columns);
+        byte[] compressed = compress(encoded);
+
+        synchronized (this) {
+            RandomAccessFile output = openForWriting();
+            long offset = output.length();
+            output.seek(offset);
+            output.write(compressed);
+            blocks.put(key, new Block(offset, compressed.length, encoded.length, samples.capacity()));
+            unindexedCount++;
+        }
+    }
+
+    private void append(String key, File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            // read instead of mapped since a mapped file cannot be deleted on Windows
+            FileChannel channel = input.getChannel();
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    throw new IOException("HGT file " + file + " ends unexpectedly");
+            }
+            buffer.flip();
+        } finally {
+            input.close();
+        }
+        append(key, buffer.asShortBuffer());
+    }
+
+    private synchronized void flushIfNecessary() throws IOException {
+        if (unindexedCount >= MAXIMUM_UNINDEXED_TILES)
+            writeIndex();
+    }
+
+    /**
+     * Adds the given samples of a tile to the store.
+     *
+     * @param key     the key of the tile, i.e. the name of the HGT file
+     * @param samples the samples of the tile
+     * @throws IOException if the samples are no tile or the store cannot be written
+     * @see #flush()
+     */
+    public void put(String key, ShortBuffer samples) throws IOException {
+        append(key, samples);
+        flushIfNecessary();
+    }
+
+    /**
+     * Adds the given HGT file to the store.
+     *
+     * @param key  the key of the tile, i.e. the name of the HGT file
+     * @param file the HGT file
+     * @throws IOException if the HGT file cannot be read or the store cannot be written
+     * @see #flush()
+     */
+    public void put(String key, File file) throws IOException {
+        append(key, file);
+        flushIfNecessary();
+    }
+
+    short[] readSamples(String key) throws IOException {
+        Block block;
+        FileChannel channel;
+        synchronized (this) {
+            block = blocks.get(key);
+            if (block == null)
+                return null;
+            channel = openForReading().getChannel();
+        }
+
+        // blocks are never overwritten, so they are read outside of the lock
+        ByteBuffer buffer = ByteBuffer.allocate(block.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, block.offset + buffer.position()) < 0)
+                throw new IOException("Tile store " + file + " ends within the block of " + key);
+        }
+        byte[] encoded = uncompress(buffer.array(), block.encodedLength);
+        int columns = ElevationTile.getIntervals(block.sampleCount * 2L) + 1;
+        return decode(encoded, block.sampleCount, columns);
+    }
+
+    /**
+     * Reads and decodes a tile from the store.
+     *
+     * @param key the key of the tile, i.e. the name of the HGT file
+     * @return the tile or null if the store doesn't contain the tile
+     * @throws IOException if the tile cannot be read
+     */
+    public ElevationTile getTile(String key) throws IOException {
+        short[] samples = readSamples(key);
+        return samples != null ? new ElevationTile(ShortBuffer.wrap(samples)) : null;
+    }
+
+    private static String createKey(String fileName) {
+        // the same key as the one of HgtFiles, whatever the case of the file name
+        return fileName.substring(0, 7).toUpperCase() + ".hgt";
+    }
+
+    /**
+     * Adds all HGT files of the given directory that the store doesn't contain.
+     * The index is written once after all files are added.
+     *
+     * @param directory the directory with the HGT files
+     * @return the number of added HGT files
+     * @throws IOException if a HGT file cannot be read or the store cannot be written
+     */
+    public int importDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list directory " + directory);
+        Arrays.sort(files);
+
+        int count = 0;
+        try {
+            for (File hgtFile : files) {
+                if (!HGT_FILE_PATTERN.matcher(hgtFile.getName()).matches())
+                    continue;
+                String key = createKey(hgtFile.getName());
+                if (contains(key))
+                    continue;
+                try {
+                    append(key, hgtFile);
+                    count++;
+                } catch (IOException e) {
+                    log.warning("Cannot import " + hgtFile + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            flush();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the index and closes the file of the store; it is opened again if the store
+     * is used afterwards.
+     */
+    public synchronized void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.warning("Cannot write index of tile store " + file + ": " + e.getMessage());
+        }
+        close(input);
+        input = null;
+        close(output);
+        output = null;
+    }
+
+    private void close(RandomAccessFile randomAccessFile) {
+        if (randomAccessFile == null)
+            return;
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            log.warning("Cannot close tile store " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static class Block {
+        private final long offset;
+        private final int length;
+        private final int encodedLength;
+        private final int sampleCount;
+
+        Block(long offset, int length, int encodedLength, int sampleCount) {
+            this.offset = offset;
+            this.length = length;
+            this.encodedLength = encodedLength;
+            this.sampleCount = sampleCount;
+        }
+    }
+}
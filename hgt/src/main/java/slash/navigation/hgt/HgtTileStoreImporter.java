@@ -0,0 +1,71 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * A command line tool that imports the HGT files of a directory into a {@link HgtTileStore}.
+ *
+ * @author Christian Pesch
+ */
+
+public class HgtTileStoreImporter {
+    private static final Logger log = Logger.getLogger(HgtTileStoreImporter.class.getName());
+
+    private void run(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            log.info("Usage: java " + getClass().getName() + " <directory with hgt files> [<tile store file>]");
+            System.exit(5);
+        }
+
+        File directory = new File(args[0]);
+        if (!directory.isDirectory()) {
+            log.severe("Directory '" + directory.getAbsolutePath() + "' does not exist; stopping.");
+            System.exit(10);
+        }
+
+        File file = args.length > 1 ? new File(args[1]) : new File(directory, HgtTileStore.DEFAULT_FILE_NAME);
+        HgtTileStore store = null;
+        try {
+            store = new HgtTileStore(file);
+            long start = System.currentTimeMillis();
+            int count = store.importDirectory(directory);
+            long end = System.currentTimeMillis();
+            log.info("Imported " + count + " hgt files into '" + file.getAbsolutePath() + "' with " +
+                    store.getCount() + " tiles and " + file.length() + " bytes in " + (end - start) + " ms");
+        } catch (IOException e) {
+            log.severe("Error while importing: " + e.getMessage());
+            System.exit(15);
+        } finally {
+            if (store != null)
+                store.close();
+        }
+
+        System.exit(0);
+    }
+
+    public static void main(String[] args) {
+        new HgtTileStoreImporter().run(args);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Knows the tiles of the 360x180 grid for which no HGT file exists.
+ * <p/>
+ * The day on which a tile was found to be missing is stored in a memory mapped file, so that
+ * a lookup and an update touch only the two bytes of the tile. Such an entry expires after
+ * a number of days and the tile is downloaded again. The longitude 180 is the same as -180
+ * and the latitude 90 belongs to the northernmost tiles.
+ *
+ * @author Christian Pesch
+ */
+
+public class MissingTileIndex {
+    private static Logger log = Logger.getLogger(MissingTileIndex.class.getName());
+    public static final int DEFAULT_EXPIRY_DAYS = 90;
+    static final int COLUMNS = 360, ROWS = 180;
+    private static final int MAGIC = 0x4847544D; // HGTM
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int LENGTH = HEADER_LENGTH + COLUMNS * ROWS * 2;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final int MINIMUM_SRTM_LATITUDE = -56, MAXIMUM_SRTM_LATITUDE = 59;
+
+    private final File file;
+    private final int expiryDays;
+    private MappedByteBuffer buffer;
+    private CharBuffer days;
+
+    public MissingTileIndex(File file, int expiryDays) throws IOException {
+        this.file = file;
+        this.expiryDays = expiryDays;
+        open();
+    }
+
+    private void open() throws IOException {
+        boolean exists = file.exists() && file.length() == LENGTH;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (exists) {
+                if (randomAccessFile.readInt() != MAGIC || randomAccessFile.readInt() != VERSION) {
+                    log.warning("Resetting invalid missing tile index " + file);
+                    exists = false;
+                }
+            }
+            if (!exists) {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(LENGTH);
+                randomAccessFile.seek(0);
+                randomAccessFile.writeInt(MAGIC);
+                randomAccessFile.writeInt(VERSION);
+            }
+            // the mapping stays valid after the file is closed
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, LENGTH);
+            buffer.position(HEADER_LENGTH);
+            days = buffer.slice().asCharBuffer();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    static int today() {
+        return (int) (System.currentTimeMillis() / MILLIS_PER_DAY);
+    }
+
+    static int getIndex(int longitudeIndex, int latitudeIndex) {
+        int column = ((longitudeIndex + 180) % COLUMNS + COLUMNS) % COLUMNS;
+        int row = Math.max(0, Math.min(latitudeIndex + 90, ROWS - 1));
+        return row * COLUMNS + column;
+    }
+
+    /**
+     * @return true if the tile is outside of the coverage of SRTM
+     */
+    public static boolean isOutsideOfCoverage(int latitudeIndex) {
+        return latitudeIndex < MINIMUM_SRTM_LATITUDE || latitudeIndex > MAXIMUM_SRTM_LATITUDE;
+    }
+
+    boolean isMissing(int longitudeIndex, int latitudeIndex, int today) {
+        int day = days.get(getIndex(longitudeIndex, latitudeIndex));
+        return day != 0 && today - day < expiryDays;
+    }
+
+    void setMissing(int longitudeIndex, int latitudeIndex, int today) {
+        days.put(getIndex(longitudeIndex, latitudeIndex), (char) today);
+    }
+
+    /**
+     * @param longitudeIndex the western edge of the tile from -180 to 180
+     * @param latitudeIndex  the southern edge of the tile from -90 to 90
+     * @return true if the tile is known to have no HGT file
+     */
+    public boolean isMissing(int longitudeIndex, int latitudeIndex) {
+        return isMissing(longitudeIndex, latitudeIndex, today());
+    }
+
+    /**
+     * Remembers that the given tile has no HGT file until the entry expires.
+     */
+    public void setMissing(int longitudeIndex, int latitudeIndex) {
+        setMissing(longitudeIndex, latitudeIndex, today());
+    }
+
+    /**
+     * Forgets that the given tile has no HGT file.
+     */
+    public void clearMissing(int longitudeIndex, int latitudeIndex) {
+        days.put(getIndex(longitudeIndex, latitudeIndex), (char) 0);
+    }
+
+    /**
+     * Writes the changes of the index to its file.
+     */
+    public void flush() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+/**
+ * Interface for the progress of a prefetch of {@link HgtFiles}.
+ *
+ * @author Christian Pesch
+ */
+
+public interface PrefetchListener {
+    /**
+     * Called from the prefetching threads whenever a tile is done.
+     *
+     * @param key       the key of the tile
+     * @param available true if the tile is available locally now
+     * @param count     the number of tiles done so far
+     * @param total     the number of tiles to prefetch
+     */
+    void prefetched(String key, boolean available, int count, int total);
+}
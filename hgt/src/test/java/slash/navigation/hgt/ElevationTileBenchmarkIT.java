@@ -0,0 +1,115 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the per lookup latency of the memory mapped {@link ElevationTile} with
+ * reading the four samples around a position with seek and readShort.
+ */
+public class ElevationTileBenchmarkIT {
+    private static final int LOOKUPS = 1000000;
+
+    private static int readWithSeek(RandomAccessFile file, double longitude, double latitude) throws IOException {
+        int nAS = 1200;
+        int nLonIndex = Math.min((int) ((longitude - (int) longitude) * nAS), nAS - 1);
+        int nLatIndex = Math.min((int) ((latitude - (int) latitude) * nAS), nAS - 1);
+        int sum = 0;
+        int[] positions = new int[]{
+                (((nAS - nLatIndex) - 1) * (nAS + 1)) + nLonIndex,
+                ((nAS - nLatIndex) * (nAS + 1)) + nLonIndex,
+                (((nAS - nLatIndex) - 1) * (nAS + 1)) + nLonIndex + 1,
+                ((nAS - nLatIndex) * (nAS + 1)) + nLonIndex + 1
+        };
+        for (int pos : positions) {
+            file.seek(pos * 2);
+            sum += file.readShort();
+        }
+        return sum / 4;
+    }
+
+    private double[][] createRandomPositions() {
+        Random random = new Random(4711);
+        double[][] result = new double[LOOKUPS][2];
+        for (int i = 0; i < LOOKUPS; i++) {
+            result[i][0] = 10.0 + random.nextDouble();
+            result[i][1] = 53.0 + random.nextDouble();
+        }
+        return result;
+    }
+
+    private double[][] createTrackPositions() {
+        Random random = new Random(4711);
+        double[][] result = new double[LOOKUPS][2];
+        double longitude = 10.5, latitude = 53.5;
+        for (int i = 0; i < LOOKUPS; i++) {
+            // about 3 meters per step in a random walk that stays within the tile
+            longitude = Math.min(Math.max(longitude + (random.nextDouble() - 0.5) * 0.00005, 10.0), 10.999);
+            latitude = Math.min(Math.max(latitude + (random.nextDouble() - 0.5) * 0.00005, 53.0), 53.999);
+            result[i][0] = longitude;
+            result[i][1] = latitude;
+        }
+        return result;
+    }
+
+    private void benchmark(String name, double[][] positions) throws IOException {
+        File file = ElevationTileTest.createTile(1200);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long start = System.nanoTime();
+            long seekSum = 0;
+            for (double[] position : positions)
+                seekSum += readWithSeek(randomAccessFile, position[0], position[1]);
+            long seekNanos = System.nanoTime() - start;
+
+            ElevationTile tile = new ElevationTile(randomAccessFile);
+            start = System.nanoTime();
+            long mappedSum = 0;
+            for (double[] position : positions)
+                mappedSum += tile.getElevationFor(position[0], position[1]);
+            long mappedNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("%s: %d lookups, seek and readShort %.1f ns/lookup, mapped %.1f ns/lookup",
+                    name, positions.length, (double) seekNanos / positions.length, (double) mappedNanos / positions.length));
+            assertEquals(seekSum, mappedSum, positions.length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void testRandomLookups() throws IOException {
+        benchmark("Random", createRandomPositions());
+    }
+
+    @Test
+    public void testTrackOrderedLookups() throws IOException {
+        benchmark("Track ordered", createTrackPositions());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import static slash.navigation.hgt.ElevationTileTest.createTile;
+
+public class ElevationTileCacheTest {
+    private static final long TILE_SIZE = 1201 * 1201 * 2;
+    private static File file;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        file = createTile(1200);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(2, 10 * TILE_SIZE);
+        assertNull(cache.get("a"));
+        ElevationTile a = cache.put("a", file);
+        assertSame(a, cache.get("a"));
+        assertSame(a, cache.get("a"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(1, cache.getCount());
+        assertEquals(TILE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByCount() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(2, 10 * TILE_SIZE);
+        cache.put("a", file);
+        cache.put("b", file);
+        cache.get("a");
+        cache.put("c", file);
+        assertEquals(2, cache.getCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBySize() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(10, 2 * TILE_SIZE);
+        cache.put("a", file);
+        cache.put("b", file);
+        cache.put("c", file);
+        assertEquals(2, cache.getCount());
+        assertEquals(2 * TILE_SIZE, cache.getSize());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testKeepsOneTileLargerThanMaximumSize() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(10, TILE_SIZE / 2);
+        ElevationTile a = cache.put("a", file);
+        assertEquals(1, cache.getCount());
+        assertEquals(600, a.getElevationFor(10.5, 53.0).intValue());
+    }
+
+    @Test
+    public void testEvictedTileStaysReadable() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(1, 10 * TILE_SIZE);
+        ElevationTile a = cache.put("a", file);
+        cache.put("b", file);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(600, a.getElevationFor(10.5, 53.0).intValue());
+    }
+
+    @Test
+    public void testUnmapsEvictedTileAfterRelease() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(1, 10 * TILE_SIZE);
+        ElevationTile a = cache.put("a", file);
+        assertSame(a, cache.get("a"));
+        cache.put("b", file).release();
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(a.isMapped());
+
+        a.release();
+        assertTrue(a.isMapped());
+        assertEquals(600, a.getElevationFor(10.5, 53.0).intValue());
+        a.release();
+        assertFalse(a.isMapped());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testUnmapsEvictedTileWithoutUsers() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(1, 10 * TILE_SIZE);
+        ElevationTile a = cache.put("a", file);
+        a.release();
+        ElevationTile b = cache.put("b", file);
+        assertFalse(a.isMapped());
+        assertTrue(b.isMapped());
+
+        b.release();
+        cache.clear();
+        assertFalse(b.isMapped());
+    }
+
+    @Test
+    public void testPutOfExistingKeyReturnsCachedTile() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(2, 10 * TILE_SIZE);
+        ElevationTile a = cache.put("a", file);
+        assertSame(a, cache.put("a", file));
+        assertEquals(1, cache.getCount());
+    }
+
+    private static int countOpenFiles(File file) throws IOException {
+        File[] descriptors = new File("/proc/self/fd").listFiles();
+        int count = 0;
+        for (File descriptor : descriptors)
+            if (file.getCanonicalPath().equals(descriptor.getCanonicalPath()))
+                count++;
+        return count;
+    }
+
+    @Test
+    public void testClosesFileAfterMapping() throws IOException {
+        // the open files of the process are known on Linux only
+        if (!new File("/proc/self/fd").isDirectory())
+            return;
+        ElevationTileCache cache = new ElevationTileCache(10, 10 * TILE_SIZE);
+        int before = countOpenFiles(file);
+        cache.put("a", file);
+        cache.put("b", file);
+        assertEquals(before, countOpenFiles(file));
+        assertNotNull(cache.get("a").getElevationFor(10.5, 53.5));
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        ElevationTileCache cache = new ElevationTileCache(2, 10 * TILE_SIZE);
+        cache.put("a", file);
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ElevationTileCache cache = new ElevationTileCache(4, 10 * TILE_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 8; i++) {
+            final int seed = i;
+            futures.add(executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    Random random = new Random(seed);
+                    int lookups = 0;
+                    for (int j = 0; j < 500; j++) {
+                        String key = "tile" + random.nextInt(8);
+                        ElevationTile tile = cache.get(key);
+                        if (tile == null)
+                            tile = cache.put(key, file);
+                        try {
+                            assertEquals(600, tile.getElevationFor(10.5, 53.0).intValue());
+                        } finally {
+                            tile.release();
+                        }
+                        lookups++;
+                    }
+                    return lookups;
+                }
+            }));
+        }
+        int lookups = 0;
+        for (Future<Integer> future : futures)
+            lookups += future.get();
+        executor.shutdown();
+
+        assertEquals(8 * 500, lookups);
+        assertEquals(lookups, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getCount() <= 4);
+        assertEquals(cache.getCount() * TILE_SIZE, cache.getSize());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ElevationTileTest {
+
+    /**
+     * Creates a HGT file whose elevation is the sum of the longitude and the latitude interval index
+     * so that the interpolated elevation is known for every position within the tile.
+     */
+    static File createTile(int intervals) throws IOException {
+        File file = File.createTempFile("elevationtile", ".hgt");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int row = 0; row <= intervals; row++)
+                for (int column = 0; column <= intervals; column++)
+                    out.writeShort(column + intervals - row);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private Integer getElevationFor(File file, double longitude, double latitude) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new ElevationTile(randomAccessFile).getElevationFor(longitude, latitude);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void testIntervals() throws IOException {
+        assertEquals(1200, ElevationTile.getIntervals(1201 * 1201 * 2));
+        assertEquals(3600, ElevationTile.getIntervals(3601 * 3601 * 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidLength() throws IOException {
+        ElevationTile.getIntervals(1201 * 1200 * 2);
+    }
+
+    @Test
+    public void testSrtm3ElevationFor() throws IOException {
+        File file = createTile(1200);
+        assertEquals(0, getElevationFor(file, 10.0, 53.0).intValue());
+        assertEquals(600, getElevationFor(file, 10.5, 53.0).intValue());
+        assertEquals(600, getElevationFor(file, 10.0, 53.5).intValue());
+        assertEquals(1500, getElevationFor(file, 10.75, 53.5).intValue());
+        assertEquals(1200, getElevationFor(file, -10.5, -53.5).intValue());
+    }
+
+    @Test
+    public void testSrtm1ElevationFor() throws IOException {
+        File file = createTile(3600);
+        assertEquals(1800, getElevationFor(file, 10.5, 53.0).intValue());
+        assertEquals(4500, getElevationFor(file, 10.75, 53.5).intValue());
+    }
+
+    @Test
+    public void testVoidElevation() throws IOException {
+        File file = File.createTempFile("elevationtile", ".hgt");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < 1201 * 1201; i++)
+                out.writeShort(-32768);
+        } finally {
+            out.close();
+        }
+        assertNull(getElevationFor(file, 10.5, 53.5));
+    }
+}
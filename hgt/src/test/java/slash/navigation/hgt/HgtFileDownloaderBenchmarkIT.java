@@ -0,0 +1,126 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+import slash.common.io.InputOutput;
+import slash.common.io.NotClosingUnderlyingInputStream;
+import slash.navigation.rest.Get;
+
+import java.io.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static slash.navigation.rest.LocalHttpServers.createServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+/**
+ * Compares streaming a HGT file from a local HTTP server into the {@link HgtFileCache}
+ * with extracting it to a temporary file and copying that into the cache.
+ */
+public class HgtFileDownloaderBenchmarkIT {
+    private static final int DOWNLOADS = 20;
+    private static final String KEY = "N53E010.hgt";
+
+    private File extractToTemporaryFileAndCopy(String url, HgtFileCache fileCache) throws IOException {
+        Get get = new Get(url);
+        ZipInputStream zipInputStream = new ZipInputStream(get.executeAsStream(true));
+        File extracted = null;
+        try {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            while (entry != null) {
+                if (!entry.isDirectory()) {
+                    extracted = File.createTempFile("routeconverter", ".hgt");
+                    InputOutput.copy(new NotClosingUnderlyingInputStream(zipInputStream), new FileOutputStream(extracted));
+                    zipInputStream.closeEntry();
+                }
+                entry = zipInputStream.getNextEntry();
+            }
+        } finally {
+            zipInputStream.close();
+        }
+        fileCache.put(KEY, extracted);
+        assertTrue(extracted.delete());
+        return fileCache.get(KEY);
+    }
+
+    @Test
+    public void testStreamingIntoCache() throws IOException {
+        File tile = ElevationTileTest.createTile(1200);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        out.putNextEntry(new ZipEntry(KEY));
+        InputOutput.copy(new FileInputStream(tile), out);
+        out.close();
+        final byte[] zip = bytes.toByteArray();
+
+        HttpServer server = createServer();
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, zip.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(zip);
+                body.close();
+            }
+        });
+        server.start();
+        String url = getUrl(server);
+
+        File directory = File.createTempFile("hgtdownloader", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        HgtFileCache fileCache = new HgtFileCache(directory);
+        try {
+            HgtFileDownloader downloader = new HgtFileDownloader(fileCache, url, 0, 0);
+            // warm up both variants
+            assertTrue(downloader.download(KEY).delete());
+            assertTrue(extractToTemporaryFileAndCopy(url + "Eurasia/" + KEY + ".zip", fileCache).delete());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < DOWNLOADS; i++)
+                assertTrue(extractToTemporaryFileAndCopy(url + "Eurasia/" + KEY + ".zip", fileCache).delete());
+            long copyNanos = (System.nanoTime() - start) / DOWNLOADS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < DOWNLOADS; i++) {
+                File file = downloader.download(KEY);
+                assertEquals(tile.length(), file.length());
+                assertTrue(file.delete());
+            }
+            long streamNanos = (System.nanoTime() - start) / DOWNLOADS;
+
+            System.out.println(String.format("%d downloads of %d bytes zip: temporary file and copy %.1f ms/tile writing %d bytes, " +
+                    "streaming into cache %.1f ms/tile writing %d bytes", DOWNLOADS, zip.length,
+                    copyNanos / 1000000.0, 2 * tile.length(), streamNanos / 1000000.0, tile.length()));
+        } finally {
+            server.stop(0);
+            for (File file : directory.listFiles())
+                assertTrue(file.delete());
+            assertTrue(directory.delete());
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import slash.common.io.InputOutput;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class HgtFileDownloaderTest {
+    private HttpServer server;
+    private String url;
+    private final Map<String, byte[]> fixtures = Collections.synchronizedMap(new HashMap<String, byte[]>());
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, AtomicInteger> errors = Collections.synchronizedMap(new HashMap<String, AtomicInteger>());
+    private File directory;
+    private HgtFileCache fileCache;
+
+    private byte[] createZip(String key, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        out.putNextEntry(new ZipEntry("readme.txt"));
+        out.write("fixture".getBytes());
+        out.putNextEntry(new ZipEntry(key));
+        byte[] tile = InputOutput.readBytes(new FileInputStream(ElevationTileTest.createTile(120)));
+        out.write(tile, 0, Math.min(length, tile.length));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] createZip(String key) throws IOException {
+        return createZip(key, Integer.MAX_VALUE);
+    }
+
+    private void addFixture(String continent, String key) throws IOException {
+        fixtures.put("/" + continent + "/" + key + ".zip", createZip(key));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = createServer();
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requests.add(path);
+                AtomicInteger errorCount = errors.get(path);
+                byte[] body = fixtures.get(path);
+                int status = errorCount != null && errorCount.getAndDecrement() > 0 ? 503 : body != null ? 200 : 404;
+                if (status != 200)
+                    body = new byte[0];
+                exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        url = getUrl(server);
+
+        directory = File.createTempFile("hgtdownloader", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        fileCache = new HgtFileCache(directory);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        for (File file : directory.listFiles())
+            assertTrue(file.delete());
+        assertTrue(directory.delete());
+    }
+
+    private HgtFileDownloader createDownloader() {
+        return new HgtFileDownloader(fileCache, url, 2, 10);
+    }
+
+    @Test
+    public void testContinentsFor() {
+        HgtContinentIndex index = new HgtContinentIndex(fileCache);
+        assertEquals("Eurasia", index.getContinentsFor("N53E010.hgt").get(0));
+        assertEquals("North_America", index.getContinentsFor("N40W075.hgt").get(0));
+        assertEquals("South_America", index.getContinentsFor("S23W044.hgt").get(0));
+        assertEquals("Australia", index.getContinentsFor("S34E151.hgt").get(0));
+        assertEquals("Africa", index.getContinentsFor("S34E018.hgt").get(0));
+        assertEquals(HgtContinentIndex.CONTINENTS.size(), index.getContinentsFor("N53E010.hgt").size());
+        assertEquals(HgtContinentIndex.CONTINENTS.size(), index.getContinentsFor("invalid").size());
+
+        index.putContinent("N53E010.hgt", "Islands");
+        assertEquals("Islands", new HgtContinentIndex(fileCache).getContinentsFor("N53E010.hgt").get(0));
+    }
+
+    @Test
+    public void testImportsSerializedContinents() throws IOException {
+        Map<String, String> continents = new HashMap<String, String>();
+        continents.put("N53E010.hgt", "Islands");
+        continents.put("S34W180.hgt", "Australia");
+        continents.put("invalid", "Africa");
+        fileCache.putAsObject("hgtFiles.continents", continents);
+
+        HgtContinentIndex index = new HgtContinentIndex(fileCache);
+        assertEquals("Islands", index.getContinent("N53E010.hgt"));
+        assertEquals("Australia", index.getContinent("S34E180.hgt"));
+        assertNull(index.getContinent("invalid"));
+        assertNull(index.getContinent("N40W075.hgt"));
+        assertNull(fileCache.get("hgtFiles.continents"));
+        assertEquals("Islands", new HgtContinentIndex(fileCache).getContinent("N53E010.hgt"));
+    }
+
+    @Test
+    public void testDownloadRemembersContinent() throws IOException {
+        addFixture("Islands", "N53E010.hgt");
+        File file = createDownloader().download("N53E010.hgt");
+        assertEquals(new File(directory, "N53E010.hgt"), file);
+        assertEquals(file, fileCache.get("N53E010.hgt"));
+        assertEquals(120, ElevationTile.getIntervals(file.length()));
+        assertEquals("/Eurasia/N53E010.hgt.zip", requests.get(0));
+        assertEquals("/Islands/N53E010.hgt.zip", requests.get(requests.size() - 1));
+
+        requests.clear();
+        assertNotNull(createDownloader().download("N53E010.hgt"));
+        assertEquals(Arrays.asList("/Islands/N53E010.hgt.zip"), requests);
+    }
+
+    private List<String> getPartFiles() {
+        List<String> result = new ArrayList<String>();
+        for (String name : directory.list()) {
+            if (name.endsWith(".part"))
+                result.add(name);
+        }
+        return result;
+    }
+
+    @Test
+    public void testDownloadStreamsIntoCache() throws IOException {
+        addFixture("Eurasia", "N53E010.hgt");
+        assertNotNull(createDownloader().download("N53E010.hgt"));
+        assertEquals(121 * 121 * 2, new File(directory, "N53E010.hgt").length());
+        assertTrue(getPartFiles().isEmpty());
+    }
+
+    @Test
+    public void testTruncatedEntryIsNotCached() throws IOException {
+        fixtures.put("/Eurasia/N53E010.hgt.zip", createZip("N53E010.hgt", 1000));
+        assertNull(createDownloader().download("N53E010.hgt"));
+        assertNull(fileCache.get("N53E010.hgt"));
+        assertTrue(getPartFiles().isEmpty());
+        assertEquals(3, Collections.frequency(requests, "/Eurasia/N53E010.hgt.zip"));
+    }
+
+    @Test
+    public void testCorruptZipIsNotCached() throws IOException {
+        byte[] zip = createZip("N53E010.hgt");
+        zip[zip.length / 2] ^= 0x55;
+        fixtures.put("/Eurasia/N53E010.hgt.zip", zip);
+        assertNull(createDownloader().download("N53E010.hgt"));
+        assertNull(fileCache.get("N53E010.hgt"));
+        assertTrue(getPartFiles().isEmpty());
+    }
+
+    @Test
+    public void testNotFoundIsRemembered() {
+        assertNull(createDownloader().download("N53E010.hgt"));
+        assertEquals(HgtContinentIndex.CONTINENTS.size(), requests.size());
+
+        requests.clear();
+        HgtFileDownloader downloader = createDownloader();
+        assertNull(downloader.download("N53E010.hgt"));
+        assertTrue(requests.isEmpty());
+        assertTrue(downloader.getMissingTileIndex().isMissing(10, 53));
+    }
+
+    @Test
+    public void testTilesOutsideOfCoverageAreNotDownloadedFromDefaultSource() {
+        HgtFileDownloader downloader = new HgtFileDownloader(fileCache, HgtFileDownloader.DEFAULT_HGT_FILES_URL, 2, 10);
+        assertTrue(downloader.isMissing("N61E011.hgt"));
+        assertTrue(downloader.isMissing("S57W068.hgt"));
+        assertFalse(downloader.isMissing("N59E011.hgt"));
+    }
+
+    @Test
+    public void testTilesOutsideOfCoverageAreDownloadedFromOtherSources() throws IOException {
+        addFixture("Eurasia", "N61E011.hgt");
+        HgtFileDownloader downloader = createDownloader();
+        assertFalse(downloader.isMissing("N61E011.hgt"));
+        assertNotNull(downloader.download("N61E011.hgt"));
+        assertTrue(requests.contains("/Eurasia/N61E011.hgt.zip"));
+    }
+
+    @Test
+    public void testTilesAtEdgesOfGrid() {
+        HgtFileDownloader downloader = createDownloader();
+        assertNull(downloader.download("N00E180.hgt"));
+        assertNull(downloader.download("N90E010.hgt"));
+        assertTrue(downloader.isMissing("N00E180.hgt"));
+        assertTrue(downloader.isMissing("N00W180.hgt"));
+    }
+
+    @Test
+    public void testServerErrorsDoNotMarkTilesMissing() throws IOException {
+        errors.put("/Eurasia/N53E010.hgt.zip", new AtomicInteger(3));
+        HgtFileDownloader downloader = new HgtFileDownloader(fileCache, url, 2, 10);
+        assertNull(downloader.download("N53E010.hgt"));
+        assertFalse(downloader.getMissingTileIndex().isMissing(10, 53));
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws IOException {
+        addFixture("Eurasia", "N53E010.hgt");
+        errors.put("/Eurasia/N53E010.hgt.zip", new AtomicInteger(2));
+        assertNotNull(createDownloader().download("N53E010.hgt"));
+        assertEquals(3, Collections.frequency(requests, "/Eurasia/N53E010.hgt.zip"));
+    }
+
+    @Test
+    public void testServerErrorsAreNotRemembered() throws IOException {
+        addFixture("Eurasia", "N53E010.hgt");
+        errors.put("/Eurasia/N53E010.hgt.zip", new AtomicInteger(3));
+        assertNull(new HgtFileDownloader(fileCache, url, 2, 10).download("N53E010.hgt"));
+        assertNotNull(createDownloader().download("N53E010.hgt"));
+    }
+
+    @Test
+    public void testPrefetch() throws IOException {
+        addFixture("Eurasia", "N53E010.hgt");
+        addFixture("Eurasia", "N53E011.hgt");
+        addFixture("Eurasia", "N54E010.hgt");
+        addFixture("Islands", "N54E011.hgt");
+        addFixture("Eurasia", "N55E011.hgt");
+        fileCache.put("N55E010.hgt", ElevationTileTest.createTile(120));
+
+        HgtFiles files = new HgtFiles(fileCache, null, createDownloader(), new ElevationTileCache(), 4);
+        try {
+            List<String> keys = files.getTileKeysFor(10.2, 53.1, 12.5, 55.9);
+            assertEquals(9, keys.size());
+
+            final List<String> available = Collections.synchronizedList(new ArrayList<String>());
+            final AtomicInteger lastCount = new AtomicInteger();
+            List<String> missing = files.prefetch(keys, new PrefetchListener() {
+                public void prefetched(String key, boolean isAvailable, int count, int total) {
+                    assertEquals(9, total);
+                    if (isAvailable)
+                        available.add(key);
+                    lastCount.set(Math.max(lastCount.get(), count));
+                }
+            });
+
+            assertEquals(Arrays.asList("N53E012.hgt", "N54E012.hgt", "N55E012.hgt"), missing);
+            assertEquals(6, available.size());
+            assertEquals(9, lastCount.get());
+            for (String key : available)
+                assertNotNull(fileCache.get(key));
+            assertEquals(60, files.getElevationFor(11.5, 54.0).intValue());
+        } finally {
+            files.dispose();
+        }
+    }
+
+    @Test
+    public void testTileKeysForPositions() {
+        HgtFiles files = new HgtFiles(fileCache, null, createDownloader(), new ElevationTileCache(), 1);
+        assertEquals(Arrays.asList("N53E010.hgt", "N54E011.hgt", "S01W001.hgt"),
+                files.getTileKeysFor(new double[]{10.1, 10.9, 11.5, -0.5}, new double[]{53.1, 53.9, 54.5, -0.5}));
+    }
+
+    @Test
+    public void testTileKeysForBoundingBoxAcrossAntimeridian() {
+        HgtFiles files = new HgtFiles(fileCache, null, createDownloader(), new ElevationTileCache(), 1);
+        assertEquals(Arrays.asList("S18E178.hgt", "S18E179.hgt", "S18W180.hgt", "S18W179.hgt"),
+                files.getTileKeysFor(178.5, -17.5, -178.5, -17.2));
+        assertEquals(Arrays.asList("N10E179.hgt", "N10W180.hgt"),
+                files.getTileKeysFor(179.5, 10.5, 180.0, 10.5));
+    }
+}
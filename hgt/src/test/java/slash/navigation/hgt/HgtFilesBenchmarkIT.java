@@ -0,0 +1,84 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of looking up one position after another with the
+ * batch lookup that groups the positions by tile and processes the tiles in parallel.
+ */
+public class HgtFilesBenchmarkIT {
+    private static final int LOOKUPS = 1000000;
+    private static final int TILES_PER_ROW = 5, TILE_ROWS = 4;
+
+    @Test
+    public void testBatchThroughput() throws IOException {
+        File directory = File.createTempFile("hgtfiles", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        File tile = ElevationTileTest.createTile(1200);
+        HgtFileCache fileCache = new HgtFileCache(directory);
+        for (int row = 0; row < TILE_ROWS; row++)
+            for (int column = 0; column < TILES_PER_ROW; column++)
+                fileCache.put(String.format("N%02dE%03d.hgt", 50 + row, 10 + column), tile);
+
+        Random random = new Random(4711);
+        double[] longitudes = new double[LOOKUPS];
+        double[] latitudes = new double[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            longitudes[i] = 10.0 + random.nextDouble() * TILES_PER_ROW;
+            latitudes[i] = 50.0 + random.nextDouble() * TILE_ROWS;
+        }
+
+        HgtFiles files = new HgtFiles(fileCache, null, new HgtFileDownloader(fileCache), new ElevationTileCache(), HgtFiles.DEFAULT_THREAD_COUNT);
+        try {
+            // warm up the tile cache so that both variants measure lookups only
+            files.getElevationsFor(longitudes, latitudes);
+
+            long start = System.nanoTime();
+            Integer[] sequential = new Integer[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++)
+                sequential[i] = files.getElevationFor(longitudes[i], latitudes[i]);
+            long sequentialNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Integer[] batch = files.getElevationsFor(longitudes, latitudes).getElevations();
+            long batchNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("%d lookups in %d tiles: one after another %.1f ns/lookup, batch %.1f ns/lookup",
+                    LOOKUPS, TILES_PER_ROW * TILE_ROWS, (double) sequentialNanos / LOOKUPS, (double) batchNanos / LOOKUPS));
+            assertArrayEquals(sequential, batch);
+        } finally {
+            files.dispose();
+            for (File file : directory.listFiles())
+                assertTrue(file.delete());
+            assertTrue(directory.delete());
+        }
+    }
+}
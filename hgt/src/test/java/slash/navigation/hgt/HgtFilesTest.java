@@ -0,0 +1,229 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HgtFilesTest {
+    private File directory;
+    private File tile;
+    private CountingDownloader downloader;
+    private HgtFiles files;
+
+    private static class CountingDownloader extends HgtFileDownloader {
+        private final AtomicInteger downloads = new AtomicInteger();
+        private final HgtFileCache fileCache;
+        private final File tile;
+        private final List<String> keys;
+
+        CountingDownloader(HgtFileCache fileCache, File tile, String... keys) {
+            super(fileCache);
+            this.fileCache = fileCache;
+            this.tile = tile;
+            this.keys = Arrays.asList(keys);
+        }
+
+        public File download(String key) {
+            downloads.incrementAndGet();
+            if (!keys.contains(key))
+                return null;
+            try {
+                fileCache.put(key, tile);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return fileCache.get(key);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("hgtfiles", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        tile = ElevationTileTest.createTile(1200);
+        HgtFileCache fileCache = new HgtFileCache(directory);
+        for (String key : new String[]{"N53E010.hgt", "N53E011.hgt", "N54E010.hgt", "S54W011.hgt"})
+            fileCache.put(key, tile);
+        downloader = new CountingDownloader(fileCache, tile, "N60E020.hgt");
+        files = new HgtFiles(fileCache, null, downloader, new ElevationTileCache(), 4);
+    }
+
+    @After
+    public void tearDown() {
+        files.dispose();
+        for (File file : directory.listFiles())
+            assertTrue(file.delete());
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testElevationFor() throws IOException {
+        assertEquals(600, files.getElevationFor(10.5, 53.0).intValue());
+        assertEquals(1500, files.getElevationFor(11.75, 53.5).intValue());
+        assertEquals(1200, files.getElevationFor(-10.5, -53.5).intValue());
+        assertNull(files.getElevationFor(30.5, 53.5));
+        assertEquals(1, downloader.downloads.get());
+    }
+
+    @Test
+    public void testElevationsForGroupsByTile() throws IOException {
+        double[] longitudes = new double[]{10.5, 11.75, 10.75, -10.5, 30.5, 11.75, 40.5, 10.5};
+        double[] latitudes = new double[]{53.0, 53.5, 54.5, -53.5, 53.5, 53.5, 53.5, 53.0};
+        Elevations elevations = files.getElevationsFor(longitudes, latitudes);
+
+        for (int i = 0; i < longitudes.length; i++)
+            assertEquals(files.getElevationFor(longitudes[i], latitudes[i]), elevations.getElevations()[i]);
+        assertEquals(Arrays.asList("N53E030.hgt", "N53E040.hgt"), elevations.getMissingTiles());
+        assertEquals(4, files.getTileCache().getCount());
+    }
+
+    @Test
+    public void testElevationsForSingleTile() {
+        Elevations elevations = files.getElevationsFor(new double[]{10.5, 10.75}, new double[]{53.0, 53.5});
+        assertArrayEquals(new Integer[]{600, 1500}, elevations.getElevations());
+        assertTrue(elevations.getMissingTiles().isEmpty());
+    }
+
+    @Test
+    public void testElevationsForNoPositions() {
+        Elevations elevations = files.getElevationsFor(new double[0], new double[0]);
+        assertEquals(0, elevations.getElevations().length);
+        assertTrue(elevations.getMissingTiles().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testElevationsForDifferentLengths() {
+        files.getElevationsFor(new double[1], new double[2]);
+    }
+
+    @Test
+    public void testElevationForFromTileStore() throws IOException {
+        HgtTileStore tileStore = new HgtTileStore(new File(directory, HgtTileStore.DEFAULT_FILE_NAME));
+        tileStore.put("N10E010.hgt", tile);
+        HgtFiles storeFiles = new HgtFiles(new HgtFileCache(directory), tileStore, downloader, new ElevationTileCache(), 4);
+        try {
+            assertEquals(600, storeFiles.getElevationFor(10.5, 10.0).intValue());
+            assertEquals(600, storeFiles.getElevationFor(10.5, 53.0).intValue());
+            assertEquals(0, downloader.downloads.get());
+            assertFalse(new File(directory, "N10E010.hgt").exists());
+        } finally {
+            storeFiles.dispose();
+        }
+    }
+
+    @Test
+    public void testDownloadsIntoTileStore() throws IOException {
+        HgtFileCache fileCache = new HgtFileCache(directory);
+        HgtTileStore tileStore = new HgtTileStore(new File(directory, HgtTileStore.DEFAULT_FILE_NAME));
+        CountingDownloader storeDownloader = new CountingDownloader(fileCache, tile, "N60E020.hgt", "N61E020.hgt");
+        HgtFiles storeFiles = new HgtFiles(fileCache, tileStore, storeDownloader, new ElevationTileCache(), 4);
+        try {
+            assertEquals(600, storeFiles.getElevationFor(20.5, 60.0).intValue());
+            assertTrue(tileStore.contains("N60E020.hgt"));
+            assertFalse(new File(directory, "N60E020.hgt").exists());
+
+            assertEquals(Arrays.asList("N62E020.hgt"), storeFiles.prefetch(Arrays.asList("N61E020.hgt", "N62E020.hgt"), null));
+            assertTrue(tileStore.contains("N61E020.hgt"));
+            assertFalse(new File(directory, "N61E020.hgt").exists());
+            assertEquals(3, storeDownloader.downloads.get());
+        } finally {
+            storeFiles.dispose();
+        }
+
+        HgtTileStore reopened = new HgtTileStore(new File(directory, HgtTileStore.DEFAULT_FILE_NAME));
+        try {
+            assertEquals(2, reopened.getCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentDownloadOfSameTile() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return files.getElevationFor(20.5, 60.0);
+                }
+            }));
+        }
+        for (Future<Integer> future : futures)
+            assertEquals(600, future.get().intValue());
+        executor.shutdown();
+
+        assertEquals(1, downloader.downloads.get());
+        assertTrue(new File(directory, "N60E020.hgt").exists());
+    }
+
+    @Test
+    public void testConcurrentBatches() throws Exception {
+        final double[] longitudes = new double[20000];
+        final double[] latitudes = new double[longitudes.length];
+        Random random = new Random(4711);
+        for (int i = 0; i < longitudes.length; i++) {
+            longitudes[i] = 10.0 + random.nextDouble() * 2.0;
+            latitudes[i] = 53.0 + random.nextDouble() * 2.0;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Elevations>> futures = new ArrayList<Future<Elevations>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Elevations>() {
+                public Elevations call() throws Exception {
+                    return files.getElevationsFor(longitudes, latitudes);
+                }
+            }));
+        }
+        Integer[] expected = futures.get(0).get().getElevations();
+        for (Future<Elevations> future : futures) {
+            Elevations elevations = future.get();
+            assertArrayEquals(expected, elevations.getElevations());
+            assertEquals(Arrays.asList("N54E011.hgt"), elevations.getMissingTiles());
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < longitudes.length; i++) {
+            if (longitudes[i] >= 11.0 && latitudes[i] >= 54.0)
+                assertNull(expected[i]);
+            else
+                assertEquals(files.getElevationFor(longitudes[i], latitudes[i]), expected[i]);
+        }
+    }
+}
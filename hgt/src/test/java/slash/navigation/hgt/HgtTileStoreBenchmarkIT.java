@@ -0,0 +1,128 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the size of a {@link HgtTileStore} with the HGT files, measures the time to decode
+ * a tile and compares the lookups in a decoded tile with a memory mapped HGT file.
+ */
+public class HgtTileStoreBenchmarkIT {
+    private static final int TILES = 10;
+    private static final int LOOKUPS = 1000000;
+
+    /**
+     * Creates a HGT file with a smooth terrain of hills with some noise and voids.
+     */
+    private File createTerrainTile(long seed) throws IOException {
+        Random random = new Random(seed);
+        File file = File.createTempFile("terrain", ".hgt");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            double phase = random.nextDouble() * Math.PI;
+            for (int row = 0; row <= 1200; row++)
+                for (int column = 0; column <= 1200; column++) {
+                    double hills = 800 + 400 * Math.sin(row / 97.0 + phase) * Math.cos(column / 131.0 - phase) +
+                            150 * Math.sin((row + column) / 23.0);
+                    int sample = random.nextInt(5000) == 0 ? Short.MIN_VALUE : (int) hills + random.nextInt(7) - 3;
+                    out.writeShort(sample);
+                }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testSizeDecodeAndLookups() throws IOException {
+        File storeFile = File.createTempFile("tilestore", ".hgts");
+        assertTrue(storeFile.delete());
+        HgtTileStore store = new HgtTileStore(storeFile);
+        File terrain = null;
+        try {
+            long hgtSize = 0;
+            for (int i = 0; i < TILES; i++) {
+                terrain = createTerrainTile(i);
+                hgtSize += terrain.length();
+                store.put(String.format("N50E%03d.hgt", i), terrain);
+            }
+
+            long start = System.nanoTime();
+            ElevationTile decoded = null;
+            for (int i = 0; i < TILES; i++)
+                decoded = store.getTile(String.format("N50E%03d.hgt", i));
+            long decodeNanos = (System.nanoTime() - start) / TILES;
+
+            Random random = new Random(4711);
+            double[] longitudes = new double[LOOKUPS], latitudes = new double[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                longitudes[i] = 9.0 + random.nextDouble();
+                latitudes[i] = 50.0 + random.nextDouble();
+            }
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(terrain, "r");
+            try {
+                ElevationTile mapped = new ElevationTile(randomAccessFile);
+                long mappedSum = 0, decodedSum = 0;
+                // warm up both variants
+                for (int i = 0; i < LOOKUPS; i++) {
+                    Integer a = mapped.getElevationFor(longitudes[i], latitudes[i]);
+                    Integer b = decoded.getElevationFor(longitudes[i], latitudes[i]);
+                    assertEquals(a, b);
+                }
+
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    Integer elevation = mapped.getElevationFor(longitudes[i], latitudes[i]);
+                    mappedSum += elevation != null ? elevation : 0;
+                }
+                long mappedNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    Integer elevation = decoded.getElevationFor(longitudes[i], latitudes[i]);
+                    decodedSum += elevation != null ? elevation : 0;
+                }
+                long decodedNanos = System.nanoTime() - start;
+
+                System.out.println(String.format("%d tiles: hgt files %d bytes, tile store %d bytes (%.1f%%), decode %.1f ms/tile",
+                        TILES, hgtSize, storeFile.length(), storeFile.length() * 100.0 / hgtSize, decodeNanos / 1000000.0));
+                System.out.println(String.format("%d lookups: mapped %.1f ns/lookup, decoded %.1f ns/lookup",
+                        LOOKUPS, (double) mappedNanos / LOOKUPS, (double) decodedNanos / LOOKUPS));
+                assertEquals(mappedSum, decodedSum);
+                assertTrue(decodedNanos < 2 * mappedNanos);
+            } finally {
+                randomAccessFile.close();
+            }
+        } finally {
+            store.close();
+            assertTrue(storeFile.delete());
+        }
+    }
+}
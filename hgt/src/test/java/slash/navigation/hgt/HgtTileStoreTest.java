@@ -0,0 +1,248 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HgtTileStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("tilestore", ".hgts");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        if (file.exists())
+            assertTrue(file.delete());
+    }
+
+    private short[] createSamples(int intervals, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[(intervals + 1) * (intervals + 1)];
+        for (int i = 0; i < samples.length; i++) {
+            int value = random.nextInt(10) == 0 ? Short.MIN_VALUE : random.nextInt(9000) - 500;
+            samples[i] = (short) (i % 7 == 0 ? Short.MAX_VALUE : value);
+        }
+        return samples;
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        short[] samples = createSamples(120, 4711);
+        byte[] encoded = HgtTileStore.encode(ShortBuffer.wrap(samples), 121);
+        assertArrayEquals(samples, HgtTileStore.decode(encoded, samples.length, 121));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeTruncatedBlock() throws IOException {
+        short[] samples = createSamples(120, 4711);
+        byte[] encoded = HgtTileStore.encode(ShortBuffer.wrap(samples), 121);
+        HgtTileStore.decode(Arrays.copyOf(encoded, encoded.length - 1), samples.length, 121);
+    }
+
+    @Test
+    public void testPutAndGetTile() throws IOException {
+        HgtTileStore store = new HgtTileStore(file);
+        try {
+            store.put("N53E010.hgt", ElevationTileTest.createTile(1200));
+            short[] samples = createSamples(120, 42);
+            store.put("S01W001.hgt", ShortBuffer.wrap(samples));
+
+            assertEquals(2, store.getCount());
+            assertTrue(store.contains("N53E010.hgt"));
+            assertFalse(store.contains("N54E010.hgt"));
+            assertNull(store.getTile("N54E010.hgt"));
+
+            ElevationTile tile = store.getTile("N53E010.hgt");
+            assertEquals(1200, tile.getIntervals());
+            assertEquals(600, tile.getElevationFor(10.5, 53.0).intValue());
+            assertEquals(1500, tile.getElevationFor(10.75, 53.5).intValue());
+            assertEquals(120, store.getTile("S01W001.hgt").getIntervals());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        short[] first = createSamples(120, 1), second = createSamples(120, 2), third = createSamples(120, 3);
+        HgtTileStore store = new HgtTileStore(file);
+        store.put("N01E001.hgt", ShortBuffer.wrap(first));
+        store.put("N02E002.hgt", ShortBuffer.wrap(second));
+        store.close();
+
+        store = new HgtTileStore(file);
+        try {
+            assertEquals(2, store.getCount());
+            store.put("N02E002.hgt", ShortBuffer.wrap(third));
+            assertArrayEquals(first, store.readSamples("N01E001.hgt"));
+            assertArrayEquals(third, store.readSamples("N02E002.hgt"));
+        } finally {
+            store.close();
+        }
+
+        store = new HgtTileStore(file);
+        try {
+            assertEquals(2, store.getCount());
+            assertArrayEquals(third, store.readSamples("N02E002.hgt"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testImportDirectory() throws IOException {
+        File directory = File.createTempFile("tilestore", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        try {
+            for (String key : new String[]{"N53E010.hgt", "S54W011.hgt", "n55e012.HGT"})
+                assertTrue(ElevationTileTest.createTile(120).renameTo(new File(directory, key)));
+            new FileOutputStream(new File(directory, "hgtFilesUrl.failures")).close();
+
+            HgtTileStore store = new HgtTileStore(file);
+            try {
+                assertEquals(3, store.importDirectory(directory));
+                assertEquals(0, store.importDirectory(directory));
+                assertEquals(Arrays.asList("N53E010.hgt", "N55E012.hgt", "S54W011.hgt"), Arrays.asList(store.getKeys().toArray()));
+            } finally {
+                store.close();
+            }
+
+            store = new HgtTileStore(file);
+            try {
+                assertEquals(3, store.getCount());
+                assertEquals(120, store.getTile("N55E012.hgt").getIntervals());
+            } finally {
+                store.close();
+            }
+        } finally {
+            for (File f : directory.listFiles())
+                assertTrue(f.delete());
+            assertTrue(directory.delete());
+        }
+    }
+
+    private int countStoredTiles() throws IOException {
+        HgtTileStore store = new HgtTileStore(file);
+        try {
+            return store.getCount();
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testBatchesIndexWrites() throws IOException {
+        short[] samples = createSamples(120, 1);
+        HgtTileStore store = new HgtTileStore(file);
+        try {
+            for (int i = 1; i < HgtTileStore.MAXIMUM_UNINDEXED_TILES; i++)
+                store.put(String.format("N%02dE001.hgt", i), ShortBuffer.wrap(samples));
+            assertEquals(0, countStoredTiles());
+            long length = file.length();
+
+            store.put("N00E001.hgt", ShortBuffer.wrap(samples));
+            assertEquals(HgtTileStore.MAXIMUM_UNINDEXED_TILES, countStoredTiles());
+            assertTrue(file.length() > length);
+
+            store.put("N00E002.hgt", ShortBuffer.wrap(samples));
+            assertEquals(HgtTileStore.MAXIMUM_UNINDEXED_TILES, countStoredTiles());
+            store.flush();
+            assertEquals(HgtTileStore.MAXIMUM_UNINDEXED_TILES + 1, countStoredTiles());
+            length = file.length();
+            store.flush();
+            assertEquals(length, file.length());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testKeepsIndexOfInterruptedUpdate() throws IOException {
+        short[] first = createSamples(120, 1), second = createSamples(120, 2);
+        HgtTileStore store = new HgtTileStore(file);
+        store.put("N01E001.hgt", ShortBuffer.wrap(first));
+        store.put("N02E002.hgt", ShortBuffer.wrap(second));
+        store.close();
+
+        // a block and a part of an index that were written before the update was interrupted
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(randomAccessFile.length());
+        randomAccessFile.write(HgtTileStore.encode(ShortBuffer.wrap(createSamples(120, 3)), 121));
+        randomAccessFile.writeInt(3);
+        randomAccessFile.close();
+
+        store = new HgtTileStore(file);
+        try {
+            assertEquals(2, store.getCount());
+            assertArrayEquals(first, store.readSamples("N01E001.hgt"));
+            assertArrayEquals(second, store.readSamples("N02E002.hgt"));
+            store.put("N03E003.hgt", ShortBuffer.wrap(first));
+        } finally {
+            store.close();
+        }
+
+        store = new HgtTileStore(file);
+        try {
+            assertEquals(3, store.getCount());
+            assertArrayEquals(first, store.readSamples("N03E003.hgt"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptIndex() throws IOException {
+        HgtTileStore store = new HgtTileStore(file);
+        store.put("N01E001.hgt", ShortBuffer.wrap(createSamples(120, 1)));
+        store.close();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(randomAccessFile.length() - 1);
+        randomAccessFile.write(0x55);
+        randomAccessFile.close();
+        new HgtTileStore(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidStore() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[100]);
+        out.close();
+        new HgtTileStore(file);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.hgt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MissingTileIndexTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("missingtiles", ".bin");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        if (file.exists())
+            assertTrue(file.delete());
+    }
+
+    @Test
+    public void testOutsideOfCoverage() throws IOException {
+        assertTrue(MissingTileIndex.isOutsideOfCoverage(60));
+        assertTrue(MissingTileIndex.isOutsideOfCoverage(-57));
+        assertFalse(MissingTileIndex.isOutsideOfCoverage(59));
+        assertFalse(MissingTileIndex.isOutsideOfCoverage(-56));
+
+        // other sources may have these tiles
+        MissingTileIndex index = new MissingTileIndex(file, 90);
+        assertFalse(index.isMissing(11, 60));
+        assertFalse(index.isMissing(-68, -57));
+    }
+
+    @Test
+    public void testSetAndClearMissing() throws IOException {
+        MissingTileIndex index = new MissingTileIndex(file, 90);
+        assertFalse(index.isMissing(-30, 40));
+        index.setMissing(-30, 40);
+        assertTrue(index.isMissing(-30, 40));
+        assertFalse(index.isMissing(-29, 40));
+        assertFalse(index.isMissing(-30, 41));
+        index.clearMissing(-30, 40);
+        assertFalse(index.isMissing(-30, 40));
+    }
+
+    @Test
+    public void testExpiry() throws IOException {
+        MissingTileIndex index = new MissingTileIndex(file, 90);
+        int today = MissingTileIndex.today();
+        index.setMissing(179, 59, today - 89);
+        assertTrue(index.isMissing(179, 59, today));
+        index.setMissing(179, 59, today - 90);
+        assertFalse(index.isMissing(179, 59, today));
+        assertFalse(index.isMissing(179, 59));
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        MissingTileIndex index = new MissingTileIndex(file, 90);
+        index.setMissing(-160, 30);
+        index.setMissing(170, -40);
+        index.flush();
+
+        index = new MissingTileIndex(file, 90);
+        assertTrue(index.isMissing(-160, 30));
+        assertTrue(index.isMissing(170, -40));
+        assertFalse(index.isMissing(10, 53));
+        assertEquals(8 + 360 * 180 * 2, file.length());
+    }
+
+    @Test
+    public void testResetsInvalidFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[8 + 360 * 180 * 2]);
+        out.close();
+
+        MissingTileIndex index = new MissingTileIndex(file, 90);
+        assertFalse(index.isMissing(-160, 30));
+        index.setMissing(-160, 30);
+        assertTrue(new MissingTileIndex(file, 90).isMissing(-160, 30));
+    }
+
+    @Test
+    public void testEdgesOfGrid() throws IOException {
+        MissingTileIndex index = new MissingTileIndex(file, 90);
+        assertFalse(index.isMissing(180, 0));
+        index.setMissing(180, 0);
+        assertTrue(index.isMissing(-180, 0));
+        assertFalse(index.isMissing(179, 0));
+
+        assertFalse(index.isMissing(10, 90));
+        index.setMissing(10, 90);
+        assertTrue(index.isMissing(10, 89));
+        index.clearMissing(10, 89);
+        assertFalse(index.isMissing(10, 90));
+    }
+}
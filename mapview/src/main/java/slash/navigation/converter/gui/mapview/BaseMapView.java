@@ -42,28 +42,28 @@ import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import java.util.regex.Matcher;
@@ -92,6 +92,15 @@ public abstract class BaseMapView implements MapView {
     private static final int MAXIMUM_MARKER_SEGMENT_LENGTH = preferences.getInt("maximumWaypointSegmentLength", 5);
     private static final int MAXIMUM_MARKER_POSITION_COUNT = preferences.getInt("maximumWaypointPositionCount", 40);
     private static final int MAXIMUM_SELECTION_COUNT = preferences.getInt("maximumSelectionCount", 10);
+    private static final int MAXIMUM_SCRIPT_LENGTH = preferences.getInt("maximumScriptLength", 64 * 1024);
+    private static final int MAXIMUM_CALLBACK_QUEUE_SIZE = preferences.getInt("maximumCallbackQueueSize", 1000);
+    private static final int UPDATE_DEBOUNCE = preferences.getInt("mapUpdateDebounce", 100);
+    private static final int UPDATE_MAXIMUM_DELAY = preferences.getInt("mapUpdateMaximumDelay", 1000);
+    private static final int UPDATE = 1, RECENTER = 2;
+    private static final int MAXIMUM_DIRECTIONS_IN_FLIGHT = preferences.getInt("maximumDirectionsInFlight", 4);
+    private static final int DIRECTIONS_BACKOFF = preferences.getInt("directionsBackoff", 500);
+    private static final int MAXIMUM_DIRECTIONS_BACKOFF = preferences.getInt("maximumDirectionsBackoff", 16000);
+    private static final int DIRECTIONS_TIMEOUT = preferences.getInt("directionsTimeout", 30000);
     private static final int[] ZOOMLEVEL_SCALE = {
             400000000,
             200000000,
@@ -118,21 +127,67 @@ public abstract class BaseMapView implements MapView {
     private List<BaseNavigationPosition> positions;
     private PositionsSelectionModel positionsSelectionModel;
 
-    private ServerSocket callbackListenerServerSocket;
-    private Thread routeUpdater, selectionUpdater, callbackListener, callbackPoller;
+    private CallbackServer callbackServer;
+    private Thread callbackPoller;
 
     protected final Object notificationMutex = new Object();
     protected boolean initialized = false;
     private boolean running = true, recenterAfterZooming, pedestrians, avoidHighways,
-            haveToInitializeMapOnFirstStart = true, haveToRepaintSelectionImmediately = false,
-            haveToRepaintRouteImmediately = false, haveToRecenterMap = false,
-            haveToUpdateRoute = false, haveToReplaceRoute = false,
-            haveToRepaintSelection = false, ignoreNextZoomCallback = false;
+            haveToInitializeMapOnFirstStart = true, ignoreNextZoomCallback = false;
     private String routeUpdateReason = "?", selectionUpdateReason = "?";
+    // the significant positions per zoom level of the snapshot, only used by the route updater
     private final Map<Integer, BitSet> significantPositionCache = new HashMap<Integer, BitSet>(ZOOMLEVEL_SCALE.length);
-    private int meters = 0, seconds = 0;
+    private List<BaseNavigationPosition> snapshot;
+    private boolean haveToTakeSnapshot = true;
+    private final OverlaySegments overlaySegments = new OverlaySegments();
+    private final Map<String, int[]> directionsDistances = new HashMap<String, int[]>();
+    private RouteCharacteristics lastCharacteristics;
     private PositionAugmenter positionAugmenter;
     private ExecutorService executor = Executors.newCachedThreadPool();
+    private final UpdateScheduler routeUpdater = new UpdateScheduler("MapViewRouteUpdater",
+            UPDATE_DEBOUNCE, UPDATE_MAXIMUM_DELAY, 1000, new UpdateScheduler.Update() {
+                public boolean run(int flags) {
+                    return updateRoute(flags);
+                }
+            });
+    private final UpdateScheduler selectionUpdater = new UpdateScheduler("MapViewSelectionUpdater",
+            UPDATE_DEBOUNCE, UPDATE_MAXIMUM_DELAY, 1000, new UpdateScheduler.Update() {
+                public boolean run(int flags) {
+                    return updateSelection(flags);
+                }
+            });
+    private final DirectionsPipeline.Bridge directionsBridge = new DirectionsPipeline.Bridge() {
+        public void executeScript(String script) {
+            BaseMapView.this.executeScript(script);
+        }
+    };
+    private final DirectionsPipeline routeDirections = new DirectionsPipeline("MapViewRouteDirections",
+            MAXIMUM_DIRECTIONS_IN_FLIGHT, DIRECTIONS_BACKOFF, MAXIMUM_DIRECTIONS_BACKOFF, DIRECTIONS_TIMEOUT,
+            directionsBridge);
+    private final DirectionsPipeline waypointDirections = new DirectionsPipeline("MapViewWaypointDirections",
+            MAXIMUM_DIRECTIONS_IN_FLIGHT, DIRECTIONS_BACKOFF, MAXIMUM_DIRECTIONS_BACKOFF, DIRECTIONS_TIMEOUT,
+            directionsBridge);
+    // processes the callbacks in the order of their arrival and blocks reading if too many are pending
+    private ExecutorService callbackExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAXIMUM_CALLBACK_QUEUE_SIZE), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "MapViewCallbackProcessor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                    try {
+                        // wait for the queue instead of running the callback before the queued ones
+                        while (!executor.isShutdown()) {
+                            if (executor.getQueue().offer(runnable, 100, TimeUnit.MILLISECONDS))
+                                return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
 
     // initialization
 
@@ -237,142 +292,98 @@ public abstract class BaseMapView implements MapView {
             }
         });
 
-        routeUpdater = new Thread(new Runnable() {
-            public void run() {
-                long lastTime = 0;
-                boolean recenter;
-                while (true) {
-                    List<BaseNavigationPosition> copiedPositions;
-                    synchronized (notificationMutex) {
-                        try {
-                            notificationMutex.wait(1000);
-                        } catch (InterruptedException e) {
-                            // ignore this
-                        }
-
-                        if (!running)
-                            return;
-                        if (!hasPositions())
-                            continue;
-                        if (!isVisible())
-                            continue;
-
-                        /*
-                           Update conditions:
-
-                           - new route was loaded
-                             - clear cache
-                             - center map
-                             - set zoom level according to route bounds
-                             - repaint immediately
-                           - user has moved position
-                             - clear cache
-                             - stay on current zoom level
-                             - center map to position
-                             - repaint
-                           - user has removed position
-                             - clear cache
-                             - stay on current zoom level
-                             - repaint
-                           - user has zoomed map
-                             - repaint if zooming into the map as it reveals more details
-                           - user has moved map
-                             - repaint if moved
-                         */
-                        long currentTime = System.currentTimeMillis();
-                        if (haveToRepaintRouteImmediately ||
-                                haveToReplaceRoute ||
-                                (haveToUpdateRoute && (currentTime - lastTime > 5 * 1000))) {
-                            log.fine("Woke up to update route: " + routeUpdateReason +
-                                    " haveToUpdateRoute:" + haveToUpdateRoute +
-                                    " haveToReplaceRoute:" + haveToReplaceRoute +
-                                    " haveToRepaintRouteImmediately:" + haveToRepaintRouteImmediately);
-                            copiedPositions = filterPositionsWithoutCoordinates(positions);
-                            recenter = haveToReplaceRoute;
-                            haveToUpdateRoute = false;
-                            haveToReplaceRoute = false;
-                            haveToRepaintRouteImmediately = false;
-                        } else
-                            continue;
-                    }
+        routeUpdater.start();
+        selectionUpdater.start();
+        routeDirections.start();
+        waypointDirections.start();
+    }
 
-                    setCenterOfMap(copiedPositions, recenter);
-                    copiedPositions = reducePositions(copiedPositions, recenter, getMaximumPositionCount());
-                    switch (positionsModel.getRoute().getCharacteristics()) {
-                        case Route:
-                            addDirectionsToMap(copiedPositions);
-                            break;
-                        case Waypoints:
-                            addMarkersToMap(copiedPositions);
-                            break;
-                        default:
-                            addPolylinesToMap(copiedPositions);
-                    }
-                    log.info("Route updated for " + copiedPositions.size() + " positions of type " +
-                            positionsModel.getRoute().getCharacteristics() + ", recentering: " + recenter);
-                    lastTime = System.currentTimeMillis();
-                }
+    private boolean updateRoute(int flags) {
+        List<BaseNavigationPosition> copiedPositions;
+        synchronized (notificationMutex) {
+            // the positions are set with the next update
+            if (!hasPositions())
+                return true;
+            if (!isVisible())
+                return false;
+            log.fine("Woke up to update route: " + routeUpdateReason + " flags: " + flags);
+            if (haveToTakeSnapshot) {
+                snapshot = takeSnapshot(positions);
+                haveToTakeSnapshot = false;
+                significantPositionCache.clear();
             }
-        }, "MapViewRouteUpdater");
-        routeUpdater.start();
+            copiedPositions = snapshot;
+        }
 
-        selectionUpdater = new Thread(new Runnable() {
-            public void run() {
-                long lastTime = 0;
-                while (true) {
-                    int[] copiedSelectedPositions;
-                    List<BaseNavigationPosition> copiedPositions;
-                    boolean recenter;
-                    synchronized (notificationMutex) {
-                        try {
-                            notificationMutex.wait(100);
-                        } catch (InterruptedException e) {
-                            // ignore this
-                        }
+        boolean recenter = (flags & RECENTER) != 0;
+        RouteCharacteristics characteristics = positionsModel.getRoute().getCharacteristics();
+        try {
+            setCenterOfMap(copiedPositions, recenter);
+            copiedPositions = reducePositions(copiedPositions, recenter, getMaximumPositionCount(), routeUpdater);
+            // apply only the positions for the latest viewport and zoom level
+            checkSuperseded(routeUpdater);
+        } catch (CancellationException e) {
+            log.fine("Superseded route update for flags: " + flags);
+            return false;
+        }
 
-                        if (!running)
-                            return;
-                        if (!hasPositions())
-                            continue;
-                        if (!isVisible())
-                            continue;
-
-                        long currentTime = System.currentTimeMillis();
-                        if (haveToRecenterMap || haveToRepaintSelectionImmediately ||
-                                (haveToRepaintSelection && (currentTime - lastTime > 500))) {
-                            log.fine("Woke up to update selected positions: " + selectionUpdateReason +
-                                    " haveToRepaintSelection: " + haveToRepaintSelection +
-                                    " haveToRepaintSelectionImmediately: " + haveToRepaintSelectionImmediately +
-                                    " haveToRecenterMap: " + haveToRecenterMap);
-                            recenter = haveToRecenterMap;
-                            haveToRecenterMap = false;
-                            haveToRepaintSelectionImmediately = false;
-                            haveToRepaintSelection = false;
-                            copiedSelectedPositions = new int[selectedPositionIndices.length];
-                            System.arraycopy(selectedPositionIndices, 0, copiedSelectedPositions, 0, copiedSelectedPositions.length);
-                            copiedPositions = filterPositionsWithoutCoordinates(positions);
-                        } else
-                            continue;
-                    }
+        // a new route or other characteristics replace all segments, edits only the changed ones
+        if (recenter || characteristics != lastCharacteristics)
+            removeAllSegments();
+        lastCharacteristics = characteristics;
+        switch (characteristics) {
+            case Route:
+                addDirectionsToMap(copiedPositions);
+                break;
+            case Waypoints:
+                addMarkersToMap(copiedPositions);
+                break;
+            default:
+                addPolylinesToMap(copiedPositions);
+        }
+        log.info("Route updated for " + copiedPositions.size() + " positions of type " +
+                characteristics + ", recentering: " + recenter);
+        return true;
+    }
 
-                    List<BaseNavigationPosition> selected = reducePositions(copiedPositions, copiedSelectedPositions);
-                    selectPositions(selected, recenter);
-                    log.info("Selected positions updated for " + selected.size() + " positions");
-                    lastTime = System.currentTimeMillis();
-                }
-            }
-        }, "MapViewSelectionUpdater");
-        selectionUpdater.start();
+    private boolean updateSelection(int flags) {
+        int[] copiedSelectedPositions;
+        List<BaseNavigationPosition> copiedPositions;
+        synchronized (notificationMutex) {
+            if (!hasPositions())
+                return true;
+            if (!isVisible())
+                return false;
+            log.fine("Woke up to update selected positions: " + selectionUpdateReason + " flags: " + flags);
+            copiedSelectedPositions = new int[selectedPositionIndices.length];
+            System.arraycopy(selectedPositionIndices, 0, copiedSelectedPositions, 0, copiedSelectedPositions.length);
+            copiedPositions = filterPositionsWithoutCoordinates(positions);
+        }
+
+        List<BaseNavigationPosition> selected;
+        try {
+            selected = reducePositions(copiedPositions, copiedSelectedPositions, selectionUpdater);
+            checkSuperseded(selectionUpdater);
+        } catch (CancellationException e) {
+            log.fine("Superseded selection update for flags: " + flags);
+            return false;
+        }
+        selectPositions(selected, (flags & RECENTER) != 0);
+        log.info("Selected positions updated for " + selected.size() + " positions");
+        return true;
     }
 
-    private ServerSocket createCallbackListenerServerSocket() {
+    private CallbackServer createCallbackServer() {
         try {
-            ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getByAddress(new byte[]{127, 0, 0, 1}));
-            serverSocket.setSoTimeout(1000);
-            int port = serverSocket.getLocalPort();
+            CallbackServer server = new CallbackServer(new CallbackServer.Handler() {
+                public void handle(List<String> lines) {
+                    processRequest(lines);
+                }
+            });
+            int port = server.getPort();
             log.info("Map listens on port " + port + " for callbacks");
             setCallbackListenerPort(port);
-            return serverSocket;
+            return server;
         } catch (IOException e) {
             log.severe("Cannot open callback listener socket: " + e.getMessage());
             return null;
@@ -380,53 +391,10 @@ public abstract class BaseMapView implements MapView {
     }
 
     protected void initializeCallbackListener() {
-        callbackListenerServerSocket = createCallbackListenerServerSocket();
-        if (callbackListenerServerSocket == null)
+        callbackServer = createCallbackServer();
+        if (callbackServer == null)
             return;
-
-        callbackListener = new Thread(new Runnable() {
-            public void run() {
-                while (true) {
-                    synchronized (notificationMutex) {
-                        if (!running) {
-                            return;
-                        }
-                    }
-
-                    Socket clientSocket = null;
-                    BufferedReader is = null;
-                    OutputStream os = null;
-                    try {
-                        clientSocket = callbackListenerServerSocket.accept();
-                        is = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()), 64 * 1024);
-                        os = clientSocket.getOutputStream();
-                        processStream(is);
-                    } catch (SocketTimeoutException e) {
-                        // intentionally left empty
-                    } catch (IOException e) {
-                        synchronized (notificationMutex) {
-                            if (running) {
-                                log.severe("Cannot listen at callback listener socket: " + e.getMessage());
-                            }
-                        }
-                        break;
-                    }
-                    finally {
-                        try {
-                            if (is != null)
-                                is.close();
-                            if (os != null)
-                                os.close();
-                            if (clientSocket != null)
-                                clientSocket.close();
-                        } catch (IOException e) {
-                            log.severe("Cannot close callback listener socket: " + e.getMessage());
-                        }
-                    }
-                }
-            }
-        }, "MapViewCallbackListener");
-        callbackListener.start();
+        callbackServer.start();
     }
 
     protected void initializeCallbackPoller() {
@@ -554,44 +522,36 @@ public abstract class BaseMapView implements MapView {
             log.info("Executors stopped after " + (end - start) + " ms");
         }
 
-        if (selectionUpdater != null) {
-            try {
-                selectionUpdater.join();
-            } catch (InterruptedException e) {
-                // intentionally left empty
-            }
+        {
+            selectionUpdater.stop();
             long end = System.currentTimeMillis();
             log.info("PositionUpdater stopped after " + (end - start) + " ms");
         }
 
-        if (routeUpdater != null) {
-            try {
-                routeUpdater.join();
-            } catch (InterruptedException e) {
-                // intentionally left empty
-            }
+        {
+            routeUpdater.stop();
             long end = System.currentTimeMillis();
             log.info("RouteUpdater stopped after " + (end - start) + " ms");
         }
 
+        {
+            routeDirections.stop();
+            waypointDirections.stop();
+            long end = System.currentTimeMillis();
+            log.info("DirectionsPipelines stopped after " + (end - start) + " ms");
+        }
+
         disposeBrowser();
 
-        if (callbackListenerServerSocket != null) {
-            try {
-                callbackListenerServerSocket.close();
-            } catch (IOException e) {
-                log.warning("Cannot close callback listener socket:" + e.getMessage());
-            }
+        // stop processing first since the listener waits for the queue of the processor
+        {
+            callbackExecutor.shutdownNow();
             long end = System.currentTimeMillis();
-            log.info("CallbackListenerSocket stopped after " + (end - start) + " ms");
+            log.info("CallbackProcessor stopped after " + (end - start) + " ms");
         }
 
-        if (callbackListener != null) {
-            try {
-                callbackListener.join();
-            } catch (InterruptedException e) {
-                // intentionally left empty
-            }
+        if (callbackServer != null) {
+            callbackServer.stop();
             long end = System.currentTimeMillis();
             log.info("CallbackListener stopped after " + (end - start) + " ms");
         }
@@ -642,11 +602,9 @@ public abstract class BaseMapView implements MapView {
     public void setSelectedPositions(int[] selectedPositions) {
         synchronized (notificationMutex) {
             this.selectedPositionIndices = selectedPositions;
-            haveToRecenterMap = true;
-            haveToRepaintSelection = true;
             selectionUpdateReason = "selected " + selectedPositions.length + " positions";
-            notificationMutex.notifyAll();
         }
+        selectionUpdater.request(UPDATE | RECENTER);
     }
 
     public void setRecenterAfterZooming(boolean recenterAfterZooming) {
@@ -729,16 +687,25 @@ public abstract class BaseMapView implements MapView {
         return result;
     }
 
-    private List<BaseNavigationPosition> reducePositions(List<BaseNavigationPosition> positions, boolean recenter, int maximumPositionCount) {
+    private void checkSuperseded(UpdateScheduler updater) {
+        if (updater.isSuperseded())
+            throw new CancellationException();
+    }
+
+    private List<BaseNavigationPosition> reducePositions(List<BaseNavigationPosition> positions, boolean recenter,
+                                                         int maximumPositionCount, UpdateScheduler updater) {
         if (positions.size() < 2)
             return positions;
 
         // determine significant positions for this zoom level
         positions = filterSignificantPositions(positions, recenter);
+        checkSuperseded(updater);
 
         // reduce the number of significant positions by a visibility heuristic
-        if (positions.size() > maximumPositionCount)
+        if (positions.size() > maximumPositionCount) {
             positions = filterVisiblePositions(positions, 2.5);
+            checkSuperseded(updater);
+        }
 
         // reduce the number of visible positions by a JS-stability heuristic
         if (positions.size() > maximumPositionCount)
@@ -747,13 +714,16 @@ public abstract class BaseMapView implements MapView {
         return positions;
     }
 
-    private List<BaseNavigationPosition> reducePositions(List<BaseNavigationPosition> positions, int[] indices) {
+    private List<BaseNavigationPosition> reducePositions(List<BaseNavigationPosition> positions, int[] indices,
+                                                         UpdateScheduler updater) {
         // reduced selected positions if they're not selected
         positions = filterSelectedPositions(positions, indices);
 
         // reduce the number of selected positions by a visibility heuristic
-        if (positions.size() > MAXIMUM_SELECTION_COUNT)
+        if (positions.size() > MAXIMUM_SELECTION_COUNT) {
             positions = filterVisiblePositions(positions, 1.25);
+            checkSuperseded(updater);
+        }
 
         // reduce the number of visible positions by a JS-stability heuristic
         if (positions.size() > MAXIMUM_SELECTION_COUNT)
@@ -823,6 +793,14 @@ public abstract class BaseMapView implements MapView {
         return result;
     }
 
+    private List<BaseNavigationPosition> takeSnapshot(List<BaseNavigationPosition> positions) {
+        // copy the coordinates and comments since the positions are edited while the geometry is prepared
+        List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
+        for (BaseNavigationPosition position : filterPositionsWithoutCoordinates(positions))
+            result.add(new SnapshotPosition(position));
+        return Collections.unmodifiableList(result);
+    }
+
     private List<BaseNavigationPosition> filterPositionsWithoutCoordinates(List<BaseNavigationPosition> positions) {
         List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
         // copy to avoid ConcurrentModificationException
@@ -842,70 +820,140 @@ public abstract class BaseMapView implements MapView {
 
         synchronized (notificationMutex) {
             this.positions = positionsModel.getRoute() != null ? positionsModel.getRoute().getPositions() : null;
-            this.haveToUpdateRoute = true;
+            haveToTakeSnapshot = true;
             routeUpdateReason = "update route";
             if (haveToReplaceRoute) {
-                this.haveToReplaceRoute = true;
                 routeUpdateReason = "replace route";
-                this.haveToRepaintSelection = true;
                 selectionUpdateReason = "replace route";
-                significantPositionCache.clear();
             }
-            notificationMutex.notifyAll();
         }
+        routeUpdater.request(haveToReplaceRoute ? UPDATE | RECENTER : UPDATE);
+        if (haveToReplaceRoute)
+            selectionUpdater.request(UPDATE);
     }
 
     private void updateRouteButDontRecenter() {
-        // repaint route immediately, simulates update(true) without recentering
+        // simulates update(true) without recentering
         synchronized (notificationMutex) {
-            haveToRepaintRouteImmediately = true;
             routeUpdateReason = "update route but don't recenter";
-            significantPositionCache.clear();
-            notificationMutex.notifyAll();
+            haveToTakeSnapshot = true;
         }
+        routeUpdater.request(UPDATE);
     }
 
     private void updateSelection() {
         synchronized (notificationMutex) {
-            haveToRepaintSelection = true;
             selectionUpdateReason = "update selection";
-            notificationMutex.notifyAll();
         }
+        selectionUpdater.request(UPDATE);
     }
 
-    private void removeOverlays() {
-        executeScript("removeOverlays();\nremoveDirections();");
+    private void removeAllSegments() {
+        routeDirections.cancelAll();
+        overlaySegments.clear();
+        synchronized (directionsDistances) {
+            directionsDistances.clear();
+        }
+        executeScript("removeAllSegments();");
     }
 
-    private void addDirectionsToMap(List<BaseNavigationPosition> positions) {
-        meters = 0;
-        seconds = 0;
+    private void updateSegments(List<String> statements, List<String> removedIds) {
+        // add the new segments before removing the stale ones to avoid flickering
+        for (String id : removedIds) {
+            routeDirections.cancel(id);
+            statements.add("removeSegment(\"" + id + "\");");
+        }
+        for (String script : batchScripts(statements, MAXIMUM_SCRIPT_LENGTH))
+            executeScript(script);
+
+        boolean removedDirections = false;
+        synchronized (directionsDistances) {
+            for (String id : removedIds)
+                removedDirections |= directionsDistances.remove(id) != null;
+        }
+        if (removedDirections)
+            fireCalculatedDistance();
+    }
 
+    static List<String> batchScripts(List<String> statements, int maximumLength) {
+        List<String> result = new ArrayList<String>();
+        StringBuffer buffer = new StringBuffer();
+        for (String statement : statements) {
+            if (buffer.length() > 0 && buffer.length() + statement.length() > maximumLength) {
+                result.add(buffer.toString());
+                buffer = new StringBuffer();
+            }
+            buffer.append(statement).append("\n");
+        }
+        if (buffer.length() > 0)
+            result.add(buffer.toString());
+        return result;
+    }
+
+    static String getDirectionsStatement(OverlaySegments.Segment segment, boolean pedestrians, boolean avoidHighways) {
+        return "addDirectionsSegment(\"" + segment.getId() + "\", " +
+                EncodedPolyline.toJavaScript(EncodedPolyline.encode(segment.getPositions())) + ", " +
+                "{ preserveViewport: true, getPolyline: true, avoidHighways: " + avoidHighways +
+                ", travelMode: " + (pedestrians ? "G_TRAVEL_MODE_WALKING" : "G_TRAVEL_MODE_DRIVING") +
+                ", locale: '" + Locale.getDefault() + "' });";
+    }
+
+    static String getPolylineStatement(OverlaySegments.Segment segment) {
+        return "addPolylineSegment(\"" + segment.getId() + "\", " +
+                EncodedPolyline.toJavaScript(EncodedPolyline.encode(segment.getPositions())) + ");";
+    }
+
+    static String getMarkersStatement(OverlaySegments.Segment segment) {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("addMarkerSegment(\"").append(segment.getId()).append("\", ").
+                append(EncodedPolyline.toJavaScript(EncodedPolyline.encode(segment.getPositions()))).append(", [");
+        List<BaseNavigationPosition> positions = segment.getPositions();
+        for (int i = 0; i < positions.size(); i++) {
+            buffer.append("\"").append(escape(positions.get(i).getComment())).append("\"");
+            if (i < positions.size() - 1)
+                buffer.append(",");
+        }
+        buffer.append("]);");
+        return buffer.toString();
+    }
+
+    private void addDirectionsToMap(List<BaseNavigationPosition> positions) {
         // avoid throwing javascript exceptions if there is nothing to direct
         if (positions.size() < 2) {
             addMarkersToMap(positions);
             return;
         }
 
-        int directionsCount = Transfer.ceiling(positions.size(), MAXIMUM_DIRECTIONS_SEGMENT_LENGTH, false);
-        for (int j = 0; j < directionsCount; j++) {
-            StringBuffer buffer = new StringBuffer();
-            buffer.append("var latlngs = [");
-            int maximum = Math.min(positions.size(), (j + 1) * MAXIMUM_DIRECTIONS_SEGMENT_LENGTH + 1);
-            for (int i = j * MAXIMUM_DIRECTIONS_SEGMENT_LENGTH; i < maximum; i++) {
-                BaseNavigationPosition position = positions.get(i);
-                buffer.append("new GLatLng(").append(position.getLatitude()).append(",").append(position.getLongitude()).append(")");
-                if (i < maximum - 1)
-                    buffer.append(",");
-            }
-            buffer.append("];\n");
-            buffer.append("createDirections().loadFromWaypoints(latlngs, ").
-                    append("{ preserveViewport: true, getPolyline: true, avoidHighways: ").append(avoidHighways).
-                    append(", travelMode: ").append(pedestrians ? "G_TRAVEL_MODE_WALKING" : "G_TRAVEL_MODE_DRIVING").
-                    append(", locale: '").append(Locale.getDefault()).append("' });");
-            executeScript(buffer.toString());
+        List<OverlaySegments.Segment> segments = OverlaySegments.split(positions, MAXIMUM_DIRECTIONS_SEGMENT_LENGTH,
+                true, false, "d" + (pedestrians ? "w" : "") + (avoidHighways ? "h" : ""));
+        OverlaySegments.Difference difference = overlaySegments.update(segments);
+        updateSegments(new ArrayList<String>(), difference.getRemoved());
+        List<DirectionsPipeline.Request> requests = new ArrayList<DirectionsPipeline.Request>();
+        for (final OverlaySegments.Segment segment : difference.getAdded()) {
+            final boolean pedestrians = this.pedestrians, avoidHighways = this.avoidHighways;
+            requests.add(new DirectionsPipeline.Request(segment.getId()) {
+                String getScript() {
+                    return getDirectionsStatement(segment, pedestrians, avoidHighways);
+                }
+
+                void apply(String result) {
+                    addDirectionsDistance(getId(), result);
+                }
+            });
+        }
+        routeDirections.submit(requests);
+    }
+
+    private void addDirectionsDistance(String id, String result) {
+        Matcher matcher = DIRECTIONS_RESULT_PATTERN.matcher(result != null ? result : "");
+        // ignore directions that failed or of segments that have been removed while loading
+        if (!matcher.matches() || !overlaySegments.isDisplayed(id))
+            return;
+        synchronized (directionsDistances) {
+            directionsDistances.put(id, new int[]{Transfer.parseInt(matcher.group(1)),
+                    Transfer.parseInt(matcher.group(2))});
         }
-        removeOverlays();
+        fireCalculatedDistance();
     }
 
     private void addPolylinesToMap(final List<BaseNavigationPosition> positions) {
@@ -915,41 +963,23 @@ public abstract class BaseMapView implements MapView {
             return;
         }
 
-        int polylinesCount = Transfer.ceiling(positions.size(), MAXIMUM_POLYLINE_SEGMENT_LENGTH, true);
-        for (int j = 0; j < polylinesCount; j++) {
-            StringBuffer buffer = new StringBuffer();
-            buffer.append("var latlngs = [");
-            int maximum = Math.min(positions.size(), (j + 1) * MAXIMUM_POLYLINE_SEGMENT_LENGTH + 1);
-            for (int i = j * MAXIMUM_POLYLINE_SEGMENT_LENGTH; i < maximum; i++) {
-                BaseNavigationPosition position = positions.get(i);
-                buffer.append("new GLatLng(").append(position.getLatitude()).append(",").append(position.getLongitude()).append(")");
-                if (i < maximum - 1)
-                    buffer.append(",");
-            }
-            buffer.append("];\n");
-            buffer.append("addOverlay(new GPolyline(latlngs,\"#0033FF\",2,1));");
-            executeScript(buffer.toString());
-        }
-        removeOverlays();
+        List<OverlaySegments.Segment> segments = OverlaySegments.split(positions, MAXIMUM_POLYLINE_SEGMENT_LENGTH,
+                true, false, "p");
+        OverlaySegments.Difference difference = overlaySegments.update(segments);
+        List<String> statements = new ArrayList<String>();
+        for (OverlaySegments.Segment segment : difference.getAdded())
+            statements.add(getPolylineStatement(segment));
+        updateSegments(statements, difference.getRemoved());
     }
 
     private void addMarkersToMap(List<BaseNavigationPosition> positions) {
-        int markersCount = Transfer.ceiling(positions.size(), MAXIMUM_MARKER_SEGMENT_LENGTH, false);
-        for (int j = 0; j < markersCount; j++) {
-            StringBuffer buffer = new StringBuffer();
-
-            int maximum = Math.min(positions.size(), (j + 1) * MAXIMUM_MARKER_SEGMENT_LENGTH);
-            for (int i = j * MAXIMUM_MARKER_SEGMENT_LENGTH; i < maximum; i++) {
-                BaseNavigationPosition position = positions.get(i);
-                buffer.append("var marker = new GMarker(new GLatLng(").
-                        append(position.getLatitude()).append(",").append(position.getLongitude()).
-                        append("), { title: \"").append(escape(position.getComment())).append("\", ").
-                        append("clickable: false, icon: markerIcon });\n");
-                buffer.append("addOverlay(marker);\n");
-            }
-            executeScript(buffer.toString());
-        }
-        removeOverlays();
+        List<OverlaySegments.Segment> segments = OverlaySegments.split(positions, MAXIMUM_MARKER_SEGMENT_LENGTH,
+                false, true, "m");
+        OverlaySegments.Difference difference = overlaySegments.update(segments);
+        List<String> statements = new ArrayList<String>();
+        for (OverlaySegments.Segment segment : difference.getAdded())
+            statements.add(getMarkersStatement(segment));
+        updateSegments(statements, difference.getRemoved());
     }
 
     private void setCenterOfMap(List<BaseNavigationPosition> positions, boolean recenter) {
@@ -983,16 +1013,12 @@ public abstract class BaseMapView implements MapView {
 
     private void selectPositions(List<BaseNavigationPosition> selectedPositions, boolean recenter) {
         // delete old
-        if (lastSelectedPositionCount >= 0) {
-            StringBuffer buffer = new StringBuffer();
-            for (int i = 0; i < lastSelectedPositionCount; i++) {
-                buffer.append("map.removeOverlay(selected").append(i).append(");\n");
-            }
-            executeScript(buffer.toString());
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < lastSelectedPositionCount; i++) {
+            buffer.append("map.removeOverlay(selected").append(i).append(");\n");
         }
 
         // build up new
-        StringBuffer buffer = new StringBuffer();
         lastSelectedPositionCount = selectedPositions.size();
         lastSelectedPositions = selectedPositions;
         for (int i = 0; i < lastSelectedPositionCount; i++) {
@@ -1013,50 +1039,60 @@ public abstract class BaseMapView implements MapView {
         executeScript(buffer.toString());
     }
 
-    private final Map<Integer, List<BaseNavigationPosition>> insertWaypointsQueue = new HashMap<Integer, List<BaseNavigationPosition>>();
+    private int insertWaypointsCount = 0;
+
+    static String getInsertWaypointsStatement(String mode, String id, BaseNavigationPosition from, BaseNavigationPosition to,
+                                              boolean avoidHighways) {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(mode).append("(").append(id).append(").loadFromWaypoints([");
+        buffer.append("new GLatLng(").append(from.getLatitude()).append(",").append(from.getLongitude()).append("),");
+        buffer.append("new GLatLng(").append(to.getLatitude()).append(",").append(to.getLongitude()).append(")");
+        buffer.append("], ").
+                append("{ preserveViewport: true, getPolyline: true, getSteps: true").
+                append(", avoidHighways: ").append(avoidHighways).
+                // append(", travelMode: ").append(pedestrians ? "G_TRAVEL_MODE_WALKING" : "G_TRAVEL_MODE_DRIVING").
+                        append(", locale: '").append(Locale.getDefault()).append("' });");
+        return buffer.toString();
+    }
 
     private void insertWaypoints(final String mode, int[] startPositions) {
-        final Map<Integer, List<BaseNavigationPosition>> addToQueue = new HashMap<Integer, List<BaseNavigationPosition>>();
-        Random random = new Random();
+        List<DirectionsPipeline.Request> requests = new ArrayList<DirectionsPipeline.Request>();
         synchronized (notificationMutex) {
             for (int i = 0; i < startPositions.length; i++) {
                 // skip the very last position without successor
                 if (i == positions.size() - 1 || i == startPositions.length)
                     continue;
-                List<BaseNavigationPosition> successorPredecessor = new ArrayList<BaseNavigationPosition>();
-                successorPredecessor.add(positions.get(startPositions[i]));
-                successorPredecessor.add(positions.get(startPositions[i] + 1));
-                addToQueue.put(random.nextInt(), successorPredecessor);
+                final BaseNavigationPosition before = positions.get(startPositions[i]);
+                final BaseNavigationPosition after = positions.get(startPositions[i] + 1);
+                final boolean avoidHighways = this.avoidHighways;
+                requests.add(new DirectionsPipeline.Request(Integer.toString(insertWaypointsCount++)) {
+                    String getScript() {
+                        return getInsertWaypointsStatement(mode, getId(), before, after, avoidHighways);
+                    }
+
+                    void apply(String result) {
+                        if (result != null)
+                            insertWaypoints(parseCoordinates(result), before, after);
+                    }
+                });
             }
         }
+        waypointDirections.submit(requests);
+    }
 
-        synchronized (insertWaypointsQueue) {
-            insertWaypointsQueue.putAll(addToQueue);
-        }
+    private void insertWaypoints(List<Double> coordinates, BaseNavigationPosition before, BaseNavigationPosition after) {
+        if (coordinates.size() < 4)
+            return;
 
-        executor.execute(new Runnable() {
+        final int row;
+        synchronized (notificationMutex) {
+            row = positions.indexOf(before) + 1;
+        }
+        final BaseRoute route = parseRoute(coordinates, before, after);
+        SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-                for (Integer key : addToQueue.keySet()) {
-                    List<BaseNavigationPosition> successorPredecessor = addToQueue.get(key);
-                    BaseNavigationPosition from = successorPredecessor.get(0);
-                    BaseNavigationPosition to = successorPredecessor.get(1);
-                    StringBuffer buffer = new StringBuffer();
-                    buffer.append("var latlngs = [");
-                    buffer.append("new GLatLng(").append(from.getLatitude()).append(",").append(from.getLongitude()).append("),");
-                    buffer.append("new GLatLng(").append(to.getLatitude()).append(",").append(to.getLongitude()).append(")");
-                    buffer.append("];\n");
-                    buffer.append(mode).append("(").append(key).append(").loadFromWaypoints(latlngs, ").
-                            append("{ preserveViewport: true, getPolyline: true, getSteps: true").
-                            append(", avoidHighways: ").append(avoidHighways).
-                            // append(", travelMode: ").append(pedestrians ? "G_TRAVEL_MODE_WALKING" : "G_TRAVEL_MODE_DRIVING").
-                                    append(", locale: '").append(Locale.getDefault()).append("' });");
-                    executeScript(buffer.toString());
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
-                        // don't care if this happens
-                    }
-                }
+                insertPositions(row, route);
+                complementPositions(row, route);
             }
         });
     }
@@ -1077,7 +1113,7 @@ public abstract class BaseMapView implements MapView {
 
     // script execution
 
-    private String escape(String string) {
+    private static String escape(String string) {
         if (string == null)
             return "";
         StringBuffer buffer = new StringBuffer(string);
@@ -1101,41 +1137,19 @@ public abstract class BaseMapView implements MapView {
 
     // browser callbacks
 
-    private void processStream(BufferedReader reader) {
-        List<String> lines = new ArrayList<String>();
-        boolean processingPost = false, processingBody = false;
-        while (true) {
-            try {
-                String line = Transfer.trim(reader.readLine());
-                if (line == null) {
-                    if (processingPost && !processingBody) {
-                        processingBody = true;
-                        continue;
-                    } else
-                        break;
-                }
-                if (line.startsWith("POST"))
-                    processingPost = true;
-                lines.add(line);
-            } catch (IOException e) {
-                log.severe("Cannot read line from callback listener port:" + e.getMessage());
-                break;
-            }
-        }
-
-        final List<String> theLines = new ArrayList<String>(lines);
-        executor.execute(new Runnable() {
+    void processRequest(final List<String> lines) {
+        callbackExecutor.execute(new Runnable() {
             public void run() {
                 StringBuffer buffer = new StringBuffer();
-                for (String line : theLines) {
+                for (String line : lines) {
                     buffer.append("  ").append(line).append("\n");
                 }
                 log.fine("processing callback: \n" + buffer.toString());
 
-                if (!isAuthenticated(theLines))
+                if (!isAuthenticated(lines))
                     return;
 
-                processLines(theLines);
+                processLines(lines);
             }
         });
     }
@@ -1147,7 +1161,7 @@ public abstract class BaseMapView implements MapView {
     }
 
     int getCallbackPort() {
-        return callbackListenerServerSocket.getLocalPort();
+        return callbackServer.getPort();
     }
 
     private static final Pattern NAME_VALUE_PATTERN = Pattern.compile("^(.+?):(.+)$");
@@ -1194,7 +1208,9 @@ public abstract class BaseMapView implements MapView {
         }
     }
 
-    private static final Pattern DIRECTIONS_LOAD_PATTERN = Pattern.compile("^load/(\\d*)/(\\d*)$");
+    private static final Pattern DIRECTIONS_LOAD_PATTERN = Pattern.compile("^load/([^/]+)/(\\d*/\\d*)$");
+    private static final Pattern DIRECTIONS_RESULT_PATTERN = Pattern.compile("^(\\d*)/(\\d*)$");
+    private static final Pattern DIRECTIONS_ERROR_PATTERN = Pattern.compile("^directions-error/([^/]+)/(-?\\d+)$");
     private static final Pattern INSERT_POSITION_PATTERN = Pattern.compile("^insert-position/(.*)/(.*)$");
     private static final Pattern MOVE_POSITION_PATTERN = Pattern.compile("^move-position/(.*)/(.*)/(.*)$");
     private static final Pattern REMOVE_POSITION_PATTERN = Pattern.compile("^remove-position/(.*)$");
@@ -1206,9 +1222,16 @@ public abstract class BaseMapView implements MapView {
     boolean processCallback(String callback) {
         Matcher directionsLoadMatcher = DIRECTIONS_LOAD_PATTERN.matcher(callback);
         if (directionsLoadMatcher.matches()) {
-            meters += Transfer.parseInt(directionsLoadMatcher.group(1));
-            seconds += Transfer.parseInt(directionsLoadMatcher.group(2));
-            fireCalculatedDistance(meters, seconds);
+            routeDirections.loaded(directionsLoadMatcher.group(1), directionsLoadMatcher.group(2));
+            return true;
+        }
+
+        Matcher directionsErrorMatcher = DIRECTIONS_ERROR_PATTERN.matcher(callback);
+        if (directionsErrorMatcher.matches()) {
+            String id = directionsErrorMatcher.group(1);
+            int status = Transfer.parseInt(directionsErrorMatcher.group(2));
+            if (!routeDirections.failed(id, status))
+                waypointDirections.failed(id, status);
             return true;
         }
 
@@ -1260,19 +1283,17 @@ public abstract class BaseMapView implements MapView {
         if (zoomEndMatcher.matches()) {
             Integer from = Transfer.parseInt(zoomEndMatcher.group(1));
             Integer to = Transfer.parseInt(zoomEndMatcher.group(2));
+            boolean repaintRoute;
             synchronized (notificationMutex) {
                 // since setCenter() leads to a callback and thus paints the track twice
-                if (ignoreNextZoomCallback)
-                    ignoreNextZoomCallback = false;
-                else
-                    haveToRepaintRouteImmediately = true;
-                // if enabled, recenter map to selected positions after zooming
-                if (recenterAfterZooming)
-                    haveToRecenterMap = true;
-                haveToRepaintSelectionImmediately = true;
+                repaintRoute = !ignoreNextZoomCallback;
+                ignoreNextZoomCallback = false;
                 selectionUpdateReason = "zoomed from " + from + " to " + to;
-                notificationMutex.notifyAll();
             }
+            if (repaintRoute)
+                routeUpdater.request(UPDATE);
+            // if enabled, recenter map to selected positions after zooming
+            selectionUpdater.request(recenterAfterZooming ? UPDATE | RECENTER : UPDATE);
             return true;
         }
 
@@ -1285,30 +1306,8 @@ public abstract class BaseMapView implements MapView {
 
         Matcher insertWaypointsMatcher = INSERT_WAYPOINTS_PATTERN.matcher(callback);
         if (insertWaypointsMatcher.matches()) {
-            Integer key = Transfer.parseInt(insertWaypointsMatcher.group(2));
-            List<Double> coordinates = parseCoordinates(insertWaypointsMatcher.group(3));
-
-            List<BaseNavigationPosition> successorPredecessor;
-            synchronized (insertWaypointsQueue) {
-                successorPredecessor = insertWaypointsQueue.remove(key);
-            }
-
-            if (coordinates.size() < 4 || successorPredecessor == null)
+            if (!waypointDirections.loaded(insertWaypointsMatcher.group(2), insertWaypointsMatcher.group(3)))
                 return true;
-
-            BaseNavigationPosition before = successorPredecessor.get(0);
-            BaseNavigationPosition after = successorPredecessor.get(1);
-            final int row;
-            synchronized (notificationMutex) {
-                row = positions.indexOf(before) + 1;
-            }
-            final BaseRoute route = parseRoute(coordinates, before, after);
-            SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    insertPositions(row, route);
-                    complementPositions(row, route);
-                }
-            });
             log.info("processed insert " + callback);
             return false;
         }
@@ -1429,12 +1428,12 @@ public abstract class BaseMapView implements MapView {
         int size;
         synchronized (notificationMutex) {
             size = positions.size() - 1;
-            haveToRepaintRouteImmediately = true;
             routeUpdateReason = "move position";
-            significantPositionCache.clear();
-            haveToRepaintSelectionImmediately = true;
+            haveToTakeSnapshot = true;
             selectionUpdateReason = "move position";
         }
+        routeUpdater.request(UPDATE);
+        selectionUpdater.request(UPDATE);
         positionsModel.fireTableRowsUpdated(row, size, TableModelEvent.ALL_COLUMNS);
     }
 
@@ -1444,15 +1443,11 @@ public abstract class BaseMapView implements MapView {
             int row = positionsModel.getIndex(position);
             positionsModel.remove(new int[]{row});
 
-            executor.execute(new Runnable() {
-                public void run() {
-                    synchronized (notificationMutex) {
-                        haveToRepaintRouteImmediately = true;
-                        routeUpdateReason = "remove position";
-                        notificationMutex.notifyAll();
-                    }
-                }
-            });
+            synchronized (notificationMutex) {
+                routeUpdateReason = "remove position";
+                haveToTakeSnapshot = true;
+            }
+            routeUpdater.request(UPDATE);
         }
     }
 
@@ -1468,6 +1463,17 @@ public abstract class BaseMapView implements MapView {
         mapViewListeners.remove(listener);
     }
 
+    private void fireCalculatedDistance() {
+        int meters = 0, seconds = 0;
+        synchronized (directionsDistances) {
+            for (int[] distance : directionsDistances.values()) {
+                meters += distance[0];
+                seconds += distance[1];
+            }
+        }
+        fireCalculatedDistance(meters, seconds);
+    }
+
     private void fireCalculatedDistance(int meters, int seconds) {
         for (MapViewListener listener : mapViewListeners) {
             listener.calculatedDistance(meters, seconds);
@@ -1479,4 +1485,18 @@ public abstract class BaseMapView implements MapView {
             listener.receivedCallback(port);
         }
     }
+
+    private static class SnapshotPosition extends Wgs84Position {
+        private final String snapshotComment;
+
+        SnapshotPosition(BaseNavigationPosition position) {
+            // keep the comment aside since setting it would parse it again
+            super(position.getLongitude(), position.getLatitude(), null, null, null, null);
+            this.snapshotComment = position.getComment();
+        }
+
+        public String getComment() {
+            return snapshotComment;
+        }
+    }
 }
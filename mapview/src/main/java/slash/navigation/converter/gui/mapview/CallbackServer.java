@@ -0,0 +1,273 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Listens for the HTTP requests that the map page sends for its callbacks.
+ * <p/>
+ * A single thread accepts and reads all connections with non-blocking I/O, so a slow
+ * connection doesn't delay the others. Each request is answered, which lets the browser
+ * keep its connection alive, and the lines of each complete request are passed to the
+ * {@link Handler} in the order in which they arrived. A request ends with an empty line
+ * followed by a body of the given <code>Content-Length</code> or with its connection.
+ *
+ * @author Christian Pesch
+ */
+
+class CallbackServer {
+    private static Logger log = Logger.getLogger(CallbackServer.class.getName());
+    private static final String ENCODING = "UTF-8";
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "Content-Length: 0\r\n\r\n").getBytes();
+    private static final Pattern CONTENT_LENGTH_PATTERN = Pattern.compile("(?im)^Content-Length:\\s*(\\d+)\\s*$");
+
+    interface Handler {
+        void handle(List<String> lines);
+    }
+
+    private final Handler handler;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private final int port;
+    private Thread thread;
+    private volatile boolean running = true;
+
+    CallbackServer(Handler handler) throws IOException {
+        this.handler = handler;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByAddress(new byte[]{127, 0, 0, 1}), 0));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            port = serverChannel.socket().getLocalPort();
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    void start() {
+        thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    serve();
+                } finally {
+                    close();
+                }
+            }
+        }, "MapViewCallbackListener");
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // intentionally left empty
+            }
+        } else
+            close();
+    }
+
+    private void serve() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (key.isValid() && key.isAcceptable())
+                            accept();
+                        if (key.isValid() && key.isReadable())
+                            read(key);
+                        if (key.isValid() && key.isWritable())
+                            write(key);
+                    } catch (IOException e) {
+                        log.fine("Cannot process callback connection: " + e.getMessage());
+                        closeConnection(key);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (running)
+                    log.severe("Cannot listen at callback listener socket: " + e.getMessage());
+                break;
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        readBuffer.clear();
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            // a request that is not terminated ends with its connection
+            if (connection.input.size() > 0)
+                handle(connection.input.toByteArray());
+            closeConnection(key);
+            return;
+        }
+        connection.input.write(readBuffer.array(), 0, count);
+
+        byte[] input = connection.input.toByteArray();
+        int start = 0, end;
+        while ((end = getRequestEnd(input, start)) > 0) {
+            handle(copy(input, start, end));
+            respond(key, connection);
+            start = end;
+        }
+        if (start > 0) {
+            connection.input.reset();
+            connection.input.write(input, start, input.length - start);
+        }
+    }
+
+    private void respond(SelectionKey key, Connection connection) throws IOException {
+        connection.output.add(ByteBuffer.wrap(RESPONSE));
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        while (connection.output.size() > 0) {
+            ByteBuffer buffer = connection.output.get(0);
+            channel.write(buffer);
+            if (buffer.hasRemaining())
+                break;
+            connection.output.remove(0);
+        }
+        key.interestOps(connection.output.size() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void handle(byte[] request) {
+        List<String> lines = new ArrayList<String>();
+        try {
+            for (String line : new String(request, ENCODING).split("\r?\n")) {
+                line = line.trim();
+                if (line.length() > 0)
+                    lines.add(line);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        handler.handle(lines);
+    }
+
+    static int getRequestEnd(byte[] input, int start) {
+        for (int i = start; i < input.length; i++) {
+            int headerEnd;
+            if (input[i] == '\n' && i + 1 < input.length && input[i + 1] == '\n')
+                headerEnd = i + 2;
+            else if (input[i] == '\n' && i + 2 < input.length && input[i + 1] == '\r' && input[i + 2] == '\n')
+                headerEnd = i + 3;
+            else
+                continue;
+
+            int requestEnd = headerEnd + getContentLength(input, start, headerEnd);
+            return requestEnd <= input.length ? requestEnd : -1;
+        }
+        return -1;
+    }
+
+    private static int getContentLength(byte[] input, int start, int end) {
+        try {
+            Matcher matcher = CONTENT_LENGTH_PATTERN.matcher(new String(input, start, end - start, ENCODING));
+            return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] copy(byte[] input, int start, int end) {
+        byte[] result = new byte[end - start];
+        System.arraycopy(input, start, result, 0, result.length);
+        return result;
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.fine("Cannot close callback connection: " + e.getMessage());
+        }
+    }
+
+    private void close() {
+        try {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+        } catch (ClosedSelectorException e) {
+            // intentionally left empty
+        } catch (IOException e) {
+            log.warning("Cannot close callback listener socket: " + e.getMessage());
+        }
+    }
+
+    private static class Connection {
+        private final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        private final List<ByteBuffer> output = new ArrayList<ByteBuffer>();
+    }
+}
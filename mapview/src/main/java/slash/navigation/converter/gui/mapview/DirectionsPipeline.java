@@ -0,0 +1,319 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Pipelines the directions requests of a map view to the browser on a thread of its own.
+ * <p/>
+ * At most a bounded number of requests is in flight at a time. The browser reports the result
+ * of a request with {@link #loaded(String, String)} or {@link #failed(String, int)} and the
+ * results are applied in the order of the requests as soon as all earlier requests have a result.
+ * If the browser reports that the quota is exceeded, the request is sent again after a backoff
+ * that doubles with each further quota response and the number of requests in flight is halved
+ * once for all requests that were in flight then. Each loaded request halves the backoff and
+ * each round of loaded requests allows one more request in flight again.
+ *
+ * @author Christian Pesch
+ */
+
+class DirectionsPipeline {
+    private static Logger log = Logger.getLogger(DirectionsPipeline.class.getName());
+    static final int TOO_MANY_QUERIES = 620;
+
+    interface Bridge {
+        void executeScript(String script);
+    }
+
+    abstract static class Request {
+        private final String id;
+        private boolean completed = false;
+        private String result;
+        private long sentTime;
+
+        Request(String id) {
+            this.id = id;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the script that loads the directions and reports them with the id of the request.
+         */
+        abstract String getScript();
+
+        /**
+         * Applies the result of the request.
+         *
+         * @param result the result reported by the browser or null if the request failed
+         */
+        abstract void apply(String result);
+    }
+
+    private final Bridge bridge;
+    private final int maximumInFlight;
+    private final long initialBackoff, maximumBackoff, timeout;
+    private final Thread thread;
+    private final LinkedList<Request> queued = new LinkedList<Request>();
+    private final Map<String, Request> inFlight = new HashMap<String, Request>();
+    private final Map<String, Request> ordered = new LinkedHashMap<String, Request>();
+    private int limit, loadedCount = 0;
+    private long backoff = 0, pausedUntil = 0, decreaseTime = 0;
+    private boolean running = true;
+    private int sentCount = 0, appliedCount = 0;
+
+    DirectionsPipeline(String name, int maximumInFlight, long initialBackoff, long maximumBackoff, long timeout,
+                       Bridge bridge) {
+        if (maximumInFlight < 1)
+            throw new IllegalArgumentException("Maximum in flight " + maximumInFlight + " is less than 1");
+        this.bridge = bridge;
+        this.maximumInFlight = maximumInFlight;
+        this.limit = maximumInFlight;
+        this.initialBackoff = initialBackoff;
+        this.maximumBackoff = maximumBackoff;
+        this.timeout = timeout;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (thread.isAlive() && Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // intentionally left empty
+            }
+        }
+    }
+
+    synchronized void submit(List<? extends Request> requests) {
+        for (Request request : requests) {
+            if (ordered.containsKey(request.getId()))
+                cancel(request.getId());
+            queued.add(request);
+            ordered.put(request.getId(), request);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Cancels the request with the given id, whose result is not applied then.
+     *
+     * @param id the id of the request
+     */
+    synchronized void cancel(String id) {
+        Request request = ordered.remove(id);
+        if (request == null)
+            return;
+        queued.remove(request);
+        inFlight.remove(id);
+        notifyAll();
+    }
+
+    synchronized void cancelAll() {
+        queued.clear();
+        inFlight.clear();
+        ordered.clear();
+        notifyAll();
+    }
+
+    /**
+     * Reports that the browser loaded the directions of a request.
+     *
+     * @param id     the id of the request
+     * @param result the result of the request
+     * @return false if there is no request with the given id in flight
+     */
+    synchronized boolean loaded(String id, String result) {
+        Request request = inFlight.remove(id);
+        if (request == null)
+            return false;
+        request.completed = true;
+        request.result = result;
+        backoff = backoff / 2 < initialBackoff ? 0 : backoff / 2;
+        if (++loadedCount >= limit) {
+            limit = Math.min(limit + 1, maximumInFlight);
+            loadedCount = 0;
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Reports that the browser failed to load the directions of a request.
+     *
+     * @param id     the id of the request
+     * @param status the status code of the directions service
+     * @return false if there is no request with the given id in flight
+     */
+    synchronized boolean failed(String id, int status) {
+        Request request = inFlight.remove(id);
+        if (request == null)
+            return false;
+        if (status == TOO_MANY_QUERIES) {
+            // the requests sent before the last decrease do not decrease again
+            if (request.sentTime >= decreaseTime) {
+                long now = System.currentTimeMillis();
+                backoff = backoff == 0 ? initialBackoff : Math.min(backoff * 2, maximumBackoff);
+                pausedUntil = now + backoff;
+                decreaseTime = now;
+                limit = Math.max(limit / 2, 1);
+                loadedCount = 0;
+            }
+            queued.addFirst(request);
+            log.info("Quota exceeded for directions " + id + ", backing off for " + backoff + " ms");
+        } else {
+            request.completed = true;
+            log.warning("Cannot load directions " + id + ": status " + status);
+        }
+        notifyAll();
+        return true;
+    }
+
+    synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    synchronized int getPendingCount() {
+        return ordered.size();
+    }
+
+    synchronized int getSentCount() {
+        return sentCount;
+    }
+
+    synchronized int getAppliedCount() {
+        return appliedCount;
+    }
+
+    synchronized long getBackoff() {
+        return backoff;
+    }
+
+    private void expire(long now) {
+        for (Iterator<Request> iterator = inFlight.values().iterator(); iterator.hasNext();) {
+            Request request = iterator.next();
+            if (request.sentTime + timeout <= now) {
+                iterator.remove();
+                request.completed = true;
+                log.warning("Timeout while loading directions " + request.getId());
+            }
+        }
+    }
+
+    private List<Request> takeCompleted() {
+        List<Request> result = new ArrayList<Request>();
+        for (Iterator<Request> iterator = ordered.values().iterator(); iterator.hasNext();) {
+            Request request = iterator.next();
+            if (!request.completed)
+                break;
+            iterator.remove();
+            result.add(request);
+        }
+        return result;
+    }
+
+    private List<Request> takeSendable(long now) {
+        List<Request> result = new ArrayList<Request>();
+        while (now >= pausedUntil && !queued.isEmpty() && inFlight.size() < limit) {
+            Request request = queued.removeFirst();
+            request.sentTime = now;
+            inFlight.put(request.getId(), request);
+            result.add(request);
+        }
+        return result;
+    }
+
+    private long getNextWakeUp(long now) {
+        long result = Long.MAX_VALUE;
+        if (!queued.isEmpty() && inFlight.size() < limit)
+            result = pausedUntil;
+        for (Request request : inFlight.values())
+            result = Math.min(result, request.sentTime + timeout);
+        return result == Long.MAX_VALUE ? 0 : Math.max(result - now, 1);
+    }
+
+    private void loop() {
+        while (true) {
+            List<Request> completed, sendable;
+            synchronized (this) {
+                while (true) {
+                    if (!running)
+                        return;
+                    long now = System.currentTimeMillis();
+                    expire(now);
+                    completed = takeCompleted();
+                    sendable = takeSendable(now);
+                    if (completed.size() > 0 || sendable.size() > 0)
+                        break;
+                    try {
+                        wait(getNextWakeUp(now));
+                    } catch (InterruptedException e) {
+                        // intentionally left empty
+                    }
+                }
+                sentCount += sendable.size();
+                appliedCount += completed.size();
+            }
+
+            // apply and send outside of the lock since the browser reports results concurrently
+            for (Request request : completed) {
+                try {
+                    request.apply(request.result);
+                } catch (RuntimeException e) {
+                    log.severe("Cannot apply directions " + request.getId() + ": " + e.getMessage());
+                }
+            }
+            if (sendable.size() > 0) {
+                StringBuffer buffer = new StringBuffer();
+                for (Request request : sendable)
+                    buffer.append(request.getScript()).append("\n");
+                try {
+                    bridge.executeScript(buffer.toString());
+                } catch (RuntimeException e) {
+                    log.severe("Cannot send directions: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.Wgs84Position;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes {@link BaseNavigationPosition}s in the encoded polyline format of Google Maps.
+ * <p/>
+ * The coordinates are rounded to five decimal places and each one is stored as the difference
+ * to its predecessor in chunks of five bits per printable character. This needs a fraction of the
+ * characters of a list of coordinates and is decoded by the map page with <code>decodeLatLngs</code>.
+ *
+ * @author Christian Pesch
+ */
+
+class EncodedPolyline {
+    private static final double PRECISION = 1e5;
+
+    static String encode(List<BaseNavigationPosition> positions) {
+        StringBuffer buffer = new StringBuffer(positions.size() * 8);
+        long lastLatitude = 0, lastLongitude = 0;
+        for (BaseNavigationPosition position : positions) {
+            long latitude = Math.round(position.getLatitude() * PRECISION);
+            long longitude = Math.round(position.getLongitude() * PRECISION);
+            encode(latitude - lastLatitude, buffer);
+            encode(longitude - lastLongitude, buffer);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return buffer.toString();
+    }
+
+    private static void encode(long value, StringBuffer buffer) {
+        value = value < 0 ? ~(value << 1) : value << 1;
+        while (value >= 0x20) {
+            buffer.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        buffer.append((char) (value + 63));
+    }
+
+    static List<BaseNavigationPosition> decode(String encoded) {
+        List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
+        int[] index = new int[]{0};
+        long latitude = 0, longitude = 0;
+        while (index[0] < encoded.length()) {
+            latitude += decode(encoded, index);
+            longitude += decode(encoded, index);
+            result.add(new Wgs84Position(longitude / PRECISION, latitude / PRECISION, null, null, null, null));
+        }
+        return result;
+    }
+
+    private static long decode(String encoded, int[] index) {
+        long result = 0;
+        int shift = 0;
+        int chunk;
+        do {
+            chunk = encoded.charAt(index[0]++) - 63;
+            result |= (long) (chunk & 0x1f) << shift;
+            shift += 5;
+        } while (chunk >= 0x20);
+        return (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+    }
+
+    /**
+     * Returns the given encoded polyline as a JavaScript string literal.
+     */
+    static String toJavaScript(String encoded) {
+        // the encoding uses the characters from ? to ~ of which only the backslash needs escaping
+        return "\"" + encoded.replace("\\", "\\\\") + "\"";
+    }
+}
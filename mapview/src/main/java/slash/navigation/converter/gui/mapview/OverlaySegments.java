@@ -0,0 +1,204 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import slash.navigation.base.BaseNavigationPosition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the positions of a route into the segments that are displayed as overlays
+ * on the map and tracks which segments are displayed.
+ * <p/>
+ * A segment ends at a position whose coordinates hash to a boundary or when it reaches
+ * its maximum length. Since the boundaries depend on the positions and not on their indices,
+ * moving, inserting or removing a position changes only the segments around it. The id of
+ * a segment is derived from its positions, so an unchanged segment keeps its id and its
+ * overlay stays on the map.
+ *
+ * @author Christian Pesch
+ */
+
+class OverlaySegments {
+    private Map<String, Segment> displayed = new LinkedHashMap<String, Segment>();
+
+    /**
+     * Splits the given positions into segments.
+     *
+     * @param positions     the positions to split
+     * @param maximumLength the maximum number of positions of a segment not counting a shared boundary position
+     * @param overlapping   if the last position of a segment is the first position of the next segment
+     * @param withComments  if the comments of the positions are displayed and thus part of the id
+     * @param salt          a prefix for the ids that distinguishes overlays of different type or options
+     * @return the segments in the order of the positions
+     */
+    static List<Segment> split(List<BaseNavigationPosition> positions, int maximumLength,
+                               boolean overlapping, boolean withComments, String salt) {
+        if (maximumLength < 1)
+            throw new IllegalArgumentException("Maximum length " + maximumLength + " is less than 1");
+        int minimumLength = Math.max(1, maximumLength / 2);
+        int divisor = Math.max(2, maximumLength / 4);
+
+        long[] hashes = new long[positions.size()];
+        for (int i = 0; i < hashes.length; i++)
+            hashes[i] = hash(positions.get(i), withComments);
+
+        List<Segment> result = new ArrayList<Segment>();
+        if (positions.isEmpty())
+            return result;
+
+        Map<String, Integer> occurrences = new HashMap<String, Integer>();
+        int first = 0;
+        while (true) {
+            // count the positions that are not shared with the previous segment
+            int last = first;
+            int length = overlapping ? 0 : 1;
+            while (last < positions.size() - 1 && length < maximumLength &&
+                    (length < minimumLength || (hashes[last] >>> 1) % divisor != 0)) {
+                last++;
+                length++;
+            }
+
+            long hash = 0;
+            for (int i = first; i <= last; i++)
+                hash = mix(hash + hashes[i]);
+            String id = salt + Long.toHexString(hash);
+            Integer occurrence = occurrences.get(id);
+            occurrences.put(id, occurrence != null ? occurrence + 1 : 1);
+            if (occurrence != null)
+                id = id + "-" + occurrence;
+            result.add(new Segment(id, first, positions.subList(first, last + 1)));
+
+            if (last >= positions.size() - 1)
+                break;
+            first = overlapping ? last : last + 1;
+        }
+        return result;
+    }
+
+    private static long hash(BaseNavigationPosition position, boolean withComments) {
+        long hash = mix(Double.doubleToLongBits(position.getLongitude()));
+        hash = mix(hash + Double.doubleToLongBits(position.getLatitude()));
+        if (withComments && position.getComment() != null)
+            hash = mix(hash + position.getComment().hashCode());
+        return hash;
+    }
+
+    private static long mix(long value) {
+        // the finalizer of MurmurHash3 which spreads every input bit over the whole result
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Makes the given segments the displayed ones.
+     *
+     * @param segments the segments to display
+     * @return the segments that are not yet displayed and the ids of the displayed
+     *         segments that are not part of the given segments
+     */
+    synchronized Difference update(List<Segment> segments) {
+        Map<String, Segment> next = new LinkedHashMap<String, Segment>();
+        List<Segment> added = new ArrayList<Segment>();
+        for (Segment segment : segments) {
+            next.put(segment.getId(), segment);
+            if (!displayed.containsKey(segment.getId()))
+                added.add(segment);
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String id : displayed.keySet()) {
+            if (!next.containsKey(id))
+                removed.add(id);
+        }
+        displayed = next;
+        return new Difference(added, removed);
+    }
+
+    synchronized boolean isDisplayed(String id) {
+        return displayed.containsKey(id);
+    }
+
+    synchronized int getDisplayedCount() {
+        return displayed.size();
+    }
+
+    synchronized void clear() {
+        displayed.clear();
+    }
+
+    static class Segment {
+        private final String id;
+        private final int firstIndex;
+        private final List<BaseNavigationPosition> positions;
+
+        Segment(String id, int firstIndex, List<BaseNavigationPosition> positions) {
+            this.id = id;
+            this.firstIndex = firstIndex;
+            this.positions = positions;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+
+        public int getLastIndex() {
+            return firstIndex + positions.size() - 1;
+        }
+
+        public List<BaseNavigationPosition> getPositions() {
+            return positions;
+        }
+
+        public String toString() {
+            return getClass().getSimpleName() + "[id=" + id + ", firstIndex=" + firstIndex + ", lastIndex=" + getLastIndex() + "]";
+        }
+    }
+
+    static class Difference {
+        private final List<Segment> added;
+        private final List<String> removed;
+
+        Difference(List<Segment> added, List<String> removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public List<Segment> getAdded() {
+            return added;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import java.util.logging.Logger;
+
+/**
+ * Runs the updates of a map view on a thread of its own and coalesces the requests for them.
+ * <p/>
+ * The flags of all requests that arrive before an update runs are combined into a single update.
+ * It runs when no further request arrived within the debounce window, but at the latest after the
+ * maximum delay since the first of its requests, so that a steady stream of requests still leads to
+ * regular updates. Since an update reads the state to display when it runs, it displays the newest
+ * state and the work for the requests it supersedes is dropped. An update checks with
+ * {@link #isSuperseded()} if it should stop preparing a stale state, unless it is overdue
+ * since its first request is older than the maximum delay. An update that stops is retried
+ * together with the requests that superseded it, and an update that cannot run yet is
+ * retried after the retry delay.
+ *
+ * @author Christian Pesch
+ */
+
+class UpdateScheduler {
+    private static Logger log = Logger.getLogger(UpdateScheduler.class.getName());
+
+    interface Update {
+        /**
+         * Runs an update.
+         *
+         * @param flags the combined flags of the coalesced requests
+         * @return false if the update is superseded or cannot run yet and has to be retried with the same flags
+         */
+        boolean run(int flags);
+    }
+
+    private final Update update;
+    private final long debounce, maximumDelay, retryDelay;
+    private final Thread thread;
+    private int pendingFlags = 0;
+    private long firstRequestTime, lastRequestTime, retryTime = 0, updateRequestTime;
+    private boolean running = true;
+    private int updateCount = 0;
+
+    UpdateScheduler(String name, long debounce, long maximumDelay, long retryDelay, Update update) {
+        this.update = update;
+        this.debounce = debounce;
+        this.maximumDelay = maximumDelay;
+        this.retryDelay = retryDelay;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (thread.isAlive() && Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // intentionally left empty
+            }
+        }
+    }
+
+    /**
+     * Requests an update with the given flags.
+     *
+     * @param flags the flags for the update which have to be non-zero
+     */
+    synchronized void request(int flags) {
+        if (flags == 0)
+            throw new IllegalArgumentException("No flags given");
+        long now = System.currentTimeMillis();
+        if (pendingFlags == 0)
+            firstRequestTime = now;
+        lastRequestTime = now;
+        pendingFlags |= flags;
+        notifyAll();
+    }
+
+    /**
+     * Returns if a request arrived since the running update started and the running update
+     * is not overdue, so that a steady stream of requests still leads to regular updates.
+     */
+    synchronized boolean isSuperseded() {
+        return pendingFlags != 0 && System.currentTimeMillis() - updateRequestTime < maximumDelay;
+    }
+
+    synchronized int getUpdateCount() {
+        return updateCount;
+    }
+
+    private int waitForUpdate() throws InterruptedException {
+        synchronized (this) {
+            while (running) {
+                if (pendingFlags == 0) {
+                    wait();
+                    continue;
+                }
+
+                long due = Math.max(Math.min(lastRequestTime + debounce, firstRequestTime + maximumDelay), retryTime);
+                long now = System.currentTimeMillis();
+                if (due <= now) {
+                    int flags = pendingFlags;
+                    pendingFlags = 0;
+                    updateRequestTime = firstRequestTime;
+                    return flags;
+                }
+                wait(due - now);
+            }
+            return 0;
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            int flags;
+            try {
+                flags = waitForUpdate();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (flags == 0)
+                return;
+
+            boolean done = true;
+            try {
+                done = update.run(flags);
+            } catch (RuntimeException e) {
+                log.severe("Cannot update map: " + e.getMessage());
+            }
+
+            synchronized (this) {
+                if (done) {
+                    updateCount++;
+                    retryTime = 0;
+                } else {
+                    long now = System.currentTimeMillis();
+                    // a superseded update runs with the requests that superseded it
+                    if (pendingFlags == 0) {
+                        firstRequestTime = lastRequestTime = now;
+                        retryTime = now + retryDelay;
+                    } else {
+                        // the superseded update keeps its age towards the maximum delay
+                        firstRequestTime = Math.min(firstRequestTime, updateRequestTime);
+                        retryTime = 0;
+                    }
+                    pendingFlags |= flags;
+                }
+            }
+        }
+    }
+}
@@ -45,6 +45,7 @@ public interface PositionsModel extends TableModel {
     List<BaseNavigationPosition> getPositions(int firstIndex, int lastIndex);
 
     int[] getPositionsWithinDistanceToPredecessor(double distance);
+    int[] getDuplicatePositions(double distance);
     int[] getInsignificantPositions(double threshold);
 
     void add(int rowIndex, Double longitude, Double latitude, Double elevation, Double speed, CompactCalendar time, String comment);
@@ -0,0 +1,52 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static slash.navigation.converter.gui.mapview.BaseMapView.batchScripts;
+
+public class BaseMapViewBatchScriptsTest {
+    @Test
+    public void testNoStatements() {
+        assertEquals(0, batchScripts(Arrays.<String>asList(), 10).size());
+    }
+
+    @Test
+    public void testStatementsInOneScript() {
+        assertEquals(Arrays.asList("a();\nb();\nc();\n"), batchScripts(Arrays.asList("a();", "b();", "c();"), 100));
+    }
+
+    @Test
+    public void testStatementsInSeveralScripts() {
+        List<String> scripts = batchScripts(Arrays.asList("a();", "b();", "c();", "d();", "e();"), 10);
+        assertEquals(Arrays.asList("a();\nb();\n", "c();\nd();\n", "e();\n"), scripts);
+    }
+
+    @Test
+    public void testStatementLongerThanMaximum() {
+        assertEquals(Arrays.asList("a();\n", "longer();\n", "b();\n"), batchScripts(Arrays.asList("a();", "longer();", "b();"), 5));
+    }
+}
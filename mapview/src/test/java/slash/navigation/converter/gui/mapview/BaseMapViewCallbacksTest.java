@@ -0,0 +1,81 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BaseMapViewCallbacksTest {
+    private static final int PORT = 12345, CALLBACK_COUNT = 1500;
+
+    private final List<String> callbacks = new ArrayList<String>();
+    private final List<String> threadNames = new ArrayList<String>();
+    private final FakeMapView view = new FakeMapView() {
+        int getCallbackPort() {
+            return PORT;
+        }
+
+        boolean processCallback(String callback) {
+            synchronized (callbacks) {
+                // the first callback is slow so that the queue of pending callbacks overflows
+                if (callbacks.isEmpty()) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        // intentionally left empty
+                    }
+                }
+                callbacks.add(callback);
+                threadNames.add(Thread.currentThread().getName());
+                callbacks.notifyAll();
+            }
+            return true;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        view.dispose();
+    }
+
+    @Test
+    public void testProcessesOverflowingCallbacksInOrderOfArrival() throws InterruptedException {
+        for (int i = 1; i <= CALLBACK_COUNT; i++)
+            view.processRequest(Arrays.asList("GET /" + i + "/callback/" + i + " HTTP/1.1", "Host: 127.0.0.1:" + PORT));
+
+        long end = System.currentTimeMillis() + 10000;
+        synchronized (callbacks) {
+            while (callbacks.size() < CALLBACK_COUNT && System.currentTimeMillis() < end)
+                callbacks.wait(100);
+            assertEquals(CALLBACK_COUNT, callbacks.size());
+            for (int i = 0; i < CALLBACK_COUNT; i++) {
+                assertEquals("callback/" + (i + 1), callbacks.get(i));
+                assertEquals("MapViewCallbackProcessor", threadNames.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.Test;
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.Wgs84Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+public class BaseMapViewScriptsBenchmarkIT {
+    private static final int SEGMENT_LENGTH = 35;
+    private static final int SCRIPT_LENGTH = 64 * 1024;
+
+    private List<BaseNavigationPosition> track(int count) {
+        Random random = new Random(42);
+        List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
+        double longitude = 10.0, latitude = 53.0;
+        for (int i = 0; i < count; i++) {
+            longitude += random.nextDouble() * 0.0002 - 0.0001;
+            latitude += random.nextDouble() * 0.0002 - 0.0001;
+            result.add(new Wgs84Position(longitude, latitude, null, null, null, null));
+        }
+        return result;
+    }
+
+    private int literalLength(List<BaseNavigationPosition> positions) {
+        // the length of the scripts with GLatLng literals for windows of the segment length
+        int length = 0;
+        for (int i = 0; i < positions.size(); i += SEGMENT_LENGTH) {
+            StringBuffer buffer = new StringBuffer("var latlngs = [");
+            for (BaseNavigationPosition position : positions.subList(i, Math.min(positions.size(), i + SEGMENT_LENGTH + 1)))
+                buffer.append("new GLatLng(").append(position.getLatitude()).append(",").append(position.getLongitude()).append("),");
+            buffer.append("];\naddOverlay(new GPolyline(latlngs,\"#0033FF\",2,1));");
+            length += buffer.length();
+        }
+        return length;
+    }
+
+    private void benchmark(int count) {
+        List<BaseNavigationPosition> positions = track(count);
+        int literalCalls = (positions.size() + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH;
+        int literalLength = literalLength(positions);
+
+        List<String> scripts = null;
+        long start = System.nanoTime();
+        int rounds = 20;
+        for (int i = 0; i < rounds; i++) {
+            List<String> statements = new ArrayList<String>();
+            for (OverlaySegments.Segment segment : OverlaySegments.split(positions, SEGMENT_LENGTH, true, false, "p"))
+                statements.add(BaseMapView.getPolylineStatement(segment));
+            scripts = BaseMapView.batchScripts(statements, SCRIPT_LENGTH);
+        }
+        double milliseconds = (System.nanoTime() - start) / 1000000.0 / rounds;
+
+        int encodedLength = 0;
+        for (String script : scripts)
+            encodedLength += script.length();
+        System.out.println(String.format("%d positions: %d script calls with %d characters of literals, " +
+                "%d script calls with %d characters encoded in %.2f milliseconds",
+                count, literalCalls, literalLength, scripts.size(), encodedLength, milliseconds));
+
+        assertTrue(scripts.size() <= encodedLength / SCRIPT_LENGTH + 1);
+        assertTrue(encodedLength * 3 < literalLength);
+        assertTrue(milliseconds < count / 100.0);
+    }
+
+    @Test
+    public void testDisplayedTrack() {
+        // the maximum number of positions that are displayed for a track
+        benchmark(1500);
+    }
+
+    @Test
+    public void testLargeTrack() {
+        benchmark(50000);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import slash.navigation.base.BaseNavigationFormat;
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.BaseRoute;
+import slash.navigation.base.RouteCharacteristics;
+import slash.navigation.base.Wgs84Position;
+import slash.navigation.base.Wgs84Route;
+import slash.navigation.converter.gui.models.CharacteristicsModel;
+import slash.navigation.converter.gui.models.PositionColumns;
+import slash.navigation.converter.gui.models.PositionsModel;
+import slash.navigation.simple.HaicomLoggerFormat;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BaseMapViewUpdateTest {
+    private static final Pattern ENCODED_PATTERN = Pattern.compile("Segment\\(\"[^\"]+\", \"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final FakeMapView view = new FakeMapView();
+    private final List<TableModelListener> listeners = new ArrayList<TableModelListener>();
+    private List<Wgs84Position> positions;
+    private PositionsModel positionsModel;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws InterruptedException {
+        Random random = new Random(42);
+        positions = new ArrayList<Wgs84Position>();
+        for (int i = 0; i < 500; i++)
+            positions.add(new Wgs84Position(10.0 + random.nextDouble(), 53.0 + random.nextDouble(), null, null, null, "Position " + i));
+        final BaseRoute route = new Wgs84Route(new HaicomLoggerFormat(), RouteCharacteristics.Track, positions);
+
+        positionsModel = (PositionsModel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PositionsModel.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getRoute"))
+                            return route;
+                        if (method.getName().equals("addTableModelListener"))
+                            listeners.add((TableModelListener) args[0]);
+                        if (method.getName().equals("getRowCount"))
+                            return positions.size();
+                        return null;
+                    }
+                });
+        CharacteristicsModel characteristicsModel = new CharacteristicsModel();
+        characteristicsModel.setRoute((BaseRoute<BaseNavigationPosition, BaseNavigationFormat>) route);
+
+        view.initialize(positionsModel, view, characteristicsModel, null, false, false, false);
+        view.update(true);
+        waitForScripts("addPolylineSegment", 1);
+        view.clearScripts();
+    }
+
+    @After
+    public void tearDown() {
+        view.dispose();
+    }
+
+    private void waitForScripts(String containing, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (view.getScripts(containing).size() < count && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        // wait for updates that would follow
+        Thread.sleep(500);
+    }
+
+    private List<BaseNavigationPosition> getDisplayedPositions(List<String> scripts) {
+        List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
+        for (String script : scripts) {
+            Matcher matcher = ENCODED_PATTERN.matcher(script);
+            while (matcher.find())
+                result.addAll(EncodedPolyline.decode(matcher.group(1).replace("\\\\", "\\")));
+        }
+        return result;
+    }
+
+    private boolean contains(List<BaseNavigationPosition> positions, double longitude, double latitude) {
+        for (BaseNavigationPosition position : positions) {
+            if (Math.abs(position.getLongitude() - longitude) < 0.00001 && Math.abs(position.getLatitude() - latitude) < 0.00001)
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testCoalescesBurstOfEdits() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            int row = i * 5;
+            positions.get(row).setLongitude(11.0 + i / 1000.0);
+            for (TableModelListener listener : listeners)
+                listener.tableChanged(new TableModelEvent(positionsModel, row, row, PositionColumns.LONGITUDE_COLUMN_INDEX));
+        }
+        waitForScripts("addPolylineSegment", 1);
+
+        List<String> scripts = view.getScripts("addPolylineSegment");
+        assertEquals(1, scripts.size());
+        List<BaseNavigationPosition> displayed = getDisplayedPositions(scripts);
+        assertTrue(contains(displayed, 11.099, positions.get(495).getLatitude()));
+        assertTrue(contains(displayed, 11.0, positions.get(0).getLatitude()));
+    }
+
+    @Test
+    public void testCoalescesSelections() throws InterruptedException {
+        for (int i = 0; i < 100; i++)
+            view.setSelectedPositions(new int[]{i});
+        waitForScripts("addMarker(", 1);
+
+        List<String> scripts = view.getScripts("addMarker(");
+        assertEquals(1, scripts.size());
+        Wgs84Position selected = positions.get(99);
+        assertTrue(scripts.get(0).contains("new GLatLng(" + selected.getLatitude() + "," + selected.getLongitude() + ")"));
+        assertTrue(scripts.get(0).contains("centerMap("));
+    }
+
+    @Test
+    public void testUpdatesChangedSegmentsOnly() throws InterruptedException {
+        positions.get(250).setLatitude(53.5);
+        for (TableModelListener listener : listeners)
+            listener.tableChanged(new TableModelEvent(positionsModel, 250, 250, PositionColumns.LATITUDE_COLUMN_INDEX));
+        waitForScripts("addPolylineSegment", 1);
+
+        List<String> scripts = view.getScripts("addPolylineSegment");
+        assertEquals(1, scripts.size());
+        List<BaseNavigationPosition> displayed = getDisplayedPositions(scripts);
+        assertTrue(contains(displayed, positions.get(250).getLongitude(), 53.5));
+        assertTrue(displayed.size() < 100);
+    }
+
+    private void editLatitude(int row, double latitude) {
+        positions.get(row).setLatitude(latitude);
+        for (TableModelListener listener : listeners)
+            listener.tableChanged(new TableModelEvent(positionsModel, row, row, PositionColumns.LATITUDE_COLUMN_INDEX));
+    }
+
+    @Test
+    public void testCancelsSupersededPreparation() throws InterruptedException {
+        view.setBridgeLatency(300);
+        editLatitude(100, 53.25);
+        // edit while the first update waits for the zoom level
+        Thread.sleep(250);
+        editLatitude(300, 53.75);
+        waitForScripts("addPolylineSegment", 1);
+        Thread.sleep(500);
+
+        List<String> scripts = view.getScripts("addPolylineSegment");
+        assertEquals(1, scripts.size());
+        List<BaseNavigationPosition> displayed = getDisplayedPositions(scripts);
+        assertTrue(contains(displayed, positions.get(100).getLongitude(), 53.25));
+        assertTrue(contains(displayed, positions.get(300).getLongitude(), 53.75));
+    }
+
+    @Test
+    public void testPreparesFromSnapshot() throws InterruptedException {
+        view.setBridgeLatency(300);
+        editLatitude(100, 53.25);
+        // change a position without an event while the update prepares the geometry
+        Thread.sleep(250);
+        positions.get(300).setLatitude(53.75);
+        waitForScripts("addPolylineSegment", 1);
+
+        List<BaseNavigationPosition> displayed = getDisplayedPositions(view.getScripts("addPolylineSegment"));
+        assertTrue(contains(displayed, positions.get(100).getLongitude(), 53.25));
+        assertTrue(!contains(displayed, positions.get(300).getLongitude(), 53.75));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackServerTest {
+    private final List<List<String>> requests = new ArrayList<List<String>>();
+    private CallbackServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new CallbackServer(new CallbackServer.Handler() {
+            public void handle(List<String> lines) {
+                synchronized (requests) {
+                    requests.add(lines);
+                    requests.notifyAll();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        synchronized (requests) {
+            while (requests.size() < count && System.currentTimeMillis() < end)
+                requests.wait(100);
+            assertEquals(count, requests.size());
+        }
+    }
+
+    private void write(Socket socket, String string) throws IOException {
+        OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(string.getBytes("UTF-8"));
+        outputStream.flush();
+    }
+
+    private String readResponse(Socket socket) throws IOException {
+        InputStream inputStream = socket.getInputStream();
+        StringBuffer buffer = new StringBuffer();
+        while (!buffer.toString().endsWith("\r\n\r\n")) {
+            int c = inputStream.read();
+            if (c == -1)
+                break;
+            buffer.append((char) c);
+        }
+        return buffer.toString();
+    }
+
+    @Test
+    public void testGetRequestsOnKeptAliveConnection() throws Exception {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setTcpNoDelay(true);
+        int count = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            write(socket, "GET /" + i + "/zoomend/1/2 HTTP/1.1\r\nHost: 127.0.0.1:" + server.getPort() + "\r\n\r\n");
+            assertTrue(readResponse(socket).startsWith("HTTP/1.1 200 OK"));
+        }
+        double milliseconds = (System.nanoTime() - start) / 1000000.0 / count;
+        socket.close();
+
+        waitForRequests(count);
+        for (int i = 0; i < count; i++)
+            assertEquals(Arrays.asList("GET /" + i + "/zoomend/1/2 HTTP/1.1", "Host: 127.0.0.1:" + server.getPort()), requests.get(i));
+        assertTrue("Round trip took " + milliseconds + " milliseconds", milliseconds < 50.0);
+    }
+
+    @Test
+    public void testPostRequestInPieces() throws Exception {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        write(socket, "POST /1/generic-post-url/ HTTP/1.1\r\nContent-Length: 15\r\n");
+        Thread.sleep(50);
+        write(socket, "\r\nInsert-All");
+        Thread.sleep(50);
+        write(socket, ": 1/2GET /2/zoomend/1/2 HTTP/1.1\n\n");
+        assertTrue(readResponse(socket).startsWith("HTTP/1.1 200 OK"));
+        assertTrue(readResponse(socket).startsWith("HTTP/1.1 200 OK"));
+        socket.close();
+
+        waitForRequests(2);
+        assertEquals(Arrays.asList("POST /1/generic-post-url/ HTTP/1.1", "Content-Length: 15", "Insert-All: 1/2"), requests.get(0));
+        assertEquals(Arrays.asList("GET /2/zoomend/1/2 HTTP/1.1"), requests.get(1));
+    }
+
+    @Test
+    public void testRequestEndingWithConnection() throws Exception {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        write(socket, "POST /0/generic-post-url/ HTTP/1.1\nHost: 127.0.0.1\ncallback-port/49632");
+        socket.close();
+
+        waitForRequests(1);
+        assertEquals(Arrays.asList("POST /0/generic-post-url/ HTTP/1.1", "Host: 127.0.0.1", "callback-port/49632"), requests.get(0));
+    }
+
+    @Test
+    public void testIncompleteRequestDoesNotBlockOthers() throws Exception {
+        Socket incomplete = new Socket("127.0.0.1", server.getPort());
+        write(incomplete, "GET /1/zoomend/1/2 HTTP/1.1\r\n");
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        write(socket, "GET /2/zoomend/1/2 HTTP/1.1\r\n\r\n");
+        assertTrue(readResponse(socket).startsWith("HTTP/1.1 200 OK"));
+        waitForRequests(1);
+        assertEquals("GET /2/zoomend/1/2 HTTP/1.1", requests.get(0).get(0));
+
+        write(incomplete, "\r\n");
+        assertTrue(readResponse(incomplete).startsWith("HTTP/1.1 200 OK"));
+        waitForRequests(2);
+        assertEquals("GET /1/zoomend/1/2 HTTP/1.1", requests.get(1).get(0));
+        incomplete.close();
+        socket.close();
+    }
+
+    @Test
+    public void testRequestEnd() throws Exception {
+        assertEquals(-1, CallbackServer.getRequestEnd("GET / HTTP/1.1\r\n".getBytes(), 0));
+        assertEquals(18, CallbackServer.getRequestEnd("GET / HTTP/1.1\r\n\r\n".getBytes(), 0));
+        assertEquals(16, CallbackServer.getRequestEnd("GET / HTTP/1.1\n\nGET".getBytes(), 0));
+        assertEquals(-1, CallbackServer.getRequestEnd("POST / HTTP/1.1\ncontent-length: 3\n\nab".getBytes(), 0));
+        assertEquals(38, CallbackServer.getRequestEnd("POST / HTTP/1.1\ncontent-length: 3\n\nabc".getBytes(), 0));
+    }
+}
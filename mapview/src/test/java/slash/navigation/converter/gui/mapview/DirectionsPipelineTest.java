@@ -0,0 +1,220 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectionsPipelineTest {
+    private static final Pattern LOAD_PATTERN = Pattern.compile("load\\((\\d+)\\);");
+
+    private final List<String> applied = new ArrayList<String>();
+    private final FakeBrowser browser = new FakeBrowser();
+    private DirectionsPipeline pipeline;
+
+    @After
+    public void tearDown() {
+        pipeline.stop();
+        browser.executor.shutdownNow();
+    }
+
+    /**
+     * Simulates the latency of the directions service and rejects requests beyond a quota.
+     */
+    private class FakeBrowser implements DirectionsPipeline.Bridge {
+        private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        private final Random random = new Random(42);
+        private final Set<String> dropped = new HashSet<String>(), failing = new HashSet<String>();
+        private long minimumLatency = 20, maximumLatency = 80;
+        private int quota = Integer.MAX_VALUE;
+        private int inFlight = 0, maximumInFlight = 0, quotaCount = 0;
+
+        public synchronized void executeScript(String script) {
+            Matcher matcher = LOAD_PATTERN.matcher(script);
+            while (matcher.find()) {
+                final String id = matcher.group(1);
+                if (dropped.contains(id))
+                    continue;
+                inFlight++;
+                maximumInFlight = Math.max(maximumInFlight, inFlight);
+                final boolean overQuota = inFlight > quota;
+                long latency = minimumLatency + (long) (random.nextDouble() * (maximumLatency - minimumLatency));
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        synchronized (FakeBrowser.this) {
+                            inFlight--;
+                            if (overQuota)
+                                quotaCount++;
+                        }
+                        if (overQuota)
+                            pipeline.failed(id, DirectionsPipeline.TOO_MANY_QUERIES);
+                        else if (failing.contains(id))
+                            pipeline.failed(id, 604);
+                        else
+                            pipeline.loaded(id, "result" + id);
+                    }
+                }, latency, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private DirectionsPipeline start(int maximumInFlight, long timeout) {
+        pipeline = new DirectionsPipeline("Test", maximumInFlight, 50, 400, timeout, browser);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private List<DirectionsPipeline.Request> createRequests(int count) {
+        List<DirectionsPipeline.Request> result = new ArrayList<DirectionsPipeline.Request>();
+        for (int i = 0; i < count; i++) {
+            result.add(new DirectionsPipeline.Request(Integer.toString(i)) {
+                String getScript() {
+                    return "load(" + getId() + ");";
+                }
+
+                void apply(String result) {
+                    synchronized (applied) {
+                        applied.add(getId() + "=" + result);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private List<String> waitForApplied(int count, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (System.currentTimeMillis() < end) {
+            synchronized (applied) {
+                if (applied.size() >= count)
+                    break;
+            }
+            Thread.sleep(10);
+        }
+        synchronized (applied) {
+            return new ArrayList<String>(applied);
+        }
+    }
+
+    @Test
+    public void testAppliesResultsInOrder() throws InterruptedException {
+        start(4, 10000).submit(createRequests(40));
+        List<String> results = waitForApplied(40, 5000);
+        assertEquals(40, results.size());
+        for (int i = 0; i < 40; i++)
+            assertEquals(i + "=result" + i, results.get(i));
+        assertEquals(40, pipeline.getSentCount());
+        assertEquals(0, pipeline.getPendingCount());
+    }
+
+    @Test
+    public void testBoundsRequestsInFlight() throws InterruptedException {
+        browser.minimumLatency = browser.maximumLatency = 100;
+        long start = System.currentTimeMillis();
+        start(4, 10000).submit(createRequests(20));
+        assertEquals(20, waitForApplied(20, 5000).size());
+        long duration = System.currentTimeMillis() - start;
+        assertEquals(4, browser.maximumInFlight);
+        // five rounds of four requests instead of twenty requests one after another
+        assertTrue("duration " + duration, duration >= 500 && duration < 1500);
+    }
+
+    @Test
+    public void testBacksOffOnQuota() throws InterruptedException {
+        browser.quota = 2;
+        start(8, 10000).submit(createRequests(30));
+        List<String> results = waitForApplied(30, 10000);
+        assertEquals(30, results.size());
+        for (int i = 0; i < 30; i++)
+            assertEquals(i + "=result" + i, results.get(i));
+        assertTrue(browser.quotaCount > 0);
+        assertEquals(30 + browser.quotaCount, pipeline.getSentCount());
+        // the number of requests in flight adapts to the quota, so most requests do not exceed it
+        assertTrue("quota responses " + browser.quotaCount, browser.quotaCount < 30);
+        assertEquals(0, pipeline.getBackoff());
+    }
+
+    @Test
+    public void testAppliesFailedRequestsInOrder() throws InterruptedException {
+        browser.failing.add("3");
+        start(4, 10000).submit(createRequests(6));
+        List<String> results = waitForApplied(6, 5000);
+        assertEquals(6, results.size());
+        assertEquals("2=result2", results.get(2));
+        assertEquals("3=null", results.get(3));
+        assertEquals("4=result4", results.get(4));
+    }
+
+    @Test
+    public void testExpiresLostRequests() throws InterruptedException {
+        browser.dropped.add("1");
+        start(4, 300).submit(createRequests(4));
+        Thread.sleep(150);
+        synchronized (applied) {
+            assertEquals(1, applied.size());
+        }
+        List<String> results = waitForApplied(4, 5000);
+        assertEquals(4, results.size());
+        assertEquals("1=null", results.get(1));
+        assertEquals("3=result3", results.get(3));
+    }
+
+    @Test
+    public void testDoesNotApplyCanceledRequests() throws InterruptedException {
+        browser.minimumLatency = browser.maximumLatency = 100;
+        start(2, 10000).submit(createRequests(6));
+        pipeline.cancel("1");
+        pipeline.cancel("4");
+        List<String> results = waitForApplied(4, 5000);
+        Thread.sleep(200);
+        assertEquals(4, results.size());
+        assertEquals("0=result0", results.get(0));
+        assertEquals("2=result2", results.get(1));
+        assertEquals("5=result5", results.get(3));
+        assertEquals(0, pipeline.getPendingCount());
+    }
+
+    @Test
+    public void testCancelAll() throws InterruptedException {
+        browser.minimumLatency = browser.maximumLatency = 100;
+        start(2, 10000).submit(createRequests(6));
+        pipeline.cancelAll();
+        Thread.sleep(300);
+        synchronized (applied) {
+            assertTrue(applied.isEmpty());
+        }
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.Test;
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.Wgs84Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class EncodedPolylineTest {
+    private Wgs84Position position(double longitude, double latitude) {
+        return new Wgs84Position(longitude, latitude, null, null, null, null);
+    }
+
+    @Test
+    public void testEncode() {
+        // the example of the documentation of the encoded polyline algorithm format
+        List<BaseNavigationPosition> positions = Arrays.<BaseNavigationPosition>asList(position(-120.2, 38.5),
+                position(-120.95, 40.7), position(-126.453, 43.252));
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", EncodedPolyline.encode(positions));
+        assertEquals("", EncodedPolyline.encode(new ArrayList<BaseNavigationPosition>()));
+    }
+
+    @Test
+    public void testDecode() {
+        List<BaseNavigationPosition> positions = EncodedPolyline.decode("_p~iF~ps|U_ulLnnqC_mqNvxq`@");
+        assertEquals(3, positions.size());
+        assertEquals(-120.2, positions.get(0).getLongitude(), 0.0);
+        assertEquals(38.5, positions.get(0).getLatitude(), 0.0);
+        assertEquals(-126.453, positions.get(2).getLongitude(), 0.0);
+        assertEquals(43.252, positions.get(2).getLatitude(), 0.0);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        List<BaseNavigationPosition> positions = new ArrayList<BaseNavigationPosition>();
+        for (int i = 0; i < 1000; i++)
+            positions.add(position(random.nextDouble() * 360.0 - 180.0, random.nextDouble() * 180.0 - 90.0));
+        List<BaseNavigationPosition> decoded = EncodedPolyline.decode(EncodedPolyline.encode(positions));
+        assertEquals(positions.size(), decoded.size());
+        for (int i = 0; i < positions.size(); i++) {
+            assertEquals(positions.get(i).getLongitude(), decoded.get(i).getLongitude(), 0.000005);
+            assertEquals(positions.get(i).getLatitude(), decoded.get(i).getLatitude(), 0.000005);
+        }
+    }
+
+    @Test
+    public void testToJavaScript() {
+        assertEquals("\"_p~iF~ps|U\"", EncodedPolyline.toJavaScript("_p~iF~ps|U"));
+        assertEquals("\"?\\\\@\"", EncodedPolyline.toJavaScript("?\\@"));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.Wgs84Position;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BaseMapView} with a fake browser bridge that records the scripts it executes.
+ *
+ * @author Christian Pesch
+ */
+
+class FakeMapView extends BaseMapView {
+    private final JPanel component = new JPanel() {
+        public boolean isShowing() {
+            return true;
+        }
+    };
+    private final List<String> scripts = new ArrayList<String>();
+    private volatile long bridgeLatency = 0;
+
+    FakeMapView() {
+        component.setSize(800, 600);
+    }
+
+    public boolean isSupportedPlatform() {
+        return true;
+    }
+
+    public Component getComponent() {
+        return component;
+    }
+
+    public void resize() {
+    }
+
+    protected void initializeBrowser() {
+        synchronized (notificationMutex) {
+            initialized = true;
+        }
+        initializeBrowserInteraction();
+    }
+
+    protected void disposeBrowser() {
+    }
+
+    void setBridgeLatency(long bridgeLatency) {
+        this.bridgeLatency = bridgeLatency;
+    }
+
+    private void delay() {
+        try {
+            Thread.sleep(bridgeLatency);
+        } catch (InterruptedException e) {
+            // intentionally left empty
+        }
+    }
+
+    protected BaseNavigationPosition getNorthEastBounds() {
+        delay();
+        return new Wgs84Position(180.0, 90.0, null, null, null, null);
+    }
+
+    protected BaseNavigationPosition getSouthWestBounds() {
+        delay();
+        return new Wgs84Position(-180.0, -90.0, null, null, null, null);
+    }
+
+    protected int getBoundsZoomLevel(List<BaseNavigationPosition> positions) {
+        delay();
+        return 10;
+    }
+
+    protected int getCurrentZoomLevel() {
+        delay();
+        return 10;
+    }
+
+    protected void executeScript(String script) {
+        if (script.length() == 0)
+            return;
+        synchronized (scripts) {
+            scripts.add(script);
+        }
+    }
+
+    protected String executeScriptWithResult(String script) {
+        return null;
+    }
+
+    List<String> getScripts(String containing) {
+        List<String> result = new ArrayList<String>();
+        synchronized (scripts) {
+            for (String script : scripts) {
+                if (script.contains(containing))
+                    result.add(script);
+            }
+        }
+        return result;
+    }
+
+    void clearScripts() {
+        synchronized (scripts) {
+            scripts.clear();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.Test;
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.Wgs84Position;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OverlaySegmentsTest {
+    private List<BaseNavigationPosition> positions(int count) {
+        Random random = new Random(42);
+        List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
+        for (int i = 0; i < count; i++)
+            result.add(new Wgs84Position(10.0 + random.nextDouble(), 53.0 + random.nextDouble(), null, null, null, "Position " + i));
+        return result;
+    }
+
+    private List<BaseNavigationPosition> joined(List<OverlaySegments.Segment> segments, boolean overlapping) {
+        List<BaseNavigationPosition> result = new ArrayList<BaseNavigationPosition>();
+        for (OverlaySegments.Segment segment : segments) {
+            List<BaseNavigationPosition> positions = segment.getPositions();
+            result.addAll(overlapping && result.size() > 0 ? positions.subList(1, positions.size()) : positions);
+        }
+        return result;
+    }
+
+    private Set<String> ids(List<OverlaySegments.Segment> segments) {
+        Set<String> result = new HashSet<String>();
+        for (OverlaySegments.Segment segment : segments)
+            result.add(segment.getId());
+        return result;
+    }
+
+    @Test
+    public void testSplitCoversAllPositions() {
+        List<BaseNavigationPosition> positions = positions(1000);
+        for (boolean overlapping : new boolean[]{false, true}) {
+            List<OverlaySegments.Segment> segments = OverlaySegments.split(positions, 35, overlapping, false, "p");
+            assertEquals(positions, joined(segments, overlapping));
+            assertEquals(segments.size(), ids(segments).size());
+            for (OverlaySegments.Segment segment : segments) {
+                assertEquals(segment.getPositions(), positions.subList(segment.getFirstIndex(), segment.getLastIndex() + 1));
+                assertTrue(segment.getPositions().size() <= (overlapping ? 36 : 35));
+            }
+        }
+    }
+
+    @Test
+    public void testSplitFewPositions() {
+        assertEquals(0, OverlaySegments.split(positions(0), 5, false, true, "m").size());
+        assertEquals(1, OverlaySegments.split(positions(1), 22, true, false, "d").size());
+        assertEquals(1, OverlaySegments.split(positions(2), 22, true, false, "d").size());
+    }
+
+    @Test
+    public void testSplitSaltsIds() {
+        List<BaseNavigationPosition> positions = positions(100);
+        Set<String> polylines = ids(OverlaySegments.split(positions, 22, true, false, "p"));
+        Set<String> directions = ids(OverlaySegments.split(positions, 22, true, false, "d"));
+        polylines.retainAll(directions);
+        assertTrue(polylines.isEmpty());
+    }
+
+    @Test
+    public void testSplitDuplicateSegments() {
+        List<BaseNavigationPosition> positions = positions(10);
+        positions.addAll(new ArrayList<BaseNavigationPosition>(positions));
+        List<OverlaySegments.Segment> segments = OverlaySegments.split(positions, 1, false, false, "m");
+        assertEquals(20, segments.size());
+        assertEquals(20, ids(segments).size());
+    }
+
+    @Test
+    public void testMovingPositionChangesNearbySegments() {
+        List<BaseNavigationPosition> positions = positions(1000);
+        OverlaySegments overlaySegments = new OverlaySegments();
+        List<OverlaySegments.Segment> segments = OverlaySegments.split(positions, 35, true, false, "p");
+        assertEquals(segments.size(), overlaySegments.update(segments).getAdded().size());
+
+        positions.set(500, new Wgs84Position(11.5, 53.5, null, null, null, null));
+        OverlaySegments.Difference difference = overlaySegments.update(OverlaySegments.split(positions, 35, true, false, "p"));
+        assertTrue(difference.getAdded().size() >= 1);
+        assertTrue(difference.getAdded().size() <= 3);
+        assertTrue(difference.getRemoved().size() <= 3);
+        for (OverlaySegments.Segment segment : difference.getAdded()) {
+            assertTrue(segment.getFirstIndex() <= 500 + 2 * 35);
+            assertTrue(segment.getLastIndex() >= 500 - 2 * 35);
+        }
+    }
+
+    @Test
+    public void testInsertingAndRemovingPositionsDoesNotRipple() {
+        List<BaseNavigationPosition> positions = positions(1000);
+        OverlaySegments overlaySegments = new OverlaySegments();
+        int count = overlaySegments.update(OverlaySegments.split(positions, 5, false, true, "m")).getAdded().size();
+
+        positions.add(100, new Wgs84Position(11.5, 53.5, null, null, null, "Inserted"));
+        OverlaySegments.Difference difference = overlaySegments.update(OverlaySegments.split(positions, 5, false, true, "m"));
+        assertTrue(difference.getAdded().size() <= 3);
+        assertTrue(difference.getRemoved().size() <= 3);
+
+        positions.remove(700);
+        positions.remove(100);
+        difference = overlaySegments.update(OverlaySegments.split(positions, 5, false, true, "m"));
+        assertTrue(difference.getAdded().size() <= 6);
+        assertTrue(difference.getRemoved().size() <= 6);
+        assertTrue(count > 100);
+    }
+
+    @Test
+    public void testChangedCommentChangesMarkerSegment() {
+        List<BaseNavigationPosition> positions = positions(100);
+        OverlaySegments overlaySegments = new OverlaySegments();
+        overlaySegments.update(OverlaySegments.split(positions, 5, false, true, "m"));
+        assertEquals(0, overlaySegments.update(OverlaySegments.split(positions, 5, false, true, "m")).getAdded().size());
+
+        positions.get(50).setComment("Renamed");
+        OverlaySegments.Difference difference = overlaySegments.update(OverlaySegments.split(positions, 5, false, true, "m"));
+        assertEquals(1, difference.getAdded().size());
+        assertEquals(1, difference.getRemoved().size());
+        assertFalse(overlaySegments.isDisplayed(difference.getRemoved().get(0)));
+        assertTrue(overlaySegments.isDisplayed(difference.getAdded().get(0).getId()));
+    }
+
+    @Test
+    public void testClear() {
+        OverlaySegments overlaySegments = new OverlaySegments();
+        List<OverlaySegments.Segment> segments = OverlaySegments.split(positions(100), 35, true, false, "p");
+        overlaySegments.update(segments);
+        assertEquals(segments.size(), overlaySegments.getDisplayedCount());
+        overlaySegments.clear();
+        assertEquals(0, overlaySegments.getDisplayedCount());
+        assertEquals(segments.size(), overlaySegments.update(segments).getAdded().size());
+    }
+}
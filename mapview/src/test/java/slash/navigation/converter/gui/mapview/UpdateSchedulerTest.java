@@ -0,0 +1,181 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.mapview;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateSchedulerTest {
+    private final List<Integer> updates = new ArrayList<Integer>();
+    private UpdateScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    private UpdateScheduler start(long debounce, long maximumDelay, final long duration, final int failures) {
+        scheduler = new UpdateScheduler("Test", debounce, maximumDelay, 100, new UpdateScheduler.Update() {
+            private int count = 0;
+
+            public boolean run(int flags) {
+                try {
+                    Thread.sleep(duration);
+                } catch (InterruptedException e) {
+                    // intentionally left empty
+                }
+                if (count++ < failures)
+                    return false;
+                synchronized (updates) {
+                    updates.add(flags);
+                }
+                return true;
+            }
+        });
+        scheduler.start();
+        return scheduler;
+    }
+
+    private List<Integer> getUpdates() {
+        synchronized (updates) {
+            return new ArrayList<Integer>(updates);
+        }
+    }
+
+    @Test
+    public void testCoalescesRequests() throws InterruptedException {
+        start(50, 1000, 0, 0);
+        for (int i = 0; i < 100; i++)
+            scheduler.request(i % 2 == 0 ? 1 : 2);
+        Thread.sleep(300);
+        assertEquals(1, getUpdates().size());
+        assertEquals(3, (int) getUpdates().get(0));
+        assertEquals(1, scheduler.getUpdateCount());
+    }
+
+    @Test
+    public void testDebouncesUntilRequestsPause() throws InterruptedException {
+        start(100, 1000, 0, 0);
+        for (int i = 0; i < 10; i++) {
+            scheduler.request(1);
+            Thread.sleep(20);
+        }
+        assertEquals(0, getUpdates().size());
+        Thread.sleep(300);
+        assertEquals(1, getUpdates().size());
+    }
+
+    @Test
+    public void testUpdatesAfterMaximumDelay() throws InterruptedException {
+        start(100, 300, 0, 0);
+        long end = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < end) {
+            scheduler.request(1);
+            Thread.sleep(20);
+        }
+        int count = getUpdates().size();
+        assertTrue("Updated " + count + " times", count >= 2 && count <= 4);
+    }
+
+    @Test
+    public void testRequestWhileUpdating() throws InterruptedException {
+        start(10, 1000, 200, 0);
+        scheduler.request(1);
+        Thread.sleep(100);
+        for (int i = 0; i < 10; i++)
+            scheduler.request(2);
+        Thread.sleep(700);
+        List<Integer> updates = getUpdates();
+        assertEquals(2, updates.size());
+        assertEquals(1, (int) updates.get(0));
+        assertEquals(2, (int) updates.get(1));
+    }
+
+    @Test
+    public void testRetriesUpdate() throws InterruptedException {
+        start(10, 1000, 0, 2);
+        scheduler.request(1);
+        Thread.sleep(100);
+        assertEquals(0, getUpdates().size());
+        scheduler.request(2);
+        Thread.sleep(400);
+        assertEquals(1, getUpdates().size());
+        assertEquals(3, (int) getUpdates().get(0));
+    }
+
+    private UpdateScheduler startCancelling(long debounce, long maximumDelay, final long duration) {
+        scheduler = new UpdateScheduler("Test", debounce, maximumDelay, 5000, new UpdateScheduler.Update() {
+            public boolean run(int flags) {
+                try {
+                    Thread.sleep(duration);
+                } catch (InterruptedException e) {
+                    // intentionally left empty
+                }
+                if (scheduler.isSuperseded())
+                    return false;
+                synchronized (updates) {
+                    updates.add(flags);
+                }
+                return true;
+            }
+        });
+        scheduler.start();
+        return scheduler;
+    }
+
+    @Test
+    public void testSupersededUpdateRunsWithNewRequest() throws InterruptedException {
+        startCancelling(10, 1000, 200);
+        scheduler.request(1);
+        Thread.sleep(100);
+        scheduler.request(2);
+        Thread.sleep(500);
+        assertEquals(1, getUpdates().size());
+        assertEquals(3, (int) getUpdates().get(0));
+    }
+
+    @Test
+    public void testOverdueUpdateIsNotCancelledByContinuousRequests() throws InterruptedException {
+        startCancelling(50, 300, 100);
+        long end = System.currentTimeMillis() + 1500;
+        while (System.currentTimeMillis() < end) {
+            scheduler.request(1);
+            Thread.sleep(20);
+        }
+        // an update is applied at least once the maximum delay is over
+        assertTrue("updates " + getUpdates().size(), getUpdates().size() >= 3);
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        start(100, 1000, 0, 0);
+        scheduler.request(1);
+        scheduler.stop();
+        Thread.sleep(200);
+        assertEquals(0, getUpdates().size());
+    }
+}
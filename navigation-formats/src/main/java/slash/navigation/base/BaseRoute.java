@@ -35,6 +35,7 @@ import slash.navigation.nmea.NmeaRoute;
 import slash.navigation.nmn.NmnRoute;
 import slash.navigation.ovl.OvlRoute;
 import slash.navigation.tour.TourRoute;
+import slash.navigation.util.DuplicateFinder;
 import slash.navigation.util.Positions;
 import slash.navigation.viamichelin.ViaMichelinRoute;
 
@@ -48,6 +49,7 @@ import java.util.*;
 
 public abstract class BaseRoute<P extends BaseNavigationPosition, F extends BaseNavigationFormat> {
     private static final String REVERSE_ROUTE_NAME_POSTFIX = " (rev)";
+    private static final long DUPLICATE_TIME_WINDOW = 1000; // ms
 
     private final F format;
     protected RouteCharacteristics characteristics;
@@ -180,6 +182,19 @@ public abstract class BaseRoute<P extends BaseNavigationPosition, F extends Base
         return Range.toArray(result);
     }
 
+    /**
+     * Search the {@link #getPositions() positions} that are within the given distance of any
+     * earlier position of this route. For tracks, positions are only duplicates if they were
+     * recorded within {@link #DUPLICATE_TIME_WINDOW} of each other.
+     *
+     * @param distance the maximum distance in meters for two positions to be duplicates
+     * @return an array of indices of the duplicate positions
+     */
+    public int[] getDuplicatePositions(double distance) {
+        long timeWindow = RouteCharacteristics.Track.equals(getCharacteristics()) ? DUPLICATE_TIME_WINDOW : DuplicateFinder.NO_TIME_WINDOW;
+        return DuplicateFinder.getDuplicatePositions(getPositions(), distance, timeWindow);
+    }
+
     public int[] getInsignificantPositions(double threshold) {
         int[] significantPositions = Positions.getSignificantPositions(getPositions(), threshold);
         BitSet bitset = new BitSet(getPositionCount());
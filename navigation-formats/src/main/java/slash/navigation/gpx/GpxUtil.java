@@ -22,10 +22,15 @@ package slash.navigation.gpx;
 
 import slash.navigation.gpx.binding10.Gpx;
 import slash.navigation.gpx.binding11.GpxType;
+import slash.navigation.gpx.binding11.MetadataType;
+import slash.navigation.gpx.binding11.RteType;
 import slash.navigation.jaxb.JaxbUtils;
 
 import javax.xml.bind.*;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 
 public class GpxUtil {
@@ -39,6 +44,17 @@ public class GpxUtil {
     private static final String GARMIN_EXTENSIONS_3_NAMESPACE_URI = "http://www.garmin.com/xmlschemas/GpxExtensions/v3";
     private static final String ROUTECATALOG_EXTENSIONS_1_NAMESPACE_URI = "http://www.routeconverter.de/xmlschemas/RouteCatalogExtensions/1.0";
     private static final String TREKBUDDY_EXTENSIONS_0984_NAMESPACE_URI = "http://trekbuddy.net/2009/01/gpx/nmea";
+    private static final QName GPX_11_ELEMENT = new QName(GPX_11_NAMESPACE_URI, "gpx");
+    private static final QName METADATA_11_ELEMENT = new QName(GPX_11_NAMESPACE_URI, "metadata");
+    private static final QName RTE_11_ELEMENT = new QName(GPX_11_NAMESPACE_URI, "rte");
+
+    /**
+     * Receives the metadata and the routes of a GPX 1.1 document one at a time while it is read.
+     */
+    public interface MetadataAndRoutesHandler {
+        void metadata(MetadataType metadataType);
+        void route(RteType rteType);
+    }
 
     public static Unmarshaller newUnmarshaller10() {
         return JaxbUtils.newUnmarshaller(CONTEXT_10);
@@ -123,6 +139,174 @@ public class GpxUtil {
         return result;
     }
 
+    /**
+     * Reads the metadata and the routes of a GPX 1.1 document element by element from the stream.
+     * Waypoints, tracks and extensions are skipped without building objects for them, so the memory
+     * needed is bounded by the metadata and the routes and not by the size of the document.
+     *
+     * @param in       the stream to read the document from
+     * @param encoding the encoding of the stream or null to detect it from the document
+     * @return the document with metadata and routes only
+     * @throws JAXBException if the document cannot be parsed
+     */
+    public static GpxType unmarshal11MetadataAndRoutes(InputStream in, String encoding) throws JAXBException {
+        return unmarshal11MetadataAndRoutes(in, encoding, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the metadata and a window of the routes of a GPX 1.1 document from the stream.
+     * The routes before the window are skipped and reading stops after the window.
+     *
+     * @param in       the stream to read the document from
+     * @param encoding the encoding of the stream or null to detect it from the document
+     * @param offset   the index of the first route to read
+     * @param limit    the maximum number of routes to read
+     * @return the document with metadata and the routes of the window only
+     * @throws JAXBException if the document cannot be parsed
+     */
+    public static GpxType unmarshal11MetadataAndRoutes(InputStream in, String encoding, int offset, int limit) throws JAXBException {
+        try {
+            XMLStreamReader reader = createXMLStreamReader(in, encoding);
+            try {
+                final GpxType result = new GpxType();
+                readGpxElement(reader, result);
+                read11MetadataAndRoutes(reader, offset, limit, new MetadataAndRoutesHandler() {
+                    public void metadata(MetadataType metadataType) {
+                        result.setMetadata(metadataType);
+                    }
+
+                    public void route(RteType rteType) {
+                        result.getRte().add(rteType);
+                    }
+                });
+                return result;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new JAXBException("Parse error from " + in + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the metadata and the routes of a GPX 1.1 document from the stream and passes them to
+     * the handler one at a time, so that the memory needed is bounded by a single route.
+     *
+     * @param in       the stream to read the document from
+     * @param encoding the encoding of the stream or null to detect it from the document
+     * @param handler  the handler to pass the metadata and the routes to
+     * @throws JAXBException if the document cannot be parsed
+     */
+    public static void read11MetadataAndRoutes(InputStream in, String encoding, MetadataAndRoutesHandler handler) throws JAXBException {
+        try {
+            XMLStreamReader reader = createXMLStreamReader(in, encoding);
+            try {
+                readGpxElement(reader, null);
+                read11MetadataAndRoutes(reader, 0, Integer.MAX_VALUE, handler);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new JAXBException("Parse error from " + in + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Counts the routes of a GPX 1.1 document without building objects for them.
+     *
+     * @param in       the stream to read the document from
+     * @param encoding the encoding of the stream or null to detect it from the document
+     * @return the number of routes of the document
+     * @throws JAXBException if the document cannot be parsed
+     */
+    public static int countRoutes11(InputStream in, String encoding) throws JAXBException {
+        try {
+            XMLStreamReader reader = createXMLStreamReader(in, encoding);
+            try {
+                int depth = 0, count = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamReader.START_ELEMENT) {
+                        depth++;
+                        if (depth == 1 && !GPX_11_ELEMENT.equals(reader.getName()))
+                            throw new JAXBException("Unexpected element " + reader.getName());
+                        if (depth == 2 && RTE_11_ELEMENT.equals(reader.getName()))
+                            count++;
+                    } else if (event == XMLStreamReader.END_ELEMENT)
+                        depth--;
+                }
+                return count;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new JAXBException("Parse error from " + in + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static XMLStreamReader createXMLStreamReader(InputStream in, String encoding) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        return encoding != null ? factory.createXMLStreamReader(in, encoding) : factory.createXMLStreamReader(in);
+    }
+
+    private static void readGpxElement(XMLStreamReader reader, GpxType gpxType) throws JAXBException, XMLStreamException {
+        while (reader.getEventType() != XMLStreamReader.START_ELEMENT) {
+            if (!reader.hasNext())
+                throw new JAXBException("No gpx element found");
+            reader.next();
+        }
+        if (!GPX_11_ELEMENT.equals(reader.getName()))
+            throw new JAXBException("Unexpected element " + reader.getName());
+        if (gpxType != null) {
+            gpxType.setCreator(reader.getAttributeValue(null, "creator"));
+            gpxType.setVersion(reader.getAttributeValue(null, "version"));
+        }
+    }
+
+    private static void read11MetadataAndRoutes(XMLStreamReader reader, int offset, int limit,
+                                                MetadataAndRoutesHandler handler) throws JAXBException, XMLStreamException {
+        Unmarshaller unmarshaller = newUnmarshaller11();
+        int routeIndex = 0;
+        // the reader is on the start of the gpx element
+        int event = reader.next();
+        while (true) {
+            if (event == XMLStreamReader.START_ELEMENT) {
+                QName name = reader.getName();
+                if (METADATA_11_ELEMENT.equals(name)) {
+                    handler.metadata(unmarshaller.unmarshal(reader, MetadataType.class).getValue());
+                    // the unmarshaller leaves the reader on the event after the end of the element
+                    event = reader.getEventType();
+                    continue;
+                } else if (RTE_11_ELEMENT.equals(name)) {
+                    // the metadata precedes the routes, so there is nothing left to read after the window
+                    if (routeIndex - offset >= limit)
+                        break;
+                    if (routeIndex++ >= offset) {
+                        handler.route(unmarshaller.unmarshal(reader, RteType.class).getValue());
+                        event = reader.getEventType();
+                        continue;
+                    }
+                    skipElement(reader);
+                } else
+                    skipElement(reader);
+            }
+            if (!reader.hasNext())
+                break;
+            event = reader.next();
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamReader.END_ELEMENT)
+                depth--;
+        }
+    }
+
     public static void marshal11(GpxType gpxType, Writer writer) throws JAXBException {
         newMarshaller11().marshal(new JAXBElement<GpxType>(new QName(GPX_11_NAMESPACE_URI, "gpx"), GpxType.class, gpxType), writer);
     }
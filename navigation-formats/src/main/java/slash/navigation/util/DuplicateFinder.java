@@ -0,0 +1,254 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.util;
+
+import slash.common.io.Range;
+import slash.navigation.base.BaseNavigationPosition;
+
+import java.util.*;
+
+/**
+ * Finds exact and near duplicate {@link BaseNavigationPosition}s.
+ * <p/>
+ * The positions are hashed into a quantized grid with cells at least as large as the distance
+ * so that each position is only compared with the positions of the neighbouring cells. This takes
+ * O(n) expected time instead of comparing each position with each other position. If a time window
+ * is given, the grid has a third dimension for the time and only positions with times within the
+ * window are duplicates, which is what is wanted for tracks that pass the same place twice.
+ * Positions without a time are compared by their coordinates only, then.
+ * <p/>
+ * The finder keeps the positions it has seen, so adding the positions of several routes one after
+ * another finds the duplicates across all of them.
+ *
+ * @author Christian Pesch
+ */
+
+public class DuplicateFinder {
+    public static final long NO_TIME_WINDOW = -1;
+
+    private static final double METERS_PER_DEGREE = 2 * Math.PI * Bearing.EARTH_RADIUS / 360.0;
+    private static final double MINIMUM_CELL_SIZE = 0.01; // m
+    private static final double CELL_SIZE_SAFETY_FACTOR = 1.01;
+    private static final double MINIMUM_COSINE = 0.001;
+
+    private final double distance;
+    private final long timeWindow;
+    private final double latitudeCellSize;
+    private final Map<Cell, List<Entry>> cells = new HashMap<Cell, List<Entry>>();
+    // only used with a time window: the positions without a time and all positions regardless of their time
+    private final Map<Cell, List<Entry>> untimedCells = new HashMap<Cell, List<Entry>>();
+    private final Map<Cell, List<Entry>> spatialCells = new HashMap<Cell, List<Entry>>();
+    private int count = 0;
+
+    /**
+     * @param distance   the maximum distance in meters for two positions to be duplicates, 0.0 for exact duplicates
+     * @param timeWindow the maximum difference of the times in milliseconds for two positions to be duplicates
+     *                   or {@link #NO_TIME_WINDOW} to ignore the time
+     */
+    public DuplicateFinder(double distance, long timeWindow) {
+        if (distance < 0.0)
+            throw new IllegalArgumentException("Distance " + distance + " is negative");
+        this.distance = distance;
+        this.timeWindow = timeWindow;
+        this.latitudeCellSize = Math.max(distance, MINIMUM_CELL_SIZE) * CELL_SIZE_SAFETY_FACTOR / METERS_PER_DEGREE;
+    }
+
+    public DuplicateFinder(double distance) {
+        this(distance, NO_TIME_WINDOW);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    private boolean isTimeAware() {
+        return timeWindow != NO_TIME_WINDOW;
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / latitudeCellSize);
+    }
+
+    private double longitudeCellSize(int row) {
+        // use the latitude of the poleward edge of the next row since the cells of
+        // a row are narrowest there and the neighbours of a row are queried, too
+        double poleward = Math.min(Math.max(Math.abs(row - 1), Math.abs(row + 2)) * latitudeCellSize, 90.0);
+        double cosine = Math.max(Math.cos(Math.toRadians(poleward)), MINIMUM_COSINE);
+        return latitudeCellSize / cosine;
+    }
+
+    private int column(double longitude, int row) {
+        return (int) Math.floor(longitude / longitudeCellSize(row));
+    }
+
+    private long slot(long time) {
+        return timeWindow > 0 ? time / timeWindow : time;
+    }
+
+    private boolean isDuplicate(Entry entry, BaseNavigationPosition position, Long time) {
+        if (time != null && entry.time != null && Math.abs(entry.time - time) > timeWindow)
+            return false;
+        // avoid the expensive bearing calculation for positions of a neighbour cell that are too far north or south
+        if (Math.abs(entry.position.getLatitude() - position.getLatitude()) > latitudeCellSize)
+            return false;
+        Double between = entry.position.calculateDistance(position);
+        return between != null && between <= distance;
+    }
+
+    private Entry find(Map<Cell, List<Entry>> cells, BaseNavigationPosition position, int row, Long time, Entry result) {
+        long slot = cells == this.cells && time != null ? slot(time) : 0;
+        long slotCount = cells == this.cells && time != null ? 1 : 0;
+        for (int r = row - 1; r <= row + 1; r++) {
+            int column = column(position.getLongitude(), r);
+            for (int c = column - 1; c <= column + 1; c++) {
+                for (long s = slot - slotCount; s <= slot + slotCount; s++) {
+                    List<Entry> entries = cells.get(new Cell(r, c, s));
+                    if (entries == null)
+                        continue;
+                    for (Entry entry : entries) {
+                        // entries are in insertion order, so the first hit is the earliest in this cell
+                        if (result != null && entry.index > result.index)
+                            break;
+                        if (isDuplicate(entry, position, time)) {
+                            result = entry;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the given position to the finder.
+     *
+     * @param position the position to add
+     * @return the index of the earliest added position that the given position duplicates or -1
+     *         if there is none or the position has no coordinates
+     */
+    public int add(BaseNavigationPosition position) {
+        int index = count++;
+        if (!position.hasCoordinates())
+            return -1;
+
+        Long time = isTimeAware() && position.getTime() != null ? position.getTime().getTimeInMillis() : null;
+        int row = row(position.getLatitude());
+        int column = column(position.getLongitude(), row);
+        Entry entry = new Entry(index, position, time);
+
+        Entry original;
+        if (!isTimeAware()) {
+            original = find(cells, position, row, null, null);
+            put(cells, new Cell(row, column, 0), entry);
+        } else if (time != null) {
+            original = find(cells, position, row, time, null);
+            original = find(untimedCells, position, row, time, original);
+            put(cells, new Cell(row, column, slot(time)), entry);
+            put(spatialCells, new Cell(row, column, 0), entry);
+        } else {
+            original = find(spatialCells, position, row, null, null);
+            put(untimedCells, new Cell(row, column, 0), entry);
+            put(spatialCells, new Cell(row, column, 0), entry);
+        }
+        return original != null ? original.index : -1;
+    }
+
+    private static void put(Map<Cell, List<Entry>> cells, Cell cell, Entry entry) {
+        List<Entry> entries = cells.get(cell);
+        if (entries == null) {
+            entries = new ArrayList<Entry>(1);
+            cells.put(cell, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Adds the given positions to the finder.
+     *
+     * @param positions the positions to add
+     * @return for each position the index of the earliest added position that it duplicates or -1
+     * @see #add(BaseNavigationPosition)
+     */
+    public int[] add(List<? extends BaseNavigationPosition> positions) {
+        int[] result = new int[positions.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = add(positions.get(i));
+        return result;
+    }
+
+    /**
+     * Search the positions that duplicate an earlier position of the list.
+     *
+     * @param positions  the original list of positions
+     * @param distance   the maximum distance in meters for two positions to be duplicates
+     * @param timeWindow the maximum difference of the times in milliseconds or {@link #NO_TIME_WINDOW}
+     * @return an array of indices to the original list of positions with the duplicate positions
+     */
+    public static int[] getDuplicatePositions(List<? extends BaseNavigationPosition> positions, double distance, long timeWindow) {
+        int[] originals = new DuplicateFinder(distance, timeWindow).add(positions);
+        List<Integer> result = new ArrayList<Integer>();
+        for (int i = 0; i < originals.length; i++) {
+            if (originals[i] != -1)
+                result.add(i);
+        }
+        return Range.toArray(result);
+    }
+
+    private static class Cell {
+        private final int row;
+        private final int column;
+        private final long slot;
+
+        Cell(int row, int column, long slot) {
+            this.row = row;
+            this.column = column;
+            this.slot = slot;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Cell cell = (Cell) o;
+            return row == cell.row && column == cell.column && slot == cell.slot;
+        }
+
+        public int hashCode() {
+            int result = row;
+            result = 31 * result + column;
+            result = 31 * result + (int) (slot ^ (slot >>> 32));
+            return result;
+        }
+    }
+
+    private static class Entry {
+        private final int index;
+        private final BaseNavigationPosition position;
+        private final Long time;
+
+        Entry(int index, BaseNavigationPosition position, Long time) {
+            this.index = index;
+            this.position = position;
+            this.time = time;
+        }
+    }
+}
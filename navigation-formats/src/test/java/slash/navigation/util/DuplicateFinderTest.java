@@ -0,0 +1,119 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.util;
+
+import org.junit.Test;
+import slash.common.io.CompactCalendar;
+import slash.navigation.base.Wgs84Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static slash.navigation.util.DuplicateFinder.NO_TIME_WINDOW;
+
+public class DuplicateFinderTest {
+    private Wgs84Position position(double longitude, double latitude) {
+        return new Wgs84Position(longitude, latitude, null, null, null, null);
+    }
+
+    private Wgs84Position position(double longitude, double latitude, long millis) {
+        return new Wgs84Position(longitude, latitude, null, null, CompactCalendar.fromMillis(millis), null);
+    }
+
+    private int[] bruteForce(List<Wgs84Position> positions, double distance) {
+        int[] result = new int[positions.size()];
+        for (int i = 0; i < positions.size(); i++) {
+            result[i] = -1;
+            for (int j = 0; j < i; j++) {
+                Double between = positions.get(j).calculateDistance(positions.get(i));
+                if (between != null && between <= distance) {
+                    result[i] = j;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testExactDuplicates() {
+        List<Wgs84Position> positions = Arrays.asList(position(10.0, 53.0), position(10.1, 53.1),
+                position(10.0, 53.0), position(10.2, 53.2), position(10.1, 53.1), position(10.0, 53.0));
+        assertArrayEquals(new int[]{-1, -1, 0, -1, 1, 0}, new DuplicateFinder(0.0).add(positions));
+        assertArrayEquals(new int[]{2, 4, 5}, DuplicateFinder.getDuplicatePositions(positions, 0.0, NO_TIME_WINDOW));
+    }
+
+    @Test
+    public void testDuplicatesWithinDistance() {
+        List<Wgs84Position> positions = Arrays.asList(position(10.0, 53.0), position(10.0001, 53.0),
+                position(10.001, 53.0), position(10.0, 53.0001));
+        assertArrayEquals(new int[]{-1, 0, -1, 0}, new DuplicateFinder(15.0).add(positions));
+    }
+
+    @Test
+    public void testPositionsWithoutCoordinatesAreNoDuplicates() {
+        List<Wgs84Position> positions = Arrays.asList(position(10.0, 53.0), new Wgs84Position(null, null, null, null, null, null),
+                new Wgs84Position(null, null, null, null, null, null), position(10.0, 53.0));
+        assertArrayEquals(new int[]{-1, -1, -1, 0}, new DuplicateFinder(0.0).add(positions));
+    }
+
+    @Test
+    public void testDuplicatesAcrossLists() {
+        DuplicateFinder finder = new DuplicateFinder(1.0);
+        assertArrayEquals(new int[]{-1, -1}, finder.add(Arrays.asList(position(10.0, 53.0), position(11.0, 54.0))));
+        assertArrayEquals(new int[]{-1, 1, 0}, finder.add(Arrays.asList(position(12.0, 55.0), position(11.0, 54.0), position(10.0, 53.0))));
+        assertEquals(5, finder.getCount());
+    }
+
+    @Test
+    public void testTimeAwareDuplicates() {
+        List<Wgs84Position> positions = Arrays.asList(position(10.0, 53.0, 0), position(10.0, 53.0, 500),
+                position(10.0, 53.0, 60000), position(10.0, 53.0, 60999), position(10.0, 53.0, 62000),
+                position(10.0, 53.0));
+        assertArrayEquals(new int[]{-1, 0, -1, 2, -1, 0}, new DuplicateFinder(0.0, 1000).add(positions));
+        assertArrayEquals(new int[]{-1, 0, 0, 0, 0, 0}, new DuplicateFinder(0.0).add(positions));
+    }
+
+    @Test
+    public void testTimeAwareDuplicatesWithoutTimes() {
+        List<Wgs84Position> positions = Arrays.asList(position(10.0, 53.0), position(10.1, 53.1),
+                position(10.0, 53.0), position(10.1, 53.1, 0), position(10.0, 53.0, 60000), position(10.1, 53.1));
+        assertArrayEquals(new int[]{-1, -1, 0, 1, 0, 1}, new DuplicateFinder(0.0, 1000).add(positions));
+        assertArrayEquals(new int[]{2, 3, 4, 5}, DuplicateFinder.getDuplicatePositions(positions, 0.0, 1000));
+    }
+
+    @Test
+    public void testSameResultAsBruteForce() {
+        Random random = new Random(42);
+        for (double latitude : new double[]{-89.9, -60.0, 0.0, 45.0, 70.0, 89.99}) {
+            List<Wgs84Position> positions = new ArrayList<Wgs84Position>();
+            for (int i = 0; i < 500; i++)
+                positions.add(position(random.nextDouble() * 0.004, latitude + random.nextDouble() * 0.002));
+            for (double distance : new double[]{0.0, 5.0, 25.0}) {
+                assertArrayEquals(bruteForce(positions, distance), new DuplicateFinder(distance).add(positions));
+            }
+        }
+    }
+}
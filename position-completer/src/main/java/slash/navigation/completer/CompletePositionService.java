@@ -23,41 +23,162 @@ package slash.navigation.completer;
 import slash.navigation.earthtools.EarthToolsService;
 import slash.navigation.geonames.GeoNamesService;
 import slash.navigation.googlemaps.GoogleMapsService;
+import slash.navigation.hgt.Elevations;
 import slash.navigation.hgt.HgtFiles;
+import slash.navigation.hgt.PrefetchListener;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.SingleFlight;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
 
 /**
  * Helps to complete positions with elevation, postal address and populated place information.
+ * <p/>
+ * Concurrent identical online lookups are coalesced by a {@link SingleFlight}, which is
+ * shared by all instances. The online elevation sources are chosen by an
+ * {@link ElevationSourceSelector}, which skips failing sources and hedges slow ones.
  *
  * @author Christian Pesch
  */
 
 public class CompletePositionService {
-    private HgtFiles hgtFiles = new HgtFiles();
-    private GeoNamesService geoNamesService = new GeoNamesService();
-    private EarthToolsService earthToolsService = new EarthToolsService();
+    private static Logger log = Logger.getLogger(CompletePositionService.class.getName());
+    private static final SingleFlight<String, Integer> elevationCalls = new SingleFlight<String, Integer>();
+    private static final SingleFlight<String, String> commentCalls = new SingleFlight<String, String>();
+    private static final Preferences preferences = Preferences.userNodeForPackage(CompletePositionService.class);
+    private static final String HEDGE_PERCENTILE_PREFERENCE = "elevationHedgePercentile";
+    private static ElevationSourceSelector defaultOnlineElevationSources;
 
-    private GoogleMapsService googleMapsService = new GoogleMapsService();
-    private GeoNamesService geonamesService = new GeoNamesService();
+    private final HgtFiles hgtFiles;
+    private final ElevationSourceSelector onlineElevationSources;
+    private final GoogleMapsService googleMapsService;
+    private final GeoNamesService geonamesService;
+
+    public CompletePositionService(HgtFiles hgtFiles, ElevationSourceSelector onlineElevationSources,
+                                   GoogleMapsService googleMapsService, GeoNamesService geonamesService) {
+        this.hgtFiles = hgtFiles;
+        this.onlineElevationSources = onlineElevationSources;
+        this.googleMapsService = googleMapsService;
+        this.geonamesService = geonamesService;
+    }
+
+    public CompletePositionService() {
+        this(new HgtFiles(), getDefaultOnlineElevationSources(), new GoogleMapsService(), new GeoNamesService());
+    }
+
+    static ElevationSource createElevationSource(final GeoNamesService service) {
+        return new ElevationSource() {
+            public String getName() {
+                return "GeoNames";
+            }
+
+            public Integer getElevationFor(double longitude, double latitude) throws IOException {
+                return service.getElevationFor(longitude, latitude);
+            }
+
+            public boolean isCached(double longitude, double latitude) {
+                return service.isElevationCached(longitude, latitude);
+            }
+
+            public boolean isBacklogged() {
+                return service.isBacklogged();
+            }
+        };
+    }
+
+    static ElevationSource createElevationSource(final EarthToolsService service) {
+        return new ElevationSource() {
+            public String getName() {
+                return "EarthTools";
+            }
+
+            public Integer getElevationFor(double longitude, double latitude) throws IOException {
+                return service.getElevationFor(longitude, latitude);
+            }
+
+            public boolean isCached(double longitude, double latitude) {
+                return service.isCached(longitude, latitude);
+            }
+
+            public boolean isBacklogged() {
+                return service.isBacklogged();
+            }
+        };
+    }
+
+    private static synchronized ElevationSourceSelector getDefaultOnlineElevationSources() {
+        // shared by all instances so that the statistics of the sources outlive a batch of positions
+        if (defaultOnlineElevationSources == null) {
+            List<ElevationSource> sources = Arrays.asList(createElevationSource(new GeoNamesService()),
+                    createElevationSource(new EarthToolsService()));
+            defaultOnlineElevationSources = new ElevationSourceSelector(sources, preferences.getDouble(HEDGE_PERCENTILE_PREFERENCE, 0.9));
+        }
+        return defaultOnlineElevationSources;
+    }
+
+    public List<SourceMetrics> getOnlineElevationMetrics() {
+        return onlineElevationSources.getMetrics();
+    }
 
     public void dispose() {
         hgtFiles.dispose();
+        log.info("Online elevation sources: " + onlineElevationSources.getMetrics());
     }
 
     public Integer getElevationFor(double longitude, double latitude) throws IOException {
         Integer elevation = hgtFiles.getElevationFor(longitude, latitude);
         if (elevation == null)
-            elevation = geoNamesService.getElevationFor(longitude, latitude);
-        if (elevation == null)
-            elevation = earthToolsService.getElevationFor(longitude, latitude);
+            elevation = getOnlineElevationFor(longitude, latitude);
         return elevation;
     }
 
-    public String getCommentFor(double longitude, double latitude) throws IOException {
-        String comment = googleMapsService.getLocationFor(longitude, latitude);
-        if (comment == null)
-            comment = geonamesService.getNearByFor(longitude, latitude);
-        return comment;
+    /**
+     * Looks up the elevations of a batch of positions from the HGT files only.
+     *
+     * @param longitudes the longitudes of the positions
+     * @param latitudes  the latitudes of the positions
+     * @return for each position the elevation or null if the HGT files don't know it
+     */
+    public Integer[] getHgtElevationsFor(double[] longitudes, double[] latitudes) {
+        Elevations elevations = hgtFiles.getElevationsFor(longitudes, latitudes);
+        if (!elevations.getMissingTiles().isEmpty())
+            log.info("Missing HGT files " + elevations.getMissingTiles());
+        return elevations.getElevations();
+    }
+
+    /**
+     * Downloads the HGT files for a batch of positions in parallel.
+     *
+     * @param longitudes the longitudes of the positions
+     * @param latitudes  the latitudes of the positions
+     * @param listener   the listener for the progress or null
+     */
+    public void prefetchHgtFilesFor(double[] longitudes, double[] latitudes, PrefetchListener listener) {
+        List<String> missingTiles = hgtFiles.prefetch(hgtFiles.getTileKeysFor(longitudes, latitudes), listener);
+        if (!missingTiles.isEmpty())
+            log.info("Missing HGT files " + missingTiles);
+    }
+
+    public Integer getOnlineElevationFor(final double longitude, final double latitude) throws IOException {
+        return elevationCalls.execute(ResponseCache.createKey("completer", "elevation", longitude, latitude), new SingleFlight.Call<Integer>() {
+            public Integer call() throws IOException {
+                return onlineElevationSources.getElevationFor(longitude, latitude);
+            }
+        });
+    }
+
+    public String getCommentFor(final double longitude, final double latitude) throws IOException {
+        return commentCalls.execute(ResponseCache.createKey("completer", "comment", longitude, latitude), new SingleFlight.Call<String>() {
+            public String call() throws IOException {
+                String comment = googleMapsService.getLocationFor(longitude, latitude);
+                if (comment == null)
+                    comment = geonamesService.getNearByFor(longitude, latitude);
+                return comment;
+            }
+        });
     }
 }
@@ -0,0 +1,49 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.completer;
+
+import java.io.IOException;
+
+/**
+ * A source of elevation data for the {@link ElevationSourceSelector}.
+ *
+ * @author Christian Pesch
+ */
+
+public interface ElevationSource {
+    String getName();
+
+    /**
+     * @return the elevation or null if the source has no elevation for the position
+     * @throws IOException if the source failed
+     */
+    Integer getElevationFor(double longitude, double latitude) throws IOException;
+
+    /**
+     * @return true if the source answers the position from its cache without a request
+     */
+    boolean isCached(double longitude, double latitude);
+
+    /**
+     * @return true if a request to the source would have to wait for its rate limit
+     */
+    boolean isBacklogged();
+}
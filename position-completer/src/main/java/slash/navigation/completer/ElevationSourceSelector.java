@@ -0,0 +1,280 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.completer;
+
+import slash.navigation.rest.HttpRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects the {@link ElevationSource}s to ask for an elevation.
+ * <p/>
+ * The sources are asked in their order until one knows the elevation. A source that failed
+ * several times in a row is skipped for a while unless all sources are skipped. If hedging
+ * is enabled and a source takes longer than the given percentile of its recent latencies,
+ * the next source is asked in parallel unless its rate limit is exhausted. The first elevation
+ * wins and the HTTP requests of the sources that lost are aborted. The {@link SourceMetrics} of the sources
+ * report their latencies and errors; answers from the caches of the sources are not counted.
+ *
+ * @author Christian Pesch
+ */
+
+public class ElevationSourceSelector {
+    static final long MINIMUM_HEDGE_NANOS = 50 * 1000000L;
+    private static final int MAXIMUM_THREADS = 8;
+
+    private final List<ElevationSource> sources;
+    private final List<SourceMetrics> metrics = new ArrayList<SourceMetrics>();
+    private final double hedgePercentile;
+    private ExecutorService executor;
+
+    /**
+     * @param sources         the sources in the order of preference
+     * @param hedgePercentile the percentile of the latencies of a source after which the next
+     *                        source is asked in parallel or 0.0 to ask one source after another
+     */
+    public ElevationSourceSelector(List<ElevationSource> sources, double hedgePercentile) {
+        if (hedgePercentile < 0.0 || hedgePercentile > 1.0)
+            throw new IllegalArgumentException("Hedge percentile " + hedgePercentile + " is not between 0.0 and 1.0");
+        this.sources = new ArrayList<ElevationSource>(sources);
+        for (ElevationSource source : sources)
+            metrics.add(new SourceMetrics(source.getName()));
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public List<SourceMetrics> getMetrics() {
+        return metrics;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(MAXIMUM_THREADS, MAXIMUM_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ElevationSource-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            threadPool.allowCoreThreadTimeOut(true);
+            executor = threadPool;
+        }
+        return executor;
+    }
+
+    public synchronized void dispose() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private List<Integer> getCandidates() {
+        long now = currentTimeMillis();
+        List<Integer> result = new ArrayList<Integer>();
+        for (int i = 0; i < sources.size(); i++) {
+            if (metrics.get(i).isSkipped(now))
+                metrics.get(i).recordSkip();
+            else
+                result.add(i);
+        }
+        // better a failing source than none
+        if (result.isEmpty()) {
+            for (int i = 0; i < sources.size(); i++)
+                result.add(i);
+        }
+        return result;
+    }
+
+    private Integer call(int index, double longitude, double latitude) throws IOException {
+        ElevationSource source = sources.get(index);
+        // the latencies of cache hits would let the percentiles hedge too early
+        if (source.isCached(longitude, latitude))
+            return source.getElevationFor(longitude, latitude);
+
+        SourceMetrics sourceMetrics = metrics.get(index);
+        long start = System.nanoTime();
+        try {
+            Integer elevation = source.getElevationFor(longitude, latitude);
+            sourceMetrics.recordSuccess(System.nanoTime() - start, elevation == null);
+            return elevation;
+        } catch (IOException e) {
+            // a cancelled request is no failure of the source
+            if (!Thread.currentThread().isInterrupted())
+                sourceMetrics.recordFailure(System.nanoTime() - start, currentTimeMillis());
+            throw e;
+        } catch (RuntimeException e) {
+            sourceMetrics.recordFailure(System.nanoTime() - start, currentTimeMillis());
+            throw e;
+        }
+    }
+
+    /**
+     * Asks the sources for the elevation of the given position.
+     *
+     * @return the elevation of the first source that knows it or null if no source knows it
+     * @throws IOException if no source knows the elevation and at least one failed
+     */
+    public Integer getElevationFor(double longitude, double latitude) throws IOException {
+        List<Integer> candidates = getCandidates();
+        return hedgePercentile > 0.0 ? getHedgedElevationFor(candidates, longitude, latitude) :
+                getSequentialElevationFor(candidates, longitude, latitude);
+    }
+
+    private Integer getSequentialElevationFor(List<Integer> candidates, double longitude, double latitude) throws IOException {
+        IOException lastException = null;
+        for (Integer index : candidates) {
+            try {
+                Integer elevation = call(index, longitude, latitude);
+                if (elevation != null)
+                    return elevation;
+            } catch (IOException e) {
+                lastException = e;
+            }
+        }
+        if (lastException != null)
+            throw lastException;
+        return null;
+    }
+
+    private long getHedgeNanos(int index) {
+        Long percentile = metrics.get(index).getLatencyPercentile(hedgePercentile);
+        return percentile != null ? Math.max(percentile, MINIMUM_HEDGE_NANOS) : -1;
+    }
+
+    private boolean isHedgeable(List<Integer> candidates, int next) {
+        // a request that waits for the rate limit is not faster and delays the later requests
+        return next < candidates.size() && !sources.get(candidates.get(next)).isBacklogged();
+    }
+
+    private Integer getHedgedElevationFor(List<Integer> candidates, final double longitude, final double latitude) throws IOException {
+        CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(getExecutor());
+        List<Request> requests = new ArrayList<Request>();
+        IOException lastException = null;
+        int next = 0, pending = 0, lastStarted = -1;
+        try {
+            while (true) {
+                if (pending == 0) {
+                    if (next >= candidates.size())
+                        break;
+                    lastStarted = submit(completionService, requests, candidates.get(next++), longitude, latitude);
+                    pending++;
+                }
+
+                // wait for the pending requests as long as the latest source usually takes
+                long hedgeNanos = isHedgeable(candidates, next) ? getHedgeNanos(lastStarted) : -1;
+                Future<Integer> future = hedgeNanos < 0 ? completionService.take() :
+                        completionService.poll(hedgeNanos, TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    metrics.get(lastStarted).recordHedge();
+                    lastStarted = submit(completionService, requests, candidates.get(next++), longitude, latitude);
+                    pending++;
+                    continue;
+                }
+
+                pending--;
+                try {
+                    Integer elevation = future.get();
+                    if (elevation != null)
+                        return elevation;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof IOException)
+                        lastException = (IOException) cause;
+                    else
+                        lastException = new IOException("Cannot get elevation: " + cause.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for elevation");
+        } finally {
+            // the interrupt ends waiting for a permit of a rate limit, but the HttpClient
+            // ignores it while it reads from the socket, so the request has to be aborted, too
+            for (Request request : requests)
+                request.cancel();
+        }
+        if (lastException != null)
+            throw lastException;
+        return null;
+    }
+
+    private int submit(CompletionService<Integer> completionService, List<Request> requests,
+                       int index, double longitude, double latitude) {
+        Request request = new Request(index, longitude, latitude);
+        request.future = completionService.submit(request);
+        requests.add(request);
+        return index;
+    }
+
+    private class Request implements Callable<Integer> {
+        private final int index;
+        private final double longitude, latitude;
+        private Future<Integer> future;
+        private Thread thread;
+        private boolean cancelled = false;
+
+        private Request(int index, double longitude, double latitude) {
+            this.index = index;
+            this.longitude = longitude;
+            this.latitude = latitude;
+        }
+
+        public Integer call() throws Exception {
+            synchronized (this) {
+                if (cancelled)
+                    throw new InterruptedIOException("Cancelled request for elevation");
+                thread = Thread.currentThread();
+            }
+            try {
+                return ElevationSourceSelector.this.call(index, longitude, latitude);
+            } finally {
+                // the thread must not execute another task while it is aborted
+                synchronized (this) {
+                    thread = null;
+                }
+            }
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            future.cancel(true);
+            if (thread != null)
+                HttpRequest.abort(thread);
+        }
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + metrics;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.completer;
+
+import java.util.Arrays;
+
+/**
+ * Keeps latency and error statistics of an {@link ElevationSource}.
+ * <p/>
+ * A source that failed several times in a row is skipped for a while, which doubles
+ * with every further failure up to a maximum and ends with the next success.
+ * The latency percentiles are estimated from the most recent requests.
+ * The metrics are safe for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class SourceMetrics {
+    static final int FAILURE_THRESHOLD = 3;
+    static final long MINIMUM_SKIP_MILLIS = 30 * 1000;
+    static final long MAXIMUM_SKIP_MILLIS = 10 * 60 * 1000;
+    static final int MINIMUM_SAMPLES = 10;
+    private static final int SAMPLE_COUNT = 100;
+
+    private final String name;
+    private final long[] latencies = new long[SAMPLE_COUNT];
+    private int sampleCount = 0, nextSample = 0;
+    private long requestCount = 0, errorCount = 0, emptyCount = 0, skipCount = 0, hedgeCount = 0;
+    private long latencySum = 0;
+    private int consecutiveFailures = 0;
+    private long skipMillis = 0, skipUntil = 0;
+
+    public SourceMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void recordLatency(long nanos) {
+        requestCount++;
+        latencySum += nanos;
+        latencies[nextSample] = nanos;
+        nextSample = (nextSample + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+    }
+
+    synchronized void recordSuccess(long nanos, boolean empty) {
+        recordLatency(nanos);
+        if (empty)
+            emptyCount++;
+        consecutiveFailures = 0;
+        skipMillis = 0;
+        skipUntil = 0;
+    }
+
+    synchronized void recordFailure(long nanos, long currentTimeMillis) {
+        recordLatency(nanos);
+        errorCount++;
+        if (++consecutiveFailures >= FAILURE_THRESHOLD) {
+            skipMillis = skipMillis == 0 ? MINIMUM_SKIP_MILLIS : Math.min(skipMillis * 2, MAXIMUM_SKIP_MILLIS);
+            skipUntil = currentTimeMillis + skipMillis;
+        }
+    }
+
+    synchronized void recordSkip() {
+        skipCount++;
+    }
+
+    synchronized void recordHedge() {
+        hedgeCount++;
+    }
+
+    public synchronized boolean isSkipped(long currentTimeMillis) {
+        return currentTimeMillis < skipUntil;
+    }
+
+    /**
+     * @param percentile the percentile between 0.0 and 1.0
+     * @return the latency in nanoseconds below which the given percentile of the recent
+     *         requests completed or null if there are not enough requests yet
+     */
+    public synchronized Long getLatencyPercentile(double percentile) {
+        if (sampleCount < MINIMUM_SAMPLES)
+            return null;
+        long[] sorted = Arrays.copyOf(latencies, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sampleCount) - 1;
+        return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized long getEmptyCount() {
+        return emptyCount;
+    }
+
+    public synchronized long getSkipCount() {
+        return skipCount;
+    }
+
+    public synchronized long getHedgeCount() {
+        return hedgeCount;
+    }
+
+    public synchronized double getErrorRate() {
+        return requestCount > 0 ? (double) errorCount / requestCount : 0.0;
+    }
+
+    public synchronized double getMeanLatency() {
+        return requestCount > 0 ? (double) latencySum / requestCount : 0.0;
+    }
+
+    private static String toMillis(Long nanos) {
+        return nanos != null ? String.format("%.1f ms", nanos / 1000000.0) : "n/a";
+    }
+
+    public synchronized String toString() {
+        return name + "[requests=" + requestCount + ", errors=" + errorCount + ", empty=" + emptyCount +
+                ", skipped=" + skipCount + ", hedged=" + hedgeCount + ", mean=" + toMillis((long) getMeanLatency()) +
+                ", p50=" + toMillis(getLatencyPercentile(0.5)) + ", p90=" + toMillis(getLatencyPercentile(0.9)) + "]";
+    }
+}
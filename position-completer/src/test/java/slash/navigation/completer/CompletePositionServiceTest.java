@@ -0,0 +1,135 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.completer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import slash.common.io.NearByCache;
+import slash.navigation.earthtools.EarthToolsService;
+import slash.navigation.geonames.GeoNamesService;
+import slash.navigation.rest.ResponseCache;
+import slash.navigation.rest.TokenBucket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class CompletePositionServiceTest {
+    private HttpServer server;
+    private String url;
+    private final AtomicInteger geoNamesRequests = new AtomicInteger(), earthToolsRequests = new AtomicInteger();
+    private volatile boolean geoNamesFailing = false;
+    private volatile long geoNamesLatency = 0;
+    private ElevationSourceSelector selector;
+    private CompletePositionService service;
+
+    private void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = createConcurrentServer();
+        server.createContext("/geonames/srtm3", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                geoNamesRequests.incrementAndGet();
+                try {
+                    Thread.sleep(geoNamesLatency);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                // geonames.org answers with an error text if it is overloaded
+                send(exchange, geoNamesFailing ? "ERROR: the server is overloaded" : "100");
+            }
+        });
+        server.createContext("/earthtools/height", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                earthToolsRequests.incrementAndGet();
+                send(exchange, "<height><version>1.0</version><location><latitude>53.0</latitude><longitude>10.0</longitude></location>" +
+                        "<meters>12</meters><feet>39.4</feet></height>");
+            }
+        });
+        server.start();
+        url = getUrl(server);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        if (selector != null)
+            selector.dispose();
+    }
+
+    private void createService(double hedgePercentile) {
+        TokenBucket unlimited = new TokenBucket(Double.POSITIVE_INFINITY);
+        GeoNamesService geoNamesService = new GeoNamesService(url + "geonames/", new ResponseCache(null), new NearByCache<String>(0.0, 1), unlimited);
+        EarthToolsService earthToolsService = new EarthToolsService(url + "earthtools/", new ResponseCache(null), unlimited);
+        selector = new ElevationSourceSelector(Arrays.asList(CompletePositionService.createElevationSource(geoNamesService),
+                CompletePositionService.createElevationSource(earthToolsService)), hedgePercentile);
+        service = new CompletePositionService(null, selector, null, geoNamesService);
+    }
+
+    @Test
+    public void testSkipsFailingSource() throws IOException {
+        createService(0.0);
+        geoNamesFailing = true;
+        for (int i = 0; i < 10; i++)
+            assertEquals(12, service.getOnlineElevationFor(10.0 + i * 0.01, 53.0).intValue());
+        assertEquals(SourceMetrics.FAILURE_THRESHOLD, geoNamesRequests.get());
+        assertEquals(10, earthToolsRequests.get());
+
+        SourceMetrics geoNames = service.getOnlineElevationMetrics().get(0);
+        assertEquals("GeoNames", geoNames.getName());
+        assertEquals(SourceMetrics.FAILURE_THRESHOLD, geoNames.getErrorCount());
+        assertEquals(10 - SourceMetrics.FAILURE_THRESHOLD, geoNames.getSkipCount());
+        assertEquals(0, service.getOnlineElevationMetrics().get(1).getErrorCount());
+    }
+
+    @Test
+    public void testHedgesSlowSource() throws IOException {
+        createService(0.9);
+        for (int i = 0; i < SourceMetrics.MINIMUM_SAMPLES; i++)
+            assertEquals(100, service.getOnlineElevationFor(10.0 + i * 0.01, 53.0).intValue());
+        assertEquals(0, earthToolsRequests.get());
+
+        geoNamesLatency = 2000;
+        long start = System.nanoTime();
+        assertEquals(12, service.getOnlineElevationFor(11.0, 53.0).intValue());
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + millis + " ms", millis < 1000);
+        assertEquals(1, earthToolsRequests.get());
+        assertEquals(1, service.getOnlineElevationMetrics().get(0).getHedgeCount());
+    }
+}
@@ -0,0 +1,316 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.completer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Test;
+import slash.navigation.rest.Get;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class ElevationSourceSelectorTest {
+    private long now = 1000000;
+    private ElevationSourceSelector selector;
+
+    /**
+     * Stands in for a service with configurable latency, result and errors.
+     */
+    private static class FakeSource implements ElevationSource {
+        private final String name;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile long latency = 0;
+        private volatile Integer elevation;
+        private volatile boolean failing = false, cached = false, backlogged = false, cancelled = false;
+
+        FakeSource(String name, Integer elevation) {
+            this.name = name;
+            this.elevation = elevation;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Integer getElevationFor(double longitude, double latitude) throws IOException {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                cancelled = true;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+            if (failing)
+                throw new IOException(name + " failed");
+            return elevation;
+        }
+
+        public boolean isCached(double longitude, double latitude) {
+            return cached;
+        }
+
+        public boolean isBacklogged() {
+            return backlogged;
+        }
+    }
+
+    private ElevationSourceSelector createSelector(double hedgePercentile, ElevationSource... sources) {
+        selector = new ElevationSourceSelector(Arrays.asList(sources), hedgePercentile) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        return selector;
+    }
+
+    @After
+    public void tearDown() {
+        if (selector != null)
+            selector.dispose();
+    }
+
+    @Test
+    public void testAsksSourcesInOrder() throws IOException {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.0, first, second);
+        assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(0, second.requests.get());
+
+        first.elevation = null;
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(1, selector.getMetrics().get(0).getEmptyCount());
+
+        second.elevation = null;
+        assertNull(selector.getElevationFor(10.0, 53.0));
+    }
+
+    @Test
+    public void testFallsBackOnErrors() throws IOException {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.0, first, second);
+        first.failing = true;
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+
+        second.failing = true;
+        try {
+            selector.getElevationFor(10.0, 53.0);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("second failed", e.getMessage());
+        }
+        assertEquals(2, selector.getMetrics().get(0).getErrorCount());
+        assertEquals(1.0, selector.getMetrics().get(0).getErrorRate(), 0.0001);
+        assertEquals(0.5, selector.getMetrics().get(1).getErrorRate(), 0.0001);
+    }
+
+    @Test
+    public void testSkipsFailingSource() throws IOException {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.0, first, second);
+        first.failing = true;
+        for (int i = 0; i < 10; i++)
+            assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(SourceMetrics.FAILURE_THRESHOLD, first.requests.get());
+        assertEquals(10 - SourceMetrics.FAILURE_THRESHOLD, selector.getMetrics().get(0).getSkipCount());
+
+        // the source is asked again after a while and skipped twice as long if it still fails
+        now += SourceMetrics.MINIMUM_SKIP_MILLIS;
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(SourceMetrics.FAILURE_THRESHOLD + 1, first.requests.get());
+        now += SourceMetrics.MINIMUM_SKIP_MILLIS;
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(SourceMetrics.FAILURE_THRESHOLD + 1, first.requests.get());
+
+        first.failing = false;
+        now += SourceMetrics.MINIMUM_SKIP_MILLIS;
+        assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertFalse(selector.getMetrics().get(0).isSkipped(now));
+    }
+
+    @Test
+    public void testAsksSkippedSourcesIfAllAreSkipped() throws IOException {
+        FakeSource first = new FakeSource("first", 1);
+        ElevationSourceSelector selector = createSelector(0.0, first);
+        first.failing = true;
+        for (int i = 0; i < 5; i++) {
+            try {
+                selector.getElevationFor(10.0, 53.0);
+                fail("IOException expected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(5, first.requests.get());
+        assertTrue(selector.getMetrics().get(0).isSkipped(now));
+    }
+
+    @Test
+    public void testHedgesSlowSource() throws IOException {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.9, first, second);
+        for (int i = 0; i < SourceMetrics.MINIMUM_SAMPLES; i++)
+            assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(0, second.requests.get());
+
+        first.latency = 2000;
+        long start = System.nanoTime();
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + millis + " ms", millis < 1000);
+        assertEquals(1, second.requests.get());
+        assertEquals(1, selector.getMetrics().get(0).getHedgeCount());
+    }
+
+    @Test
+    public void testCancelsLosingRequest() throws Exception {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.9, first, second);
+        for (int i = 0; i < SourceMetrics.MINIMUM_SAMPLES; i++)
+            selector.getElevationFor(10.0, 53.0);
+
+        first.latency = 2000;
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+        for (int i = 0; i < 100 && !first.cancelled; i++)
+            Thread.sleep(10);
+        assertTrue(first.cancelled);
+        assertEquals(0, selector.getMetrics().get(0).getErrorCount());
+    }
+
+    @Test
+    public void testAbortsLosingHttpRequest() throws Exception {
+        final AtomicBoolean hanging = new AtomicBoolean(false);
+        final CountDownLatch released = new CountDownLatch(1);
+        HttpServer server = createConcurrentServer();
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (hanging.get()) {
+                    try {
+                        released.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                byte[] body = "1".getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            final String url = getUrl(server);
+            final AtomicBoolean aborted = new AtomicBoolean(false);
+            FakeSource first = new FakeSource("first", null) {
+                public Integer getElevationFor(double longitude, double latitude) throws IOException {
+                    try {
+                        return Integer.parseInt(new Get(url).execute());
+                    } catch (InterruptedIOException e) {
+                        aborted.set(true);
+                        throw e;
+                    }
+                }
+            }, second = new FakeSource("second", 2);
+            ElevationSourceSelector selector = createSelector(0.9, first, second);
+            for (int i = 0; i < SourceMetrics.MINIMUM_SAMPLES; i++)
+                assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+
+            hanging.set(true);
+            assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+            for (int i = 0; i < 200 && !aborted.get(); i++)
+                Thread.sleep(10);
+            assertTrue(aborted.get());
+            assertEquals(0, selector.getMetrics().get(0).getErrorCount());
+        } finally {
+            released.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testDoesNotHedgeIntoBackloggedSource() throws IOException {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.9, first, second);
+        for (int i = 0; i < SourceMetrics.MINIMUM_SAMPLES; i++)
+            selector.getElevationFor(10.0, 53.0);
+
+        first.latency = 300;
+        second.backlogged = true;
+        assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(0, second.requests.get());
+        assertEquals(0, selector.getMetrics().get(0).getHedgeCount());
+
+        // but it is asked if the other sources don't know the elevation
+        first.elevation = null;
+        assertEquals(2, selector.getElevationFor(10.0, 53.0).intValue());
+    }
+
+    @Test
+    public void testDoesNotRecordCachedElevations() throws IOException {
+        FakeSource first = new FakeSource("first", 1);
+        ElevationSourceSelector selector = createSelector(0.9, first);
+        first.cached = true;
+        for (int i = 0; i < SourceMetrics.MINIMUM_SAMPLES; i++)
+            assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(0, selector.getMetrics().get(0).getRequestCount());
+        assertNull(selector.getMetrics().get(0).getLatencyPercentile(0.5));
+
+        first.cached = false;
+        selector.getElevationFor(10.0, 53.0);
+        assertEquals(1, selector.getMetrics().get(0).getRequestCount());
+    }
+
+    @Test
+    public void testDoesNotHedgeWithoutStatistics() throws IOException {
+        FakeSource first = new FakeSource("first", 1), second = new FakeSource("second", 2);
+        ElevationSourceSelector selector = createSelector(0.9, first, second);
+        first.latency = 200;
+        assertEquals(1, selector.getElevationFor(10.0, 53.0).intValue());
+        assertEquals(0, second.requests.get());
+    }
+
+    @Test
+    public void testLatencyPercentile() {
+        SourceMetrics metrics = new SourceMetrics("test");
+        assertNull(metrics.getLatencyPercentile(0.5));
+        for (int i = 1; i <= 100; i++)
+            metrics.recordSuccess(i * 1000000L, false);
+        assertEquals(50000000L, metrics.getLatencyPercentile(0.5).longValue());
+        assertEquals(90000000L, metrics.getLatencyPercentile(0.9).longValue());
+        assertEquals(100000000L, metrics.getLatencyPercentile(1.0).longValue());
+        assertEquals(50500000.0, metrics.getMeanLatency(), 0.1);
+    }
+}
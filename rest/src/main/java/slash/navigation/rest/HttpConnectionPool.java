@@ -0,0 +1,189 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+import java.io.IOException;
+
+/**
+ * Holds the {@link HttpClient} that all {@link HttpRequest}s share.
+ * <p/>
+ * The connections are pooled and kept alive, so that subsequent requests to the same
+ * host reuse them instead of paying for a new TCP handshake. The number of connections
+ * per host and in total is limited. Connections that have not been used for a while are
+ * closed before the server is likely to drop them, and only requests without side effects
+ * are retried if a connection turns out to be closed nevertheless. Since the requests with
+ * side effects are not retried, their connections are checked before they are sent.
+ *
+ * @author Christian Pesch
+ */
+
+public class HttpConnectionPool {
+    public static final int DEFAULT_MAXIMUM_CONNECTIONS_PER_HOST = 4;
+    public static final int DEFAULT_MAXIMUM_CONNECTIONS = 20;
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 15 * 1000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60 * 1000;
+    // below the keep alive timeout of common servers
+    private static final long IDLE_TIMEOUT = 4 * 1000;
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+    private static final long CONNECTION_MANAGER_TIMEOUT = 60 * 1000;
+    private static final String STALE_CHECKING = "slash.navigation.rest.stale-checking";
+
+    private static MultiThreadedHttpConnectionManager connectionManager;
+    private static HttpClient client;
+    private static IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+
+    private static synchronized MultiThreadedHttpConnectionManager getConnectionManager() {
+        if (connectionManager == null) {
+            connectionManager = new StaleCheckingConnectionManager();
+            HttpConnectionManagerParams params = connectionManager.getParams();
+            params.setDefaultMaxConnectionsPerHost(DEFAULT_MAXIMUM_CONNECTIONS_PER_HOST);
+            params.setMaxTotalConnections(DEFAULT_MAXIMUM_CONNECTIONS);
+            params.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
+            params.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
+            // checking every connection costs up to a millisecond per request, instead a request
+            // without side effects on a connection that the server has closed meanwhile is retried
+            params.setStaleCheckingEnabled(false);
+            params.setTcpNoDelay(true);
+
+            idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+            idleConnectionTimeoutThread.setName("HttpConnectionPoolIdleCloser");
+            idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+            idleConnectionTimeoutThread.setConnectionTimeout(IDLE_TIMEOUT);
+            idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CHECK_INTERVAL);
+            idleConnectionTimeoutThread.start();
+        }
+        return connectionManager;
+    }
+
+    static synchronized HttpClient getClient() {
+        if (client == null) {
+            client = new HttpClient(getConnectionManager());
+            client.getParams().setParameter("http.method.retry-handler", new IdempotentMethodRetryHandler());
+            client.getParams().setParameter("http.useragent", "RouteConverter Web Client/0.2");
+            // fail instead of waiting forever if all connections to a host are in use
+            client.getParams().setConnectionManagerTimeout(CONNECTION_MANAGER_TIMEOUT);
+        }
+        return client;
+    }
+
+    /**
+     * Creates a {@link HttpClient} that uses the pooled connections and whose parameters
+     * default to the ones of the shared client but may be changed for a single request.
+     */
+    static HttpClient createClient() {
+        return new HttpClient(new HttpClientParams(getClient().getParams()), getConnectionManager());
+    }
+
+    static boolean isIdempotent(HttpMethod method) {
+        return method instanceof GetMethod || method instanceof HeadMethod;
+    }
+
+    /**
+     * Returns the host configuration to execute the given method with, which lets the
+     * connection be checked for staleness if the method has side effects.
+     */
+    static HostConfiguration getHostConfiguration(HttpMethod method) {
+        if (isIdempotent(method))
+            return null;
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.getParams().setBooleanParameter(STALE_CHECKING, true);
+        return hostConfiguration;
+    }
+
+    public static void setMaximumConnectionsPerHost(int maximumConnectionsPerHost) {
+        getConnectionManager().getParams().setDefaultMaxConnectionsPerHost(maximumConnectionsPerHost);
+    }
+
+    public static void setMaximumConnections(int maximumConnections) {
+        getConnectionManager().getParams().setMaxTotalConnections(maximumConnections);
+    }
+
+    /**
+     * @param connectionTimeout the timeout in milliseconds until a connection is established
+     */
+    public static void setConnectionTimeout(int connectionTimeout) {
+        getConnectionManager().getParams().setConnectionTimeout(connectionTimeout);
+    }
+
+    /**
+     * @param socketTimeout the timeout in milliseconds while waiting for data
+     */
+    public static void setSocketTimeout(int socketTimeout) {
+        getConnectionManager().getParams().setSoTimeout(socketTimeout);
+    }
+
+    public static int getConnectionsInPool() {
+        return getConnectionManager().getConnectionsInPool();
+    }
+
+    /**
+     * Closes all connections; the next request opens a new pool.
+     */
+    public static synchronized void shutdown() {
+        if (connectionManager != null) {
+            idleConnectionTimeoutThread.shutdown();
+            idleConnectionTimeoutThread = null;
+            connectionManager.shutdown();
+            connectionManager = null;
+            client = null;
+        }
+    }
+
+    /**
+     * Enables the stale check of a pooled connection only for the requests whose
+     * {@link HostConfiguration} asks for it.
+     */
+    private static class StaleCheckingConnectionManager extends MultiThreadedHttpConnectionManager {
+        public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout) throws ConnectionPoolTimeoutException {
+            HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+            connection.getParams().setStaleCheckingEnabled(hostConfiguration.getParams().getBooleanParameter(STALE_CHECKING, false));
+            return connection;
+        }
+    }
+
+    /**
+     * Retries a request once if the connection failed before a response arrived, but
+     * only if the request has no side effects: a request with a body may already have
+     * been processed by the server.
+     */
+    private static class IdempotentMethodRetryHandler extends DefaultHttpMethodRetryHandler {
+        public IdempotentMethodRetryHandler() {
+            super(1, false);
+        }
+
+        public boolean retryMethod(HttpMethod method, IOException exception, int executionCount) {
+            return isIdempotent(method) && super.retryMethod(method, exception, executionCount);
+        }
+    }
+}
@@ -25,36 +25,46 @@ import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Wrapper for a simple HTTP Request.
+ * <p/>
+ * The requests share the pooled connections of the {@link HttpConnectionPool} and
+ * accept gzip encoded responses, which are decoded transparently. Since the socket reads of
+ * the HttpClient ignore interrupts, the request that a thread executes is aborted with
+ * {@link #abort(Thread)}.
  *
  * @author Christian Pesch
  */
 
 public abstract class HttpRequest {
     private static Logger log = Logger.getLogger(HttpRequest.class.getName());
+    private static final Map<Thread, HttpMethod> executingMethods = new HashMap<Thread, HttpMethod>();
 
-    private final HttpClient client;
+    private final HttpState state = new HttpState();
+    private HttpClient client;
     final HttpMethod method;
     private Integer statusCode;
 
     HttpRequest(HttpMethod method) {
         log = Logger.getLogger(getClass().getName());
-        this.client = new HttpClient();
-        client.getParams().setIntParameter("http.connection.timeout", 15 * 1000);
-        client.getParams().setIntParameter("http.socket.timeout", 60 * 1000);
-        client.getParams().setParameter("http.method.retry-handler", new DefaultHttpMethodRetryHandler(0, false));
-        client.getParams().setParameter("http.useragent", "RouteConverter Web Client/0.2");
         this.method = method;
+        method.setRequestHeader("Accept-Encoding", "gzip");
     }
 
     private void setAuthentication(String userName, String password, AuthScope authScope) {
-        client.getState().setCredentials(authScope, new UsernamePasswordCredentials(userName, password));
+        // the credentials and preemptive authentication are kept per request since the pooled client is shared
+        state.setCredentials(authScope, new UsernamePasswordCredentials(userName, password));
+        client = HttpConnectionPool.createClient();
         client.getParams().setAuthenticationPreemptive(true);
         method.setDoAuthentication(true);
     }
@@ -80,8 +90,44 @@ public abstract class HttpRequest {
         }
     }
 
+    public void setRequestHeader(String name, String value) {
+        method.setRequestHeader(name, value);
+    }
+
+    public String getResponseHeader(String name) {
+        Header header = method.getResponseHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
     protected void doExecute() throws IOException {
-        statusCode = client.executeMethod(method);
+        HttpClient client = this.client != null ? this.client : HttpConnectionPool.getClient();
+        statusCode = client.executeMethod(HttpConnectionPool.getHostConfiguration(method), method, state);
+    }
+
+    private boolean isGZipEncoded() {
+        Header header = method.getResponseHeader("Content-Encoding");
+        return header != null && "gzip".equalsIgnoreCase(header.getValue());
+    }
+
+    private InputStream getResponseBodyAsStream() throws IOException {
+        InputStream body = method.getResponseBodyAsStream();
+        return body != null && isGZipEncoded() ? new GZIPInputStream(body) : body;
+    }
+
+    private String getResponseBodyAsString() throws IOException {
+        InputStream body = getResponseBodyAsStream();
+        if (body == null)
+            return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = body.read(buffer)) != -1)
+                bytes.write(buffer, 0, read);
+        } finally {
+            body.close();
+        }
+        return new String(bytes.toByteArray(), ((HttpMethodBase) method).getResponseCharSet());
     }
 
     public String execute() throws IOException {
@@ -89,32 +135,97 @@ public abstract class HttpRequest {
     }
 
     public String execute(boolean logUnsuccessful) throws IOException {
+        setExecuting(true);
         try {
             doExecute();
             // no response body then
             if (isUnAuthorized())
                 return null;
-            String body = method.getResponseBodyAsString();
+            String body = getResponseBodyAsString();
             if (!isSuccessful() && logUnsuccessful)
                 log.warning(body);
             return body;
+        } catch (IOException e) {
+            throw wrapAborted(e);
         }
         finally {
+            setExecuting(false);
             release();
         }
     }
 
+    /**
+     * Executes the request and returns the response body, which has to be closed to return
+     * the connection to the {@link HttpConnectionPool}.
+     */
     public InputStream executeAsStream(boolean logUnsuccessful) throws IOException {
-        doExecute();
+        setExecuting(true);
+        try {
+            doExecute();
+        } catch (IOException e) {
+            throw wrapAborted(e);
+        } finally {
+            setExecuting(false);
+        }
         // no response body then
-        if (isUnAuthorized())
+        if (isUnAuthorized()) {
+            release();
             return null;
-        InputStream body = method.getResponseBodyAsStream();
+        }
+        InputStream body = getResponseBodyAsStream();
         if (!isSuccessful() && logUnsuccessful)
             log.warning("Cannot read response body");
         return body;
     }
 
+    /**
+     * Returns the charset that the Content-Type header of the response declares or null if
+     * there is none, which lets XML parsers detect the encoding from the document itself.
+     */
+    public String getContentCharSet() {
+        Header header = method.getResponseHeader("Content-Type");
+        if (header == null)
+            return null;
+        for (HeaderElement element : header.getElements()) {
+            NameValuePair charset = element.getParameterByName("charset");
+            if (charset != null && charset.getValue() != null)
+                return charset.getValue();
+        }
+        return null;
+    }
+
+    private void setExecuting(boolean executing) {
+        synchronized (executingMethods) {
+            if (executing)
+                executingMethods.put(Thread.currentThread(), method);
+            else
+                executingMethods.remove(Thread.currentThread());
+        }
+    }
+
+    private IOException wrapAborted(IOException e) {
+        if (!((HttpMethodBase) method).isAborted() || e instanceof InterruptedIOException)
+            return e;
+        InterruptedIOException interrupted = new InterruptedIOException("Aborted " + method.getName() + " request");
+        interrupted.initCause(e);
+        return interrupted;
+    }
+
+    /**
+     * Aborts the request that the given thread executes, which closes its connection, so that
+     * the thread fails with an {@link InterruptedIOException}. Does nothing if the thread
+     * doesn't execute a request. The body of {@link #executeAsStream(boolean)} is not aborted.
+     *
+     * @param thread the thread that executes a request
+     */
+    public static void abort(Thread thread) {
+        synchronized (executingMethods) {
+            HttpMethod method = executingMethods.get(thread);
+            if (method != null)
+                method.abort();
+        }
+    }
+
     void release() {
         method.releaseConnection();
     }
@@ -129,6 +240,10 @@ public abstract class HttpRequest {
         return getResult() >= HttpStatus.SC_OK && getResult() < HttpStatus.SC_MULTIPLE_CHOICES;
     }
 
+    public boolean isNotModified() throws IOException {
+        return getResult() == HttpStatus.SC_NOT_MODIFIED;
+    }
+
     public boolean isUnAuthorized() throws IOException {
         return getResult() == HttpStatus.SC_UNAUTHORIZED;
     }
@@ -20,6 +20,8 @@
 package slash.navigation.rest;
 
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.URI;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
@@ -28,17 +30,27 @@ import org.apache.commons.httpclient.methods.multipart.StringPart;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.logging.Logger;
 
 /**
  * Wrapper for a HTTP Multipart Request.
+ * <p/>
+ * Files and {@link Payload}s are streamed into the request while it is sent. The request
+ * body may be compressed with gzip; if a server rejects a compressed request as an unsupported
+ * media type, as a bad request or with an internal error, the request is repeated uncompressed.
+ * Once the uncompressed request succeeds, later requests to the server are not compressed.
  *
  * @author Christian Pesch
  */
 
 abstract class MultipartRequest extends HttpRequest {
+    private static Logger log = Logger.getLogger(MultipartRequest.class.getName());
+    private static final Set<String> uncompressedHosts = Collections.synchronizedSet(new HashSet<String>());
+
     private List<Part> parts = new ArrayList<Part>();
+    private boolean compressed = false;
+    private ProgressListener progressListener;
 
     MultipartRequest(HttpMethod method) {
         super(method);
@@ -52,9 +64,57 @@ abstract class MultipartRequest extends HttpRequest {
         parts.add(new FilePart(name, Helper.encodeUri(value.getName()), value, "application/octet-stream", "UTF-8"));
     }
 
+    public void addPayload(String name, String fileName, Payload value) {
+        parts.add(new PayloadPart(name, Helper.encodeUri(fileName), value));
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    private String getHost() throws IOException {
+        URI uri = method.getURI();
+        return uri.getHost() + ":" + uri.getPort();
+    }
+
+    private boolean isRejectedCompression(int result) {
+        return result == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE || result == HttpStatus.SC_BAD_REQUEST ||
+                result == HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private void setRequestEntity(boolean compress) {
+        MultipartRequestEntity entity = new MultipartRequestEntity(parts.toArray(new Part[parts.size()]), method.getParams());
+        // the content type carries the boundary of the entity and is added for a new entity only if it's missing
+        method.removeRequestHeader("Content-Type");
+        ((EntityEnclosingMethod) method).setRequestEntity(new StreamingRequestEntity(entity, compress, progressListener));
+        if (compress)
+            method.setRequestHeader("Content-Encoding", "gzip");
+        else
+            method.removeRequestHeader("Content-Encoding");
+    }
+
     protected void doExecute() throws IOException {
-        if (parts.size() > 0)
-            ((EntityEnclosingMethod) method).setRequestEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]), method.getParams()));
+        if (parts.size() == 0) {
+            super.doExecute();
+            return;
+        }
+
+        boolean compress = compressed && !uncompressedHosts.contains(getHost());
+        setRequestEntity(compress);
         super.doExecute();
+
+        int result = getResult();
+        if (compress && isRejectedCompression(result)) {
+            log.info("Server " + getHost() + " rejects compressed request with " + result + ", repeating uncompressed");
+            release();
+            setRequestEntity(false);
+            super.doExecute();
+            if (result == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE || isSuccessful())
+                uncompressedHosts.add(getHost());
+        }
     }
 }
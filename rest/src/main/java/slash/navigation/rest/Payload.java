@@ -0,0 +1,37 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a part of a {@link MultipartRequest} while the request is sent, so that the
+ * part doesn't have to be kept in memory or in a temporary file before.
+ * <p/>
+ * A payload is written again if the request has to be repeated.
+ *
+ * @author Christian Pesch
+ */
+
+public interface Payload {
+    void write(OutputStream out) throws IOException;
+}
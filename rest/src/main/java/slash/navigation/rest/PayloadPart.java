@@ -0,0 +1,73 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import org.apache.commons.httpclient.methods.multipart.PartBase;
+import org.apache.commons.httpclient.util.EncodingUtil;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A part of a {@link MultipartRequest} that is written by a {@link Payload} while the
+ * request is sent. Since its length is unknown in advance, the request is sent chunked.
+ *
+ * @author Christian Pesch
+ */
+
+class PayloadPart extends PartBase {
+    private static final byte[] FILE_NAME_BYTES = EncodingUtil.getAsciiBytes("; filename=");
+
+    private final String fileName;
+    private final Payload payload;
+
+    PayloadPart(String name, String fileName, Payload payload) {
+        super(name, "application/octet-stream", Helper.UTF8_ENCODING, "binary");
+        this.fileName = fileName;
+        this.payload = payload;
+    }
+
+    protected void sendDispositionHeader(OutputStream out) throws IOException {
+        super.sendDispositionHeader(out);
+        out.write(FILE_NAME_BYTES);
+        out.write(QUOTE_BYTES);
+        out.write(EncodingUtil.getAsciiBytes(fileName));
+        out.write(QUOTE_BYTES);
+    }
+
+    protected void sendData(OutputStream out) throws IOException {
+        // the request goes on after the part, even if the payload closes the stream
+        payload.write(new FilterOutputStream(out) {
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            public void close() throws IOException {
+                flush();
+            }
+        });
+    }
+
+    protected long lengthOfData() {
+        return -1;
+    }
+}
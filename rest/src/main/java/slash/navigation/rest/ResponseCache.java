@@ -0,0 +1,463 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import java.util.zip.CRC32;
+
+import static slash.navigation.rest.Helper.UTF8_ENCODING;
+
+/**
+ * Caches the responses of geocoding and elevation services persistently.
+ * <p/>
+ * The responses are kept in memory and appended to a log file with a checksum per record, so
+ * that a record which was cut off by a crash is detected and dropped when the file is read.
+ * If the log grows to more than twice the size of the cached responses, the responses are
+ * written to a temporary file which then replaces the log.
+ * <p/>
+ * Responses expire after a time to live and the least recently used responses are evicted if
+ * the number or the size of the responses exceeds the bounds of the cache. The cache is safe
+ * for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class ResponseCache {
+    private static Logger log = Logger.getLogger(ResponseCache.class.getName());
+    private static final Preferences preferences = Preferences.userNodeForPackage(ResponseCache.class);
+    private static final String RESPONSE_CACHE_FILE_PREFERENCE = "responseCacheFile";
+    private static final String RESPONSE_CACHE_TIME_TO_LIVE_PREFERENCE = "responseCacheTimeToLive";
+    private static final String RESPONSE_CACHE_MAXIMUM_COUNT_PREFERENCE = "responseCacheMaximumCount";
+    private static final String RESPONSE_CACHE_MAXIMUM_SIZE_PREFERENCE = "responseCacheMaximumSize";
+
+    public static final long DEFAULT_TIME_TO_LIVE = 30L * 24 * 60 * 60 * 1000;
+    public static final int DEFAULT_MAXIMUM_COUNT = 100000;
+    public static final long DEFAULT_MAXIMUM_SIZE = 64 * 1024 * 1024;
+    public static final double COORDINATE_PRECISION = 0.00001; // about a meter
+
+    private static final int MAGIC = 0x52434c31; // RCL1
+    private static final int HEADER_LENGTH = 4;
+    private static final int MINIMUM_PAYLOAD_LENGTH = 8 + 4 + 4;
+    private static final long MINIMUM_COMPACTION_LENGTH = 1024 * 1024;
+
+    private static ResponseCache defaultCache;
+
+    private final File file;
+    private final long timeToLive;
+    private final int maximumCount;
+    private final long maximumSize;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+    private boolean loaded = false;
+    private OutputStream journal;
+    private long journalLength = 0;
+    private long hitCount = 0, missCount = 0, expirationCount = 0, evictionCount = 0;
+
+    /**
+     * @param file         the file to persist the responses to or null to cache in memory only
+     * @param timeToLive   the time in milliseconds after which a response expires
+     * @param maximumCount the maximum number of responses
+     * @param maximumSize  the maximum size of the responses in bytes
+     */
+    public ResponseCache(File file, long timeToLive, int maximumCount, long maximumSize) {
+        if (maximumCount < 1)
+            throw new IllegalArgumentException("Maximum count " + maximumCount + " is less than 1");
+        this.file = file;
+        this.timeToLive = timeToLive;
+        this.maximumCount = maximumCount;
+        this.maximumSize = maximumSize;
+    }
+
+    public ResponseCache(File file) {
+        this(file, DEFAULT_TIME_TO_LIVE, DEFAULT_MAXIMUM_COUNT, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Returns the cache shared by the services, which is configured by preferences
+     * and persisted to <tt>.routeconverter/responses.cache</tt> in the home directory.
+     */
+    public static synchronized ResponseCache getDefault() {
+        if (defaultCache == null) {
+            String defaultFileName = new File(new File(System.getProperty("user.home"), ".routeconverter"), "responses.cache").getAbsolutePath();
+            defaultCache = new ResponseCache(new File(preferences.get(RESPONSE_CACHE_FILE_PREFERENCE, defaultFileName)),
+                    preferences.getLong(RESPONSE_CACHE_TIME_TO_LIVE_PREFERENCE, DEFAULT_TIME_TO_LIVE),
+                    preferences.getInt(RESPONSE_CACHE_MAXIMUM_COUNT_PREFERENCE, DEFAULT_MAXIMUM_COUNT),
+                    preferences.getLong(RESPONSE_CACHE_MAXIMUM_SIZE_PREFERENCE, DEFAULT_MAXIMUM_SIZE));
+        }
+        return defaultCache;
+    }
+
+    static long quantize(double coordinate) {
+        return Math.round(coordinate / COORDINATE_PRECISION);
+    }
+
+    /**
+     * Creates the key for a response of a service about a position. The coordinates are
+     * quantized to {@link #COORDINATE_PRECISION} degrees so that positions which are only
+     * apart by rounding errors share their response.
+     */
+    public static String createKey(String service, String operation, double longitude, double latitude) {
+        return service + "/" + operation + "/" + quantize(longitude) + "," + quantize(latitude);
+    }
+
+    public static String createKey(String service, String operation, String argument) {
+        return service + "/" + operation + "/" + argument;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.time >= timeToLive;
+    }
+
+    /**
+     * Returns the response for the given key and marks it as most recently used.
+     *
+     * @param key the key of the response
+     * @return the response or null if the response is not cached or expired
+     */
+    public synchronized String get(String key) {
+        load();
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry, currentTimeMillis())) {
+            remove(key);
+            expirationCount++;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Tells whether a response is cached without counting a hit or a miss.
+     *
+     * @param key the key of the response
+     * @return true if the response is cached and not expired
+     */
+    public synchronized boolean contains(String key) {
+        load();
+        Entry entry = entries.get(key);
+        return entry != null && !isExpired(entry, currentTimeMillis());
+    }
+
+    /**
+     * Caches the given response under the given key, evicts least recently used responses
+     * if the bounds of the cache are exceeded and appends the response to the file.
+     *
+     * @param key   the key of the response
+     * @param value the response
+     */
+    public synchronized void put(String key, String value) {
+        load();
+        Entry entry = new Entry(value, currentTimeMillis());
+        byte[] record;
+        try {
+            record = encode(key, entry);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        entry.size = record.length;
+        add(key, entry);
+        evict();
+
+        if (journal != null) {
+            try {
+                journal.write(record);
+                journalLength += record.length;
+            } catch (IOException e) {
+                log.warning("Cannot append to response cache " + file + ", caching in memory only: " + e.getMessage());
+                closeJournal();
+            }
+            if (journalLength > MINIMUM_COMPACTION_LENGTH && journalLength > 2 * (HEADER_LENGTH + size))
+                compact();
+        }
+    }
+
+    private void add(String key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        size += entry.size;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null)
+            size -= removed.size;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maximumCount || size > maximumSize) && entries.size() > 1) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.size;
+            evictionCount++;
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(String key, Entry entry) throws UnsupportedEncodingException {
+        byte[] keyBytes = key.getBytes(UTF8_ENCODING);
+        byte[] valueBytes = entry.value.getBytes(UTF8_ENCODING);
+        int payloadLength = MINIMUM_PAYLOAD_LENGTH + keyBytes.length + valueBytes.length;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + payloadLength + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(payloadLength);
+            out.writeLong(entry.time);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(valueBytes.length);
+            out.write(valueBytes);
+            out.writeInt(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        int checksum = checksum(record, 4, payloadLength);
+        for (int i = 0; i < 4; i++)
+            record[record.length - 4 + i] = (byte) (checksum >>> (24 - 8 * i));
+        return record;
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (file == null)
+            return;
+
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs())
+                throw new IOException("Cannot create directory " + directory);
+
+            long length = read();
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                if (length < randomAccessFile.length()) {
+                    log.warning("Dropping " + (randomAccessFile.length() - length) + " incomplete bytes of response cache " + file);
+                    randomAccessFile.setLength(length);
+                }
+                if (length == 0) {
+                    randomAccessFile.writeInt(MAGIC);
+                    length = HEADER_LENGTH;
+                }
+            } finally {
+                randomAccessFile.close();
+            }
+            journal = new FileOutputStream(file, true);
+            journalLength = length;
+            log.info("Loaded " + entries.size() + " responses from " + file);
+        } catch (IOException e) {
+            log.warning("Cannot open response cache " + file + ", caching in memory only: " + e.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     * Reads the records of the file until the end or the first incomplete or corrupt record.
+     *
+     * @return the length of the valid part of the file
+     */
+    private long read() throws IOException {
+        if (!file.exists() || file.length() == 0)
+            return 0;
+
+        long now = currentTimeMillis();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (file.length() < HEADER_LENGTH || in.readInt() != MAGIC) {
+                log.warning("Ignoring response cache " + file + " with unknown format");
+                return 0;
+            }
+
+            long length = HEADER_LENGTH;
+            long fileLength = file.length();
+            while (length + 4 <= fileLength) {
+                int payloadLength = in.readInt();
+                if (payloadLength < MINIMUM_PAYLOAD_LENGTH || length + 4 + payloadLength + 4 > fileLength)
+                    break;
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+                if (in.readInt() != checksum(payload, 0, payloadLength))
+                    break;
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                long time = record.readLong();
+                byte[] keyBytes = new byte[record.readInt()];
+                record.readFully(keyBytes);
+                byte[] valueBytes = new byte[record.readInt()];
+                record.readFully(valueBytes);
+
+                String key = new String(keyBytes, UTF8_ENCODING);
+                Entry entry = new Entry(new String(valueBytes, UTF8_ENCODING), time);
+                entry.size = 4 + payloadLength + 4;
+                if (isExpired(entry, now))
+                    remove(key);
+                else
+                    add(key, entry);
+                length += entry.size;
+            }
+            evict();
+            return length;
+        } catch (EOFException e) {
+            throw new IOException("Unexpected end of response cache " + file);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the cached responses in the order of their use to a temporary file and
+     * replaces the file with it, so that a crash leaves either the old or the new file.
+     */
+    private void compact() {
+        closeJournal();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            long length = HEADER_LENGTH;
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+                data.writeInt(MAGIC);
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    byte[] record = encode(entry.getKey(), entry.getValue());
+                    data.write(record);
+                    length += record.length;
+                }
+                data.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                // some platforms don't rename to an existing file
+                if (!file.delete() || !temp.renameTo(file))
+                    throw new IOException("Cannot move " + temp + " to " + file);
+            }
+            journal = new FileOutputStream(file, true);
+            journalLength = length;
+        } catch (IOException e) {
+            log.warning("Cannot compact response cache " + file + ", caching in memory only: " + e.getMessage());
+            if (temp.exists() && !temp.delete())
+                log.warning("Cannot delete " + temp);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null)
+            return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warning("Cannot close response cache " + file + ": " + e.getMessage());
+        }
+        journal = null;
+    }
+
+    /**
+     * Removes all responses from the cache and the file.
+     */
+    public synchronized void clear() {
+        load();
+        entries.clear();
+        size = 0;
+        if (journal != null)
+            compact();
+    }
+
+    /**
+     * Closes the file; the cache reopens it when it is used again.
+     */
+    public synchronized void close() {
+        closeJournal();
+        entries.clear();
+        size = 0;
+        loaded = false;
+    }
+
+    public synchronized int getCount() {
+        load();
+        return entries.size();
+    }
+
+    public synchronized long getSize() {
+        load();
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getExpirationCount() {
+        return expirationCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount > 0 ? (double) hitCount / requestCount : 0.0;
+    }
+
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[count=" + entries.size() + ", size=" + size +
+                ", hits=" + hitCount + ", misses=" + missCount + ", expirations=" + expirationCount +
+                ", evictions=" + evictionCount + "]";
+    }
+
+    private static class Entry {
+        private final String value;
+        private final long time;
+        private long size;
+
+        Entry(String value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent identical requests to a service.
+ * <p/>
+ * The first thread that executes a request for a key performs the call while the other
+ * threads that execute a request for the same key in the meantime wait for its result or
+ * exception. If the call of the first thread is interrupted or aborted, the waiting threads
+ * execute the request again. The result is not kept after the call completed; that's the
+ * job of the {@link ResponseCache}. The single flight is safe for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class SingleFlight<K, V> {
+    private final Map<K, FutureTask<V>> calls = new HashMap<K, FutureTask<V>>();
+    private long callCount = 0, sharedCount = 0;
+
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    /**
+     * Executes the given call unless a call for the given key is in flight
+     * and returns the result of the call in flight then.
+     *
+     * @param key  the key of the request
+     * @param call the call that performs the request
+     * @return the result of the call
+     * @throws IOException if the call failed
+     */
+    public V execute(K key, final Call<V> call) throws IOException {
+        FutureTask<V> task;
+        boolean owner = false;
+        synchronized (this) {
+            task = calls.get(key);
+            if (task == null) {
+                task = new FutureTask<V>(new Callable<V>() {
+                    public V call() throws Exception {
+                        return call.call();
+                    }
+                });
+                calls.put(key, task);
+                owner = true;
+                callCount++;
+            } else
+                sharedCount++;
+        }
+
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    calls.remove(key);
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // the call was cancelled for the thread that performed it, not for this one
+            if (!owner && cause instanceof InterruptedIOException && !Thread.currentThread().isInterrupted())
+                return execute(key, call);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            IOException io = new IOException("Cannot execute " + key + ": " + cause.getMessage());
+            io.setStackTrace(cause.getStackTrace());
+            throw io;
+        }
+    }
+
+    public synchronized int getInFlightCount() {
+        return calls.size();
+    }
+
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    public synchronized long getSharedCount() {
+        return sharedCount;
+    }
+
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[inFlight=" + calls.size() + ", calls=" + callCount + ", shared=" + sharedCount + "]";
+    }
+}
@@ -0,0 +1,105 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends a {@link RequestEntity}, optionally compressed with gzip, and reports
+ * the progress of sending it to a {@link ProgressListener}.
+ *
+ * @author Christian Pesch
+ */
+
+class StreamingRequestEntity implements RequestEntity {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long NOTIFICATION_INTERVAL = 64 * 1024;
+
+    private final RequestEntity delegate;
+    private final boolean compressed;
+    private final ProgressListener listener;
+
+    StreamingRequestEntity(RequestEntity delegate, boolean compressed, ProgressListener listener) {
+        this.delegate = delegate;
+        this.compressed = compressed;
+        this.listener = listener;
+    }
+
+    public boolean isRepeatable() {
+        return delegate.isRepeatable();
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = compressed ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        ProgressOutputStream progress = new ProgressOutputStream(gzip != null ? gzip : out, delegate.getContentLength());
+        delegate.writeRequest(progress);
+        // the connection is closed by the client, not by the entity
+        if (gzip != null)
+            gzip.finish();
+        progress.flush();
+        progress.notifyListener();
+    }
+
+    public long getContentLength() {
+        return compressed ? -1 : delegate.getContentLength();
+    }
+
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    private class ProgressOutputStream extends FilterOutputStream {
+        private final long total;
+        private long sent = 0, notified = 0;
+
+        ProgressOutputStream(OutputStream out, long total) {
+            super(out);
+            this.total = total;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            sent(1);
+        }
+
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            sent(length);
+        }
+
+        private void sent(int length) {
+            sent += length;
+            if (sent - notified >= NOTIFICATION_INTERVAL)
+                notifyListener();
+        }
+
+        void notifyListener() {
+            notified = sent;
+            if (listener != null)
+                listener.progress(sent, total);
+        }
+    }
+}
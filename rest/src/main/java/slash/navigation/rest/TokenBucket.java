@@ -0,0 +1,112 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the rate of requests to a service.
+ * <p/>
+ * The bucket holds up to a capacity of permits and is refilled with a number of permits
+ * per second. A request that finds the bucket empty reserves the next permit and waits
+ * until it is due, so that waiting requests are served in the order they arrived.
+ * The bucket is safe for concurrent use.
+ *
+ * @author Christian Pesch
+ */
+
+public class TokenBucket {
+    private final double permitsPerSecond;
+    private final double capacity;
+    private double permits;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond the number of requests per second or
+     *                         {@link Double#POSITIVE_INFINITY} for no limit
+     * @param capacity         the number of requests that may be sent at once
+     */
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        if (permitsPerSecond <= 0.0)
+            throw new IllegalArgumentException("Permits per second " + permitsPerSecond + " is not positive");
+        if (capacity < 1.0)
+            throw new IllegalArgumentException("Capacity " + capacity + " is less than 1");
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.permits = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public TokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, Math.max(1.0, Math.min(permitsPerSecond, 100.0)));
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(capacity, permits + (now - lastRefill) / 1000000000.0 * permitsPerSecond);
+        lastRefill = now;
+    }
+
+    private synchronized long reserve() {
+        if (Double.isInfinite(permitsPerSecond))
+            return 0;
+        refill();
+        permits -= 1.0;
+        return permits >= 0.0 ? 0 : (long) (-permits / permitsPerSecond * 1000000000.0);
+    }
+
+    private synchronized void unreserve() {
+        permits = Math.min(capacity, permits + 1.0);
+    }
+
+    /**
+     * @return true if a request would have to wait for a permit
+     */
+    public synchronized boolean isBacklogged() {
+        if (Double.isInfinite(permitsPerSecond))
+            return false;
+        refill();
+        return permits < 1.0;
+    }
+
+    /**
+     * Waits until a request may be sent.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while waiting, then
+     *                                the permit is returned to the bucket
+     */
+    public void acquire() throws InterruptedIOException {
+        long nanos = reserve();
+        if (nanos > 0) {
+            try {
+                Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+            } catch (InterruptedException e) {
+                unreserve();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a request permit");
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static slash.navigation.rest.LocalHttpServers.createServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+/**
+ * Compares the latency of sequential requests with a new {@link HttpClient} per request
+ * and with the pooled connections of the {@link HttpConnectionPool}.
+ */
+public class HttpRequestBenchmarkIT {
+    private static final int REQUESTS = 1000;
+
+    @Test
+    public void testSequentialRequests() throws IOException {
+        HttpServer server = createServer();
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "<geonames><srtm3>40</srtm3></geonames>".getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        String url = getUrl(server) + "srtm3";
+        try {
+            // warm up both variants
+            for (int i = 0; i < 100; i++) {
+                new HttpClient().executeMethod(new GetMethod(url));
+                new Get(url).execute();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                GetMethod method = new GetMethod(url);
+                try {
+                    assertEquals(200, new HttpClient().executeMethod(method));
+                    method.getResponseBodyAsString();
+                } finally {
+                    method.releaseConnection();
+                }
+            }
+            long newClientNanos = (System.nanoTime() - start) / REQUESTS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                Get get = new Get(url);
+                get.execute();
+                assertEquals(200, get.getResult());
+            }
+            long pooledNanos = (System.nanoTime() - start) / REQUESTS;
+
+            System.out.println(String.format("%d sequential requests: new client %.3f ms/request, pooled %.3f ms/request",
+                    REQUESTS, newClientNanos / 1000000.0, pooledNanos / 1000000.0));
+        } finally {
+            HttpConnectionPool.shutdown();
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class HttpRequestTest {
+    private HttpServer server;
+    private String url;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final List<String> acceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger concurrent = new AtomicInteger(), maximumConcurrent = new AtomicInteger();
+    private final CountDownLatch hanging = new CountDownLatch(1), released = new CountDownLatch(1);
+
+    private void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = createConcurrentServer();
+        server.createContext("/plain", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                acceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                send(exchange, "text/plain; charset=UTF-8", "Hall\u00f6chen".getBytes("UTF-8"));
+            }
+        });
+        server.createContext("/auth", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                send(exchange, "text/plain", "auth".getBytes());
+            }
+        });
+        server.createContext("/gzip", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                GZIPOutputStream out = new GZIPOutputStream(bytes);
+                out.write("compressed".getBytes("UTF-8"));
+                out.close();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                send(exchange, "text/plain; charset=UTF-8", bytes.toByteArray());
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                int current = concurrent.incrementAndGet();
+                synchronized (maximumConcurrent) {
+                    maximumConcurrent.set(Math.max(maximumConcurrent.get(), current));
+                }
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                concurrent.decrementAndGet();
+                send(exchange, "text/plain", "slow".getBytes());
+            }
+        });
+        server.createContext("/hang", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                hanging.countDown();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                send(exchange, "text/plain", "hang".getBytes());
+            }
+        });
+        server.start();
+        url = getUrl(server);
+    }
+
+    @After
+    public void tearDown() {
+        released.countDown();
+        HttpConnectionPool.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testReusesConnection() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            Get get = new Get(url + "plain");
+            assertEquals("Hall\u00f6chen", get.execute());
+            assertTrue(get.isSuccessful());
+        }
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, HttpConnectionPool.getConnectionsInPool());
+    }
+
+    @Test
+    public void testReusesConnectionAfterStream() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            InputStream in = new Get(url + "plain").executeAsStream(true);
+            while (in.read() != -1) ;
+            in.close();
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testDecodesGZip() throws IOException {
+        assertEquals("compressed", new Get(url + "gzip").execute());
+
+        InputStream in = new Get(url + "gzip").executeAsStream(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read()) != -1)
+            bytes.write(read);
+        in.close();
+        assertEquals("compressed", new String(bytes.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testAcceptsGZip() throws IOException {
+        new Get(url + "plain").execute();
+        assertEquals(Arrays.asList("gzip"), acceptEncodings);
+    }
+
+    @Test
+    public void testSendsCredentialsPreemptively() throws IOException {
+        Get get = new Get(url + "auth");
+        get.setAuthentication("user", "password");
+        assertEquals("auth", get.execute());
+        new Get(url + "auth").execute();
+        assertEquals(Arrays.asList("Basic dXNlcjpwYXNzd29yZA==", null), authorizations);
+    }
+
+    @Test
+    public void testLimitsConnectionsPerHost() throws Exception {
+        HttpConnectionPool.setMaximumConnectionsPerHost(2);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return new Get(url + "slow").execute();
+                }
+            }));
+        }
+        for (Future<String> future : futures)
+            assertEquals("slow", future.get());
+        executor.shutdown();
+
+        assertEquals(2, maximumConcurrent.get());
+        assertEquals(2, HttpConnectionPool.getConnectionsInPool());
+    }
+
+    @Test
+    public void testClosesIdleConnections() throws Exception {
+        new Get(url + "plain").execute();
+        assertEquals(1, HttpConnectionPool.getConnectionsInPool());
+        Thread.sleep(6000);
+        assertEquals(0, HttpConnectionPool.getConnectionsInPool());
+    }
+
+    private String startRawServer(final Map<String, Integer> requests, final boolean respond) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                        String method = reader.readLine().split(" ")[0];
+                        int contentLength = 0;
+                        String line;
+                        while ((line = reader.readLine()) != null && line.length() > 0) {
+                            if (line.toLowerCase().startsWith("content-length:"))
+                                contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                        for (int i = 0; i < contentLength; i++)
+                            reader.read();
+                        synchronized (requests) {
+                            Integer count = requests.get(method);
+                            requests.put(method, count != null ? count + 1 : 1);
+                        }
+                        // close without a response like a server that dropped a kept alive connection
+                        // or after the response like a server whose keep alive timeout is very short
+                        if (respond) {
+                            OutputStream out = socket.getOutputStream();
+                            out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                            out.flush();
+                        }
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // server socket closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    @Test
+    public void testRetriesOnlyRequestsWithoutSideEffects() throws IOException {
+        Map<String, Integer> requests = new HashMap<String, Integer>();
+        String droppingUrl = startRawServer(requests, false);
+
+        try {
+            new Get(droppingUrl + "/get").execute();
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            Post post = new Post(droppingUrl + "/post");
+            post.setBody("a=b");
+            post.execute();
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        synchronized (requests) {
+            assertEquals(2, requests.get("GET").intValue());
+            assertEquals(1, requests.get("POST").intValue());
+        }
+    }
+
+    @Test
+    public void testChecksConnectionsOfRequestsWithSideEffects() throws Exception {
+        Map<String, Integer> requests = new HashMap<String, Integer>();
+        String closingUrl = startRawServer(requests, true);
+
+        assertEquals("ok", new Get(closingUrl + "/get").execute());
+        assertEquals(1, HttpConnectionPool.getConnectionsInPool());
+        // let the server close the pooled connection
+        Thread.sleep(200);
+
+        Post post = new Post(closingUrl + "/post");
+        post.setBody("a=b");
+        assertEquals("ok", post.execute());
+        synchronized (requests) {
+            assertEquals(1, requests.get("GET").intValue());
+            assertEquals(1, requests.get("POST").intValue());
+        }
+    }
+
+    @Test
+    public void testAbortsRequestOfThread() throws Exception {
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new Get(url + "hang").execute();
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }
+        });
+        thread.start();
+        assertTrue(hanging.await(5, TimeUnit.SECONDS));
+
+        HttpRequest.abort(thread);
+        thread.join(2000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof InterruptedIOException);
+
+        // does nothing for a thread without a request
+        HttpRequest.abort(thread);
+        assertEquals("Hall\u00f6chen", new Get(url + "plain").execute());
+    }
+
+    @Test(expected = IOException.class)
+    public void testSocketTimeout() throws IOException {
+        HttpConnectionPool.setSocketTimeout(50);
+        new Get(url + "slow").execute();
+    }
+}
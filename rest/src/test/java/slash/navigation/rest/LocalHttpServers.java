@@ -0,0 +1,58 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates local HTTP servers that stand in for web services in tests.
+ *
+ * @author Christian Pesch
+ */
+
+public class LocalHttpServers {
+    /**
+     * Creates a server on a free port of the loopback interface which handles one exchange
+     * at a time. Responses are sent without delay, since many small responses would otherwise
+     * wait for the acknowledgement of the previous ones.
+     */
+    public static HttpServer createServer() throws IOException {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        return HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    }
+
+    /**
+     * Creates a server like {@link #createServer()} which handles the exchanges concurrently.
+     */
+    public static HttpServer createConcurrentServer() throws IOException {
+        HttpServer server = createServer();
+        server.setExecutor(Executors.newCachedThreadPool());
+        return server;
+    }
+
+    public static String getUrl(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+}
@@ -0,0 +1,382 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+import static slash.navigation.rest.LocalHttpServers.createConcurrentServer;
+import static slash.navigation.rest.LocalHttpServers.getUrl;
+
+public class MultipartRequestTest {
+    private static final long LARGE_PAYLOAD_SIZE = 200 * 1024 * 1024;
+
+    private HttpServer server;
+    private String url;
+    private final List<Upload> uploads = Collections.synchronizedList(new ArrayList<Upload>());
+    private final AtomicInteger rejectedRequests = new AtomicInteger();
+
+    private static class Upload {
+        private final Map<String, String> strings = new HashMap<String, String>();
+        private String contentEncoding, fileName, digest;
+        private long length;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder buffer = new StringBuilder();
+        for (byte b : bytes)
+            buffer.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        return buffer.toString();
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r')
+                buffer.append((char) b);
+        }
+        return buffer.toString();
+    }
+
+    private static void readUntil(InputStream in, byte[] delimiter, OutputStream out) throws IOException {
+        // a ring buffer holds back as many bytes as the delimiter has
+        byte[] window = new byte[delimiter.length];
+        int filled = 0, position = 0, b;
+        while ((b = in.read()) != -1) {
+            if (filled == window.length)
+                out.write(window[position]);
+            else
+                filled++;
+            window[position] = (byte) b;
+            position = (position + 1) % window.length;
+            if (filled == window.length && b == delimiter[delimiter.length - 1]) {
+                boolean matches = true;
+                for (int i = 0; i < delimiter.length && matches; i++)
+                    matches = window[(position + i) % window.length] == delimiter[i];
+                if (matches)
+                    return;
+            }
+        }
+        throw new EOFException("Delimiter not found");
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (in.read(buffer) != -1) {
+            // skip
+        }
+    }
+
+    private static String getParameter(String header, String name) {
+        int index = header.indexOf(name + "=\"");
+        if (index == -1)
+            return null;
+        int start = index + name.length() + 2;
+        return header.substring(start, header.indexOf('"', start));
+    }
+
+    private Upload receive(HttpExchange exchange) throws IOException {
+        Upload upload = new Upload();
+        upload.contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        String boundary = exchange.getRequestHeaders().getFirst("Content-Type").replaceAll(".*boundary=", "");
+        byte[] delimiter = ("\r\n--" + boundary).getBytes("US-ASCII");
+
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equals(upload.contentEncoding))
+            body = new GZIPInputStream(body);
+        // the first delimiter lacks the line break
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream("\r\n".getBytes("US-ASCII")), new BufferedInputStream(body, 64 * 1024));
+        readUntil(in, delimiter, new CountingOutputStream());
+        while (!readLine(in).startsWith("--")) {
+            String name = null, fileName = null, line;
+            while ((line = readLine(in)).length() > 0) {
+                if (line.startsWith("Content-Disposition")) {
+                    name = getParameter(line, "name");
+                    fileName = getParameter(line, "filename");
+                }
+            }
+            if (fileName != null) {
+                MessageDigest digest = createDigest();
+                CountingOutputStream counting = new CountingOutputStream();
+                OutputStream out = new BufferedOutputStream(new DigestOutputStream(counting, digest), 64 * 1024);
+                readUntil(in, delimiter, out);
+                out.flush();
+                upload.fileName = fileName;
+                upload.digest = toHex(digest.digest());
+                upload.length = counting.count;
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                readUntil(in, delimiter, bytes);
+                upload.strings.put(name, new String(bytes.toByteArray(), "US-ASCII"));
+            }
+        }
+        return upload;
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = createConcurrentServer();
+        server.createContext("/upload", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                Upload upload = receive(exchange);
+                uploads.add(upload);
+                respond(exchange, 201, upload.digest + " " + upload.length);
+            }
+        });
+        server.createContext("/uncompressed", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestHeaders().getFirst("Content-Encoding") != null) {
+                    rejectedRequests.incrementAndGet();
+                    drain(exchange.getRequestBody());
+                    respond(exchange, 415, "Unsupported Media Type");
+                    return;
+                }
+                uploads.add(receive(exchange));
+                respond(exchange, 201, "");
+            }
+        });
+        server.createContext("/failing", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestHeaders().getFirst("Content-Encoding") != null) {
+                    rejectedRequests.incrementAndGet();
+                    drain(exchange.getRequestBody());
+                    respond(exchange, 500, "Internal Server Error");
+                    return;
+                }
+                uploads.add(receive(exchange));
+                respond(exchange, 201, "");
+            }
+        });
+        server.start();
+        url = getUrl(server);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static class RandomPayload implements Payload {
+        private final long length;
+        private final MessageDigest digest = createDigest();
+
+        private RandomPayload(long length) {
+            this.length = length;
+        }
+
+        public void write(OutputStream out) throws IOException {
+            Random random = new Random(42);
+            digest.reset();
+            DigestOutputStream digestOut = new DigestOutputStream(out, digest);
+            byte[] buffer = new byte[64 * 1024];
+            for (long written = 0; written < length; written += buffer.length) {
+                random.nextBytes(buffer);
+                digestOut.write(buffer, 0, (int) Math.min(buffer.length, length - written));
+            }
+            digestOut.close();
+        }
+
+        String getDigest() {
+            return toHex(digest.digest());
+        }
+    }
+
+    private static class RecordingListener implements ProgressListener {
+        private final List<long[]> calls = new ArrayList<long[]>();
+
+        public void progress(long sent, long total) {
+            calls.add(new long[]{sent, total});
+        }
+
+        long[] getLast() {
+            return calls.get(calls.size() - 1);
+        }
+    }
+
+    @Test
+    public void testStreamsPayloadByteExact() throws IOException {
+        RandomPayload payload = new RandomPayload(1024 * 1024 + 17);
+        RecordingListener listener = new RecordingListener();
+        Post post = new Post(url + "upload");
+        post.addString("description", "Route");
+        post.addPayload("file", "route.gpx", payload);
+        post.setProgressListener(listener);
+        post.execute();
+        assertEquals(201, post.getResult());
+
+        Upload upload = uploads.get(0);
+        assertNull(upload.contentEncoding);
+        assertEquals("Route", upload.strings.get("description"));
+        assertEquals("route.gpx", upload.fileName);
+        assertEquals(1024 * 1024 + 17, upload.length);
+        assertEquals(payload.getDigest(), upload.digest);
+        assertTrue(listener.calls.size() > 10);
+        assertTrue(listener.getLast()[0] > 1024 * 1024 + 17);
+        assertEquals(-1, listener.getLast()[1]);
+    }
+
+    @Test
+    public void testStreamsFileByteExact() throws IOException {
+        File file = File.createTempFile("upload", ".gpx");
+        RandomPayload payload = new RandomPayload(300 * 1024);
+        OutputStream out = new FileOutputStream(file);
+        payload.write(out);
+        RecordingListener listener = new RecordingListener();
+        try {
+            Post post = new Post(url + "upload");
+            post.addFile("file", file);
+            post.setProgressListener(listener);
+            post.execute();
+            assertEquals(201, post.getResult());
+        } finally {
+            assertTrue(file.delete());
+        }
+
+        Upload upload = uploads.get(0);
+        assertEquals(file.getName(), upload.fileName);
+        assertEquals(300 * 1024, upload.length);
+        assertEquals(payload.getDigest(), upload.digest);
+        assertEquals(listener.getLast()[1], listener.getLast()[0]);
+    }
+
+    @Test
+    public void testCompressesRequests() throws IOException {
+        RandomPayload payload = new RandomPayload(512 * 1024);
+        Post post = new Post(url + "upload");
+        post.addPayload("file", "route.gpx", payload);
+        post.setCompressed(true);
+        post.execute();
+        assertEquals(201, post.getResult());
+
+        Upload upload = uploads.get(0);
+        assertEquals("gzip", upload.contentEncoding);
+        assertEquals(512 * 1024, upload.length);
+        assertEquals(payload.getDigest(), upload.digest);
+    }
+
+    @Test
+    public void testRepeatsRejectedCompressedRequestsUncompressed() throws IOException {
+        RandomPayload payload = new RandomPayload(100 * 1024);
+        Post post = new Post(url + "uncompressed");
+        post.addPayload("file", "route.gpx", payload);
+        post.setCompressed(true);
+        post.execute();
+        assertEquals(201, post.getResult());
+        assertEquals(1, rejectedRequests.get());
+        assertEquals(payload.getDigest(), uploads.get(0).digest);
+
+        post = new Post(url + "uncompressed");
+        post.addPayload("file", "route.gpx", payload);
+        post.setCompressed(true);
+        post.execute();
+        assertEquals(201, post.getResult());
+        assertEquals(1, rejectedRequests.get());
+        assertEquals(payload.getDigest(), uploads.get(1).digest);
+    }
+
+    @Test
+    public void testRepeatsFailingCompressedRequestsUncompressed() throws IOException {
+        RandomPayload payload = new RandomPayload(100 * 1024);
+        Post post = new Post(url + "failing");
+        post.addPayload("file", "route.gpx", payload);
+        post.setCompressed(true);
+        post.execute();
+        assertEquals(201, post.getResult());
+        assertEquals(1, rejectedRequests.get());
+        assertNull(uploads.get(0).contentEncoding);
+        assertEquals(payload.getDigest(), uploads.get(0).digest);
+
+        post = new Post(url + "failing");
+        post.addPayload("file", "route.gpx", payload);
+        post.setCompressed(true);
+        post.execute();
+        assertEquals(201, post.getResult());
+        assertEquals(1, rejectedRequests.get());
+    }
+
+    @Test
+    public void testUploadsLargePayloadWithBoundedMemory() throws Exception {
+        // a heap smaller than the payload fails if the payload is buffered
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx32m", "-cp", System.getProperty("java.class.path"), getClass().getName(), url + "upload").
+                redirectErrorStream(true).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line, output = "";
+        while ((line = reader.readLine()) != null)
+            output += line;
+        assertEquals(output, 0, process.waitFor());
+
+        Upload upload = uploads.get(0);
+        assertEquals(LARGE_PAYLOAD_SIZE, upload.length);
+        assertEquals(upload.digest, output);
+    }
+
+    public static void main(String[] args) throws IOException {
+        RandomPayload payload = new RandomPayload(LARGE_PAYLOAD_SIZE);
+        Post post = new Post(args[0]);
+        post.addPayload("file", "large.gpx", payload);
+        post.execute();
+        System.out.print(payload.getDigest());
+        System.exit(post.isSuccessful() ? 0 : 1);
+    }
+}
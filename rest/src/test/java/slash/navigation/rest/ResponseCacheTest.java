@@ -0,0 +1,258 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+    private File file;
+    private long now = 1000000;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("responses", ".cache");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        if (file.exists())
+            assertTrue(file.delete());
+    }
+
+    private ResponseCache createCache(long timeToLive, int maximumCount, long maximumSize) {
+        return new ResponseCache(file, timeToLive, maximumCount, maximumSize) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private ResponseCache createCache() {
+        return createCache(ResponseCache.DEFAULT_TIME_TO_LIVE, ResponseCache.DEFAULT_MAXIMUM_COUNT, ResponseCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    private String createValue(char c, int length) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            buffer.append(c);
+        return buffer.toString();
+    }
+
+    @Test
+    public void testQuantizedKeys() {
+        assertEquals("geonames/srtm3/1000000,5300000", ResponseCache.createKey("geonames", "srtm3", 10.0, 53.0));
+        assertEquals(ResponseCache.createKey("geonames", "srtm3", 10.0, 53.0), ResponseCache.createKey("geonames", "srtm3", 10.000004, 52.999996));
+        assertFalse(ResponseCache.createKey("geonames", "srtm3", 10.0, 53.0).equals(ResponseCache.createKey("geonames", "srtm3", 10.00001, 53.0)));
+        assertFalse(ResponseCache.createKey("geonames", "srtm3", 10.0, 53.0).equals(ResponseCache.createKey("geonames", "gtopo30", 10.0, 53.0)));
+        assertEquals("earthtools/height/-1000000,-5300000", ResponseCache.createKey("earthtools", "height", -10.0, -53.0));
+    }
+
+    @Test
+    public void testGetAndPut() {
+        ResponseCache cache = createCache();
+        assertNull(cache.get("a"));
+        cache.put("a", "Hall\u00f6chen");
+        assertEquals("Hall\u00f6chen", cache.get("a"));
+        assertEquals("Hall\u00f6chen", cache.get("a"));
+        assertEquals(1, cache.getCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2.0 / 3.0, cache.getHitRate(), 0.0001);
+        cache.close();
+    }
+
+    @Test
+    public void testContains() {
+        ResponseCache cache = createCache(1000, 10, 1024 * 1024);
+        assertFalse(cache.contains("a"));
+        cache.put("a", "1");
+        assertTrue(cache.contains("a"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        now += 1000;
+        assertFalse(cache.contains("a"));
+        cache.close();
+    }
+
+    @Test
+    public void testTimeToLive() {
+        ResponseCache cache = createCache(1000, 10, 1024 * 1024);
+        cache.put("a", "1");
+        now += 999;
+        assertEquals("1", cache.get("a"));
+        now += 1;
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getCount());
+        cache.close();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ResponseCache cache = createCache(ResponseCache.DEFAULT_TIME_TO_LIVE, 2, 1024 * 1024);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+        assertEquals(2, cache.getCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        cache.close();
+    }
+
+    @Test
+    public void testEvictsBySize() {
+        ResponseCache cache = createCache(ResponseCache.DEFAULT_TIME_TO_LIVE, 100, 2500);
+        cache.put("a", createValue('a', 1000));
+        cache.put("b", createValue('b', 1000));
+        cache.put("c", createValue('c', 1000));
+        assertEquals(2, cache.getCount());
+        assertTrue(cache.getSize() <= 2500);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        cache.close();
+    }
+
+    @Test
+    public void testPersistsResponses() {
+        ResponseCache cache = createCache();
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("a", "3");
+        cache.close();
+
+        ResponseCache reopened = createCache();
+        assertEquals(2, reopened.getCount());
+        assertEquals("3", reopened.get("a"));
+        assertEquals("2", reopened.get("b"));
+        reopened.close();
+    }
+
+    @Test
+    public void testDoesNotLoadExpiredResponses() {
+        ResponseCache cache = createCache(1000, 10, 1024 * 1024);
+        cache.put("a", "1");
+        now += 500;
+        cache.put("b", "2");
+        cache.close();
+
+        now += 600;
+        ResponseCache reopened = createCache(1000, 10, 1024 * 1024);
+        assertEquals(1, reopened.getCount());
+        assertNull(reopened.get("a"));
+        assertEquals("2", reopened.get("b"));
+        reopened.close();
+    }
+
+    @Test
+    public void testDropsIncompleteRecord() throws IOException {
+        ResponseCache cache = createCache();
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.close();
+
+        // simulate a crash while the last record was written
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() - 3);
+        randomAccessFile.close();
+
+        ResponseCache reopened = createCache();
+        assertEquals("1", reopened.get("a"));
+        assertNull(reopened.get("b"));
+        reopened.put("c", "3");
+        reopened.close();
+
+        ResponseCache recovered = createCache();
+        assertEquals(2, recovered.getCount());
+        assertEquals("1", recovered.get("a"));
+        assertEquals("3", recovered.get("c"));
+        recovered.close();
+    }
+
+    @Test
+    public void testDropsCorruptRecord() throws IOException {
+        ResponseCache cache = createCache();
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.close();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(randomAccessFile.length() - 5);
+        randomAccessFile.write('x');
+        randomAccessFile.close();
+
+        ResponseCache reopened = createCache();
+        assertEquals(1, reopened.getCount());
+        assertEquals("1", reopened.get("a"));
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactsFile() {
+        ResponseCache cache = createCache();
+        String value = createValue('x', 10000);
+        for (int i = 0; i < 300; i++)
+            cache.put("a", value + i);
+        cache.put("b", "2");
+        assertTrue(file.length() < 1024 * 1024);
+        cache.close();
+
+        ResponseCache reopened = createCache();
+        assertEquals(2, reopened.getCount());
+        assertEquals(value + 299, reopened.get("a"));
+        assertEquals("2", reopened.get("b"));
+        reopened.close();
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testClear() {
+        ResponseCache cache = createCache();
+        cache.put("a", "1");
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        cache.close();
+
+        ResponseCache reopened = createCache();
+        assertEquals(0, reopened.getCount());
+        assertEquals(4, file.length());
+        reopened.close();
+    }
+
+    @Test
+    public void testCachesInMemoryWithoutFile() {
+        ResponseCache cache = new ResponseCache(null);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        cache.close();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private SingleFlight.Call<String> slowCall(final String result, final CountDownLatch release) {
+        return new SingleFlight.Call<String>() {
+            public String call() throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+                if (result == null)
+                    throw new IOException("failed");
+                return result;
+            }
+        };
+    }
+
+    private List<Future<String>> executeConcurrently(ExecutorService executor, final String key, final SingleFlight.Call<String> call, int count) {
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < count; i++)
+            futures.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return singleFlight.execute(key, call);
+                }
+            }));
+        return futures;
+    }
+
+    private void waitForShared(long count) throws InterruptedException {
+        while (singleFlight.getSharedCount() < count)
+            Thread.sleep(1);
+    }
+
+    @Test
+    public void testCoalescesConcurrentCalls() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            List<Future<String>> a = executeConcurrently(executor, "a", slowCall("A", release), 10);
+            List<Future<String>> b = executeConcurrently(executor, "b", slowCall("B", release), 10);
+            waitForShared(18);
+            assertEquals(2, singleFlight.getInFlightCount());
+            release.countDown();
+
+            for (Future<String> future : a)
+                assertEquals("A", future.get());
+            for (Future<String> future : b)
+                assertEquals("B", future.get());
+            assertEquals(2, calls.get());
+            assertEquals(2, singleFlight.getCallCount());
+            assertEquals(18, singleFlight.getSharedCount());
+            assertEquals(0, singleFlight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharesException() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            List<Future<String>> futures = executeConcurrently(executor, "a", slowCall(null, release), 5);
+            waitForShared(4);
+            release.countDown();
+
+            for (Future<String> future : futures) {
+                try {
+                    future.get();
+                    fail("ExecutionException expected");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    assertEquals("failed", e.getCause().getMessage());
+                }
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRetriesCallOfInterruptedOwner() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+                public String call() throws IOException {
+                    if (calls.incrementAndGet() == 1) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("interrupted");
+                        }
+                    }
+                    return "A";
+                }
+            };
+            Future<String> owner = executeConcurrently(executor, "a", call, 1).get(0);
+            while (calls.get() == 0)
+                Thread.sleep(1);
+            Future<String> follower = executeConcurrently(executor, "a", call, 1).get(0);
+            waitForShared(1);
+
+            owner.cancel(true);
+            assertEquals("A", follower.get());
+            assertEquals(2, calls.get());
+            assertEquals(0, singleFlight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDoesNotKeepResults() throws IOException {
+        CountDownLatch released = new CountDownLatch(0);
+        assertEquals("A", singleFlight.execute("a", slowCall("A", released)));
+        assertEquals("A", singleFlight.execute("a", slowCall("A", released)));
+        assertEquals(2, calls.get());
+        assertEquals(0, singleFlight.getSharedCount());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.rest;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstIsNotDelayed() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(1.0, 5.0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+            bucket.acquire();
+        assertTrue(System.nanoTime() - start < 100000000L);
+    }
+
+    @Test
+    public void testLimitsRate() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(50.0, 1.0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 26; i++)
+            bucket.acquire();
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + millis + " ms", millis >= 480 && millis < 1000);
+    }
+
+    @Test
+    public void testLimitsRateOfConcurrentThreads() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(100.0, 1.0);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(4);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10; j++) {
+                            bucket.acquire();
+                            count.incrementAndGet();
+                        }
+                    } catch (InterruptedIOException e) {
+                        // ignore
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertEquals(40, count.get());
+        assertTrue("took " + millis + " ms", millis >= 380);
+    }
+
+    @Test
+    public void testUnlimited() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(Double.POSITIVE_INFINITY);
+        long start = System.nanoTime();
+        for (int i = 0; i < 100000; i++)
+            bucket.acquire();
+        assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+
+    @Test
+    public void testBacklogged() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(10.0, 1.0);
+        assertFalse(bucket.isBacklogged());
+        bucket.acquire();
+        assertTrue(bucket.isBacklogged());
+        assertFalse(new TokenBucket(Double.POSITIVE_INFINITY).isBacklogged());
+    }
+
+    @Test
+    public void testReturnsPermitOfInterruptedRequest() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(1.0, 1.0);
+        bucket.acquire();
+        Thread.currentThread().interrupt();
+        try {
+            bucket.acquire();
+            fail("InterruptedIOException expected");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+
+        // without the returned permit this waited for two seconds
+        long start = System.nanoTime();
+        bucket.acquire();
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + millis + " ms", millis < 1500);
+    }
+
+    @Test
+    public void testInterrupt() {
+        TokenBucket bucket = new TokenBucket(0.1, 1.0);
+        try {
+            bucket.acquire();
+            Thread.currentThread().interrupt();
+            bucket.acquire();
+            fail("InterruptedIOException expected");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+}
@@ -29,6 +29,7 @@ import slash.common.io.Version;
 import slash.common.log.LoggingHelper;
 import slash.navigation.babel.BabelException;
 import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.BaseRoute;
 import slash.navigation.base.NavigationFormat;
 import slash.navigation.base.RouteCharacteristics;
 import slash.navigation.base.Wgs84Position;
@@ -42,7 +43,6 @@ import slash.navigation.converter.gui.actions.MoveSplitPaneDividersAction;
 import slash.navigation.converter.gui.actions.OptionsAction;
 import slash.navigation.converter.gui.actions.RevertPositionListAction;
 import slash.navigation.converter.gui.actions.SearchForUpdatesAction;
-import slash.navigation.converter.gui.augment.PositionAugmenter;
 import slash.navigation.converter.gui.helper.FrameMenu;
 import slash.navigation.converter.gui.helper.JMenuHelper;
 import slash.navigation.converter.gui.helper.MergePositionListMenu;
@@ -121,6 +121,7 @@ public abstract class RouteConverter extends SingleFrameApplication {
     private static final String ADD_POSITION_LONGITUDE_PREFERENCE = "addPositionLongitude";
     private static final String ADD_POSITION_LATITUDE_PREFERENCE = "addPositionLatitude";
     public static final String AUTOMATIC_UPDATE_CHECK_PREFERENCE = "automaticUpdateCheck";
+    public static final String PREFETCH_ELEVATIONS_PREFERENCE = "prefetchElevations";
     public static final String PREFIX_NUMBER_WITH_ZEROS = "prefixNumberWithZeros";
     public static final String SPACE_BETWEEN_NUMBER_AND_COMMENT_PREFERENCE = "spaceBetweenNumberAndComment";
     public static final String RECENTER_AFTER_ZOOMING_PREFERENCE = "recenterAfterZooming";
@@ -379,6 +380,10 @@ public abstract class RouteConverter extends SingleFrameApplication {
         return preferences.getBoolean(AUTOMATIC_UPDATE_CHECK_PREFERENCE, true);
     }
 
+    public boolean getPrefetchElevationsPreference() {
+        return preferences.getBoolean(PREFETCH_ELEVATIONS_PREFERENCE, false);
+    }
+
     public boolean getPrefixNumberWithZerosPreference() {
         return preferences.getBoolean(PREFIX_NUMBER_WITH_ZEROS, false);
     }
@@ -584,13 +589,18 @@ public abstract class RouteConverter extends SingleFrameApplication {
 
     private SinglePositionAugmenter positionAugmenter = null;
 
-    private synchronized PositionAugmenter getPositionAugmenter() {
+    private synchronized SinglePositionAugmenter getPositionAugmenter() {
         if (positionAugmenter == null) {
             positionAugmenter = new SinglePositionAugmenter(getPositionsModel());
         }
         return positionAugmenter;
     }
 
+    public void prefetchElevations(List<BaseRoute> routes) {
+        if (getPrefetchElevationsPreference())
+            getPositionAugmenter().prefetchElevations(routes);
+    }
+
     public void complementElevation(int row, Double longitude, Double latitude) {
         getPositionAugmenter().complementElevation(row, longitude, latitude);
     }
@@ -612,6 +622,10 @@ public abstract class RouteConverter extends SingleFrameApplication {
         return getConvertPanel().selectPositionsWithinDistanceToPredecessor(distance);
     }
 
+    public int selectDuplicatePositions(int distance) {
+        return getConvertPanel().selectDuplicatePositions(distance);
+    }
+
     public int[] selectAllButEveryNthPosition(int order) {
         return getConvertPanel().selectAllButEveryNthPosition(order);
     }
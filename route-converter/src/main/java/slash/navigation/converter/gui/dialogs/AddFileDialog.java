@@ -27,6 +27,7 @@ import slash.navigation.catalog.model.CategoryTreeNode;
 import slash.navigation.converter.gui.RouteConverter;
 import slash.navigation.converter.gui.helper.DialogAction;
 import slash.navigation.converter.gui.helper.RouteServiceOperator;
+import slash.navigation.converter.gui.helper.UploadProgressListener;
 import slash.navigation.gui.SimpleDialog;
 import slash.common.io.Files;
 import slash.common.io.Transfer;
@@ -103,9 +104,16 @@ public class AddFileDialog extends SimpleDialog {
     }
 
     void addRoute(final CategoryTreeNode category, final String description, final File file) {
+        final UploadProgressListener progress = new UploadProgressListener(RouteConverter.getInstance().getFrame());
         operator.executeOnRouteService(new RouteServiceOperator.Operation() {
             public void run() throws IOException {
-                category.addRoute(description, file);
+                operator.getRouteCatalog().setUploadListener(progress);
+                try {
+                    category.addRoute(description, file);
+                } finally {
+                    operator.getRouteCatalog().setUploadListener(null);
+                    progress.close();
+                }
             }
         });
     }
@@ -29,6 +29,7 @@ import slash.navigation.base.BaseNavigationPosition;
 import slash.navigation.base.BaseRoute;
 import slash.navigation.converter.gui.RouteConverter;
 import slash.navigation.converter.gui.helper.DialogAction;
+import slash.navigation.converter.gui.helper.UploadProgressListener;
 import slash.navigation.converter.gui.models.FormatAndRoutesModel;
 import slash.navigation.converter.gui.renderer.RouteServiceListCellRenderer;
 import slash.navigation.converter.gui.services.*;
@@ -183,17 +184,44 @@ public class UploadDialog extends SimpleDialog {
     }
 
     private void upload() {
-        RouteService routeService = (RouteService) comboBoxChooseRouteService.getSelectedItem();
-        String userName = textFieldUserName.getText();
-        String password = new String(textFieldPassword.getPassword());
-
-        try {
-            routeService.upload(userName, password, fileUrl, textFieldName.getText(), textAreaDescription.getText());
-        } catch (IOException e) {
-            JFrame f = RouteConverter.getInstance().getFrame();
-            JOptionPane.showMessageDialog(f, MessageFormat.format(RouteConverter.getBundle().getString("service-error"), routeService.getName(), e.getMessage()), f.getTitle(), JOptionPane.ERROR_MESSAGE);
-        }
+        final RouteService routeService = (RouteService) comboBoxChooseRouteService.getSelectedItem();
+        final String userName = textFieldUserName.getText();
+        final String password = new String(textFieldPassword.getPassword());
+        final String name = textFieldName.getText();
+        final String description = textAreaDescription.getText();
+
+        final UploadProgressListener progress = new UploadProgressListener(this);
+        if (routeService instanceof RouteCatalog)
+            ((RouteCatalog) routeService).setUploadListener(progress);
+
+        buttonUpload.setEnabled(false);
+        new Thread(new Runnable() {
+            public void run() {
+                IOException exception = null;
+                try {
+                    routeService.upload(userName, password, fileUrl, name, description);
+                } catch (IOException e) {
+                    exception = e;
+                } finally {
+                    progress.close();
+                }
+
+                final IOException lastException = exception;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        buttonUpload.setEnabled(true);
+                        if (lastException != null) {
+                            JFrame f = RouteConverter.getInstance().getFrame();
+                            JOptionPane.showMessageDialog(f, MessageFormat.format(RouteConverter.getBundle().getString("service-error"), routeService.getName(), lastException.getMessage()), f.getTitle(), JOptionPane.ERROR_MESSAGE);
+                        }
+                        uploaded(routeService, userName, password);
+                    }
+                });
+            }
+        }, "Upload").start();
+    }
 
+    private void uploaded(RouteService routeService, String userName, String password) {
         /*
         if(true) { // TODO if has been read by the service: PUT back
             // TODO use file name read from server
@@ -20,8 +20,8 @@
 
 package slash.navigation.converter.gui.helper;
 
-import slash.common.io.ContinousRange;
-import slash.common.io.RangeOperation;
+import slash.common.io.ConcurrentRange;
+import slash.common.io.ConcurrentRangeOperation;
 import slash.common.io.Transfer;
 import slash.navigation.base.BaseNavigationPosition;
 import slash.navigation.completer.CompletePositionService;
@@ -32,20 +32,29 @@ import slash.navigation.geonames.GeoNamesService;
 import slash.navigation.googlemaps.GoogleMapsPosition;
 import slash.navigation.googlemaps.GoogleMapsService;
 import slash.navigation.gui.Constants;
+import slash.navigation.hgt.PrefetchListener;
 import slash.navigation.util.RouteComments;
 
 import javax.swing.*;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Helps to augment a batch of positions with geocoded coordinates, elevation,
  * position index for its comment, postal address, populated place and speed
  * information.
+ * <p/>
+ * The slow operations, which query web services, look up the positions on a pool of
+ * worker threads while the results are applied to the positions in the order of the
+ * rows. The web services limit the rate of their requests themselves.
  *
  * @author Christian Pesch
  */
 
 public class BatchPositionAugmenter {
+    private static final int LOOKUP_THREAD_COUNT = 4;
     private JFrame frame;
 
     public BatchPositionAugmenter(JFrame frame) {
@@ -70,20 +79,27 @@ public class BatchPositionAugmenter {
     };
 
 
-    private interface Operation {
+    private interface Operation<T> {
         String getName();
         int getColumnIndex();
-        boolean run(int index, BaseNavigationPosition position) throws Exception;
+        /**
+         * Looks up the new value for a position, which happens concurrently for slow operations.
+         *
+         * @return the new value or null if the position is not changed
+         */
+        T lookup(int index, BaseNavigationPosition position) throws Exception;
+        void apply(int index, T value);
         String getErrorMessage();
+        void preRunning(ProgressMonitor progress);
         void postRunning();
     }
 
-    private void executeOperation(final JTable positionsTable,
-                                  final PositionsModel positionsModel,
-                                  final int[] rows,
-                                  final boolean slowOperation,
-                                  final OverwritePredicate predicate,
-                                  final Operation operation) {
+    private <T> void executeOperation(final JTable positionsTable,
+                                      final PositionsModel positionsModel,
+                                      final int[] rows,
+                                      final boolean slowOperation,
+                                      final OverwritePredicate predicate,
+                                      final Operation<T> operation) {
         Constants.startWaitCursor(frame.getRootPane());
 
         final ProgressMonitor progress = new ProgressMonitor(frame, "", RouteConverter.getBundle().getString("progress-started"), 0, 100);
@@ -94,21 +110,29 @@ public class BatchPositionAugmenter {
                     lastException[0] = null;
                     final int maximumRangeLength = rows.length > 99 ? rows.length / (slowOperation ? 100 : 10) : rows.length;
 
-                    new ContinousRange(rows, new RangeOperation() {
+                    operation.preRunning(progress);
+                    new ConcurrentRange<T>(rows, slowOperation ? LOOKUP_THREAD_COUNT : 1, operation.getName(), new ConcurrentRangeOperation<T>() {
                         private int count = 1;
 
-                        public void performOnIndex(final int index) {
+                        public T lookup(int index) throws Exception {
+                            if (progress.isCanceled())
+                                return null;
                             BaseNavigationPosition position = positionsModel.getPosition(index);
-                            if (predicate.shouldOverwrite(position)) {
-                                try {
-                                    // ignoring the result since the performance boost of the continous
-                                    // range operations outweights the possible optimization 
-                                    operation.run(index, position);
-                                } catch (Exception e) {
-                                    lastException[0] = e;
-                                }
-                            }
+                            return predicate.shouldOverwrite(position) ? operation.lookup(index, position) : null;
+                        }
+
+                        public void performOnResult(int index, T value) {
+                            if (value != null)
+                                operation.apply(index, value);
+                            updateProgress(index);
+                        }
 
+                        public void performOnException(int index, Exception exception) {
+                            lastException[0] = exception;
+                            updateProgress(index);
+                        }
+
+                        private void updateProgress(final int index) {
                             SwingUtilities.invokeLater(new Runnable() {
                                 public void run() {
                                     int percent = count++ * 100 / rows.length;
@@ -161,7 +185,7 @@ public class BatchPositionAugmenter {
                                     final int[] rows,
                                     final OverwritePredicate predicate) {
         executeOperation(positionsTable, positionsModel, rows, true, predicate,
-                new Operation() {
+                new Operation<GoogleMapsPosition>() {
                     private GoogleMapsService googleMapsService = new GoogleMapsService();
 
                     public String getName() {
@@ -172,19 +196,22 @@ public class BatchPositionAugmenter {
                         return PositionColumns.LONGITUDE_COLUMN_INDEX;  // + PositionColumns.LATITUDE_COLUMN_INDEX
                     }
 
-                    public boolean run(int index, BaseNavigationPosition position) throws Exception {
-                        GoogleMapsPosition coordinates = googleMapsService.getPositionFor(position.getComment());
-                        if (coordinates != null) {
-                            positionsModel.edit(coordinates.getLongitude(), index, PositionColumns.LONGITUDE_COLUMN_INDEX, false, true);
-                            positionsModel.edit(coordinates.getLatitude(), index, PositionColumns.LATITUDE_COLUMN_INDEX, false, true);
-                        }
-                        return coordinates != null;
+                    public GoogleMapsPosition lookup(int index, BaseNavigationPosition position) throws Exception {
+                        return googleMapsService.getPositionFor(position.getComment());
+                    }
+
+                    public void apply(int index, GoogleMapsPosition coordinates) {
+                        positionsModel.edit(coordinates.getLongitude(), index, PositionColumns.LONGITUDE_COLUMN_INDEX, false, true);
+                        positionsModel.edit(coordinates.getLatitude(), index, PositionColumns.LATITUDE_COLUMN_INDEX, false, true);
                     }
 
                     public String getErrorMessage() {
                         return RouteConverter.getBundle().getString("add-coordinates-error");
                     }
 
+                    public void preRunning(ProgressMonitor progress) {
+                    }
+
                     public void postRunning() {
                     }
                 }
@@ -201,8 +228,11 @@ public class BatchPositionAugmenter {
                                    final int[] rows,
                                    final OverwritePredicate predicate) {
         executeOperation(positionsTable, positionsModel, rows, true, predicate,
-                new Operation() {
+                new Operation<Integer>() {
                     private CompletePositionService completePositionService = new CompletePositionService();
+                    private int[] indices;
+                    private double[] longitudes, latitudes;
+                    private Map<Integer, Integer> hgtElevations;
 
                     public String getName() {
                         return "ElevationPositionAugmenter";
@@ -212,11 +242,58 @@ public class BatchPositionAugmenter {
                         return PositionColumns.ELEVATION_COLUMN_INDEX;
                     }
 
-                    public boolean run(int index, BaseNavigationPosition position) throws Exception {
-                        Integer elevation = completePositionService.getElevationFor(position.getLongitude(), position.getLatitude());
-                        if (elevation != null)
-                            positionsModel.edit(elevation.doubleValue(), index, PositionColumns.ELEVATION_COLUMN_INDEX, false, true);
-                        return elevation != null;
+                    public void preRunning(final ProgressMonitor progress) {
+                        // look up all rows at once so that every HGT file is loaded only once
+                        indices = new int[rows.length];
+                        longitudes = new double[rows.length];
+                        latitudes = new double[rows.length];
+                        int count = 0;
+                        for (int row : rows) {
+                            BaseNavigationPosition position = positionsModel.getPosition(row);
+                            if (!predicate.shouldOverwrite(position))
+                                continue;
+                            indices[count] = row;
+                            longitudes[count] = position.getLongitude();
+                            latitudes[count] = position.getLatitude();
+                            count++;
+                        }
+                        indices = Arrays.copyOf(indices, count);
+                        longitudes = Arrays.copyOf(longitudes, count);
+                        latitudes = Arrays.copyOf(latitudes, count);
+
+                        // download the missing HGT files in parallel before the positions are looked up
+                        completePositionService.prefetchHgtFilesFor(longitudes, latitudes, new PrefetchListener() {
+                            public void prefetched(final String key, boolean available, final int count, final int total) {
+                                SwingUtilities.invokeLater(new Runnable() {
+                                    public void run() {
+                                        progress.setNote(MessageFormat.format(
+                                                RouteConverter.getBundle().getString("progress-downloading-elevation-tile"),
+                                                key, count * 100 / total));
+                                    }
+                                });
+                            }
+                        });
+                    }
+
+                    private synchronized Integer getHgtElevationFor(int index) {
+                        if (hgtElevations == null) {
+                            Integer[] elevations = completePositionService.getHgtElevationsFor(longitudes, latitudes);
+                            hgtElevations = new HashMap<Integer, Integer>(indices.length);
+                            for (int i = 0; i < indices.length; i++)
+                                hgtElevations.put(indices[i], elevations[i]);
+                        }
+                        return hgtElevations.get(index);
+                    }
+
+                    public Integer lookup(int index, BaseNavigationPosition position) throws Exception {
+                        Integer elevation = getHgtElevationFor(index);
+                        if (elevation == null)
+                            elevation = completePositionService.getOnlineElevationFor(position.getLongitude(), position.getLatitude());
+                        return elevation;
+                    }
+
+                    public void apply(int index, Integer elevation) {
+                        positionsModel.edit(elevation.doubleValue(), index, PositionColumns.ELEVATION_COLUMN_INDEX, false, true);
                     }
 
                     public String getErrorMessage() {
@@ -240,7 +317,7 @@ public class BatchPositionAugmenter {
                                     final int[] rows,
                                     final OverwritePredicate predicate) {
         executeOperation(positionsTable, positionsModel, rows, true, predicate,
-                new Operation() {
+                new Operation<String>() {
                     private GeoNamesService geonamesService = new GeoNamesService();
 
                     public String getName() {
@@ -251,17 +328,21 @@ public class BatchPositionAugmenter {
                         return PositionColumns.DESCRIPTION_COLUMN_INDEX;
                     }
 
-                    public boolean run(int index, BaseNavigationPosition position) throws Exception {
-                        String comment = geonamesService.getNearByFor(position.getLongitude(), position.getLatitude());
-                        if (comment != null)
-                            positionsModel.edit(comment, index, PositionColumns.DESCRIPTION_COLUMN_INDEX, false, true);
-                        return comment != null;
+                    public String lookup(int index, BaseNavigationPosition position) throws Exception {
+                        return geonamesService.getNearByFor(position.getLongitude(), position.getLatitude());
+                    }
+
+                    public void apply(int index, String comment) {
+                        positionsModel.edit(comment, index, PositionColumns.DESCRIPTION_COLUMN_INDEX, false, true);
                     }
 
                     public String getErrorMessage() {
                         return RouteConverter.getBundle().getString("add-populated-place-error");
                     }
 
+                    public void preRunning(ProgressMonitor progress) {
+                    }
+
                     public void postRunning() {
                     }
                 }
@@ -278,7 +359,7 @@ public class BatchPositionAugmenter {
                                     final int[] rows,
                                     final OverwritePredicate predicate) {
         executeOperation(positionsTable, positionsModel, rows, true, predicate,
-                new Operation() {
+                new Operation<String>() {
                     private GoogleMapsService googleMapsService = new GoogleMapsService();
 
                     public String getName() {
@@ -289,17 +370,21 @@ public class BatchPositionAugmenter {
                         return PositionColumns.DESCRIPTION_COLUMN_INDEX;
                     }
 
-                    public boolean run(int index, BaseNavigationPosition position) throws Exception {
-                        String comment = googleMapsService.getLocationFor(position.getLongitude(), position.getLatitude());
-                        if (comment != null)
-                            positionsModel.edit(comment, index, PositionColumns.DESCRIPTION_COLUMN_INDEX, false, true);
-                        return comment != null;
+                    public String lookup(int index, BaseNavigationPosition position) throws Exception {
+                        return googleMapsService.getLocationFor(position.getLongitude(), position.getLatitude());
+                    }
+
+                    public void apply(int index, String comment) {
+                        positionsModel.edit(comment, index, PositionColumns.DESCRIPTION_COLUMN_INDEX, false, true);
                     }
 
                     public String getErrorMessage() {
                         return RouteConverter.getBundle().getString("add-postal-address-error");
                     }
 
+                    public void preRunning(ProgressMonitor progress) {
+                    }
+
                     public void postRunning() {
                     }
                 }
@@ -316,7 +401,7 @@ public class BatchPositionAugmenter {
                                final int[] rows,
                                final OverwritePredicate predicate) {
         executeOperation(positionsTable, positionsModel, rows, false, predicate,
-                new Operation() {
+                new Operation<Double>() {
                     public String getName() {
                         return "SpeedPositionAugmenter";
                     }
@@ -325,23 +410,29 @@ public class BatchPositionAugmenter {
                         return PositionColumns.SPEED_COLUMN_INDEX;
                     }
 
-                    public boolean run(int index, BaseNavigationPosition position) throws Exception {
+                    public Double lookup(int index, BaseNavigationPosition position) throws Exception {
                         BaseNavigationPosition predecessor = index > 0 && index < positionsModel.getRowCount() ? positionsModel.getPosition(index - 1) : null;
                         if (predecessor != null) {
                             Double previousSpeed = position.getSpeed();
                             Double nextSpeed = position.calculateSpeed(predecessor);
                             boolean changed = nextSpeed != null && !nextSpeed.equals(previousSpeed);
                             if (changed)
-                                positionsModel.edit(nextSpeed, index, PositionColumns.SPEED_COLUMN_INDEX, false, true);
-                            return changed;
+                                return nextSpeed;
                         }
-                        return false;
+                        return null;
+                    }
+
+                    public void apply(int index, Double speed) {
+                        positionsModel.edit(speed, index, PositionColumns.SPEED_COLUMN_INDEX, false, true);
                     }
 
                     public String getErrorMessage() {
                         return RouteConverter.getBundle().getString("add-speed-error");
                     }
 
+                    public void preRunning(ProgressMonitor progress) {
+                    }
+
                     public void postRunning() {
                     }
                 }
@@ -360,7 +451,7 @@ public class BatchPositionAugmenter {
                                 final boolean spaceBetweenNumberAndComment,
                                 final OverwritePredicate predicate) {
         executeOperation(positionsTable, positionsModel, rows, false, predicate,
-                new Operation() {
+                new Operation<String>() {
                     public String getName() {
                         return "NumberPositionAugmenter";
                     }
@@ -369,19 +460,24 @@ public class BatchPositionAugmenter {
                         return PositionColumns.DESCRIPTION_COLUMN_INDEX;
                     }
 
-                    public boolean run(int index, BaseNavigationPosition position) throws Exception {
+                    public String lookup(int index, BaseNavigationPosition position) throws Exception {
                         String previousComment = position.getComment();
                         String nextComment = RouteComments.getNumberedPosition(position, index, digitCount, spaceBetweenNumberAndComment);
                         boolean changed = nextComment != null && !nextComment.equals(previousComment);
-                        if (changed)
-                            positionsModel.edit(nextComment, index, PositionColumns.DESCRIPTION_COLUMN_INDEX, false, true);
-                        return changed;
+                        return changed ? nextComment : null;
+                    }
+
+                    public void apply(int index, String comment) {
+                        positionsModel.edit(comment, index, PositionColumns.DESCRIPTION_COLUMN_INDEX, false, true);
                     }
 
                     public String getErrorMessage() {
                         return RouteConverter.getBundle().getString("add-number-error");
                     }
 
+                    public void preRunning(ProgressMonitor progress) {
+                    }
+
                     public void postRunning() {
                     }
                 }
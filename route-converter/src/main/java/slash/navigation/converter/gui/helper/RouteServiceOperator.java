@@ -47,6 +47,10 @@ public class RouteServiceOperator {
         this.routeCatalog = routeCatalog;
     }
 
+    public RouteCatalog getRouteCatalog() {
+        return routeCatalog;
+    }
+
     public boolean showLogin() {
         LoginDialog loginDialog = new LoginDialog(routeCatalog);
         loginDialog.pack();
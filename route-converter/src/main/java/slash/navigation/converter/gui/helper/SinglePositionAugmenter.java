@@ -22,6 +22,8 @@ package slash.navigation.converter.gui.helper;
 
 import slash.common.io.CompactCalendar;
 import slash.common.io.Transfer;
+import slash.navigation.base.BaseNavigationPosition;
+import slash.navigation.base.BaseRoute;
 import slash.navigation.completer.CompletePositionService;
 import slash.navigation.converter.gui.augment.PositionAugmenter;
 import slash.navigation.converter.gui.models.PositionColumns;
@@ -30,7 +32,9 @@ import slash.navigation.util.Positions;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Logger;
@@ -38,6 +42,9 @@ import java.util.logging.Logger;
 /**
  * Helps to augment a newly created position with elevation, postal address
  * and time information.
+ * <p/>
+ * If wanted, the HGT files for the positions of an opened route are downloaded in the background,
+ * so that the elevations of the positions that are added later are found locally.
  *
  * @author Christian Pesch
  */
@@ -45,6 +52,7 @@ import java.util.logging.Logger;
 public class SinglePositionAugmenter implements PositionAugmenter {
     private static final Logger log = Logger.getLogger(SinglePositionAugmenter.class.getName());
     private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
     private CompletePositionService completePositionService = new CompletePositionService();
     private PositionsModel positionsModel;
 
@@ -53,9 +61,42 @@ public class SinglePositionAugmenter implements PositionAugmenter {
     }
 
     public void close() {
+        prefetchExecutor.shutdownNow();
         completePositionService.dispose();
     }
 
+    /**
+     * Downloads the HGT files for the positions of the given routes in the background.
+     * Must be called from the event dispatch thread since the positions are copied there.
+     *
+     * @param routes the routes whose positions are copied
+     */
+    @SuppressWarnings("unchecked")
+    public void prefetchElevations(List<BaseRoute> routes) {
+        int count = 0;
+        for (BaseRoute route : routes)
+            count += route.getPositionCount();
+        double[] longitudes = new double[count], latitudes = new double[count];
+        count = 0;
+        for (BaseRoute route : routes) {
+            for (BaseNavigationPosition position : (List<BaseNavigationPosition>) route.getPositions()) {
+                if (!position.hasCoordinates())
+                    continue;
+                longitudes[count] = position.getLongitude();
+                latitudes[count] = position.getLatitude();
+                count++;
+            }
+        }
+
+        final double[] prefetchLongitudes = Arrays.copyOf(longitudes, count);
+        final double[] prefetchLatitudes = Arrays.copyOf(latitudes, count);
+        prefetchExecutor.execute(new Runnable() {
+            public void run() {
+                completePositionService.prefetchHgtFilesFor(prefetchLongitudes, prefetchLatitudes, null);
+            }
+        });
+    }
+
     public void complementElevation(final int row, final Double longitude, final Double latitude) {
         executor.execute(new Runnable() {
             public void run() {
@@ -0,0 +1,63 @@
+/*
+    This file is part of RouteConverter.
+
+    RouteConverter is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RouteConverter is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RouteConverter; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+
+    Copyright (C) 2007 Christian Pesch. All Rights Reserved.
+*/
+
+package slash.navigation.converter.gui.helper;
+
+import slash.navigation.converter.gui.RouteConverter;
+import slash.navigation.rest.ProgressListener;
+
+import javax.swing.*;
+import java.awt.*;
+import java.text.MessageFormat;
+
+/**
+ * Shows the progress of an upload in a {@link ProgressMonitor}.
+ *
+ * @author Christian Pesch
+ */
+
+public class UploadProgressListener implements ProgressListener {
+    private final ProgressMonitor progress;
+
+    public UploadProgressListener(Component parent) {
+        progress = new ProgressMonitor(parent, "", RouteConverter.getBundle().getString("progress-started"), 0, 100);
+    }
+
+    public void progress(long sent, long total) {
+        // the length of streamed payloads is unknown
+        if (total <= 0)
+            return;
+        final int percent = (int) Math.min(sent * 100 / total, 100);
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                progress.setNote(MessageFormat.format(RouteConverter.getBundle().getString("progress-uploading"), percent));
+                progress.setProgress(percent);
+            }
+        });
+    }
+
+    public void close() {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                progress.close();
+            }
+        });
+    }
+}
@@ -162,6 +162,10 @@ public class PositionsModelImpl extends AbstractTableModel implements PositionsM
         return getRoute().getPositionsWithinDistanceToPredecessor(distance);
     }
 
+    public int[] getDuplicatePositions(double distance) {
+        return getRoute().getDuplicatePositions(distance);
+    }
+
     public int[] getInsignificantPositions(double threshold) {
         return getRoute().getInsignificantPositions(threshold);
     }
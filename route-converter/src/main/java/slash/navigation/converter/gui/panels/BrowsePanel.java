@@ -185,6 +185,9 @@ public abstract class BrowsePanel {
                     return;
 
                 Route route = getRoutesListModel().getRoute(selectedRows[0]);
+                // the page of the route is read and the selection is repeated then
+                if (route == null)
+                    return;
                 URL url;
                 try {
                     url = route.getUrl();
@@ -445,6 +448,8 @@ public abstract class BrowsePanel {
             return;
 
         final Route selected = getRoutesListModel().getRoute(selectedRow);
+        if (selected == null)
+            return;
         String description = null;
         try {
             description = (String) JOptionPane.showInputDialog(RouteConverter.getInstance().getFrame(),
@@ -474,10 +479,17 @@ public abstract class BrowsePanel {
         if (category == null)
             return;
 
+        // the routes list model is accessed on the event dispatch thread only
+        final List<Route> routes = new ArrayList<Route>();
+        for (int selectedRow : selectedRows) {
+            Route route = getRoutesListModel().getRoute(selectedRow);
+            if (route != null)
+                routes.add(route);
+        }
+
         operator.executeOnRouteService(new RouteServiceOperator.Operation() {
             public void run() throws IOException {
-                for (int selectedRow : selectedRows) {
-                    Route route = getRoutesListModel().getRoute(selectedRow);
+                for (Route route : routes) {
                     // strange way to handle cache invalidations
                     category.deleteRoute(route);
                 }
@@ -516,7 +528,8 @@ public abstract class BrowsePanel {
             List<Route> selectedRoutes = new ArrayList<Route>();
             for (int selectedRow : selectedRows) {
                 Route route = getRoutesListModel().getRoute(selectedRow);
-                selectedRoutes.add(route);
+                if (route != null)
+                    selectedRoutes.add(route);
             }
             return new RouteSelection(selectedRoutes);
         }
@@ -423,6 +423,7 @@ public abstract class ConvertPanel {
                         SwingUtilities.invokeLater(new Runnable() {
                             public void run() {
                                 formatAndRoutesModel.setRoutes(new FormatAndRoutes(parser.getFormat(), parser.getAllRoutes()));
+                                r.prefetchElevations(parser.getAllRoutes());
                                 comboBoxChoosePositionList.setModel(formatAndRoutesModel);
                                 urlModel.setString(path);
                                 recentUrlsModel.addUrl(url);
@@ -892,6 +893,12 @@ public abstract class ConvertPanel {
         return indices.length;
     }
 
+    public int selectDuplicatePositions(int distance) {
+        int[] indices = getPositionsModel().getDuplicatePositions(distance);
+        selectPositions(indices);
+        return indices.length;
+    }
+
     public int[] selectAllButEveryNthPosition(int order) {
         int rowCount = getPositionsModel().getRowCount();
         int[] indices = Range.allButEveryNthAndFirstAndLast(rowCount, order);
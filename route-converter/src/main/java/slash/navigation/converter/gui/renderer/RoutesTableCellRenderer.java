@@ -38,6 +38,11 @@ public class RoutesTableCellRenderer extends AlternatingColorTableCellRenderer {
     public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int rowIndex, int columnIndex) {
         JLabel label = (JLabel) super.getTableCellRendererComponent(table, value, isSelected, hasFocus, rowIndex, columnIndex);
         Route route = (Route) value;
+        // the page of the route is read in the background
+        if (route == null) {
+            label.setText(RouteConverter.getBundle().getString("loading"));
+            return label;
+        }
         switch (columnIndex) {
             case 0:
                 try {
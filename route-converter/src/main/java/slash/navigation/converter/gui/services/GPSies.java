@@ -57,7 +57,7 @@ public class GPSies implements RouteService {
         post.addString("startpointCountry", "DE");
         post.addString("endpointCountry", "DE");
         post.addString("uploadButton", "speichern");
-        post.addFile("formFile", UploadHelper.toFile(url));
+        UploadHelper.addFile(post, "formFile", url);
         post.addString("status", "3"); // 1=public, 3=private
         // post.addString("websiteUrl", url); has to be a valid URL
         String result = post.execute();
@@ -47,7 +47,7 @@ public class OpenStreetMap implements RouteService {
     public void upload(String username, String password, String url, String name, String description) throws IOException {
         Post post = new Post("http://www.openstreetmap.org/api/0.6/gpx/create");
         post.setAuthentication(username, password, "www.openstreetmap.org", "BASIC");
-        post.addFile("file", UploadHelper.toFile(url));
+        UploadHelper.addFile(post, "file", url);
         // TODO use FilePart, missing: Content-Disposition: form-data; name=" + name + "; filename=" + gpxFile.getName() + "
         // OutputStream baos = UploadHelper.parseUrlToGpx(url);
         // post.addString("file", baos.toString());
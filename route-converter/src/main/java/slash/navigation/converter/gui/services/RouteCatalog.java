@@ -20,6 +20,8 @@
 
 package slash.navigation.converter.gui.services;
 
+import slash.navigation.rest.ProgressListener;
+
 import java.io.IOException;
 
 /**
@@ -36,6 +38,10 @@ public class RouteCatalog implements RouteService {
         return "RouteCatalog";
     }
 
+    public void setUploadListener(ProgressListener uploadListener) {
+        routeCatalog.setUploadListener(uploadListener);
+    }
+
     public boolean isOriginOf(String url) {
         return url.startsWith("http://www.routeconverter.com/catalog/");
     }
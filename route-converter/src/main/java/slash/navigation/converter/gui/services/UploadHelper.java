@@ -24,11 +24,10 @@ import slash.common.io.Files;
 import slash.common.io.InputOutput;
 import slash.navigation.base.NavigationFileParser;
 import slash.navigation.gpx.Gpx10Format;
+import slash.navigation.rest.Payload;
+import slash.navigation.rest.Post;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.URL;
 import java.util.List;
 
@@ -52,11 +51,20 @@ public class UploadHelper {
         return baos;
     }
 
-    public static File toFile(String url) throws IOException {
+    public static void addFile(Post post, String name, String url) throws IOException {
         File file = new File(url);
-        if(file.exists())
-            return file;
-        byte[] bytes = InputOutput.readBytes(new URL(url));
-        return Files.writeToTempFile(bytes);
+        if (file.exists()) {
+            post.addFile(name, file);
+            return;
+        }
+
+        // stream from the url while uploading instead of copying it to a temporary file first
+        final URL source = new URL(url);
+        String path = source.getPath();
+        post.addPayload(name, path.substring(path.lastIndexOf('/') + 1), new Payload() {
+            public void write(OutputStream out) throws IOException {
+                InputOutput.copy(source.openStream(), out);
+            }
+        });
     }
 }
@@ -111,6 +111,10 @@ public class UndoPositionsModel implements PositionsModel {
         return delegate.getPositionsWithinDistanceToPredecessor(distance);
     }
 
+    public int[] getDuplicatePositions(double distance) {
+        return delegate.getDuplicatePositions(distance);
+    }
+
     public int[] getInsignificantPositions(double threshold) {
         return delegate.getInsignificantPositions(threshold);
     }